@@ -16,19 +16,42 @@
  package com.alibaba.cobar.client;
 
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.springframework.dao.DataAccessException;
 import org.springframework.orm.ibatis.SqlMapClientCallback;
 import org.springframework.orm.ibatis.support.SqlMapClientDaoSupport;
 
+import com.alibaba.cobar.client.exception.BatchPartiallyFailedException;
+import com.alibaba.cobar.client.support.execution.ShardSet;
+import com.alibaba.cobar.client.support.utils.MapUtils;
 import com.ibatis.sqlmap.client.SqlMapExecutor;
+import com.ibatis.sqlmap.engine.execution.BatchException;
+import com.ibatis.sqlmap.engine.execution.BatchResult;
 
 /**
  * A DAO base class definition which adds more helper methods on batch
  * operations.<br>
  * Users can configure their DAO implementations with same configuration items
  * of {@link CobarSqlMapClientTemplate}.<br>
+ * when partitioning is enabled, the entities are executed one by one with the
+ * template by default, a failed entity doesn't stop the others, and the last
+ * failure is thrown after all of them are tried.<br>
+ * with {@link #setShardGroupedBatchEnabled(boolean)}, the entities are
+ * grouped by their target data sources in one pass instead, see
+ * {@link CobarSqlMapClientTemplate#groupByShardSet(String, Collection)}, and
+ * each group is executed in one callback on each of its data sources, the
+ * entities which match no rule go to the default data source.<br>
+ * updates and deletes of a group are executed as a jdbc batch, while inserts
+ * are executed one by one, since the keys generated with "selectKey" can't be
+ * read back from a jdbc batch; the statements with a
+ * {@link com.alibaba.cobar.client.router.support.ShardKeySplitter} are still
+ * executed one entity by one entity.<br>
  * <br>
  * Feature requested by Yao Ming.
  * 
@@ -37,23 +60,12 @@ import com.ibatis.sqlmap.client.SqlMapExecutor;
  */
 public class CobarSqlMapClientDaoSupport extends SqlMapClientDaoSupport {
 
+    private boolean shardGroupedBatchEnabled = false;
+
     public int batchInsert(final String statementName, final Collection<?> entities)
             throws DataAccessException {
         if (isPartitionBehaviorEnabled()) {
-            int counter = 0;
-            DataAccessException lastEx = null;
-            for (Object parameterObject : entities) {
-                try {
-                    getSqlMapClientTemplate().insert(statementName, parameterObject);
-                    counter++;
-                } catch (DataAccessException e) {
-                    lastEx = e;
-                }
-            }
-            if (lastEx != null) {
-                throw lastEx;
-            }
-            return counter;
+            return executeInBatchesByShards(statementName, entities, BatchAction.INSERT);
         } else {
             return (Integer) getSqlMapClientTemplate().execute(new SqlMapClientCallback() {
                 public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
@@ -70,19 +82,7 @@ public class CobarSqlMapClientDaoSupport extends SqlMapClientDaoSupport {
     public int batchDelete(final String statementName, final Collection<?> entities)
             throws DataAccessException {
         if (isPartitionBehaviorEnabled()) {
-            int counter = 0;
-            DataAccessException lastEx = null;
-            for (Object entity : entities) {
-                try {
-                    counter += getSqlMapClientTemplate().delete(statementName, entity);
-                } catch (DataAccessException e) {
-                    lastEx = e;
-                }
-            }
-            if (lastEx != null) {
-                throw lastEx;
-            }
-            return counter;
+            return executeInBatchesByShards(statementName, entities, BatchAction.DELETE);
         } else {
             return (Integer) getSqlMapClientTemplate().execute(new SqlMapClientCallback() {
                 public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
@@ -99,19 +99,7 @@ public class CobarSqlMapClientDaoSupport extends SqlMapClientDaoSupport {
     public int batchUpdate(final String statementName, final Collection<?> entities)
             throws DataAccessException {
         if (isPartitionBehaviorEnabled()) {
-            int counter = 0;
-            DataAccessException lastEx = null;
-            for (Object parameterObject : entities) {
-                try {
-                    counter += getSqlMapClientTemplate().update(statementName, parameterObject);
-                } catch (DataAccessException e) {
-                    lastEx = e;
-                }
-            }
-            if (lastEx != null) {
-                throw lastEx;
-            }
-            return counter;
+            return executeInBatchesByShards(statementName, entities, BatchAction.UPDATE);
         } else {
             return (Integer) getSqlMapClientTemplate().execute(new SqlMapClientCallback() {
 
@@ -126,6 +114,136 @@ public class CobarSqlMapClientDaoSupport extends SqlMapClientDaoSupport {
         }
     }
 
+    private int executeInBatchesByShards(final String statementName,
+                                         final Collection<?> entities, final BatchAction action) {
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        if (!isShardGroupedBatchEnabled()
+                || (MapUtils.isNotEmpty(template.getShardKeySplitters()) && template
+                        .getShardKeySplitters().containsKey(statementName))) {
+            return executeOneByOne(template, statementName, entities, action);
+        }
+        return executeInGroups(template, statementName, entities, action);
+    }
+
+    /**
+     * a failed group doesn't stop the others, after all of the groups are
+     * tried, a {@link BatchPartiallyFailedException} is thrown with the last
+     * failure, and the count of the entities or rows which were done before
+     * their group failed, or in the groups which succeeded.<br>
+     * the groups are executed with
+     * {@link CobarSqlMapClientTemplate#executeBatch(String, Collection, ShardSet, SqlMapClientCallback, List)}
+     * , so they are audited and profiled as the statements of the template
+     * are.<br>
+     * 
+     * @return the number of inserted entities for inserts, or the number of
+     *         affected rows for updates and deletes.
+     */
+    private int executeInGroups(CobarSqlMapClientTemplate template, final String statementName,
+                                Collection<?> entities, final BatchAction action) {
+        final AtomicInteger counter = new AtomicInteger();
+        DataAccessException lastEx = null;
+        for (Map.Entry<ShardSet, List<Object>> group : template.groupByShardSet(statementName,
+                entities).entrySet()) {
+            final List<Object> parameterObjects = group.getValue();
+            SqlMapClientCallback callback = new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    if (!action.isBatchable()) {
+                        for (Object parameterObject : parameterObjects) {
+                            action.add(executor, statementName, parameterObject);
+                            counter.incrementAndGet();
+                        }
+                        return null;
+                    }
+                    executor.startBatch();
+                    for (Object parameterObject : parameterObjects) {
+                        action.add(executor, statementName, parameterObject);
+                    }
+                    try {
+                        counter.addAndGet(rowsOf(executor.executeBatchDetailed()));
+                    } catch (BatchException e) {
+                        // the statements executed before the failure are counted as well.
+                        counter.addAndGet(rowsOf(e.getSuccessfulBatchResults()));
+                        counter.addAndGet(rowsOf(e.getBatchUpdateException().getUpdateCounts()));
+                        throw e.getBatchUpdateException();
+                    }
+                    return null;
+                }
+            };
+            try {
+                template.executeBatch(statementName, parameterObjects, group.getKey(), callback,
+                        new ArrayList<Object>());
+            } catch (DataAccessException e) {
+                lastEx = e;
+            }
+        }
+        if (lastEx != null) {
+            throw new BatchPartiallyFailedException("batch of statement:" + statementName
+                    + " partially failed, " + counter.get() + " done before the failure.",
+                    counter.get(), lastEx);
+        }
+        return counter.get();
+    }
+
+    private int executeOneByOne(CobarSqlMapClientTemplate template, String statementName,
+                                Collection<?> entities, BatchAction action) {
+        int counter = 0;
+        DataAccessException lastEx = null;
+        for (Object parameterObject : entities) {
+            try {
+                counter += action.execute(template, statementName, parameterObject);
+            } catch (DataAccessException e) {
+                lastEx = e;
+            }
+        }
+        if (lastEx != null) {
+            throw lastEx;
+        }
+        return counter;
+    }
+
+    private static int rowsOf(List<?> batchResults) {
+        int rows = 0;
+        for (Object batchResult : batchResults) {
+            rows += rowsOf(((BatchResult) batchResult).getUpdateCounts());
+        }
+        return rows;
+    }
+
+    /**
+     * the statements which succeeded without a row count, as some drivers
+     * report them, are counted as one row each.<br>
+     */
+    static int rowsOf(int[] updateCounts) {
+        int rows = 0;
+        if (updateCounts == null) {
+            return rows;
+        }
+        for (int updateCount : updateCounts) {
+            if (updateCount == Statement.SUCCESS_NO_INFO) {
+                rows++;
+            } else if (updateCount > 0) {
+                rows += updateCount;
+            }
+        }
+        return rows;
+    }
+
+    public boolean isShardGroupedBatchEnabled() {
+        return shardGroupedBatchEnabled;
+    }
+
+    /**
+     * when enabled, the entities of a batch operation are grouped by their
+     * target data sources and each group is executed in one callback, a failed
+     * entity then stops the rest of its group, and a
+     * {@link BatchPartiallyFailedException} is thrown after all of the groups
+     * are tried.<br>
+     * disabled by default, the entities are executed one by one then.<br>
+     */
+    public void setShardGroupedBatchEnabled(boolean shardGroupedBatchEnabled) {
+        this.shardGroupedBatchEnabled = shardGroupedBatchEnabled;
+    }
+
     protected boolean isPartitionBehaviorEnabled() {
         if (getSqlMapClientTemplate() instanceof CobarSqlMapClientTemplate) {
             return ((CobarSqlMapClientTemplate) getSqlMapClientTemplate())
@@ -133,4 +251,66 @@ public class CobarSqlMapClientDaoSupport extends SqlMapClientDaoSupport {
         }
         return false;
     }
+
+    private static abstract class BatchAction {
+        static final BatchAction INSERT = new BatchAction() {
+                                            boolean isBatchable() {
+                                                return false;
+                                            }
+
+                                            void add(SqlMapExecutor executor,
+                                                          String statementName,
+                                                          Object parameterObject)
+                                                    throws SQLException {
+                                                executor.insert(statementName, parameterObject);
+                                            }
+
+                                            int execute(CobarSqlMapClientTemplate template,
+                                                        String statementName,
+                                                        Object parameterObject) {
+                                                template.insert(statementName, parameterObject);
+                                                return 1;
+                                            }
+                                        };
+        static final BatchAction UPDATE = new BatchAction() {
+                                            void add(SqlMapExecutor executor,
+                                                          String statementName,
+                                                          Object parameterObject)
+                                                    throws SQLException {
+                                                executor.update(statementName, parameterObject);
+                                            }
+
+                                            int execute(CobarSqlMapClientTemplate template,
+                                                        String statementName,
+                                                        Object parameterObject) {
+                                                return template.update(statementName,
+                                                        parameterObject);
+                                            }
+                                        };
+        static final BatchAction DELETE = new BatchAction() {
+                                            void add(SqlMapExecutor executor,
+                                                          String statementName,
+                                                          Object parameterObject)
+                                                    throws SQLException {
+                                                executor.delete(statementName, parameterObject);
+                                            }
+
+                                            int execute(CobarSqlMapClientTemplate template,
+                                                        String statementName,
+                                                        Object parameterObject) {
+                                                return template.delete(statementName,
+                                                        parameterObject);
+                                            }
+                                        };
+
+        boolean isBatchable() {
+            return true;
+        }
+
+        abstract void add(SqlMapExecutor executor, String statementName,
+                               Object parameterObject) throws SQLException;
+
+        abstract int execute(CobarSqlMapClientTemplate template, String statementName,
+                             Object parameterObject);
+    }
 }
@@ -19,31 +19,29 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
-import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.CannotGetJdbcConnectionException;
@@ -53,22 +51,45 @@ import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import org.springframework.orm.ibatis.SqlMapClientCallback;
 import org.springframework.orm.ibatis.SqlMapClientTemplate;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.alibaba.cobar.client.audit.ISqlAuditor;
 import com.alibaba.cobar.client.datasources.CobarDataSourceDescriptor;
 import com.alibaba.cobar.client.datasources.ICobarDataSourceService;
+import com.alibaba.cobar.client.exception.QueryDeadlineExceededException;
 import com.alibaba.cobar.client.exception.UncategorizedCobarClientException;
 import com.alibaba.cobar.client.merger.IMerger;
+import com.alibaba.cobar.client.router.IBatchRouter;
 import com.alibaba.cobar.client.router.ICobarRouter;
+import com.alibaba.cobar.client.router.IExplainableRouter;
+import com.alibaba.cobar.client.router.IRoutingRuleReloadListener;
+import com.alibaba.cobar.client.router.IStatementClassifier;
+import com.alibaba.cobar.client.router.ReloadableCobarRouter;
+import com.alibaba.cobar.client.router.RoutingException;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+import com.alibaba.cobar.client.router.support.RoutingHint;
+import com.alibaba.cobar.client.router.support.ShardKeySplitter;
+import com.alibaba.cobar.client.router.support.StatementClassification;
+import com.alibaba.cobar.client.support.StripedCounter;
 import com.alibaba.cobar.client.support.execution.ConcurrentRequest;
+import com.alibaba.cobar.client.support.execution.Deadline;
+import com.alibaba.cobar.client.support.execution.DeadlineConnectionProxy;
 import com.alibaba.cobar.client.support.execution.DefaultConcurrentRequestProcessor;
 import com.alibaba.cobar.client.support.execution.IConcurrentRequestProcessor;
+import com.alibaba.cobar.client.support.execution.MergingFuture;
+import com.alibaba.cobar.client.support.execution.PartialResultList;
+import com.alibaba.cobar.client.support.execution.PartialResultStatus;
+import com.alibaba.cobar.client.support.execution.RequestOutcome;
+import com.alibaba.cobar.client.support.execution.RequestTrace;
+import com.alibaba.cobar.client.support.execution.ShardSet;
+import com.alibaba.cobar.client.support.execution.ShardSetRegistry;
+import com.alibaba.cobar.client.support.execution.StatementExplanation;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
 import com.alibaba.cobar.client.support.utils.MapUtils;
 import com.alibaba.cobar.client.support.utils.Predicate;
 import com.alibaba.cobar.client.support.vo.BatchInsertTask;
-import com.alibaba.cobar.client.support.vo.CobarMRBase;
 import com.alibaba.cobar.client.transaction.MultipleDataSourcesTransactionManager;
 import com.ibatis.common.util.PaginatedList;
 import com.ibatis.sqlmap.client.SqlMapExecutor;
@@ -111,6 +132,14 @@ import com.ibatis.sqlmap.engine.mapping.sql.stat.StaticSql;
  * bound to thread local before. If we process CUD in concurrency, the contract
  * between spring's transaction manager and data access code can't be
  * guaranteed.<br>
+ * to find out why a statement fans out, or where the time of a query goes,
+ * see {@link #explain(String, Object)} and
+ * {@link #explainQueryForList(String, Object)}.<br>
+ * to run independent statements at the same time, see the asynchronous
+ * variants like {@link #queryForListAsync(String, Object)}.<br>
+ * call sites which already know the shard can tell the template with a
+ * {@link RoutingHint}, the hints applied are counted per type, see
+ * {@link #getRoutingHintCount(RoutingHint.Type)}.<br>
  * 
  * @author fujohnwang
  * @since 1.0
@@ -167,8 +196,21 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
      * timeout threshold to indicate how long the concurrent data access request
      * should time out.<br>
      * time unit in milliseconds.<br>
+     * it's the deadline of the requests a statement is split into, each of
+     * them gets the remaining budget as the query timeout of its statements,
+     * and the ones not done by the deadline are cancelled, see
+     * {@link DefaultConcurrentRequestProcessor}; 0 or less means no
+     * deadline.<br>
      */
-    private int                                  defaultQueryTimeout             = 100;
+    private int                                  defaultQueryTimeout             = 0;
+    /**
+     * how long to wait for each shard of a statement executed with partial
+     * results, in milliseconds, the shards not done by then are left out of
+     * the results, see
+     * {@link #queryForListWithPartialResults(String, Object)}.<br>
+     * the {@link #defaultQueryTimeout} still applies if it's shorter.<br>
+     */
+    private int                                  partialResultsShardTimeout      = 1000;
     /**
      * indicator to indicate whether to log/profile long-time-running SQL
      */
@@ -184,16 +226,74 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
      */
     private Map<String, IMerger<Object, Object>> mergers                         = new HashMap<String, IMerger<Object, Object>>();
 
+    /**
+     * for the queries taking a collection of shard keys, like "WHERE member_id
+     * IN (...)", a {@link ShardKeySplitter} can be registered with the sql
+     * action, then each data source will only be queried with its own keys,
+     * instead of all of the keys being sent to every data source the whole
+     * parameter is routed to.<br>
+     * it applies to queryForList, queryForMap and queryWithRowHandler.<br>
+     */
+    private Map<String, ShardKeySplitter>        shardKeySplitters               = new HashMap<String, ShardKeySplitter>();
+
+    /**
+     * the data sources of the statements whose routing doesn't depend on
+     * their parameters, keyed by statement id, they are planned once with an
+     * {@link IStatementClassifier} router, so requests on them skip rule
+     * evaluation, see {@link #refreshStatementPlans()}.<br>
+     */
+    private volatile Map<String, StatementPlan>  statementPlans                  = new HashMap<String, StatementPlan>();
+    /**
+     * plans the statements again after the rules of a
+     * {@link ReloadableCobarRouter} are reloaded.
+     */
+    private final IRoutingRuleReloadListener     statementPlansRefresher         = new IRoutingRuleReloadListener() {
+                                                                                     public void onRulesReloaded(
+                                                                                                                 ReloadableCobarRouter router,
+                                                                                                                 Set<String> changedScopes) {
+                                                                                         refreshStatementPlans();
+                                                                                     }
+                                                                                 };
+    /**
+     * interns the data sources and executors of routing results, created on
+     * first use.
+     */
+    private volatile ShardSetRegistry            shardSetRegistry;
+    /**
+     * how many statements are routed with routing hints, indexed by the
+     * ordinals of the hint types.
+     */
+    private final StripedCounter[]               routingHintCounters             = newRoutingHintCounters();
+    /**
+     * whether a subclass overrides the data source lookups, the routing then
+     * goes through them instead of the interned shard sets alone.
+     */
+    private final boolean                        dataSourcesByRouterOverridden   = isOverridden(
+                                                                                         "lookupDataSourcesByRouter",
+                                                                                         String.class,
+                                                                                         Object.class);
+    private final boolean                        dataSourcesOverridden           = isOverridden(
+                                                                                         "lookupDataSources",
+                                                                                         Collection.class);
+
     /**
      * NOTE: don't use this method for distributed data access.<br>
      * If you are sure that the data access operations will be distributed in a
      * database cluster in the future or even it happens just now, don't use
      * this method, because we can't get enough context information to route
-     * these data access operations correctly.
+     * these data access operations correctly.<br>
+     * the statements of the action get the deadline of
+     * {@link #defaultQueryTimeout} if there's one, and so do the statements
+     * which fall back to the default data source, since they are all executed
+     * with this method.
      */
     @Override
     public Object execute(SqlMapClientCallback action) throws DataAccessException {
-        return super.execute(action);
+        Deadline deadline = newDeadline();
+        if (deadline == null) {
+            return super.execute(action);
+        }
+        return executeWith(getDataSource(), action, deadline);
     }
 
     /**
@@ -240,9 +340,8 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
-                SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName,
-                        parameterObject);
-                if (!MapUtils.isEmpty(dsMap)) {
+                ShardSet shardSet = lookupShardSetByRouter(statementName, parameterObject);
+                if (!shardSet.isEmpty()) {
 
                     SqlMapClientCallback action = new SqlMapClientCallback() {
                         public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
@@ -250,11 +349,11 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
                         }
                     };
 
-                    if (dsMap.size() == 1) {
-                        DataSource dataSource = dsMap.get(dsMap.firstKey());
-                        return (Integer) executeWith(dataSource, action);
+                    if (shardSet.size() == 1) {
+                        return (Integer) executeWith(shardSet.getDataSource(0), action,
+                                newDeadline());
                     } else {
-                        List<Object> results = executeInConcurrency(action, dsMap);
+                        List<Object> results = executeInConcurrency(action, shardSet);
                         Integer rowAffacted = 0;
                         for (Object item : results) {
                             rowAffacted += (Integer) item;
@@ -335,16 +434,15 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
                             return executor.insert(statementName, parameterObject);
                         }
                     };
-                    SortedMap<String, DataSource> resultDataSources = lookupDataSourcesByRouter(
-                            statementName, parameterObject);
-                    if (MapUtils.isEmpty(resultDataSources) || resultDataSources.size() == 1) {
+                    ShardSet shardSet = lookupShardSetByRouter(statementName, parameterObject);
+                    if (shardSet.size() <= 1) {
                         targetDataSource = getSqlMapClient().getDataSource(); // fall back to default data source.
-                        if (resultDataSources.size() == 1) {
-                            targetDataSource = resultDataSources.values().iterator().next();
+                        if (shardSet.size() == 1) {
+                            targetDataSource = shardSet.getDataSource(0);
                         }
-                        return executeWith(targetDataSource, action);
+                        return executeWith(targetDataSource, action, newDeadline());
                     } else {
-                        return executeInConcurrency(action, resultDataSources);
+                        return executeInConcurrency(action, shardSet);
                     }
                 }
 
@@ -364,9 +462,9 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
     }
 
     /**
-     * we reorder the collection of entities in concurrency and commit them in
-     * sequence, because we have to conform to the infrastructure of spring's
-     * transaction management layer.
+     * we group the collection of entities by their target data sources in one
+     * pass and commit each group in sequence, because we have to conform to
+     * the infrastructure of spring's transaction management layer.
      * 
      * @param statementName
      * @param parameterObject
@@ -374,71 +472,38 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
      */
     private Object batchInsertAfterReordering(final String statementName,
                                               final Object parameterObject) {
-        Set<String> keys = new HashSet<String>();
-        keys.add(getDefaultDataSourceName());
-        keys.addAll(getCobarDataSourceService().getDataSources().keySet());
-
-        final CobarMRBase mrbase = new CobarMRBase(keys);
-
-        ExecutorService executor = createCustomExecutorService(Runtime.getRuntime()
-                .availableProcessors(), "batchInsertAfterReordering");
-        try {
-            final StringBuffer exceptionStaktrace = new StringBuffer();
-
-            Collection<?> paramCollection = ((BatchInsertTask) parameterObject).getEntities();
-
-            final CountDownLatch latch = new CountDownLatch(paramCollection.size());
-
-            Iterator<?> iter = paramCollection.iterator();
-            while (iter.hasNext()) {
-                final Object entity = iter.next();
-                Runnable task = new Runnable() {
-                    public void run() {
-                        try {
-                            SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(
-                                    statementName, entity);
-                            if (MapUtils.isEmpty(dsMap)) {
-                                logger
-                                        .info(
-                                                "can't find routing rule for {} with parameter {}, so use default data source for it.",
-                                                statementName, entity);
-                                mrbase.emit(getDefaultDataSourceName(), entity);
-                            } else {
-                                if (dsMap.size() > 1) {
-                                    throw new IllegalArgumentException(
-                                            "unexpected routing result, found more than 1 target data source for current entity:"
-                                                    + entity);
-                                }
-                                mrbase.emit(dsMap.firstKey(), entity);
-                            }
-                        } catch (Throwable t) {
-                            exceptionStaktrace.append(ExceptionUtils.getFullStackTrace(t));
-                        } finally {
-                            latch.countDown();
-                        }
-                    }
-                };
-                executor.execute(task);
-            }
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                throw new ConcurrencyFailureException(
-                        "unexpected interruption when re-arranging parameter collection into sub-collections ",
-                        e);
+        Collection<?> paramCollection = ((BatchInsertTask) parameterObject).getEntities();
+
+        Map<String, List<Object>> entitiesByDataSource = new LinkedHashMap<String, List<Object>>();
+        for (Map.Entry<ShardSet, List<Object>> group : groupByShardSet(statementName,
+                paramCollection).entrySet()) {
+            ShardSet shardSet = group.getKey();
+            String identity = null;
+            if (shardSet.isEmpty()) {
+                logger
+                        .info(
+                                "can't find routing rule for {} with {} of the entities, so use default data source for them.",
+                                statementName, group.getValue().size());
+                identity = getDefaultDataSourceName();
+            } else {
+                if (shardSet.size() > 1) {
+                    throw new IllegalArgumentException(
+                            "unexpected routing result, found more than 1 target data source for entities:"
+                                    + group.getValue());
+                }
+                identity = shardSet.getName(0);
             }
-
-            if (exceptionStaktrace.length() > 0) {
-                throw new ConcurrencyFailureException(
-                        "unpected exception when re-arranging parameter collection, check previous log for details.\n"
-                                + exceptionStaktrace);
+            List<Object> entities = entitiesByDataSource.get(identity);
+            if (entities == null) {
+                entitiesByDataSource.put(identity, group.getValue());
+            } else {
+                entities.addAll(group.getValue());
             }
-        } finally {
-            executor.shutdown();
         }
 
         List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
-        for (Map.Entry<String, List<Object>> entity : mrbase.getResources().entrySet()) {
+        Deadline deadline = newDeadline();
+        for (Map.Entry<String, List<Object>> entity : entitiesByDataSource.entrySet()) {
             final List<Object> paramList = entity.getValue();
             if (CollectionUtils.isEmpty(paramList)) {
                 continue;
@@ -458,6 +523,7 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
             request.setDataSource(dataSourceToUse);
             request.setAction(callback);
             request.setExecutor(getDataSourceSpecificExecutors().get(identity));
+            request.setDeadline(deadline);
             requests.add(request);
         }
         return getConcurrentRequestProcessor().process(requests);
@@ -493,41 +559,21 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
-                SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName,
+                SortedMap<String, Object> shardParameters = splitParameterByShards(statementName,
                         parameterObject);
-                if (!MapUtils.isEmpty(dsMap)) {
-                    SqlMapClientCallback callback = null;
-                    if (skipResults == null || maxResults == null) {
-                        callback = new SqlMapClientCallback() {
-                            public Object doInSqlMapClient(SqlMapExecutor executor)
-                                    throws SQLException {
-                                return executor.queryForList(statementName, parameterObject);
-                            }
-                        };
-                    } else {
-                        callback = new SqlMapClientCallback() {
-                            public Object doInSqlMapClient(SqlMapExecutor executor)
-                                    throws SQLException {
-                                return executor.queryForList(statementName, parameterObject,
-                                        skipResults, maxResults);
-                            }
-                        };
-                    }
-
-                    List<Object> originalResultList = executeInConcurrency(callback, dsMap);
-                    if (MapUtils.isNotEmpty(getMergers())
-                            && getMergers().containsKey(statementName)) {
-                        IMerger<Object, Object> merger = getMergers().get(statementName);
-                        if (merger != null) {
-                            return (List) merger.merge(originalResultList);
-                        }
+                ShardSet shardSet = (shardParameters == null) ? lookupShardSetByRouter(
+                        statementName, parameterObject) : lookupShardSet(shardParameters
+                        .keySet());
+                if (!shardSet.isEmpty()) {
+                    Map<String, SqlMapClientCallback> callbacks = new HashMap<String, SqlMapClientCallback>();
+                    for (String dsName : shardSet.getNames()) {
+                        callbacks.put(dsName, createQueryForListCallback(statementName,
+                                parameterOf(dsName, shardParameters, parameterObject),
+                                skipResults, maxResults));
                     }
 
-                    List<Object> resultList = new ArrayList<Object>();
-                    for (Object item : originalResultList) {
-                        resultList.addAll((List) item);
-                    }
-                    return resultList;
+                    List<Object> originalResultList = executeInConcurrency(callbacks, shardSet);
+                    return mergeQueryForListResults(statementName, originalResultList);
                 }
             } // end if for partitioning status checking
             if (skipResults == null || maxResults == null) {
@@ -548,6 +594,42 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private List mergeQueryForListResults(String statementName, List<Object> originalResultList) {
+        if (MapUtils.isNotEmpty(getMergers()) && getMergers().containsKey(statementName)) {
+            IMerger<Object, Object> merger = getMergers().get(statementName);
+            if (merger != null) {
+                return (List) merger.merge(originalResultList);
+            }
+        }
+
+        List<Object> resultList = new ArrayList<Object>();
+        for (Object item : originalResultList) {
+            resultList.addAll((List) item);
+        }
+        return resultList;
+    }
+
+    private SqlMapClientCallback createQueryForListCallback(final String statementName,
+                                                            final Object parameterObject,
+                                                            final Integer skipResults,
+                                                            final Integer maxResults) {
+        if (skipResults == null || maxResults == null) {
+            return new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    return executor.queryForList(statementName, parameterObject);
+                }
+            };
+        } else {
+            return new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    return executor.queryForList(statementName, parameterObject, skipResults,
+                            maxResults);
+                }
+            };
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public List queryForList(final String statementName, final Object parameterObject,
@@ -579,29 +661,20 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
-                SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName,
+                SortedMap<String, Object> shardParameters = splitParameterByShards(statementName,
                         parameterObject);
-                if (!MapUtils.isEmpty(dsMap)) {
-                    SqlMapClientCallback callback = null;
-                    if (valueProperty != null) {
-                        callback = new SqlMapClientCallback() {
-                            public Object doInSqlMapClient(SqlMapExecutor executor)
-                                    throws SQLException {
-                                return executor.queryForMap(statementName, parameterObject,
-                                        keyProperty, valueProperty);
-                            }
-                        };
-                    } else {
-                        callback = new SqlMapClientCallback() {
-                            public Object doInSqlMapClient(SqlMapExecutor executor)
-                                    throws SQLException {
-                                return executor.queryForMap(statementName, parameterObject,
-                                        keyProperty);
-                            }
-                        };
+                ShardSet shardSet = (shardParameters == null) ? lookupShardSetByRouter(
+                        statementName, parameterObject) : lookupShardSet(shardParameters
+                        .keySet());
+                if (!shardSet.isEmpty()) {
+                    Map<String, SqlMapClientCallback> callbacks = new HashMap<String, SqlMapClientCallback>();
+                    for (String dsName : shardSet.getNames()) {
+                        callbacks.put(dsName, createQueryForMapCallback(statementName, parameterOf(
+                                dsName, shardParameters, parameterObject), keyProperty,
+                                valueProperty));
                     }
 
-                    List<Object> originalResults = executeInConcurrency(callback, dsMap);
+                    List<Object> originalResults = executeInConcurrency(callbacks, shardSet);
                     Map<Object, Object> resultMap = new HashMap<Object, Object>();
                     for (Object item : originalResults) {
                         resultMap.putAll((Map<?, ?>) item);
@@ -630,6 +703,26 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
 
     }
 
+    private SqlMapClientCallback createQueryForMapCallback(final String statementName,
+                                                           final Object parameterObject,
+                                                           final String keyProperty,
+                                                           final String valueProperty) {
+        if (valueProperty != null) {
+            return new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    return executor.queryForMap(statementName, parameterObject, keyProperty,
+                            valueProperty);
+                }
+            };
+        } else {
+            return new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    return executor.queryForMap(statementName, parameterObject, keyProperty);
+                }
+            };
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map queryForMap(final String statementName, final Object parameterObject,
@@ -644,9 +737,8 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
-                SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName,
-                        parameterObject);
-                if (!MapUtils.isEmpty(dsMap)) {
+                ShardSet shardSet = lookupShardSetByRouter(statementName, parameterObject);
+                if (!shardSet.isEmpty()) {
                     SqlMapClientCallback callback = null;
                     if (resultObject == null) {
                         callback = new SqlMapClientCallback() {
@@ -664,21 +756,8 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
                             }
                         };
                     }
-                    List<Object> resultList = executeInConcurrency(callback, dsMap);
-                    @SuppressWarnings("unchecked")
-                    Collection<Object> filteredResultList = CollectionUtils.select(resultList,
-                            new Predicate() {
-                                public boolean evaluate(Object item) {
-                                    return item != null;
-                                }
-                            });
-                    if (filteredResultList.size() > 1) {
-                        throw new IncorrectResultSizeDataAccessException(1);
-                    }
-                    if (CollectionUtils.isEmpty(filteredResultList)) {
-                        return null;
-                    }
-                    return filteredResultList.iterator().next();
+                    List<Object> resultList = executeInConcurrency(callback, shardSet);
+                    return selectSingleResult(resultList);
                 }
             } // end if for partitioning status checking
             if (resultObject == null) {
@@ -699,6 +778,29 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         }
     }
 
+    /**
+     * @return the only non-null result of the shards, or null if there's
+     *         none.
+     * @throws IncorrectResultSizeDataAccessException if more than one shard
+     *             returns a result.
+     */
+    private Object selectSingleResult(List<Object> resultList) {
+        @SuppressWarnings("unchecked")
+        Collection<Object> filteredResultList = CollectionUtils.select(resultList,
+                new Predicate() {
+                    public boolean evaluate(Object item) {
+                        return item != null;
+                    }
+                });
+        if (filteredResultList.size() > 1) {
+            throw new IncorrectResultSizeDataAccessException(1);
+        }
+        if (CollectionUtils.isEmpty(filteredResultList)) {
+            return null;
+        }
+        return filteredResultList.iterator().next();
+    }
+
     @Override
     public Object queryForObject(final String statementName, final Object parameterObject)
             throws DataAccessException {
@@ -738,31 +840,18 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
-                SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName,
+                SortedMap<String, Object> shardParameters = splitParameterByShards(statementName,
                         parameterObject);
-                if (!MapUtils.isEmpty(dsMap)) {
-                    SqlMapClientCallback callback = null;
-                    if (parameterObject == null) {
-                        callback = new SqlMapClientCallback() {
-
-                            public Object doInSqlMapClient(SqlMapExecutor executor)
-                                    throws SQLException {
-                                executor.queryWithRowHandler(statementName, rowHandler);
-                                return null;
-                            }
-                        };
-                    } else {
-                        callback = new SqlMapClientCallback() {
-
-                            public Object doInSqlMapClient(SqlMapExecutor executor)
-                                    throws SQLException {
-                                executor.queryWithRowHandler(statementName, parameterObject,
-                                        rowHandler);
-                                return null;
-                            }
-                        };
+                ShardSet shardSet = (shardParameters == null) ? lookupShardSetByRouter(
+                        statementName, parameterObject) : lookupShardSet(shardParameters
+                        .keySet());
+                if (!shardSet.isEmpty()) {
+                    Map<String, SqlMapClientCallback> callbacks = new HashMap<String, SqlMapClientCallback>();
+                    for (String dsName : shardSet.getNames()) {
+                        callbacks.put(dsName, createQueryWithRowHandlerCallback(statementName,
+                                parameterOf(dsName, shardParameters, parameterObject), rowHandler));
                     }
-                    executeInConcurrency(callback, dsMap);
+                    executeInConcurrency(callbacks, shardSet);
                     return;
                 }
             } //end if for partitioning status checking
@@ -784,12 +873,175 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         }
     }
 
+    private SqlMapClientCallback createQueryWithRowHandlerCallback(final String statementName,
+                                                                   final Object parameterObject,
+                                                                   final RowHandler rowHandler) {
+        if (parameterObject == null) {
+            return new SqlMapClientCallback() {
+
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    executor.queryWithRowHandler(statementName, rowHandler);
+                    return null;
+                }
+            };
+        } else {
+            return new SqlMapClientCallback() {
+
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    executor.queryWithRowHandler(statementName, parameterObject, rowHandler);
+                    return null;
+                }
+            };
+        }
+    }
+
     @Override
     public void queryWithRowHandler(String statementName, RowHandler rowHandler)
             throws DataAccessException {
         this.queryWithRowHandler(statementName, null, rowHandler);
     }
 
+    /**
+     * same as {@link #queryForList(String, Object)}, except that the shards
+     * which fail, or are not done within {@link #partialResultsShardTimeout},
+     * are left out of the results instead of failing the query, and are
+     * listed in the status of the results.<br>
+     * a statement which is not routed to any shard is executed on the default
+     * data source as usual, whose failure is still thrown.<br>
+     */
+    public PartialResultList queryForListWithPartialResults(final String statementName,
+                                                            final Object parameterObject)
+            throws DataAccessException {
+        auditSqlIfNecessary(statementName, parameterObject);
+
+        long startTimestamp = System.currentTimeMillis();
+        try {
+            if (isPartitioningBehaviorEnabled()) {
+                SortedMap<String, Object> shardParameters = splitParameterByShards(statementName,
+                        parameterObject);
+                ShardSet shardSet = (shardParameters == null) ? lookupShardSetByRouter(
+                        statementName, parameterObject) : lookupShardSet(shardParameters
+                        .keySet());
+                if (!shardSet.isEmpty()) {
+                    Map<String, SqlMapClientCallback> callbacks = new HashMap<String, SqlMapClientCallback>();
+                    for (String dsName : shardSet.getNames()) {
+                        callbacks.put(dsName, createQueryForListCallback(statementName,
+                                parameterOf(dsName, shardParameters, parameterObject), null,
+                                null));
+                    }
+
+                    PartialResultStatus status = new PartialResultStatus();
+                    List<Object> originalResultList = executePartially(statementName, callbacks,
+                            shardSet, status);
+                    return new PartialResultList(mergeQueryForListResults(statementName,
+                            originalResultList), status);
+                }
+            } // end if for partitioning status checking
+            return new PartialResultList(super.queryForList(statementName, parameterObject),
+                    new PartialResultStatus());
+        } finally {
+            if (isProfileLongTimeRunningSql()) {
+                long interval = System.currentTimeMillis() - startTimestamp;
+                if (interval > getLongTimeRunningSqlIntervalThreshold()) {
+                    logger
+                            .warn(
+                                    "SQL Statement [{}] with parameter object [{}] ran out of the normal time range, it consumed [{}] milliseconds.",
+                                    new Object[] { statementName, parameterObject, interval });
+                }
+            }
+        }
+    }
+
+    /**
+     * same as {@link #queryWithRowHandler(String, Object, RowHandler)}, with
+     * partial results like
+     * {@link #queryForListWithPartialResults(String, Object)}.<br>
+     * the rows a shard has handed to the row handler before it fails are not
+     * taken back, but no row is handed to it after this method returns, even
+     * by the shards which are still being cancelled.<br>
+     */
+    public PartialResultStatus queryWithRowHandlerWithPartialResults(final String statementName,
+                                                                     final Object parameterObject,
+                                                                     final RowHandler rowHandler)
+            throws DataAccessException {
+        auditSqlIfNecessary(statementName, parameterObject);
+
+        long startTimestamp = System.currentTimeMillis();
+        try {
+            if (isPartitioningBehaviorEnabled()) {
+                SortedMap<String, Object> shardParameters = splitParameterByShards(statementName,
+                        parameterObject);
+                ShardSet shardSet = (shardParameters == null) ? lookupShardSetByRouter(
+                        statementName, parameterObject) : lookupShardSet(shardParameters
+                        .keySet());
+                if (!shardSet.isEmpty()) {
+                    ClosableRowHandler closableRowHandler = new ClosableRowHandler(rowHandler);
+                    Map<String, SqlMapClientCallback> callbacks = new HashMap<String, SqlMapClientCallback>();
+                    for (String dsName : shardSet.getNames()) {
+                        callbacks.put(dsName, createQueryWithRowHandlerCallback(statementName,
+                                parameterOf(dsName, shardParameters, parameterObject),
+                                closableRowHandler));
+                    }
+
+                    PartialResultStatus status = new PartialResultStatus();
+                    try {
+                        executePartially(statementName, callbacks, shardSet, status);
+                    } finally {
+                        closableRowHandler.close();
+                    }
+                    return status;
+                }
+            } //end if for partitioning status checking
+            if (parameterObject == null) {
+                super.queryWithRowHandler(statementName, rowHandler);
+            } else {
+                super.queryWithRowHandler(statementName, parameterObject, rowHandler);
+            }
+            return new PartialResultStatus();
+        } finally {
+            if (isProfileLongTimeRunningSql()) {
+                long interval = System.currentTimeMillis() - startTimestamp;
+                if (interval > getLongTimeRunningSqlIntervalThreshold()) {
+                    logger
+                            .warn(
+                                    "SQL Statement [{}] with parameter object [{}] ran out of the normal time range, it consumed [{}] milliseconds.",
+                                    new Object[] { statementName, parameterObject, interval });
+                }
+            }
+        }
+    }
+
+    /**
+     * executes the actions on the shards with a deadline of
+     * {@link #partialResultsShardTimeout}, records the outcomes of the shards
+     * in the status, and returns the results of the ones which succeeded.
+     */
+    private List<Object> executePartially(String statementName,
+                                          Map<String, SqlMapClientCallback> actions,
+                                          ShardSet shardSet, PartialResultStatus status) {
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>(shardSet.size());
+        Deadline deadline = Deadline.earlierOf(newDeadline(), Deadline.after(
+                getPartialResultsShardTimeout(), TimeUnit.MILLISECONDS));
+        for (int i = 0; i < shardSet.size(); i++) {
+            requests.add(createConcurrentRequest(actions.get(shardSet.getName(i)), shardSet, i,
+                    deadline));
+        }
+        List<RequestOutcome> outcomes = getConcurrentRequestProcessor().processPartially(requests);
+
+        List<Object> results = new ArrayList<Object>(outcomes.size());
+        for (int i = 0; i < outcomes.size(); i++) {
+            RequestOutcome outcome = outcomes.get(i);
+            status.record(shardSet.getName(i), outcome);
+            if (outcome.isSucceeded()) {
+                results.add(outcome.getResult());
+            } else {
+                logger.warn("shard [{}] is left out of the results of SQL Statement [{}]: {}",
+                        new Object[] { shardSet.getName(i), statementName, outcome });
+            }
+        }
+        return results;
+    }
+
     @Override
     public void update(String statementName, Object parameterObject, int requiredRowsAffected)
             throws DataAccessException {
@@ -808,9 +1060,8 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
-                SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName,
-                        parameterObject);
-                if (!MapUtils.isEmpty(dsMap)) {
+                ShardSet shardSet = lookupShardSetByRouter(statementName, parameterObject);
+                if (!shardSet.isEmpty()) {
 
                     SqlMapClientCallback action = new SqlMapClientCallback() {
                         public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
@@ -818,7 +1069,7 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
                         }
                     };
 
-                    List<Object> results = executeInConcurrency(action, dsMap);
+                    List<Object> results = executeInConcurrency(action, shardSet);
                     Integer rowAffacted = 0;
 
                     for (Object item : results) {
@@ -846,21 +1097,532 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         return this.update(statementName, null);
     }
 
+    /**
+     * same as {@link #queryForList(String, Object)}, but returns without
+     * waiting for the shards, the results are merged by the shard which
+     * completes last.<br>
+     * the shards are queried out of the transaction of the calling thread, so
+     * it can't be called in a transaction.
+     */
+    public MergingFuture<List> queryForListAsync(final String statementName,
+                                                 final Object parameterObject) {
+        final SortedMap<String, Object> shardParameters = isPartitioningBehaviorEnabled() ? splitParameterByShards(
+                statementName, parameterObject)
+                : null;
+        return executeAsync(statementName, parameterObject, shardParameters,
+                new SqlMapClientCallbackFactory() {
+                    public SqlMapClientCallback create(String dsName) {
+                        return createQueryForListCallback(statementName, parameterOf(dsName,
+                                shardParameters, parameterObject), null, null);
+                    }
+                }, new IMerger<Object, List>() {
+                    public List merge(List<Object> results) {
+                        return mergeQueryForListResults(statementName, results);
+                    }
+                });
+    }
+
+    /**
+     * same as {@link #queryForObject(String, Object)}, but returns without
+     * waiting for the shards, see {@link #queryForListAsync(String, Object)}.
+     */
+    public MergingFuture<Object> queryForObjectAsync(final String statementName,
+                                                     final Object parameterObject) {
+        return executeAsync(statementName, parameterObject, null,
+                new SqlMapClientCallbackFactory() {
+                    public SqlMapClientCallback create(String dsName) {
+                        return new SqlMapClientCallback() {
+                            public Object doInSqlMapClient(SqlMapExecutor executor)
+                                    throws SQLException {
+                                return executor.queryForObject(statementName, parameterObject);
+                            }
+                        };
+                    }
+                }, new IMerger<Object, Object>() {
+                    public Object merge(List<Object> results) {
+                        return selectSingleResult(results);
+                    }
+                });
+    }
+
+    /**
+     * same as {@link #update(String, Object)}, but returns without waiting
+     * for the shards, see {@link #queryForListAsync(String, Object)}.<br>
+     * the updates of the shards are committed independently, as the ones out
+     * of transactions always are.
+     */
+    public MergingFuture<Integer> updateAsync(final String statementName,
+                                              final Object parameterObject) {
+        return executeAsync(statementName, parameterObject, null,
+                new SqlMapClientCallbackFactory() {
+                    public SqlMapClientCallback create(String dsName) {
+                        return new SqlMapClientCallback() {
+                            public Object doInSqlMapClient(SqlMapExecutor executor)
+                                    throws SQLException {
+                                return executor.update(statementName, parameterObject);
+                            }
+                        };
+                    }
+                }, new IMerger<Object, Integer>() {
+                    public Integer merge(List<Object> results) {
+                        int rowAffected = 0;
+                        for (Object item : results) {
+                            rowAffected += (Integer) item;
+                        }
+                        return rowAffected;
+                    }
+                });
+    }
+
+    /**
+     * creates the callback of a data source for asynchronous execution.
+     */
+    private interface SqlMapClientCallbackFactory {
+        SqlMapClientCallback create(String dsName);
+    }
+
+    /**
+     * routes the statement and submits it to the shards it's routed to, or to
+     * the default data source if it's routed nowhere, the default data
+     * source is accessed in the calling thread if there's no executor for
+     * it, i.e. partitioning is not enabled.
+     */
+    private <T> MergingFuture<T> executeAsync(final String statementName,
+                                              final Object parameterObject,
+                                              SortedMap<String, Object> shardParameters,
+                                              SqlMapClientCallbackFactory callbackFactory,
+                                              IMerger<Object, T> merger) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalTransactionStateException("statement:" + statementName
+                    + " can't be executed asynchronously in a transaction.");
+        }
+        auditSqlIfNecessary(statementName, parameterObject);
+
+        ShardSet shardSet = ShardSet.EMPTY;
+        if (isPartitioningBehaviorEnabled()) {
+            shardSet = (shardParameters == null) ? lookupShardSetByRouter(statementName,
+                    parameterObject) : lookupShardSet(shardParameters.keySet());
+        }
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>(shardSet.size());
+        Deadline deadline = newDeadline();
+        for (int i = 0; i < shardSet.size(); i++) {
+            requests.add(createConcurrentRequest(callbackFactory.create(shardSet.getName(i)),
+                    shardSet, i, deadline));
+        }
+        if (shardSet.isEmpty()) {
+            ConcurrentRequest request = new ConcurrentRequest();
+            request.setDeadline(deadline);
+            request.setAction(callbackFactory.create(getDefaultDataSourceName()));
+            request.setDataSource(getDataSource());
+            request.setExecutor(getDataSourceSpecificExecutors().get(getDefaultDataSourceName()));
+            if (request.getExecutor() == null) {
+                MergingFuture<T> future = new MergingFuture<T>(1, merger);
+                try {
+                    future.setShardResult(0, execute(request.getAction()));
+                } catch (RuntimeException e) {
+                    future.setFailure(e);
+                }
+                return future;
+            }
+            requests.add(request);
+        }
+
+        final long startTimestamp = System.currentTimeMillis();
+        MergingFuture<T> future = getConcurrentRequestProcessor().processAsync(requests, merger);
+        if (isProfileLongTimeRunningSql()) {
+            future.addListener(new Runnable() {
+                public void run() {
+                    long interval = System.currentTimeMillis() - startTimestamp;
+                    if (interval > getLongTimeRunningSqlIntervalThreshold()) {
+                        logger
+                                .warn(
+                                        "SQL Statement [{}] with parameter object [{}] ran out of the normal time range, it consumed [{}] milliseconds.",
+                                        new Object[] { statementName, parameterObject, interval });
+                    }
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * tells how the statement would be routed with the parameter object,
+     * without executing it, so it's safe to explain updates and deletes
+     * too.<br>
+     */
+    public StatementExplanation explain(String statementName, Object parameterObject) {
+        StatementExplanation explanation = new StatementExplanation(statementName,
+                parameterObject);
+        explainRouting(explanation);
+        return explanation;
+    }
+
+    /**
+     * executes the query like {@link #queryForList(String, Object)}, and
+     * tells how it's routed, with the time to get connections, execute on
+     * each data source and merge the results.<br>
+     * the result list is returned in the explanation.<br>
+     */
+    public StatementExplanation explainQueryForList(String statementName, Object parameterObject) {
+        auditSqlIfNecessary(statementName, parameterObject);
+
+        StatementExplanation explanation = new StatementExplanation(statementName,
+                parameterObject);
+        SortedMap<String, Object> shardParameters = explainRouting(explanation);
+        ShardSet shardSet = explanation.getShards().isEmpty() ? ShardSet.EMPTY
+                : lookupShardSet(explanation.getShards());
+
+        long start = System.nanoTime();
+        if (shardSet.isEmpty()) {
+            explanation.setResult(super.queryForList(statementName, parameterObject));
+            RequestTrace trace = new RequestTrace(getDefaultDataSourceName());
+            trace.setExecutionNanos(System.nanoTime() - start);
+            explanation.addRequestTrace(trace);
+            explanation.setExecutionNanos(trace.getExecutionNanos());
+            return explanation;
+        }
+
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>(shardSet.size());
+        Deadline deadline = newDeadline();
+        for (int i = 0; i < shardSet.size(); i++) {
+            String dsName = shardSet.getName(i);
+            ConcurrentRequest request = createConcurrentRequest(createQueryForListCallback(
+                    statementName, parameterOf(dsName, shardParameters, parameterObject), null,
+                    null), shardSet, i, deadline);
+            request.setTrace(new RequestTrace(dsName));
+            explanation.addRequestTrace(request.getTrace());
+            requests.add(request);
+        }
+        List<Object> originalResultList = getConcurrentRequestProcessor().process(requests);
+        explanation.setExecutionNanos(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        explanation.setResult(mergeQueryForListResults(statementName, originalResultList));
+        explanation.setMergeNanos(System.nanoTime() - start);
+        return explanation;
+    }
+
+    /**
+     * routes the statement as the data access operations do, and records how
+     * it's routed in the explanation.
+     * 
+     * @return the parameter objects split by shard keys, or null if not split.
+     */
+    private SortedMap<String, Object> explainRouting(StatementExplanation explanation) {
+        String statementName = explanation.getStatementName();
+        Object parameterObject = explanation.getParameterObject();
+        if (!isPartitioningBehaviorEnabled()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        RoutingHint hint = RoutingHint.current();
+        if (hint != null && hint.getType() != RoutingHint.Type.RESTRICT_SHARDS) {
+            explanation.setRoutingHint(hint);
+            if (hint.getType() == RoutingHint.Type.FORCE_SHARDS) {
+                explanation.setShards(lookupHintedShardSet(statementName, hint).getNames());
+            }
+            explanation.setRoutingNanos(System.nanoTime() - start);
+            return null;
+        }
+        SortedMap<String, Object> shardParameters = splitParameterByShards(statementName,
+                parameterObject);
+        StatementPlan plan = statementPlans.get(statementName);
+        List<String> shards = null;
+        if (shardParameters != null) {
+            explanation.setSplitByShardKeys(true);
+            shards = new ArrayList<String>(shardParameters.keySet());
+        } else if (dataSourcesByRouterOverridden) {
+            shards = new ArrayList<String>(lookupDataSourcesByRouter(statementName,
+                    parameterObject).keySet());
+        } else if (plan != null) {
+            explanation.setPlanned(true);
+            shards = plan.shardSet.getNames();
+        } else if (getRouter() != null && getCobarDataSourceService() != null) {
+            IBatisRoutingFact routingFact = new IBatisRoutingFact(statementName, parameterObject);
+            if (getRouter() instanceof IExplainableRouter) {
+                RoutingExplanation routingExplanation = ((IExplainableRouter) getRouter())
+                        .explain(routingFact);
+                explanation.setRoutingExplanation(routingExplanation);
+                shards = routingExplanation.getResult().getResourceIdentities();
+            } else {
+                shards = getRouter().doRoute(routingFact).getResourceIdentities();
+            }
+        }
+        if (CollectionUtils.isNotEmpty(shards)) {
+            ShardSet shardSet = lookupShardSet(shards);
+            if (hint != null) {
+                explanation.setRoutingHint(hint);
+                if (shardParameters == null) {
+                    shardSet = restrictShardSet(statementName, shardSet, hint);
+                }
+            }
+            explanation.setShards(shardSet.getNames());
+        }
+        explanation.setRoutingNanos(System.nanoTime() - start);
+        return shardParameters;
+    }
+
+    /**
+     * the data sources the router, or the plan of the statement, routes the
+     * statement to, before the routing hint is applied.<br>
+     * if a subclass overrides it, the statements are routed with the
+     * overriding method, see {@link #lookupShardSetByRouter(String, Object)}.<br>
+     * 
+     * @return a new map which the caller is free to modify, the internal paths
+     *         work on the interned {@link ShardSet} instead.
+     */
     protected SortedMap<String, DataSource> lookupDataSourcesByRouter(final String statementName,
                                                                       final Object parameterObject) {
-        SortedMap<String, DataSource> resultMap = new TreeMap<String, DataSource>();
+        return new TreeMap<String, DataSource>(doRouteShardSet(statementName, parameterObject)
+                .toSortedMap());
+    }
+
+    /**
+     * @return the data sources the statement is routed to, a planned
+     *         statement is not routed at all, see
+     *         {@link #refreshStatementPlans()}; the routing hint of the
+     *         current thread, if any, is honoured before all of them.
+     */
+    protected ShardSet lookupShardSetByRouter(final String statementName,
+                                              final Object parameterObject) {
+        RoutingHint hint = RoutingHint.current();
+        if (hint == null) {
+            return routeShardSet(statementName, parameterObject);
+        }
+        switch (hint.getType()) {
+            case FORCE_SHARDS:
+                countRoutingHint(hint);
+                return lookupHintedShardSet(statementName, hint);
+            case DEFAULT_DATA_SOURCE:
+                countRoutingHint(hint);
+                return ShardSet.EMPTY;
+            default:
+                ShardSet shardSet = routeShardSet(statementName, parameterObject);
+                if (shardSet.isEmpty()) {
+                    return shardSet;
+                }
+                countRoutingHint(hint);
+                return restrictShardSet(statementName, shardSet, hint);
+        }
+    }
+
+    private ShardSet routeShardSet(String statementName, Object parameterObject) {
+        if (dataSourcesByRouterOverridden) {
+            return getShardSetRegistry().shardSetOf(
+                    lookupDataSourcesByRouter(statementName, parameterObject));
+        }
+        return doRouteShardSet(statementName, parameterObject);
+    }
+
+    private ShardSet doRouteShardSet(String statementName, Object parameterObject) {
+        StatementPlan plan = statementPlans.get(statementName);
+        if (plan != null) {
+            return plan.shardSet;
+        }
 
         if (getRouter() != null && getCobarDataSourceService() != null) {
             List<String> dsSet = getRouter().doRoute(
                     new IBatisRoutingFact(statementName, parameterObject)).getResourceIdentities();
             if (CollectionUtils.isNotEmpty(dsSet)) {
-                Collections.sort(dsSet);
-                for (String dsName : dsSet) {
-                    resultMap.put(dsName, getCobarDataSourceService().getDataSources().get(dsName));
+                return lookupShardSet(dsSet);
+            }
+        }
+        return ShardSet.EMPTY;
+    }
+
+    /**
+     * groups the parameter objects of a bulk operation by the data sources
+     * they are routed to, in one pass if the router is a {@link IBatchRouter}.<br>
+     * 
+     * @return the parameter objects keyed by the shard sets they are routed
+     *         to, the ones which are routed nowhere are keyed by
+     *         {@link ShardSet#EMPTY}; the parameter objects of a group are in
+     *         their original order.
+     */
+    protected Map<ShardSet, List<Object>> groupByShardSet(String statementName,
+                                                          Collection<?> parameterObjects) {
+        Map<ShardSet, List<Object>> groups = new LinkedHashMap<ShardSet, List<Object>>();
+        if (CollectionUtils.isEmpty(parameterObjects)) {
+            return groups;
+        }
+        if (!dataSourcesByRouterOverridden && !statementPlans.containsKey(statementName)
+                && getRouter() instanceof IBatchRouter
+                && getCobarDataSourceService() != null && RoutingHint.current() == null) {
+            for (Map.Entry<List<String>, List<Object>> entry : ((IBatchRouter) getRouter())
+                    .doRouteBatch(statementName, parameterObjects).entrySet()) {
+                ShardSet shardSet = CollectionUtils.isEmpty(entry.getKey()) ? ShardSet.EMPTY
+                        : lookupShardSet(entry.getKey());
+                List<Object> group = groups.get(shardSet);
+                if (group == null) {
+                    groups.put(shardSet, entry.getValue());
+                } else {
+                    group.addAll(entry.getValue());
                 }
             }
+            return groups;
+        }
+        for (Object parameterObject : parameterObjects) {
+            ShardSet shardSet = lookupShardSetByRouter(statementName, parameterObject);
+            List<Object> group = groups.get(shardSet);
+            if (group == null) {
+                group = new ArrayList<Object>();
+                groups.put(shardSet, group);
+            }
+            group.add(parameterObject);
+        }
+        return groups;
+    }
+
+    /**
+     * @throws RoutingException if any of the forced shards is unknown.
+     */
+    private ShardSet lookupHintedShardSet(String statementName, RoutingHint hint) {
+        if (getCobarDataSourceService() == null) {
+            throw new RoutingException("statement:" + statementName + " can't be sent to shards:"
+                    + hint.getShards() + " without a data source service.");
+        }
+        Map<String, DataSource> dataSources = getCobarDataSourceService().getDataSources();
+        for (String shard : hint.getShards()) {
+            if (!dataSources.containsKey(shard)) {
+                throw new RoutingException("statement:" + statementName
+                        + " is forced to unknown shard:" + shard + " by hint:" + hint);
+            }
+        }
+        return lookupShardSet(hint.getShards());
+    }
+
+    /**
+     * @return the shards of the routing result which are allowed by the
+     *         hint.
+     * @throws RoutingException if none of them is allowed.
+     */
+    private ShardSet restrictShardSet(String statementName, ShardSet shardSet, RoutingHint hint) {
+        List<String> allowed = new ArrayList<String>(shardSet.size());
+        for (String name : shardSet.getNames()) {
+            if (hint.getShards().contains(name)) {
+                allowed.add(name);
+            }
+        }
+        if (allowed.isEmpty()) {
+            throw new RoutingException("statement:" + statementName + " is routed to shards:"
+                    + shardSet.getNames() + ", none of which is allowed by hint:" + hint);
+        }
+        return (allowed.size() == shardSet.size()) ? shardSet : lookupShardSet(allowed);
+    }
+
+    private void countRoutingHint(RoutingHint hint) {
+        routingHintCounters[hint.getType().ordinal()].increment();
+    }
+
+    private static StripedCounter[] newRoutingHintCounters() {
+        StripedCounter[] counters = new StripedCounter[RoutingHint.Type.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new StripedCounter();
+        }
+        return counters;
+    }
+
+    /**
+     * @return how many statements have been routed with the given type of
+     *         {@link RoutingHint}.
+     */
+    public long getRoutingHintCount(RoutingHint.Type type) {
+        return routingHintCounters[type.ordinal()].sum();
+    }
+
+    /**
+     * if a subclass overrides it, the data sources are looked up with the
+     * overriding method, see {@link #lookupShardSet(Collection)}.<br>
+     * 
+     * @return a new map which the caller is free to modify, see
+     *         {@link #lookupDataSourcesByRouter(String, Object)}.
+     */
+    protected SortedMap<String, DataSource> lookupDataSources(Collection<String> dsNames) {
+        return new TreeMap<String, DataSource>(getShardSetRegistry().shardSetOf(dsNames)
+                .toSortedMap());
+    }
+
+    /**
+     * @return the interned shard set of the data sources, resolved once per
+     *         distinct collection of identities, or the shard set of
+     *         {@link #lookupDataSources(Collection)} if a subclass overrides
+     *         it.
+     */
+    protected ShardSet lookupShardSet(Collection<String> dsNames) {
+        if (dataSourcesOverridden) {
+            return getShardSetRegistry().shardSetOf(lookupDataSources(dsNames));
+        }
+        return getShardSetRegistry().shardSetOf(dsNames);
+    }
+
+    private boolean isOverridden(String methodName, Class<?>... parameterTypes) {
+        for (Class<?> type = getClass(); type != CobarSqlMapClientTemplate.class; type = type
+                .getSuperclass()) {
+            try {
+                type.getDeclaredMethod(methodName, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // look it up in the super class.
+            }
+        }
+        return false;
+    }
+
+    private ShardSetRegistry getShardSetRegistry() {
+        ShardSetRegistry registry = this.shardSetRegistry;
+        if (registry == null) {
+            registry = new ShardSetRegistry(getCobarDataSourceService().getDataSources(),
+                    getDataSourceSpecificExecutors());
+            this.shardSetRegistry = registry;
+        }
+        return registry;
+    }
+
+    /**
+     * if a {@link ShardKeySplitter} is registered for the statement, split the
+     * shard keys carried by the parameter object by their target data
+     * sources.<br>
+     * 
+     * a statement forced to some shards or to the default data source by a
+     * {@link RoutingHint} is not split, while the shards a statement is
+     * restricted to are honoured.<br>
+     * 
+     * @return parameter objects keyed by the identities of their target data
+     *         sources, or null if the parameter object should be routed as a
+     *         whole.
+     */
+    protected SortedMap<String, Object> splitParameterByShards(String statementName,
+                                                               Object parameterObject) {
+        if (MapUtils.isEmpty(getShardKeySplitters())) {
+            return null;
+        }
+        ShardKeySplitter splitter = getShardKeySplitters().get(statementName);
+        if (splitter == null || getRouter() == null) {
+            return null;
+        }
+        RoutingHint hint = RoutingHint.current();
+        if (hint != null && hint.getType() != RoutingHint.Type.RESTRICT_SHARDS) {
+            return null;
         }
-        return resultMap;
+        SortedMap<String, Object> shardParameters = splitter.split(statementName,
+                parameterObject, getRouter());
+        if (hint == null || MapUtils.isEmpty(shardParameters)) {
+            return shardParameters;
+        }
+        countRoutingHint(hint);
+        List<String> routed = new ArrayList<String>(shardParameters.keySet());
+        shardParameters.keySet().retainAll(hint.getShards());
+        if (shardParameters.isEmpty()) {
+            throw new RoutingException("statement:" + statementName + " is routed to shards:"
+                    + routed + ", none of which is allowed by hint:" + hint);
+        }
+        return shardParameters;
+    }
+
+    private Object parameterOf(String dsName, SortedMap<String, Object> shardParameters,
+                               Object parameterObject) {
+        return (shardParameters == null) ? parameterObject : shardParameters.get(dsName);
     }
 
     protected String getSqlByStatementName(String statementName, Object parameterObject) {
@@ -874,7 +1636,23 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         }
     }
 
+    /**
+     * executes the action on the data source, with the deadline of
+     * {@link #defaultQueryTimeout} if there's one.
+     */
     protected Object executeWith(DataSource dataSource, SqlMapClientCallback action) {
+        return executeWith(dataSource, action, newDeadline());
+    }
+
+    /**
+     * @param deadline, optional, the statements of the action get the
+     *            remaining budget as their query timeouts.
+     */
+    private Object executeWith(DataSource dataSource, SqlMapClientCallback action,
+                               Deadline deadline) {
+        if (deadline != null && deadline.isExpired()) {
+            throw new QueryDeadlineExceededException("request is not started by " + deadline);
+        }
         SqlMapSession session = getSqlMapClient().openSession();
 
         try {
@@ -885,7 +1663,8 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
             try {
                 springCon = (transactionAware ? dataSource.getConnection() : DataSourceUtils
                         .doGetConnection(dataSource));
-                session.setUserConnection(springCon);
+                session.setUserConnection((deadline == null) ? springCon
+                        : new DeadlineConnectionProxy(springCon, deadline).getProxy());
             } catch (SQLException ex) {
                 throw new CannotGetJdbcConnectionException("Could not get JDBC Connection", ex);
             }
@@ -917,12 +1696,66 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         }
     }
 
+    /**
+     * executes the action of a batch of parameter objects on the data sources
+     * of the shard set one at a time, or on the default data source if the
+     * shard set is empty.<br>
+     * the statement is audited with each of the parameter objects, and
+     * profiled, like the other operations of the template, and the statements
+     * of the action get the deadline of {@link #defaultQueryTimeout}.<br>
+     * a failed data source doesn't stop the others, and the last failure is
+     * thrown after all of them are tried.<br>
+     * 
+     * @param shardResults, receives the result of each data source as soon as
+     *            it succeeds, so the ones which succeed before a failure are
+     *            still available to the caller.
+     */
+    public void executeBatch(final String statementName, final Collection<?> parameterObjects,
+                             ShardSet shardSet, SqlMapClientCallback action,
+                             List<Object> shardResults) throws DataAccessException {
+        for (Object parameterObject : parameterObjects) {
+            auditSqlIfNecessary(statementName, parameterObject);
+        }
+
+        long startTimestamp = System.currentTimeMillis();
+        try {
+            if (shardSet.isEmpty()) {
+                shardResults.add(execute(action));
+                return;
+            }
+            Deadline deadline = newDeadline();
+            DataAccessException lastEx = null;
+            for (int i = 0; i < shardSet.size(); i++) {
+                try {
+                    shardResults.add(executeWith(shardSet.getDataSource(i), action, deadline));
+                } catch (DataAccessException e) {
+                    lastEx = e;
+                }
+            }
+            if (lastEx != null) {
+                throw lastEx;
+            }
+        } finally {
+            if (isProfileLongTimeRunningSql()) {
+                long interval = System.currentTimeMillis() - startTimestamp;
+                if (interval > getLongTimeRunningSqlIntervalThreshold()) {
+                    logger
+                            .warn(
+                                    "SQL Statement [{}] with parameter object [{}] ran out of the normal time range, it consumed [{}] milliseconds.",
+                                    new Object[] { statementName, parameterObjects, interval });
+                }
+            }
+        }
+    }
+
     public List<Object> executeInConcurrency(SqlMapClientCallback action,
                                              SortedMap<String, DataSource> dsMap) {
         List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        Deadline deadline = newDeadline();
 
         for (Map.Entry<String, DataSource> entry : dsMap.entrySet()) {
             ConcurrentRequest request = new ConcurrentRequest();
+            request.setDeadline(deadline);
             request.setAction(action);
             request.setDataSource(entry.getValue());
             request.setExecutor(getDataSourceSpecificExecutors().get(entry.getKey()));
@@ -933,6 +1766,81 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         return results;
     }
 
+    /**
+     * same as {@link #executeInConcurrency(SqlMapClientCallback, SortedMap)},
+     * but with a different action for each data source, e.g. with the shard
+     * keys of that data source only.<br>
+     * 
+     * @param actions, keyed by the identities of data sources.
+     */
+    public List<Object> executeInConcurrency(Map<String, SqlMapClientCallback> actions,
+                                             SortedMap<String, DataSource> dsMap) {
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        Deadline deadline = newDeadline();
+
+        for (Map.Entry<String, DataSource> entry : dsMap.entrySet()) {
+            ConcurrentRequest request = new ConcurrentRequest();
+            request.setDeadline(deadline);
+            request.setAction(actions.get(entry.getKey()));
+            request.setDataSource(entry.getValue());
+            request.setExecutor(getDataSourceSpecificExecutors().get(entry.getKey()));
+            requests.add(request);
+        }
+
+        List<Object> results = getConcurrentRequestProcessor().process(requests);
+        return results;
+    }
+
+    /**
+     * same as {@link #executeInConcurrency(SqlMapClientCallback, SortedMap)},
+     * with the data sources and executors resolved in the shard set.
+     */
+    public List<Object> executeInConcurrency(SqlMapClientCallback action, ShardSet shardSet) {
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>(shardSet.size());
+        Deadline deadline = newDeadline();
+        for (int i = 0; i < shardSet.size(); i++) {
+            requests.add(createConcurrentRequest(action, shardSet, i, deadline));
+        }
+        return getConcurrentRequestProcessor().process(requests);
+    }
+
+    /**
+     * same as {@link #executeInConcurrency(Map, SortedMap)}, with the data
+     * sources and executors resolved in the shard set.
+     */
+    public List<Object> executeInConcurrency(Map<String, SqlMapClientCallback> actions,
+                                             ShardSet shardSet) {
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>(shardSet.size());
+        Deadline deadline = newDeadline();
+        for (int i = 0; i < shardSet.size(); i++) {
+            requests.add(createConcurrentRequest(actions.get(shardSet.getName(i)), shardSet, i,
+                    deadline));
+        }
+        return getConcurrentRequestProcessor().process(requests);
+    }
+
+    private ConcurrentRequest createConcurrentRequest(SqlMapClientCallback action,
+                                                      ShardSet shardSet, int index,
+                                                      Deadline deadline) {
+        ConcurrentRequest request = new ConcurrentRequest();
+        request.setAction(action);
+        request.setDataSource(shardSet.getDataSource(index));
+        request.setExecutor(shardSet.getExecutor(index));
+        request.setDeadline(deadline);
+        return request;
+    }
+
+    /**
+     * @return the deadline of a statement starting now, as per
+     *         {@link #defaultQueryTimeout}, or null if there's no timeout.
+     */
+    protected Deadline newDeadline() {
+        if (getDefaultQueryTimeout() <= 0) {
+            return null;
+        }
+        return Deadline.after(getDefaultQueryTimeout(), TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void afterPropertiesSet() {
         super.afterPropertiesSet();
@@ -942,14 +1850,89 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
                         "'longTimeRunningSqlIntervalThreshold' should have a positive value if 'profileLongTimeRunningSql' is set to true");
             }
         }
+        if (partialResultsShardTimeout <= 0) {
+            throw new IllegalArgumentException(
+                    "'partialResultsShardTimeout' should have a positive value.");
+        }
         setupDefaultExecutorServicesIfNecessary();
         setUpDefaultSqlAuditorExecutorIfNecessary();
         if (getConcurrentRequestProcessor() == null) {
             setConcurrentRequestProcessor(new DefaultConcurrentRequestProcessor(getSqlMapClient()));
         }
+        // the executors may have just been set up.
+        this.shardSetRegistry = null;
+        refreshStatementPlans();
+        if (getRouter() instanceof ReloadableCobarRouter) {
+            ((ReloadableCobarRouter) getRouter()).addReloadListener(statementPlansRefresher);
+        }
+    }
+
+    /**
+     * classify the mapped statements of the sql map client with the router,
+     * and plan the data sources of the unsharded, static and broadcast ones,
+     * which then won't be routed per request any more.<br>
+     * it's called on initialization, call it again if the rules of the router
+     * are changed afterwards, which is done automatically for a
+     * {@link ReloadableCobarRouter}, the requests in between may still use
+     * the former plans, just like the ones which are routing with the former
+     * rules.<br>
+     * the statements with {@link ShardKeySplitter}s, the ones whose data
+     * sources are not found, and the ones the router can't classify will be
+     * routed per request as before.<br>
+     */
+    public void refreshStatementPlans() {
+        Map<String, StatementPlan> plans = new HashMap<String, StatementPlan>();
+        if (isPartitioningBehaviorEnabled() && getRouter() instanceof IStatementClassifier
+                && getSqlMapClient() instanceof SqlMapClientImpl) {
+            IStatementClassifier classifier = (IStatementClassifier) getRouter();
+            Iterator<?> names = ((SqlMapClientImpl) getSqlMapClient()).getDelegate()
+                    .getMappedStatementNames();
+            while (names.hasNext()) {
+                String statementName = (String) names.next();
+                if (getShardKeySplitters() != null
+                        && getShardKeySplitters().containsKey(statementName)) {
+                    continue;
+                }
+                StatementClassification classification = classifier.classify(statementName);
+                if (classification == null
+                        || classification.getType() == StatementClassification.Type.SHARDED) {
+                    continue;
+                }
+                if (getCobarDataSourceService().getDataSources().keySet().containsAll(
+                        classification.getDataSourceIds())) {
+                    plans.put(statementName, new StatementPlan(classification,
+                            lookupShardSet(classification.getDataSourceIds())));
+                }
+            }
+            logger.info("{} statements are planned without routing.", plans.size());
+        }
+        this.statementPlans = plans;
+    }
+
+    /**
+     * the plans depend on the router, the data sources, the executors and the
+     * splitters, so they are dropped with the interned shard sets once any of
+     * them is changed, until
+     * {@link #refreshStatementPlans()} is called again.
+     */
+    private void clearStatementPlans() {
+        this.statementPlans = new HashMap<String, StatementPlan>();
+        this.shardSetRegistry = null;
+    }
+
+    /**
+     * @return the classification of a planned statement, or null if the
+     *         statement is routed per request.
+     */
+    public StatementClassification getStatementClassification(String statementName) {
+        StatementPlan plan = statementPlans.get(statementName);
+        return (plan == null) ? null : plan.classification;
     }
 
     public void destroy() throws Exception {
+        if (getRouter() instanceof ReloadableCobarRouter) {
+            ((ReloadableCobarRouter) getRouter()).removeReloadListener(statementPlansRefresher);
+        }
         if (CollectionUtils.isNotEmpty(internalExecutorServiceRegistry)) {
             logger.info("shutdown executors of CobarSqlMapClientTemplate...");
             for (ExecutorService executor : internalExecutorServiceRegistry) {
@@ -1101,6 +2084,7 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
             return;
         }
         this.dataSourceSpecificExecutors = dataSourceSpecificExecutors;
+        clearStatementPlans();
     }
 
     public Map<String, ExecutorService> getDataSourceSpecificExecutors() {
@@ -1115,8 +2099,17 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         return defaultQueryTimeout;
     }
 
+    public void setPartialResultsShardTimeout(int partialResultsShardTimeout) {
+        this.partialResultsShardTimeout = partialResultsShardTimeout;
+    }
+
+    public int getPartialResultsShardTimeout() {
+        return partialResultsShardTimeout;
+    }
+
     public void setCobarDataSourceService(ICobarDataSourceService cobarDataSourceService) {
         this.cobarDataSourceService = cobarDataSourceService;
+        clearStatementPlans();
     }
 
     public ICobarDataSourceService getCobarDataSourceService() {
@@ -1149,6 +2142,7 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
 
     public void setRouter(ICobarRouter<IBatisRoutingFact> router) {
         this.router = router;
+        clearStatementPlans();
     }
 
     public ICobarRouter<IBatisRoutingFact> getRouter() {
@@ -1171,6 +2165,15 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         return mergers;
     }
 
+    public void setShardKeySplitters(Map<String, ShardKeySplitter> shardKeySplitters) {
+        this.shardKeySplitters = shardKeySplitters;
+        clearStatementPlans();
+    }
+
+    public Map<String, ShardKeySplitter> getShardKeySplitters() {
+        return shardKeySplitters;
+    }
+
     private ExecutorService createCustomExecutorService(int poolSize, final String method) {
         int coreSize = Runtime.getRuntime().availableProcessors();
         if (poolSize < coreSize) {
@@ -1191,4 +2194,48 @@ public class CobarSqlMapClientTemplate extends SqlMapClientTemplate implements D
         return executor;
     }
 
+    /**
+     * hands the rows to the row handler until it's closed, rows being handled
+     * when it's closed are waited for, so that no row is handed over after
+     * that.
+     */
+    private static class ClosableRowHandler implements RowHandler {
+        private final RowHandler    rowHandler;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private boolean             closed;
+
+        ClosableRowHandler(RowHandler rowHandler) {
+            this.rowHandler = rowHandler;
+        }
+
+        public void handleRow(Object valueObject) {
+            lock.readLock().lock();
+            try {
+                if (!closed) {
+                    rowHandler.handleRow(valueObject);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void close() {
+            lock.writeLock().lock();
+            try {
+                closed = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private static class StatementPlan {
+        final StatementClassification classification;
+        final ShardSet                shardSet;
+
+        StatementPlan(StatementClassification classification, ShardSet shardSet) {
+            this.classification = classification;
+            this.shardSet = shardSet;
+        }
+    }
 }
@@ -0,0 +1,44 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.exception;
+
+import org.springframework.dao.DataAccessException;
+
+/**
+ * thrown when some of the groups or shards of a batch operation fail, after
+ * all of them are tried, with the last failure as the cause, and the count
+ * of what the others have done.
+ * 
+ * @since 1.0.6
+ */
+public class BatchPartiallyFailedException extends DataAccessException {
+    private static final long serialVersionUID = -2964357713853530498L;
+
+    private final int         count;
+
+    public BatchPartiallyFailedException(String msg, int count, Throwable cause) {
+        super(msg, cause);
+        this.count = count;
+    }
+
+    /**
+     * @return the number of entities inserted, or rows affected, by the parts
+     *         of the batch which succeeded.
+     */
+    public int getCount() {
+        return count;
+    }
+}
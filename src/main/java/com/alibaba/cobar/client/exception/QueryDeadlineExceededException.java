@@ -0,0 +1,37 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.exception;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * thrown when a data access request spread over data sources is not done by
+ * its deadline, the connections of the request are released, and the
+ * statements still running are cancelled.
+ * 
+ * @since 1.0.6
+ */
+public class QueryDeadlineExceededException extends TransientDataAccessResourceException {
+    private static final long serialVersionUID = 4264805467218766932L;
+
+    public QueryDeadlineExceededException(String msg) {
+        super(msg);
+    }
+
+    public QueryDeadlineExceededException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
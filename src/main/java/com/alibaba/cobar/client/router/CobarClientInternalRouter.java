@@ -16,17 +16,28 @@
  package com.alibaba.cobar.client.router;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.alibaba.cobar.client.router.rules.IFactAwareRoutingRule;
 import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
+import com.alibaba.cobar.client.router.support.BatchRoutingSupport;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.IBatisRuleSequenceIndex;
+import com.alibaba.cobar.client.router.support.IShardKeyExtractor;
+import com.alibaba.cobar.client.router.support.RoutingCacheKeyFactory;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
 import com.alibaba.cobar.client.router.support.RoutingResult;
+import com.alibaba.cobar.client.router.support.StatementClassification;
+import com.alibaba.cobar.client.support.ConcurrentClockCache;
 import com.alibaba.cobar.client.support.LRUMap;
-import com.alibaba.cobar.client.support.utils.CollectionUtils;
 
 /**
  * CobarInternalRouter is the default router that will be used in cobar client,
@@ -49,19 +60,42 @@ import com.alibaba.cobar.client.support.utils.CollectionUtils;
  * just match against the "namespace" part in the sql action id; we will match
  * these rules in sequence against the routing fact, each later rule will be
  * used as fall-back rule if former match fails.<br>
- * To enhance the rule matching performance, we add a LRU cache, you can decide
+ * To enhance the rule matching performance, we add a cache which evicts
+ * entries with the CLOCK algorithm(an approximation of LRU), you can decide
  * whether to use this cache by set the {@link #enableCache} property's value to
- * true or false.<br>
+ * true or false, by default, the routing results are cached by routing facts,
+ * register {@link IShardKeyExtractor}s with
+ * {@link #setShardKeyExtractors(Map)} to cache them by shard keys instead.<br>
+ * the rules are indexed by sql action id and namespace on the first routing
+ * request, so only the rules that may match will be evaluated, if the rule
+ * sets are changed after that, set them again with
+ * {@link #setRuleSequences(List)} to rebuild the index.<br>
+ * the routing results are immutable and shared between routings, see
+ * {@link RoutingResult#immutableOf(List)}.<br>
+ * the arguments of bulk operations can be routed in one pass with
+ * {@link #doRouteBatch(String, Collection)}, which bypasses the cache, since
+ * the arguments of a batch are seldom routed again.<br>
  * 
  * @author fujohnwang
  * @since 1.0
  */
-public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact> {
+public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact>,
+        IStatementClassifier, IBatchRouter, IExplainableRouter {
 
     private transient final Logger logger      = LoggerFactory.getLogger(CobarClientInternalRouter.class);
 
-    private LRUMap                 localCache;
-    private boolean                enableCache = false;
+    private ConcurrentClockCache<Object, RoutingResult> localCache;
+    private boolean                                     enableCache     = false;
+    private RoutingCacheKeyFactory                      cacheKeyFactory = new RoutingCacheKeyFactory(
+                                                                                null);
+    private final BatchRoutingSupport                   batchRouting    = new BatchRoutingSupport();
+    private final ICobarRouter<IBatisRoutingFact>       ruleRouter      = new ICobarRouter<IBatisRoutingFact>() {
+                                                                            public RoutingResult doRoute(
+                                                                                                         IBatisRoutingFact routingFact)
+                                                                                    throws RoutingException {
+                                                                                return routeByRules(routingFact);
+                                                                            }
+                                                                        };
 
     public CobarClientInternalRouter(boolean enableCache) {
         this(enableCache, 10000);
@@ -74,71 +108,148 @@ public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact
     public CobarClientInternalRouter(boolean enableCache, int cacheSize) {
         this.enableCache = enableCache;
         if (this.enableCache) {
-            localCache = new LRUMap(cacheSize);
+            localCache = new ConcurrentClockCache<Object, RoutingResult>(cacheSize);
         }
     }
 
     private List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences          = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+    private volatile IBatisRuleSequenceIndex                         ruleIndex;
+    private boolean                                                  adaptiveRuleOrdering;
 
     public RoutingResult doRoute(IBatisRoutingFact routingFact) throws RoutingException {
+        Object cacheKey = null;
         if (enableCache) {
-            synchronized (localCache) {
-                if (localCache.containsKey(routingFact)) {
-                    RoutingResult result = (RoutingResult) localCache.get(routingFact);
-                    logger.info("return routing result:{} from cache for fact:{}", result, routingFact);
-                    return result;
+            cacheKey = cacheKeyFactory.createKey(routingFact);
+            RoutingResult result = localCache.get(cacheKey);
+            if (result != null) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("return routing result:{} from cache for fact:{}", result,
+                            routingFact);
                 }
+                return result;
             }
         }
 
-        RoutingResult result = new RoutingResult();
-        result.setResourceIdentities(new ArrayList<String>());
+        RoutingResult result = routeByRules(routingFact);
 
-        IRoutingRule<IBatisRoutingFact, List<String>> ruleToUse = null;
-        if (!CollectionUtils.isEmpty(getRuleSequences())) {
-            for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : getRuleSequences()) {
-                ruleToUse = searchMatchedRuleAgainst(ruleSet, routingFact);
-                if (ruleToUse != null) {
-                    break;
-                }
-            }
+        if (enableCache) {
+            localCache.put(cacheKey, result);
         }
 
-        if (ruleToUse != null) {
-            logger.info("matched with rule:{} with fact:{}", ruleToUse, routingFact);
-            result.getResourceIdentities().addAll(ruleToUse.action());
-        } else {
-            logger.info("No matched rule found for routing fact:{}", routingFact);
-        }
+        return result;
+    }
 
+    /**
+     * the rules are evaluated even if the result is cached, so the
+     * explanation always tells which rule matches, but the result is the
+     * cached one then, as {@link #doRoute(IBatisRoutingFact)} would return.
+     */
+    public RoutingExplanation explain(IBatisRoutingFact routingFact) throws RoutingException {
+        RoutingExplanation explanation = new RoutingExplanation(routingFact);
+        long start = System.nanoTime();
+        RoutingResult cached = null;
         if (enableCache) {
-            synchronized (localCache) {
-                localCache.put(routingFact, result);
-            }
+            cached = localCache.peek(cacheKeyFactory.createKey(routingFact));
+            explanation.setCacheStatus((cached == null) ? RoutingExplanation.CacheStatus.MISS
+                    : RoutingExplanation.CacheStatus.HIT);
+        }
+        IRoutingRule<IBatisRoutingFact, List<String>> ruleToUse = getRuleIndex().explain(
+                routingFact, explanation);
+        if (cached != null) {
+            explanation.setResult(cached);
+        } else if (ruleToUse != null) {
+            explanation.setResult(routingResultOf(ruleToUse, routingFact));
         }
+        explanation.setRoutingNanos(System.nanoTime() - start);
+        return explanation;
+    }
+
+    public Map<List<String>, List<Object>> doRouteBatch(String statementName,
+                                                        Collection<?> arguments)
+            throws RoutingException {
+        return batchRouting.route(ruleRouter, statementName, arguments);
+    }
+
+    private RoutingResult routeByRules(IBatisRoutingFact routingFact) {
+        RoutingResult result = RoutingResult.EMPTY;
 
+        RoutingResult matched = getRuleIndex().route(routingFact);
+
+        if (matched != null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("routed fact:{} to:{}", routingFact, matched);
+            }
+            result = matched;
+        } else if (logger.isTraceEnabled()) {
+            logger.trace("No matched rule found for routing fact:{}", routingFact);
+        }
         return result;
     }
 
-    private IRoutingRule<IBatisRoutingFact, List<String>> searchMatchedRuleAgainst(
-                                                                                   Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules,
-                                                                                   IBatisRoutingFact routingFact) {
-        if (CollectionUtils.isEmpty(rules)) {
-            return null;
+    public StatementClassification classify(String statementName) {
+        return getRuleIndex().classify(statementName);
+    }
+
+    /**
+     * the built-in rules hand out shared results, the results of other rules
+     * are copied into new immutable ones.
+     */
+    @SuppressWarnings("unchecked")
+    private RoutingResult routingResultOf(IRoutingRule<IBatisRoutingFact, List<String>> rule,
+                                          IBatisRoutingFact routingFact) {
+        if (rule instanceof AbstractIBatisOrientedRule) {
+            return ((AbstractIBatisOrientedRule) rule).routingResultOf(routingFact);
         }
-        for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
-            if (rule.isDefinedAt(routingFact)) {
-                return rule;
+        if (rule instanceof IFactAwareRoutingRule) {
+            return RoutingResult
+                    .immutableOf(((IFactAwareRoutingRule<IBatisRoutingFact, List<String>>) rule)
+                            .action(routingFact));
+        }
+        return RoutingResult.immutableOf(rule.action());
+    }
+
+    private IBatisRuleSequenceIndex getRuleIndex() {
+        IBatisRuleSequenceIndex index = this.ruleIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = this.ruleIndex;
+                if (index == null) {
+                    index = new IBatisRuleSequenceIndex(getRuleSequences(),
+                            adaptiveRuleOrdering,
+                            IBatisRuleSequenceIndex.DEFAULT_REORDER_INTERVAL_MILLIS);
+                    this.ruleIndex = index;
+                }
             }
         }
-        return null;
+        return index;
     }
 
+    /**
+     * @deprecated the routing results are no longer cached in a
+     *             {@link LRUMap}, use {@link #getRoutingCache()} instead.
+     * @return a snapshot of the cached routing results, which the cache
+     *         doesn't see the changes of, or null if the cache is disabled.
+     */
+    @Deprecated
+    @SuppressWarnings("unchecked")
     public LRUMap getLocalCache() {
+        if (localCache == null) {
+            return null;
+        }
+        LRUMap snapshot = new LRUMap(localCache.getCapacity());
+        snapshot.putAll(localCache.toMap());
+        return snapshot;
+    }
+
+    /**
+     * @return the cache of the routing results, or null if the cache is
+     *         disabled.
+     */
+    public ConcurrentClockCache<Object, RoutingResult> getRoutingCache() {
         return localCache;
     }
 
-    public synchronized void clearLocalCache(){
+    public void clearLocalCache(){
         this.localCache.clear();
     }
     
@@ -146,12 +257,71 @@ public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact
         return enableCache;
     }
 
+    /**
+     * @param shardKeyExtractors, keyed by sql-map action id or namespace.
+     */
+    public void setShardKeyExtractors(Map<String, IShardKeyExtractor> shardKeyExtractors) {
+        this.cacheKeyFactory = new RoutingCacheKeyFactory(shardKeyExtractors);
+    }
+
+    public Map<String, IShardKeyExtractor> getShardKeyExtractors() {
+        return cacheKeyFactory.getExtractors();
+    }
+
     public void setRuleSequences(List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences) {
         this.ruleSequences = ruleSequences;
+        resetRuleIndex();
     }
 
     public List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> getRuleSequences() {
         return ruleSequences;
     }
 
+    /**
+     * @param adaptiveRuleOrdering, whether to evaluate the rules of each rule
+     *            set in the order of their recent hits, instead of the order
+     *            they are defined in.
+     * @throws IllegalArgumentException if some rules of a rule set overlap,
+     *             see {@link IBatisRuleSequenceIndex}.
+     */
+    public void setAdaptiveRuleOrdering(boolean adaptiveRuleOrdering) {
+        this.adaptiveRuleOrdering = adaptiveRuleOrdering;
+        resetRuleIndex();
+    }
+
+    public boolean isAdaptiveRuleOrdering() {
+        return adaptiveRuleOrdering;
+    }
+
+    /**
+     * @param batchRoutingExecutor, to route large batches in parallel with,
+     *            see {@link BatchRoutingSupport}.
+     */
+    public void setBatchRoutingExecutor(ExecutorService batchRoutingExecutor) {
+        batchRouting.setExecutor(batchRoutingExecutor);
+    }
+
+    public ExecutorService getBatchRoutingExecutor() {
+        return batchRouting.getExecutor();
+    }
+
+    public void setParallelBatchRoutingThreshold(int parallelBatchRoutingThreshold) {
+        batchRouting.setParallelThreshold(parallelBatchRoutingThreshold);
+    }
+
+    public int getParallelBatchRoutingThreshold() {
+        return batchRouting.getParallelThreshold();
+    }
+
+    /**
+     * the index is built eagerly in adaptive mode, so that overlapping rules
+     * are rejected on configuration instead of on the first routing request.
+     */
+    private synchronized void resetRuleIndex() {
+        this.ruleIndex = null;
+        if (adaptiveRuleOrdering) {
+            getRuleIndex();
+        }
+    }
+
 }
@@ -0,0 +1,370 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.alibaba.cobar.client.router.rules.IFactAwareRoutingRule;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
+import com.alibaba.cobar.client.router.support.BatchRoutingSupport;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.IBatisRuleSequenceIndex;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+import com.alibaba.cobar.client.router.support.RoutingResult;
+import com.alibaba.cobar.client.router.support.StatementClassification;
+import com.alibaba.cobar.client.support.utils.CollectionUtils;
+
+/**
+ * a router which compiles its rule sequences into a decision tree, which
+ * branches on the namespace of the sql-map action id first, then on the
+ * action id itself, and ends with the chain of the rules which may match
+ * the action, in the order the rules would be evaluated by
+ * {@link CobarClientInternalRouter}, so a route takes two hash lookups and
+ * the evaluation of the sharding rules before the matching one.<br>
+ * the rules which match by action id or namespace alone end their chains,
+ * since the rules after them can never be reached; the rules which are not
+ * keyed by action id or namespace are put into every chain at their place,
+ * and make up the chain of the actions of unknown namespaces.<br>
+ * the rules can be given as one rule sequence like
+ * {@link CobarClientInternalRouter} takes, or grouped by namespaces like
+ * {@link DefaultCobarClientInternalRouter} takes, the results are the same as
+ * those routers return, but the order of rules is not adapted to their
+ * hits.<br>
+ * the tree is compiled when the rules are set, it will not see the changes
+ * made to the rule sets after that.<br>
+ *
+ * @since 1.0.6
+ */
+public class DecisionTreeCobarRouter implements ICobarRouter<IBatisRoutingFact>,
+        IStatementClassifier, IBatchRouter, IExplainableRouter {
+
+    private volatile DecisionTree     tree         = new DecisionTree(
+                                                           new HashMap<String, NamespaceNode>(),
+                                                           new Candidate[0]);
+    private final BatchRoutingSupport batchRouting = new BatchRoutingSupport();
+
+    public DecisionTreeCobarRouter() {
+    }
+
+    /**
+     * @param rulesGroupByNamespaces, e.g. the rules of a
+     *            {@link DefaultCobarClientInternalRouter}.
+     */
+    public DecisionTreeCobarRouter(
+                                   Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces) {
+        setRulesGroupByNamespaces(rulesGroupByNamespaces);
+    }
+
+    public RoutingResult doRoute(IBatisRoutingFact routingFact) throws RoutingException {
+        Validate.notNull(routingFact);
+        Candidate[] chain = tree.chainOf(routingFact.getAction());
+        for (Candidate candidate : chain) {
+            RoutingResult result = IBatisRuleSequenceIndex.routingResultIfDefinedAt(
+                    candidate.rule, routingFact);
+            if (result != null) {
+                return result;
+            }
+        }
+        return RoutingResult.EMPTY;
+    }
+
+    public RoutingExplanation explain(IBatisRoutingFact routingFact) throws RoutingException {
+        Validate.notNull(routingFact);
+        RoutingExplanation explanation = new RoutingExplanation(routingFact);
+        long start = System.nanoTime();
+        Candidate[] chain = tree.chainOf(routingFact.getAction());
+        for (Candidate candidate : chain) {
+            explanation.getEvaluatedRules().add(candidate.rule);
+            if (candidate.rule.isDefinedAt(routingFact)) {
+                explanation.setMatchedRule(candidate.rule);
+                explanation.setTier(candidate.tier);
+                explanation.setResult(routingResultOf(candidate.rule, routingFact));
+                break;
+            }
+        }
+        explanation.setRoutingNanos(System.nanoTime() - start);
+        return explanation;
+    }
+
+    /**
+     * a statement is static if the first rule of its chain matches by the
+     * statement id or namespace alone, it can't be told if the first rule is
+     * not keyed by either.
+     */
+    public StatementClassification classify(String statementName) {
+        Validate.notEmpty(statementName);
+        Candidate[] chain = tree.chainOf(statementName);
+        if (chain.length == 0) {
+            return StatementClassification.UNSHARDED;
+        }
+        IRoutingRule<IBatisRoutingFact, List<String>> first = chain[0].rule;
+        if (isUnconditional(first)) {
+            return StatementClassification.routedTo(first.action());
+        }
+        if (IBatisRuleSequenceIndex.sqlActionKeyOf(first) == null
+                && IBatisRuleSequenceIndex.namespaceKeyOf(first) == null) {
+            return null;
+        }
+        return StatementClassification.SHARDED;
+    }
+
+    public Map<List<String>, List<Object>> doRouteBatch(String statementName,
+                                                        Collection<?> arguments)
+            throws RoutingException {
+        return batchRouting.route(this, statementName, arguments);
+    }
+
+    /**
+     * @param ruleSequences, the rule sets in the order of precedence, which
+     *            apply to all of the namespaces, see
+     *            {@link CobarClientInternalRouter#setRuleSequences(List)}.
+     */
+    public void setRuleSequences(List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences) {
+        Set<String> namespaces = new HashSet<String>();
+        if (!CollectionUtils.isEmpty(ruleSequences)) {
+            for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : ruleSequences) {
+                if (ruleSet != null) {
+                    for (IRoutingRule<IBatisRoutingFact, List<String>> rule : ruleSet) {
+                        String namespace = namespaceOf(rule);
+                        if (namespace != null) {
+                            namespaces.add(namespace);
+                        }
+                    }
+                }
+            }
+        }
+        Map<String, NamespaceNode> nodes = new HashMap<String, NamespaceNode>();
+        for (String namespace : namespaces) {
+            nodes.put(namespace, compileNamespace(namespace, ruleSequences));
+        }
+        this.tree = new DecisionTree(nodes, compileChain(ruleSequences, null, null));
+    }
+
+    /**
+     * @param rulesGroupByNamespaces, the rule sequence of each namespace,
+     *            which only applies to that namespace, see
+     *            {@link DefaultCobarClientInternalRouter#setRulesGroupByNamespaces(Map)}.
+     */
+    public void setRulesGroupByNamespaces(
+                                          Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces) {
+        Map<String, NamespaceNode> nodes = new HashMap<String, NamespaceNode>();
+        if (rulesGroupByNamespaces != null) {
+            for (Map.Entry<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> entry : rulesGroupByNamespaces
+                    .entrySet()) {
+                if (!CollectionUtils.isEmpty(entry.getValue())) {
+                    nodes.put(entry.getKey(), compileNamespace(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        this.tree = new DecisionTree(nodes, new Candidate[0]);
+    }
+
+    /**
+     * @return the number of rules in the longest chain, which bounds the rules
+     *         a route evaluates.
+     */
+    public int getMaxChainLength() {
+        return tree.maxChainLength();
+    }
+
+    public void setBatchRoutingExecutor(ExecutorService batchRoutingExecutor) {
+        batchRouting.setExecutor(batchRoutingExecutor);
+    }
+
+    public ExecutorService getBatchRoutingExecutor() {
+        return batchRouting.getExecutor();
+    }
+
+    public void setParallelBatchRoutingThreshold(int parallelBatchRoutingThreshold) {
+        batchRouting.setParallelThreshold(parallelBatchRoutingThreshold);
+    }
+
+    public int getParallelBatchRoutingThreshold() {
+        return batchRouting.getParallelThreshold();
+    }
+
+    private NamespaceNode compileNamespace(
+                                           String namespace,
+                                           List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences) {
+        Set<String> actions = new HashSet<String>();
+        for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : ruleSequences) {
+            if (ruleSet != null) {
+                for (IRoutingRule<IBatisRoutingFact, List<String>> rule : ruleSet) {
+                    String action = IBatisRuleSequenceIndex.sqlActionKeyOf(rule);
+                    if (action != null
+                            && namespace.equals(StringUtils.substringBeforeLast(action, "."))) {
+                        actions.add(action);
+                    }
+                }
+            }
+        }
+        Map<String, Candidate[]> chainsByAction = new HashMap<String, Candidate[]>();
+        for (String action : actions) {
+            chainsByAction.put(action, compileChain(ruleSequences, action, namespace));
+        }
+        return new NamespaceNode(chainsByAction, compileChain(ruleSequences, null, namespace));
+    }
+
+    /**
+     * @param action, the sql action id, or null for the actions without rules
+     *            of their own.
+     * @param namespace, the namespace, or null for unknown namespaces.
+     * @return the rules which may match the action, in the order of
+     *         evaluation.
+     */
+    private Candidate[] compileChain(
+                                     List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences,
+                                     String action, String namespace) {
+        List<Candidate> chain = new ArrayList<Candidate>();
+        if (CollectionUtils.isEmpty(ruleSequences)) {
+            return new Candidate[0];
+        }
+        int tier = 0;
+        for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : ruleSequences) {
+            if (ruleSet != null) {
+                for (IRoutingRule<IBatisRoutingFact, List<String>> rule : ruleSet) {
+                    String actionKey = IBatisRuleSequenceIndex.sqlActionKeyOf(rule);
+                    String namespaceKey = IBatisRuleSequenceIndex.namespaceKeyOf(rule);
+                    boolean candidate;
+                    if (actionKey != null) {
+                        candidate = actionKey.equals(action);
+                    } else if (namespaceKey != null) {
+                        candidate = namespaceKey.equals(namespace);
+                    } else {
+                        candidate = true;
+                    }
+                    if (candidate) {
+                        chain.add(new Candidate(rule, tier));
+                        if (isUnconditional(rule)) {
+                            return chain.toArray(new Candidate[chain.size()]);
+                        }
+                    }
+                }
+            }
+            tier++;
+        }
+        return chain.toArray(new Candidate[chain.size()]);
+    }
+
+    private static String namespaceOf(IRoutingRule<IBatisRoutingFact, List<String>> rule) {
+        String action = IBatisRuleSequenceIndex.sqlActionKeyOf(rule);
+        if (action != null) {
+            return StringUtils.substringBeforeLast(action, ".");
+        }
+        return IBatisRuleSequenceIndex.namespaceKeyOf(rule);
+    }
+
+    /**
+     * @return whether the rule matches all of the facts of its action id or
+     *         namespace.
+     */
+    private static boolean isUnconditional(IRoutingRule<IBatisRoutingFact, List<String>> rule) {
+        return rule.getClass() == IBatisSqlActionRule.class
+                || rule.getClass() == IBatisNamespaceRule.class;
+    }
+
+    /**
+     * same as the other internal routers, the built-in rules hand out shared
+     * results, the results of other rules are copied into new immutable ones.
+     */
+    @SuppressWarnings("unchecked")
+    private RoutingResult routingResultOf(IRoutingRule<IBatisRoutingFact, List<String>> rule,
+                                          IBatisRoutingFact routingFact) {
+        if (rule instanceof AbstractIBatisOrientedRule) {
+            return ((AbstractIBatisOrientedRule) rule).routingResultOf(routingFact);
+        }
+        if (rule instanceof IFactAwareRoutingRule) {
+            return RoutingResult
+                    .immutableOf(((IFactAwareRoutingRule<IBatisRoutingFact, List<String>>) rule)
+                            .action(routingFact));
+        }
+        return RoutingResult.immutableOf(rule.action());
+    }
+
+    private static class DecisionTree {
+        final Map<String, NamespaceNode> namespaces;
+        /**
+         * the chain of the actions of unknown namespaces.
+         */
+        final Candidate[]                defaultChain;
+
+        DecisionTree(Map<String, NamespaceNode> namespaces, Candidate[] defaultChain) {
+            this.namespaces = Collections.unmodifiableMap(namespaces);
+            this.defaultChain = defaultChain;
+        }
+
+        Candidate[] chainOf(String action) {
+            Validate.notEmpty(action);
+            NamespaceNode node = namespaces.get(StringUtils.substringBeforeLast(action, "."));
+            if (node == null) {
+                return defaultChain;
+            }
+            Candidate[] chain = node.chainsByAction.get(action);
+            return (chain == null) ? node.defaultChain : chain;
+        }
+
+        int maxChainLength() {
+            int max = defaultChain.length;
+            for (NamespaceNode node : namespaces.values()) {
+                max = Math.max(max, node.defaultChain.length);
+                for (Candidate[] chain : node.chainsByAction.values()) {
+                    max = Math.max(max, chain.length);
+                }
+            }
+            return max;
+        }
+    }
+
+    private static class NamespaceNode {
+        final Map<String, Candidate[]> chainsByAction;
+        /**
+         * the chain of the actions without rules of their own.
+         */
+        final Candidate[]              defaultChain;
+
+        NamespaceNode(Map<String, Candidate[]> chainsByAction, Candidate[] defaultChain) {
+            this.chainsByAction = chainsByAction;
+            this.defaultChain = defaultChain;
+        }
+    }
+
+    private static class Candidate {
+        final IRoutingRule<IBatisRoutingFact, List<String>> rule;
+        /**
+         * position of the rule set of the rule in the rule sequence.
+         */
+        final int                                           tier;
+
+        Candidate(IRoutingRule<IBatisRoutingFact, List<String>> rule, int tier) {
+            this.rule = rule;
+            this.tier = tier;
+        }
+    }
+}
@@ -15,11 +15,12 @@
  */
  package com.alibaba.cobar.client.router;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
@@ -27,9 +28,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.cobar.client.router.config.DefaultCobarClientInternalRouterXmlFactoryBean;
+import com.alibaba.cobar.client.router.rules.IFactAwareRoutingRule;
 import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
+import com.alibaba.cobar.client.router.support.BatchRoutingSupport;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.IBatisRuleSequenceIndex;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
 import com.alibaba.cobar.client.router.support.RoutingResult;
+import com.alibaba.cobar.client.router.support.StatementClassification;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
 
 /**
@@ -40,70 +47,187 @@ import com.alibaba.cobar.client.support.utils.CollectionUtils;
  * usually, the users don't need to care about these internal details, to use
  * {@link DefaultCobarClientInternalRouter}, just turn to
  * {@link DefaultCobarClientInternalRouterXmlFactoryBean} for instantiation.<br>
+ * the rules of each namespace are indexed by sql action id on the first
+ * routing request, if the rules are changed after that, set them again with
+ * {@link #setRulesGroupByNamespaces(Map)} to rebuild the indexes.<br>
+ * the arguments of bulk operations can be routed in one pass with
+ * {@link #doRouteBatch(String, Collection)}.<br>
  * 
  * @author fujohnwang
  * @since 1.0
  * @see DefaultCobarClientInternalRouterXmlFactoryBean
  */
-public class DefaultCobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact> {
+public class DefaultCobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact>,
+        IStatementClassifier, IBatchRouter, IExplainableRouter {
 
     private transient final Logger                                                logger                 = LoggerFactory
                                                                                                                  .getLogger(DefaultCobarClientInternalRouter.class);
 
     private Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces = new HashMap<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>>();
+    private volatile Map<String, IBatisRuleSequenceIndex>                         ruleIndexes;
+    private boolean                                                               adaptiveRuleOrdering;
+    private final BatchRoutingSupport                                             batchRouting           = new BatchRoutingSupport();
 
     public RoutingResult doRoute(IBatisRoutingFact routingFact) throws RoutingException {
         Validate.notNull(routingFact);
         String action = routingFact.getAction();
         Validate.notEmpty(action);
         String namespace = StringUtils.substringBeforeLast(action, ".");
-        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> rules = getRulesGroupByNamespaces()
-                .get(namespace);
-
-        RoutingResult result = new RoutingResult();
-        result.setResourceIdentities(new ArrayList<String>());
-
-        if (!CollectionUtils.isEmpty(rules)) {
-            IRoutingRule<IBatisRoutingFact, List<String>> ruleToUse = null;
-            for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : rules) {
-                ruleToUse = searchMatchedRuleAgainst(ruleSet, routingFact);
-                if (ruleToUse != null) {
-                    break;
+        IBatisRuleSequenceIndex rules = getRuleIndexes().get(namespace);
+
+        RoutingResult result = RoutingResult.EMPTY;
+
+        if (rules != null) {
+            RoutingResult matched = rules.route(routingFact);
+
+            if (matched != null) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("routed fact:{} to:{}", routingFact, matched);
                 }
+                result = matched;
+            } else if (logger.isTraceEnabled()) {
+                logger.trace("No matched rule found for routing fact:{}", routingFact);
             }
+        }
 
+        return result;
+    }
+
+    public RoutingExplanation explain(IBatisRoutingFact routingFact) throws RoutingException {
+        Validate.notNull(routingFact);
+        String action = routingFact.getAction();
+        Validate.notEmpty(action);
+        RoutingExplanation explanation = new RoutingExplanation(routingFact);
+        long start = System.nanoTime();
+        IBatisRuleSequenceIndex rules = getRuleIndexes().get(
+                StringUtils.substringBeforeLast(action, "."));
+        if (rules != null) {
+            IRoutingRule<IBatisRoutingFact, List<String>> ruleToUse = rules.explain(routingFact,
+                    explanation);
             if (ruleToUse != null) {
-                logger.info("matched with rule:{} with fact:{}", ruleToUse, routingFact);
-                result.getResourceIdentities().addAll(ruleToUse.action());
-            } else {
-                logger.info("No matched rule found for routing fact:{}", routingFact);
+                explanation.setResult(routingResultOf(ruleToUse, routingFact));
             }
         }
+        explanation.setRoutingNanos(System.nanoTime() - start);
+        return explanation;
+    }
 
-        return result;
+    public Map<List<String>, List<Object>> doRouteBatch(String statementName,
+                                                        Collection<?> arguments)
+            throws RoutingException {
+        return batchRouting.route(this, statementName, arguments);
     }
 
-    private IRoutingRule<IBatisRoutingFact, List<String>> searchMatchedRuleAgainst(
-                                                                                   Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules,
-                                                                                   IBatisRoutingFact routingFact) {
-        if (CollectionUtils.isEmpty(rules)) {
-            return null;
+    public StatementClassification classify(String statementName) {
+        Validate.notEmpty(statementName);
+        IBatisRuleSequenceIndex rules = getRuleIndexes().get(
+                StringUtils.substringBeforeLast(statementName, "."));
+        if (rules == null) {
+            return StatementClassification.UNSHARDED;
         }
-        for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
-            if (rule.isDefinedAt(routingFact)) {
-                return rule;
+        return rules.classify(statementName);
+    }
+
+    /**
+     * the built-in rules hand out shared results, the results of other rules
+     * are copied into new immutable ones.
+     */
+    @SuppressWarnings("unchecked")
+    private RoutingResult routingResultOf(IRoutingRule<IBatisRoutingFact, List<String>> rule,
+                                          IBatisRoutingFact routingFact) {
+        if (rule instanceof AbstractIBatisOrientedRule) {
+            return ((AbstractIBatisOrientedRule) rule).routingResultOf(routingFact);
+        }
+        if (rule instanceof IFactAwareRoutingRule) {
+            return RoutingResult
+                    .immutableOf(((IFactAwareRoutingRule<IBatisRoutingFact, List<String>>) rule)
+                            .action(routingFact));
+        }
+        return RoutingResult.immutableOf(rule.action());
+    }
+
+    private Map<String, IBatisRuleSequenceIndex> getRuleIndexes() {
+        Map<String, IBatisRuleSequenceIndex> indexes = this.ruleIndexes;
+        if (indexes == null) {
+            synchronized (this) {
+                indexes = this.ruleIndexes;
+                if (indexes == null) {
+                    indexes = new HashMap<String, IBatisRuleSequenceIndex>();
+                    for (Map.Entry<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> entry : getRulesGroupByNamespaces()
+                            .entrySet()) {
+                        if (!CollectionUtils.isEmpty(entry.getValue())) {
+                            indexes.put(entry.getKey(), new IBatisRuleSequenceIndex(entry
+                                    .getValue(), adaptiveRuleOrdering,
+                                    IBatisRuleSequenceIndex.DEFAULT_REORDER_INTERVAL_MILLIS));
+                        }
+                    }
+                    this.ruleIndexes = indexes;
+                }
             }
         }
-        return null;
+        return indexes;
     }
 
     public void setRulesGroupByNamespaces(
                                           Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces) {
         this.rulesGroupByNamespaces = rulesGroupByNamespaces;
+        resetRuleIndexes();
     }
 
     public Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> getRulesGroupByNamespaces() {
         return rulesGroupByNamespaces;
     }
 
+    /**
+     * @param adaptiveRuleOrdering, whether to evaluate the rules of each rule
+     *            set in the order of their recent hits, instead of the order
+     *            they are defined in.
+     * @throws IllegalArgumentException if some rules of a rule set overlap,
+     *             see {@link IBatisRuleSequenceIndex}.
+     */
+    public void setAdaptiveRuleOrdering(boolean adaptiveRuleOrdering) {
+        this.adaptiveRuleOrdering = adaptiveRuleOrdering;
+        resetRuleIndexes();
+    }
+
+    public boolean isAdaptiveRuleOrdering() {
+        return adaptiveRuleOrdering;
+    }
+
+    /**
+     * @param batchRoutingExecutor, to route large batches in parallel with,
+     *            see {@link BatchRoutingSupport}.
+     */
+    public void setBatchRoutingExecutor(ExecutorService batchRoutingExecutor) {
+        batchRouting.setExecutor(batchRoutingExecutor);
+    }
+
+    public ExecutorService getBatchRoutingExecutor() {
+        return batchRouting.getExecutor();
+    }
+
+    public void setParallelBatchRoutingThreshold(int parallelBatchRoutingThreshold) {
+        batchRouting.setParallelThreshold(parallelBatchRoutingThreshold);
+    }
+
+    public int getParallelBatchRoutingThreshold() {
+        return batchRouting.getParallelThreshold();
+    }
+
+    /**
+     * builds the rule indexes now instead of on the first routing request, so
+     * that a router can be fully prepared before it's published to the
+     * routing threads.<br>
+     */
+    public void buildRuleIndexes() {
+        getRuleIndexes();
+    }
+
+    private synchronized void resetRuleIndexes() {
+        this.ruleIndexes = null;
+        if (adaptiveRuleOrdering) {
+            getRuleIndexes();
+        }
+    }
+
 }
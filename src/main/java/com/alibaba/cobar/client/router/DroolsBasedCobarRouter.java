@@ -15,21 +15,14 @@
  */
  package com.alibaba.cobar.client.router;
 
-import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
-import com.alibaba.cobar.client.router.support.RoutingResult;
-
 /**
- * TODO when rule numbers increase incredibly, we can introduce a rule engine like drools to enhance the performance of rule matching.<br>
+ * instead of introducing a rule engine like drools, the rules are compiled
+ * into a decision tree, see {@link DecisionTreeCobarRouter}, this class is
+ * kept for the configurations which refer to it.<br>
  * 
  * @author fujohnwang
- *
+ * @see DecisionTreeCobarRouter
  */
-public class DroolsBasedCobarRouter implements ICobarRouter<IBatisRoutingFact> {
-
-	public RoutingResult doRoute(IBatisRoutingFact routingFact)
-			throws RoutingException {
-		// TODO Auto-generated method stub
-		return null;
-	}
+public class DroolsBasedCobarRouter extends DecisionTreeCobarRouter {
 
 }
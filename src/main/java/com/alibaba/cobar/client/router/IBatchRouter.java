@@ -0,0 +1,41 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * implemented by the routers which can route the arguments of a bulk
+ * operation in one pass, instead of being asked once per argument.<br>
+ *
+ * @since 1.0.6
+ */
+public interface IBatchRouter {
+    /**
+     * @param statementName, the sql-map statement id shared by all of the
+     *            arguments.
+     * @param arguments, the parameter objects of the statement.
+     * @return the arguments grouped by the identities of their target data
+     *         sources, the arguments which match no rule are grouped under an
+     *         empty list; groups are in the order they are first seen, and
+     *         the arguments of a group are in their original order.
+     * @throws RoutingException
+     */
+    Map<List<String>, List<Object>> doRouteBatch(String statementName, Collection<?> arguments)
+            throws RoutingException;
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router;
+
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+
+/**
+ * implemented by the routers which can tell how they route a routing fact,
+ * e.g. which rule matches it and which rules are evaluated before that, so
+ * that unexpected fan-outs and slow rules can be found without a
+ * profiler.<br>
+ * explaining a fact doesn't change the state of the router, e.g. the result
+ * is not cached, and the hits of rules are not counted.<br>
+ *
+ * @since 1.0.6
+ */
+public interface IExplainableRouter {
+    /**
+     * @return how the fact is routed, with the same result as
+     *         {@link ICobarRouter#doRoute(Object)} would return.
+     */
+    RoutingExplanation explain(IBatisRoutingFact routingFact) throws RoutingException;
+}
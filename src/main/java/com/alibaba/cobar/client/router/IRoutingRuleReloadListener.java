@@ -0,0 +1,36 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router;
+
+import java.util.Set;
+
+/**
+ * notified by {@link ReloadableCobarRouter} after it has published new
+ * routing rules, e.g. to drop what was derived from the former ones.<br>
+ *
+ * @since 1.0.6
+ */
+public interface IRoutingRuleReloadListener {
+    /**
+     * called on the reloading thread, after the new rules have been
+     * published.
+     * 
+     * @param router, the router whose rules have been reloaded.
+     * @param changedScopes, the sql-map action ids and namespaces whose rules
+     *            have changed.
+     */
+    void onRulesReloaded(ReloadableCobarRouter router, Set<String> changedScopes);
+}
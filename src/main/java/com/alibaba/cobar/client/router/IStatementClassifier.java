@@ -0,0 +1,34 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router;
+
+import com.alibaba.cobar.client.router.support.StatementClassification;
+
+/**
+ * implemented by the routers which can tell how a sql-map statement will be
+ * routed from their rules alone, so that the statements which don't depend
+ * on their parameters can be planned once instead of routed per request.<br>
+ *
+ * @since 1.0.6
+ */
+public interface IStatementClassifier {
+    /**
+     * @param statementName, the sql-map statement id.
+     * @return the classification of the statement, or null if it can't be
+     *         told before routing.
+     */
+    StatementClassification classify(String statementName);
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.IShardKeyExtractor;
+import com.alibaba.cobar.client.router.support.RoutingCacheKey;
+import com.alibaba.cobar.client.router.support.RoutingCacheKeyFactory;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+import com.alibaba.cobar.client.router.support.RoutingResult;
+import com.alibaba.cobar.client.router.support.StatementClassification;
+import com.alibaba.cobar.client.support.ConcurrentClockCache;
+import com.alibaba.cobar.client.support.utils.Predicate;
+
+/**
+ * a router whose rules can be replaced while it's routing, the rules live in
+ * a {@link DefaultCobarClientInternalRouter} which is fully built before it's
+ * published with {@link #publish(DefaultCobarClientInternalRouter, Set)}.<br>
+ * the current router and its version are kept in an immutable snapshot which
+ * is swapped with a single volatile write, a routing request reads the
+ * snapshot once and routes against it till the end, so it never locks and
+ * never sees a half-built rule set.<br>
+ * the routing results can be cached, each cached result remembers the
+ * version it was routed with, and a new version only invalidates the results
+ * of the sql-map actions and namespaces whose rules have changed, including
+ * the ones put by the requests which were still routing with the former
+ * rules.<br>
+ *
+ * @since 1.0.6
+ * @see com.alibaba.cobar.client.router.config.AbstractCobarClientInternalRouterFactoryBean#setReloadIntervalMillis(long)
+ */
+public class ReloadableCobarRouter implements ICobarRouter<IBatisRoutingFact>,
+        IStatementClassifier, IBatchRouter, IExplainableRouter {
+
+    private transient final Logger                                    logger          = LoggerFactory
+                                                                                              .getLogger(ReloadableCobarRouter.class);
+
+    private volatile Snapshot                                         snapshot;
+    private final ConcurrentClockCache<Object, CachedRoutingResult>   cache;
+    private RoutingCacheKeyFactory                                    cacheKeyFactory = new RoutingCacheKeyFactory(
+                                                                                              null);
+    private final CopyOnWriteArrayList<IRoutingRuleReloadListener>   listeners       = new CopyOnWriteArrayList<IRoutingRuleReloadListener>();
+
+    public ReloadableCobarRouter(DefaultCobarClientInternalRouter router) {
+        this(router, 0);
+    }
+
+    /**
+     * @param router, the router with the initial rules.
+     * @param cacheSize, max number of cached routing results, the results are
+     *            not cached if it's not positive.
+     */
+    public ReloadableCobarRouter(DefaultCobarClientInternalRouter router, int cacheSize) {
+        Validate.notNull(router);
+        router.buildRuleIndexes();
+        this.snapshot = new Snapshot(router, 0L, Collections.<String, Long> emptyMap());
+        this.cache = (cacheSize > 0) ? new ConcurrentClockCache<Object, CachedRoutingResult>(
+                cacheSize) : null;
+    }
+
+    public RoutingResult doRoute(IBatisRoutingFact routingFact) throws RoutingException {
+        Snapshot current = this.snapshot;
+        if (cache == null) {
+            return current.router.doRoute(routingFact);
+        }
+        Object cacheKey = cacheKeyFactory.createKey(routingFact);
+        CachedRoutingResult cached = cache.get(cacheKey);
+        if (cached != null && current.isUpToDate(cached, routingFact.getAction())) {
+            return cached.result;
+        }
+        RoutingResult result = current.router.doRoute(routingFact);
+        cache.put(cacheKey, new CachedRoutingResult(result, current.version));
+        return result;
+    }
+
+    public RoutingExplanation explain(IBatisRoutingFact routingFact) throws RoutingException {
+        Snapshot current = this.snapshot;
+        RoutingExplanation explanation = current.router.explain(routingFact);
+        if (cache != null) {
+            CachedRoutingResult cached = cache.peek(cacheKeyFactory.createKey(routingFact));
+            if (cached != null && current.isUpToDate(cached, routingFact.getAction())) {
+                explanation.setCacheStatus(RoutingExplanation.CacheStatus.HIT);
+                explanation.setResult(cached.result);
+            } else {
+                explanation.setCacheStatus(RoutingExplanation.CacheStatus.MISS);
+            }
+        }
+        return explanation;
+    }
+
+    public StatementClassification classify(String statementName) {
+        return snapshot.router.classify(statementName);
+    }
+
+    public Map<List<String>, List<Object>> doRouteBatch(String statementName,
+                                                        Collection<?> arguments)
+            throws RoutingException {
+        return snapshot.router.doRouteBatch(statementName, arguments);
+    }
+
+    /**
+     * replaces the current rules with the ones of the given router, the
+     * routing requests which have started keep routing with the former
+     * ones.<br>
+     * 
+     * @param router, the router with the new rules, it must not be changed
+     *            after it's published.
+     * @param changedScopes, the sql-map action ids and namespaces whose rules
+     *            differ from the current ones, only their cached results are
+     *            invalidated.
+     */
+    public void publish(DefaultCobarClientInternalRouter router, Set<String> changedScopes) {
+        Validate.notNull(router);
+        Validate.notNull(changedScopes);
+        router.buildRuleIndexes();
+
+        final Set<String> scopes = new HashSet<String>(changedScopes);
+        synchronized (this) {
+            Snapshot previous = this.snapshot;
+            long version = previous.version + 1;
+            Map<String, Long> changedAt = new HashMap<String, Long>(previous.changedAt);
+            for (String scope : scopes) {
+                changedAt.put(scope, version);
+            }
+            this.snapshot = new Snapshot(router, version, changedAt);
+        }
+
+        if (cache != null && !scopes.isEmpty()) {
+            // the stale results would be ignored anyway, drop them to make room for the fresh ones.
+            int removed = cache.removeIf(new Predicate() {
+                public boolean evaluate(Object key) {
+                    String action = actionOf(key);
+                    return action != null
+                            && (scopes.contains(action) || scopes.contains(StringUtils
+                                    .substringBeforeLast(action, ".")));
+                }
+            });
+            logger.info("{} cached routing results are invalidated for the changes of:{}",
+                    removed, scopes);
+        }
+
+        for (IRoutingRuleReloadListener listener : listeners) {
+            listener.onRulesReloaded(this, Collections.unmodifiableSet(scopes));
+        }
+    }
+
+    private static String actionOf(Object cacheKey) {
+        if (cacheKey instanceof RoutingCacheKey) {
+            return ((RoutingCacheKey) cacheKey).getAction();
+        }
+        if (cacheKey instanceof IBatisRoutingFact) {
+            return ((IBatisRoutingFact) cacheKey).getAction();
+        }
+        return null;
+    }
+
+    public void addReloadListener(IRoutingRuleReloadListener listener) {
+        Validate.notNull(listener);
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeReloadListener(IRoutingRuleReloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the router with the current rules.
+     */
+    public DefaultCobarClientInternalRouter getCurrentRouter() {
+        return snapshot.router;
+    }
+
+    /**
+     * @return the number of times the rules have been replaced.
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    public ConcurrentClockCache<Object, CachedRoutingResult> getCache() {
+        return cache;
+    }
+
+    /**
+     * @param shardKeyExtractors, keyed by sql-map action id or namespace, see
+     *            {@link RoutingCacheKeyFactory}.
+     */
+    public void setShardKeyExtractors(Map<String, IShardKeyExtractor> shardKeyExtractors) {
+        this.cacheKeyFactory = new RoutingCacheKeyFactory(shardKeyExtractors);
+    }
+
+    public Map<String, IShardKeyExtractor> getShardKeyExtractors() {
+        return cacheKeyFactory.getExtractors();
+    }
+
+    private static class Snapshot {
+        final DefaultCobarClientInternalRouter router;
+        final long                             version;
+        /**
+         * the version in which the rules of a sql-map action id or namespace
+         * changed last time.
+         */
+        final Map<String, Long>                changedAt;
+
+        Snapshot(DefaultCobarClientInternalRouter router, long version,
+                 Map<String, Long> changedAt) {
+            this.router = router;
+            this.version = version;
+            this.changedAt = changedAt;
+        }
+
+        boolean isUpToDate(CachedRoutingResult cached, String action) {
+            if (cached.version == version) {
+                return true;
+            }
+            Long changed = changedAt.get(action);
+            if (changed != null && changed.longValue() > cached.version) {
+                return false;
+            }
+            changed = changedAt.get(StringUtils.substringBeforeLast(action, "."));
+            return changed == null || changed.longValue() <= cached.version;
+        }
+    }
+
+    public static class CachedRoutingResult {
+        final RoutingResult result;
+        final long          version;
+
+        CachedRoutingResult(RoutingResult result, long version) {
+            this.result = result;
+            this.version = version;
+        }
+
+        public RoutingResult getResult() {
+            return result;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+}
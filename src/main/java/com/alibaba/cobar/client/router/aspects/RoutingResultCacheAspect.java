@@ -16,6 +16,7 @@
  package com.alibaba.cobar.client.router.aspects;
 
 import java.util.Arrays;
+import java.util.Map;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
@@ -24,11 +25,23 @@ import com.alibaba.cobar.client.router.DefaultCobarClientInternalRouter;
 import com.alibaba.cobar.client.router.ICobarRouter;
 import com.alibaba.cobar.client.router.config.AbstractCobarClientInternalRouterFactoryBean;
 import com.alibaba.cobar.client.router.config.StaticCobarClientInternalRouterFactoryBean;
-import com.alibaba.cobar.client.support.LRUMap;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.IShardKeyExtractor;
+import com.alibaba.cobar.client.router.support.RoutingCacheKeyFactory;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+import com.alibaba.cobar.client.router.support.RoutingResult;
+import com.alibaba.cobar.client.support.ConcurrentClockCache;
 
 /**
  * An advice that will provide cache service for {@link ICobarRouter} to improve
  * the routing performance if necessary.<br>
+ * the cache is shared by all of the routing threads, but cache hits don't
+ * take any lock, see {@link ConcurrentClockCache}.<br>
+ * the routing facts will be cached by shard keys if there are
+ * {@link IShardKeyExtractor}s registered for them, see
+ * {@link RoutingCacheKeyFactory}.<br>
+ * the explanations of the router are told whether their results are cached,
+ * but they are never cached themselves.<br>
  * 
  * @author fujohnwang
  * @since 1.0
@@ -39,42 +52,71 @@ import com.alibaba.cobar.client.support.LRUMap;
  */
 public class RoutingResultCacheAspect implements MethodInterceptor {
 
-    private LRUMap internalCache = new LRUMap(1000);
+    private ConcurrentClockCache<Object, Object> internalCache   = new ConcurrentClockCache<Object, Object>(
+                                                                     1000);
+    private RoutingCacheKeyFactory               cacheKeyFactory = new RoutingCacheKeyFactory(null);
 
     public Object invoke(MethodInvocation invocation) throws Throwable {
+        String methodName = invocation.getMethod().getName();
+        if (!"doRoute".equals(methodName) && !"explain".equals(methodName)) {
+            return invocation.proceed();
+        }
         Object[] args = invocation.getArguments();
         if (args.length != 1) {
             throw new IllegalArgumentException("unexpected argument status on method:"
                     + invocation.getMethod() + ", args:" + Arrays.toString(args));
         }
 
-        synchronized (internalCache) {
-            if (internalCache.containsKey(args[0])) {
-                return internalCache.get(args[0]);
-            }
+        Object cacheKey = args[0];
+        if (cacheKey instanceof IBatisRoutingFact) {
+            cacheKey = cacheKeyFactory.createKey((IBatisRoutingFact) cacheKey);
+        }
+
+        if ("explain".equals(methodName)) {
+            return explainWithCache((RoutingExplanation) invocation.proceed(), cacheKey);
         }
 
-        Object result = null;
-        try {
-            result = invocation.proceed();
-        } finally {
-            synchronized (internalCache) {
-                internalCache.put(args[0], result);
-            }
+        Object result = internalCache.get(cacheKey);
+        if (result != null) {
+            return result;
         }
 
+        result = invocation.proceed();
+        internalCache.put(cacheKey, result);
         return result;
     }
 
-    public void setInternalCache(LRUMap internalCache) {
+    private RoutingExplanation explainWithCache(RoutingExplanation explanation, Object cacheKey) {
+        Object cached = internalCache.peek(cacheKey);
+        if (cached instanceof RoutingResult) {
+            explanation.setCacheStatus(RoutingExplanation.CacheStatus.HIT);
+            explanation.setResult((RoutingResult) cached);
+        } else {
+            explanation.setCacheStatus(RoutingExplanation.CacheStatus.MISS);
+        }
+        return explanation;
+    }
+
+    public void setInternalCache(ConcurrentClockCache<Object, Object> internalCache) {
         if (internalCache == null) {
             throw new IllegalArgumentException("Null Cache Map is not allowed.");
         }
         this.internalCache = internalCache;
     }
 
-    public LRUMap getInternalCache() {
+    public ConcurrentClockCache<Object, Object> getInternalCache() {
         return internalCache;
     }
 
+    /**
+     * @param shardKeyExtractors, keyed by sql-map action id or namespace.
+     */
+    public void setShardKeyExtractors(Map<String, IShardKeyExtractor> shardKeyExtractors) {
+        this.cacheKeyFactory = new RoutingCacheKeyFactory(shardKeyExtractors);
+    }
+
+    public Map<String, IShardKeyExtractor> getShardKeyExtractors() {
+        return cacheKeyFactory.getExtractors();
+    }
+
 }
@@ -15,24 +15,49 @@
  */
  package com.alibaba.cobar.client.router.config;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
 
+import com.alibaba.cobar.client.router.DecisionTreeCobarRouter;
 import com.alibaba.cobar.client.router.DefaultCobarClientInternalRouter;
+import com.alibaba.cobar.client.router.IBatchRouter;
 import com.alibaba.cobar.client.router.ICobarRouter;
+import com.alibaba.cobar.client.router.IExplainableRouter;
+import com.alibaba.cobar.client.router.IStatementClassifier;
+import com.alibaba.cobar.client.router.ReloadableCobarRouter;
 import com.alibaba.cobar.client.router.aspects.RoutingResultCacheAspect;
 import com.alibaba.cobar.client.router.config.support.InternalRuleLoader4DefaultInternalRouter;
 import com.alibaba.cobar.client.router.config.vo.InternalRule;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
-import com.alibaba.cobar.client.support.LRUMap;
+import com.alibaba.cobar.client.router.support.IShardKeyExtractor;
+import com.alibaba.cobar.client.support.ConcurrentClockCache;
 
 /**
  * Top super class used to configure DefaultCobarClientInternalRouter instances.<br>
+ * if {@link #setReloadIntervalMillis(long)} is given, the router will be a
+ * {@link ReloadableCobarRouter}, and the resources returned by
+ * {@link #getWatchedResources()} are checked for modifications at that
+ * interval on a daemon thread, the rules are loaded and validated again on
+ * that thread once they are modified, and published only if they are
+ * valid.<br>
+ * if {@link #setDecisionTree(boolean)} is set, the rules are compiled into a
+ * {@link DecisionTreeCobarRouter} instead.<br>
  * 
  * @author fujohnwang
  * @see DefaultCobarClientInternalRouter
@@ -40,7 +65,15 @@ import com.alibaba.cobar.client.support.LRUMap;
  * @see StaticCobarClientInternalRouterFactoryBean
  */
 public abstract class AbstractCobarClientInternalRouterFactoryBean implements FactoryBean,
-        InitializingBean {
+        InitializingBean, DisposableBean {
+    /**
+     * same as the default capacity of {@link RoutingResultCacheAspect}.
+     */
+    private static final int                         DEFAULT_RELOADABLE_CACHE_SIZE = 1000;
+
+    private transient final Logger                   logger                        = LoggerFactory
+                                                                                           .getLogger(AbstractCobarClientInternalRouterFactoryBean.class);
+
     private ICobarRouter<IBatisRoutingFact>          router;
 
     private Map<String, Object>                      functionsMap = new HashMap<String, Object>();
@@ -49,6 +82,38 @@ public abstract class AbstractCobarClientInternalRouterFactoryBean implements Fa
 
     private boolean                                  enableCache;
     private int                                      cacheSize    = -1;
+    /**
+     * whether to compile the sharding expressions once when the rules are
+     * loaded, instead of interpreting them on each routing request.
+     */
+    private boolean                                  compileShardingExpressions;
+    /**
+     * shard key extractors keyed by sql-map action id or namespace, if given,
+     * the routing results of the matched actions will be cached by their shard
+     * keys instead of the whole routing facts.
+     */
+    private Map<String, IShardKeyExtractor>          shardKeyExtractors;
+    /**
+     * whether to evaluate the rules in the order of their recent hits, the
+     * rules which overlap in a rule set will be rejected then, and the rule
+     * sets whose rules can't be proven disjoint are kept in their original
+     * order.
+     */
+    private boolean                                  adaptiveRuleOrdering;
+    /**
+     * how often to check the rule definitions for modifications, the rules
+     * are never reloaded if it's not positive, which is the default.
+     */
+    private long                                     reloadIntervalMillis;
+    /**
+     * whether to route with a {@link DecisionTreeCobarRouter} compiled from
+     * the rules, it can't be used with reloading or adaptive rule ordering.
+     */
+    private boolean                                  decisionTree;
+
+    private ScheduledExecutorService                 reloadScheduler;
+    private List<InternalRule>                       loadedRules;
+    private Map<Resource, Long>                      lastModifiedTimes;
 
     public Object getObject() throws Exception {
         return router;
@@ -65,29 +130,171 @@ public abstract class AbstractCobarClientInternalRouterFactoryBean implements Fa
 
     @SuppressWarnings("unchecked")
     public void afterPropertiesSet() throws Exception {
-
-        DefaultCobarClientInternalRouter routerToUse = new DefaultCobarClientInternalRouter();
+        if (isDecisionTree() && (getReloadIntervalMillis() > 0 || isAdaptiveRuleOrdering())) {
+            throw new IllegalArgumentException(
+                    "'decisionTree' can't be used with 'reloadIntervalMillis' or 'adaptiveRuleOrdering'.");
+        }
 
         List<InternalRule> rules = loadRulesFromExternal();
 
-        getRuleLoader().loadRulesAndEquipRouter(rules, routerToUse, getFunctionsMap());
+        DefaultCobarClientInternalRouter routerToUse = createRouter(rules);
+        onRulesValidated(rules);
 
+        if (getReloadIntervalMillis() > 0) {
+            int cacheSizeToUse = 0;
+            if (isEnableCache()) {
+                cacheSizeToUse = (cacheSize > 0) ? cacheSize : DEFAULT_RELOADABLE_CACHE_SIZE;
+            }
+            ReloadableCobarRouter reloadableRouter = new ReloadableCobarRouter(routerToUse,
+                    cacheSizeToUse);
+            reloadableRouter.setShardKeyExtractors(getShardKeyExtractors());
+            this.router = reloadableRouter;
+            this.loadedRules = rules;
+            startWatching();
+            return;
+        }
+
+        ICobarRouter<IBatisRoutingFact> target = routerToUse;
+        if (isDecisionTree()) {
+            target = new DecisionTreeCobarRouter(routerToUse.getRulesGroupByNamespaces());
+        }
         if (isEnableCache()) {
-            ProxyFactory proxyFactory = new ProxyFactory(routerToUse);
-            proxyFactory.setInterfaces(new Class[] { ICobarRouter.class });
+            ProxyFactory proxyFactory = new ProxyFactory(target);
+            proxyFactory.setInterfaces(new Class[] { ICobarRouter.class,
+                    IStatementClassifier.class, IBatchRouter.class, IExplainableRouter.class });
             RoutingResultCacheAspect advice = new RoutingResultCacheAspect();
             if (cacheSize > 0) {
-                advice.setInternalCache(new LRUMap(cacheSize));
+                advice.setInternalCache(new ConcurrentClockCache<Object, Object>(cacheSize));
             }
+            advice.setShardKeyExtractors(getShardKeyExtractors());
             proxyFactory.addAdvice(advice);
             this.router = (ICobarRouter<IBatisRoutingFact>) proxyFactory.getProxy();
         } else {
-            this.router = routerToUse;
+            this.router = target;
+        }
+    }
+
+    public void destroy() throws Exception {
+        if (reloadScheduler != null) {
+            reloadScheduler.shutdownNow();
+        }
+    }
+
+    private DefaultCobarClientInternalRouter createRouter(List<InternalRule> rules) {
+        DefaultCobarClientInternalRouter routerToUse = new DefaultCobarClientInternalRouter();
+        getRuleLoader().loadRulesAndEquipRouter(rules, routerToUse, getFunctionsMap(),
+                isCompileShardingExpressions());
+        routerToUse.setAdaptiveRuleOrdering(isAdaptiveRuleOrdering());
+        return routerToUse;
+    }
+
+    private void startWatching() {
+        this.lastModifiedTimes = lastModifiedTimesOf(getWatchedResources());
+        this.reloadScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "cobar-routing-rules-reloader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reloadScheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    reloadIfModified();
+                } catch (Throwable t) {
+                    logger.error("unexpected failure when checking the routing rules.", t);
+                }
+            }
+        }, reloadIntervalMillis, reloadIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * reloads the rules if any of the watched resources is modified since
+     * last check.
+     * 
+     * @return whether new rules are published.
+     */
+    public synchronized boolean reloadIfModified() {
+        Map<Resource, Long> times = lastModifiedTimesOf(getWatchedResources());
+        if (times.equals(lastModifiedTimes)) {
+            return false;
         }
+        this.lastModifiedTimes = times;
+        return reload();
+    }
+
+    /**
+     * loads and validates the rules again, and publishes them if they are
+     * valid and differ from the current ones; the current rules are kept if
+     * the new ones are invalid.
+     * 
+     * @return whether new rules are published.
+     */
+    public synchronized boolean reload() {
+        if (!(router instanceof ReloadableCobarRouter)) {
+            throw new IllegalStateException(
+                    "the router is not reloadable, set 'reloadIntervalMillis' to make it reloadable.");
+        }
+        List<InternalRule> rules = null;
+        DefaultCobarClientInternalRouter routerToUse = null;
+        try {
+            rules = loadRulesFromExternal();
+            routerToUse = createRouter(rules);
+            routerToUse.buildRuleIndexes();
+            onRulesValidated(rules);
+        } catch (Exception e) {
+            logger.error("failed to reload the routing rules, keep routing with the current ones.",
+                    e);
+            return false;
+        }
+
+        Set<String> changedScopes = InternalRuleLoader4DefaultInternalRouter
+                .changedScopesBetween(loadedRules, rules);
+        if (changedScopes.isEmpty()) {
+            logger.info("routing rules are reloaded without changes.");
+            return false;
+        }
+        ((ReloadableCobarRouter) router).publish(routerToUse, changedScopes);
+        this.loadedRules = rules;
+        logger.info("routing rules are reloaded, changes found in:{}", changedScopes);
+        return true;
+    }
+
+    private Map<Resource, Long> lastModifiedTimesOf(Resource[] resources) {
+        Map<Resource, Long> times = new LinkedHashMap<Resource, Long>();
+        if (resources == null) {
+            return times;
+        }
+        for (Resource resource : resources) {
+            long lastModified = -1L;
+            try {
+                lastModified = resource.lastModified();
+            } catch (IOException e) {
+                // e.g. a resource in a jar, which can't be modified anyway.
+            }
+            times.put(resource, lastModified);
+        }
+        return times;
+    }
+
+    /**
+     * @return the resources the rules are loaded from, which are watched for
+     *         modifications if the rules are reloadable.
+     */
+    protected Resource[] getWatchedResources() {
+        return new Resource[0];
     }
 
     protected abstract List<InternalRule> loadRulesFromExternal() throws Exception;
 
+    /**
+     * called after the rules loaded by {@link #loadRulesFromExternal()} are
+     * turned into a router successfully, both on start and on reload.
+     */
+    protected void onRulesValidated(List<InternalRule> rules) {
+        // do nothing by default.
+    }
+
     public ICobarRouter<IBatisRoutingFact> getRouter() {
         return router;
     }
@@ -128,4 +335,44 @@ public abstract class AbstractCobarClientInternalRouterFactoryBean implements Fa
         return cacheSize;
     }
 
+    public void setCompileShardingExpressions(boolean compileShardingExpressions) {
+        this.compileShardingExpressions = compileShardingExpressions;
+    }
+
+    public boolean isCompileShardingExpressions() {
+        return compileShardingExpressions;
+    }
+
+    public void setShardKeyExtractors(Map<String, IShardKeyExtractor> shardKeyExtractors) {
+        this.shardKeyExtractors = shardKeyExtractors;
+    }
+
+    public Map<String, IShardKeyExtractor> getShardKeyExtractors() {
+        return shardKeyExtractors;
+    }
+
+    public void setAdaptiveRuleOrdering(boolean adaptiveRuleOrdering) {
+        this.adaptiveRuleOrdering = adaptiveRuleOrdering;
+    }
+
+    public boolean isAdaptiveRuleOrdering() {
+        return adaptiveRuleOrdering;
+    }
+
+    public void setReloadIntervalMillis(long reloadIntervalMillis) {
+        this.reloadIntervalMillis = reloadIntervalMillis;
+    }
+
+    public long getReloadIntervalMillis() {
+        return reloadIntervalMillis;
+    }
+
+    public void setDecisionTree(boolean decisionTree) {
+        this.decisionTree = decisionTree;
+    }
+
+    public boolean isDecisionTree() {
+        return decisionTree;
+    }
+
 }
@@ -23,26 +23,55 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.core.io.Resource;
 import org.springframework.util.ObjectUtils;
 
 import com.alibaba.cobar.client.router.CobarClientInternalRouter;
+import com.alibaba.cobar.client.router.config.support.ShardingRuleBuilder;
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
 import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionShardingRule;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.IShardKeyExtractor;
+import com.alibaba.cobar.client.support.utils.MapUtils;
 
 public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implements FactoryBean,
         InitializingBean {
-    private CobarClientInternalRouter router;
+    private CobarClientInternalRouter       router;
 
-    private boolean                   enableCache;
-    private int                       cacheSize;
+    private boolean                         enableCache;
+    private int                             cacheSize;
+    /**
+     * whether to compile the sharding expressions once when the rules are
+     * loaded, instead of interpreting them on each routing request.
+     */
+    private boolean                         compileShardingExpressions;
+    /**
+     * shard key extractors keyed by sql-map action id or namespace, if given,
+     * the routing results of the matched actions will be cached by their shard
+     * keys instead of the whole routing facts.
+     */
+    private Map<String, IShardKeyExtractor> shardKeyExtractors;
+    /**
+     * whether to evaluate the rules in the order of their recent hits, the
+     * rules which overlap in a rule set will be rejected then, and the rule
+     * sets whose rules can't be proven disjoint are kept in their original
+     * order.
+     */
+    private boolean                         adaptiveRuleOrdering;
 
-    private Resource                  configLocation;
-    private Resource[]                configLocations;
+    private Resource                        configLocation;
+    private Resource[]                      configLocations;
 
-    private Map<String, Object>       functionsMap = new HashMap<String, Object>();
+    private Map<String, Object>             functionsMap = new HashMap<String, Object>();
 
     public Object getObject() throws Exception {
         return this.router;
@@ -64,6 +93,7 @@ public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implem
             }
         }
         this.router = new CobarClientInternalRouter(enableCache, cacheSize);
+        this.router.setShardKeyExtractors(getShardKeyExtractors());
 
         final Set<IRoutingRule<IBatisRoutingFact, List<String>>> sqlActionShardingRules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
         final Set<IRoutingRule<IBatisRoutingFact, List<String>>> sqlActionRules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
@@ -82,6 +112,11 @@ public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implem
             }
         }
 
+        if (isCompileShardingExpressions()) {
+            compileShardingRules(sqlActionShardingRules);
+            compileShardingRules(namespaceShardingRules);
+        }
+
         List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>() {
             private static final long serialVersionUID = 1493353938640646578L;
             {
@@ -93,6 +128,79 @@ public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implem
         };
 
         router.setRuleSequences(ruleSequences);
+        router.setAdaptiveRuleOrdering(isAdaptiveRuleOrdering());
+    }
+
+    private void compileShardingRules(Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules) {
+        for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
+            if (rule instanceof AbstractIBatisOrientedShardingRule) {
+                ((AbstractIBatisOrientedShardingRule) rule).compile();
+            }
+        }
+    }
+
+    /**
+     * puts the rule into the rule set it belongs to, it's shared by the
+     * subclasses which read in rules as {@link InternalRule}s.<br>
+     * 
+     * @throws IllegalArgumentException if the rule is invalid.
+     */
+    protected void assembleRule(InternalRule rule,
+                                Set<IRoutingRule<IBatisRoutingFact, List<String>>> sqlActionShardingRules,
+                                Set<IRoutingRule<IBatisRoutingFact, List<String>>> sqlActionRules,
+                                Set<IRoutingRule<IBatisRoutingFact, List<String>>> namespaceShardingRules,
+                                Set<IRoutingRule<IBatisRoutingFact, List<String>>> namespaceRules) {
+        String namespace = StringUtils.trimToEmpty(rule.getNamespace());
+        String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
+        String shardingExpression = StringUtils.trimToEmpty(rule.getShardingExpression());
+        String destinations = StringUtils.trimToEmpty(rule.getShards());
+
+        Validate.notEmpty(destinations, "destination shards must be given explicitly.");
+
+        if (StringUtils.isEmpty(namespace) && StringUtils.isEmpty(sqlAction)) {
+            throw new IllegalArgumentException(
+                    "at least one of 'namespace' or 'sqlAction' must be given.");
+        }
+        if (StringUtils.isNotEmpty(namespace) && StringUtils.isNotEmpty(sqlAction)) {
+            throw new IllegalArgumentException(
+                    "'namespace' and 'sqlAction' are alternatives, can't guess which one to use if both of them are provided.");
+        }
+
+        if (ShardingRuleBuilder.isAttributeShardingRule(rule)) {
+            if (StringUtils.isNotEmpty(namespace)) {
+                namespaceShardingRules.add(ShardingRuleBuilder.buildAttributeShardingRule(rule,
+                        getFunctionsMap()));
+            } else {
+                sqlActionShardingRules.add(ShardingRuleBuilder.buildAttributeShardingRule(rule,
+                        getFunctionsMap()));
+            }
+            return;
+        }
+
+        if (StringUtils.isNotEmpty(namespace)) {
+            if (StringUtils.isEmpty(shardingExpression)) {
+                namespaceRules.add(new IBatisNamespaceRule(namespace, destinations));
+            } else {
+                IBatisNamespaceShardingRule insr = new IBatisNamespaceShardingRule(namespace,
+                        destinations, shardingExpression);
+                if (MapUtils.isNotEmpty(getFunctionsMap())) {
+                    insr.setFunctionMap(getFunctionsMap());
+                }
+                namespaceShardingRules.add(insr);
+            }
+        }
+        if (StringUtils.isNotEmpty(sqlAction)) {
+            if (StringUtils.isEmpty(shardingExpression)) {
+                sqlActionRules.add(new IBatisSqlActionRule(sqlAction, destinations));
+            } else {
+                IBatisSqlActionShardingRule issr = new IBatisSqlActionShardingRule(sqlAction,
+                        destinations, shardingExpression);
+                if (MapUtils.isNotEmpty(getFunctionsMap())) {
+                    issr.setFunctionMap(getFunctionsMap());
+                }
+                sqlActionShardingRules.add(issr);
+            }
+        }
     }
 
     /**
@@ -157,4 +265,28 @@ public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implem
         return functionsMap;
     }
 
+    public void setCompileShardingExpressions(boolean compileShardingExpressions) {
+        this.compileShardingExpressions = compileShardingExpressions;
+    }
+
+    public boolean isCompileShardingExpressions() {
+        return compileShardingExpressions;
+    }
+
+    public void setShardKeyExtractors(Map<String, IShardKeyExtractor> shardKeyExtractors) {
+        this.shardKeyExtractors = shardKeyExtractors;
+    }
+
+    public Map<String, IShardKeyExtractor> getShardKeyExtractors() {
+        return shardKeyExtractors;
+    }
+
+    public void setAdaptiveRuleOrdering(boolean adaptiveRuleOrdering) {
+        this.adaptiveRuleOrdering = adaptiveRuleOrdering;
+    }
+
+    public boolean isAdaptiveRuleOrdering() {
+        return adaptiveRuleOrdering;
+    }
+
 }
@@ -19,21 +19,14 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.Validate;
 import org.springframework.core.io.Resource;
 
 import com.alibaba.cobar.client.router.CobarClientInternalRouter;
 import com.alibaba.cobar.client.router.config.vo.InternalRule;
 import com.alibaba.cobar.client.router.config.vo.InternalRules;
 import com.alibaba.cobar.client.router.rules.IRoutingRule;
-import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRule;
-import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
-import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
-import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionShardingRule;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
-import com.alibaba.cobar.client.support.utils.MapUtils;
 import com.thoughtworks.xstream.XStream;
 
 public class CobarInteralRouterXmlFactoryBean extends
@@ -62,48 +55,9 @@ public class CobarInteralRouterXmlFactoryBean extends
         }
 
         for (InternalRule rule : rules) {
-            String namespace = StringUtils.trimToEmpty(rule.getNamespace());
-            String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
-            String shardingExpression = StringUtils.trimToEmpty(rule.getShardingExpression());
-            String destinations = StringUtils.trimToEmpty(rule.getShards());
-
-            Validate.notEmpty(destinations, "destination shards must be given explicitly.");
-
-            if (StringUtils.isEmpty(namespace) && StringUtils.isEmpty(sqlAction)) {
-                throw new IllegalArgumentException(
-                        "at least one of 'namespace' or 'sqlAction' must be given.");
-            }
-            if (StringUtils.isNotEmpty(namespace) && StringUtils.isNotEmpty(sqlAction)) {
-                throw new IllegalArgumentException(
-                        "'namespace' and 'sqlAction' are alternatives, can't guess which one to use if both of them are provided.");
-            }
-
-            if (StringUtils.isNotEmpty(namespace)) {
-                if (StringUtils.isEmpty(shardingExpression)) {
-                    namespaceRules.add(new IBatisNamespaceRule(namespace, destinations));
-                } else {
-                    IBatisNamespaceShardingRule insr = new IBatisNamespaceShardingRule(namespace,
-                            destinations, shardingExpression);
-                    if (MapUtils.isNotEmpty(getFunctionsMap())) {
-                        insr.setFunctionMap(getFunctionsMap());
-                    }
-                    namespaceShardingRules.add(insr);
-                }
-            }
-            if (StringUtils.isNotEmpty(sqlAction)) {
-                if (StringUtils.isEmpty(shardingExpression)) {
-                    sqlActionRules.add(new IBatisSqlActionRule(sqlAction, destinations));
-                } else {
-                    IBatisSqlActionShardingRule issr = new IBatisSqlActionShardingRule(sqlAction,
-                            destinations, shardingExpression);
-                    if (MapUtils.isNotEmpty(getFunctionsMap())) {
-                        issr.setFunctionMap(getFunctionsMap());
-                    }
-                    sqlActionShardingRules.add(issr);
-                }
-            }
+            assembleRule(rule, sqlActionShardingRules, sqlActionRules, namespaceShardingRules,
+                    namespaceRules);
         }
-
     }
 
 }
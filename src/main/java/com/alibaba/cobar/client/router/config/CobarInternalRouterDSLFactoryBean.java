@@ -16,32 +16,35 @@
  package com.alibaba.cobar.client.router.config;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.List;
 import java.util.Set;
 
 import org.springframework.core.io.Resource;
 
 import com.alibaba.cobar.client.router.CobarClientInternalRouter;
+import com.alibaba.cobar.client.router.config.support.InternalRuleDslParser;
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
 import com.alibaba.cobar.client.router.rules.IRoutingRule;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
 
 /**
  * read in DSL style configuration and construct/assemble corresponding rules,
- * for example:<br>
+ * one rule per line, for example:<br>
  * 
  * <pre>
- *  route 
- *      fact{namespace=some((;sqlmap=com.alibaba....)? ;shard=expression)?} 
- *  to 
- *      shards{ds1, ds2, ...}
- *      
- *  route 
- *      fact{namespace=some((;sqlmap=com.alibaba....)? ;shard=expression)?} 
- *  to
- * shards{ds1, ds2, ...}
+ * # comments and blank lines are ignored
+ * namespace com.alibaba.cobar.client.entities.Offer -&gt; partition1
+ * sqlmap com.alibaba.cobar.client.entities.Offer.create | shardingExpression: memberId &lt; 10000 -&gt; partition1, partition2
+ * namespace com.alibaba.cobar.client.entities.Tweet | shardingAttribute: memberId | shardingFunction: hash -&gt; partition1, partition2
+ * </pre>
  * 
- * <pre>
- * TBD if needed.
+ * the rules are assembled into the same four rule sets as the ones of
+ * {@link CobarInteralRouterXmlFactoryBean}, see {@link InternalRuleDslParser}
+ * for the syntax.<br>
+ * the config files are read as UTF-8, and an invalid rule fails with the file
+ * and the line number it's defined at.<br>
  * 
  * @author fujohnwang
  */
@@ -57,8 +60,24 @@ public class CobarInternalRouterDSLFactoryBean extends
                                           Set<IRoutingRule<IBatisRoutingFact, List<String>>> namespaceShardingRules,
                                           Set<IRoutingRule<IBatisRoutingFact, List<String>>> namespaceRules)
             throws IOException {
-        // TODO Auto-generated method stub
+        InternalRuleDslParser parser = new InternalRuleDslParser(configLocation.getDescription());
+        List<InternalRule> rules = null;
+        Reader reader = new InputStreamReader(configLocation.getInputStream(), "UTF-8");
+        try {
+            rules = parser.parse(reader);
+        } finally {
+            reader.close();
+        }
 
+        for (int i = 0; i < rules.size(); i++) {
+            try {
+                assembleRule(rules.get(i), sqlActionShardingRules, sqlActionRules,
+                        namespaceShardingRules, namespaceRules);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(parser.locationOf(i) + ": " + e.getMessage(),
+                        e);
+            }
+        }
     }
 
 }
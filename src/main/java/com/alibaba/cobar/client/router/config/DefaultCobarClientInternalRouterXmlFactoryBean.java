@@ -15,12 +15,17 @@
  */
  package com.alibaba.cobar.client.router.config;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
+import com.alibaba.cobar.client.router.config.support.InternalRuleSnapshot;
 import com.alibaba.cobar.client.router.config.vo.InternalRule;
 import com.alibaba.cobar.client.router.config.vo.InternalRules;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
@@ -28,15 +33,27 @@ import com.thoughtworks.xstream.XStream;
 /**
  * 
  * {@link DefaultCobarClientInternalRouterXmlFactoryBean} will load rule definitions from external xml configuration files.<br>
- * if you want to directly define rules in spring's IoC Container, see {@link StaticCobarClientInternalRouterFactoryBean}.
+ * if you want to directly define rules in spring's IoC Container, see {@link StaticCobarClientInternalRouterFactoryBean}.<br>
+ * with a "snapshotFile", the validated rules are saved to it in a compact binary form, and are read from it
+ * instead of the xml files on later starts, until the content of the xml files changes; the xml files are
+ * used whenever the snapshot can't be read.<br>
  * @author fujohnwang
  * @see    StaticCobarClientInternalRouterFactoryBean
  */
 public class DefaultCobarClientInternalRouterXmlFactoryBean extends
         AbstractCobarClientInternalRouterFactoryBean {
 
-    private Resource   configLocation;
-    private Resource[] configLocations;
+    private transient final Logger logger = LoggerFactory
+                                              .getLogger(DefaultCobarClientInternalRouterXmlFactoryBean.class);
+
+    private Resource               configLocation;
+    private Resource[]             configLocations;
+    private File                   snapshotFile;
+    /**
+     * checksum of the xml files the rules are just parsed from, which are to
+     * be saved to the snapshot once validated.
+     */
+    private Long                   unsavedChecksum;
 
     public Resource getConfigLocation() {
         return configLocation;
@@ -54,8 +71,60 @@ public class DefaultCobarClientInternalRouterXmlFactoryBean extends
         this.configLocations = configLocations;
     }
 
+    @Override
+    protected Resource[] getWatchedResources() {
+        List<Resource> resources = new ArrayList<Resource>();
+        if (getConfigLocation() != null) {
+            resources.add(getConfigLocation());
+        }
+        if (getConfigLocations() != null) {
+            resources.addAll(Arrays.asList(getConfigLocations()));
+        }
+        return resources.toArray(new Resource[resources.size()]);
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
     @Override
     protected List<InternalRule> loadRulesFromExternal() throws IOException {
+        if (getSnapshotFile() == null) {
+            return loadRulesFromXml();
+        }
+        long checksum = InternalRuleSnapshot.checksumOf(getWatchedResources());
+        List<InternalRule> rules = InternalRuleSnapshot.read(getSnapshotFile(), checksum);
+        if (rules != null) {
+            logger.info("{} routing rules are loaded from snapshot:{}", rules.size(),
+                    getSnapshotFile());
+            this.unsavedChecksum = null;
+            return rules;
+        }
+        rules = loadRulesFromXml();
+        this.unsavedChecksum = checksum;
+        return rules;
+    }
+
+    @Override
+    protected void onRulesValidated(List<InternalRule> rules) {
+        if (unsavedChecksum == null) {
+            return;
+        }
+        try {
+            InternalRuleSnapshot.write(getSnapshotFile(), unsavedChecksum, rules);
+            logger.info("routing rules are saved to snapshot:{}", getSnapshotFile());
+        } catch (IOException e) {
+            logger.warn("failed to save routing rules to snapshot:" + getSnapshotFile(), e);
+        } finally {
+            this.unsavedChecksum = null;
+        }
+    }
+
+    protected List<InternalRule> loadRulesFromXml() throws IOException {
         XStream xstream = new XStream();
         xstream.alias("rules", InternalRules.class);
         xstream.alias("rule", InternalRule.class);
@@ -0,0 +1,218 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.config.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
+
+/**
+ * parses the line-oriented rule DSL into {@link InternalRule}s, one rule per
+ * line:
+ * 
+ * <pre>
+ * # comments and blank lines are ignored
+ * namespace com.alibaba.cobar.client.entities.Offer -&gt; partition1
+ * sqlmap com.alibaba.cobar.client.entities.Offer.create | shardingExpression: memberId &lt; 10000 -&gt; partition1, partition2
+ * namespace com.alibaba.cobar.client.entities.Tweet | shardingAttribute: memberId | shardingFunction: hash -&gt; partition1, partition2
+ * namespace com.alibaba.cobar.client.entities.Follower | shardingAttribute: id | ranges: 0, 1000 -&gt; partition1, partition2
+ * </pre>
+ * 
+ * a rule starts with "namespace" or "sqlmap" and its id, followed by options
+ * separated with single '|'s, and ends with the shards after the last "-&gt;".<br>
+ * the options are named after the elements of the xml rules: shardingExpression,
+ * shardingAttribute, shardingFunction, ranges, rangeFromAttribute,
+ * rangeToAttribute, virtualNodes and weights, so a sharding expression can't
+ * contain a single '|', use "||" or rewrite it with a function instead.<br>
+ * the lines are scanned once without regular expressions, and the errors are
+ * reported with the source and the line number.<br>
+ *
+ * @since 1.0.6
+ */
+public class InternalRuleDslParser {
+
+    public static final String  SHARDS_SEPARATOR = "->";
+    public static final char    OPTION_SEPARATOR = '|';
+
+    private final String        source;
+    private final List<Integer> lineNumbers      = new ArrayList<Integer>();
+
+    /**
+     * @param source, where the rules come from, used in error messages.
+     */
+    public InternalRuleDslParser(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a line is not a valid rule.
+     */
+    public List<InternalRule> parse(Reader reader) throws IOException {
+        BufferedReader lines = (reader instanceof BufferedReader) ? (BufferedReader) reader
+                : new BufferedReader(reader);
+        List<InternalRule> rules = new ArrayList<InternalRule>();
+        lineNumbers.clear();
+
+        int lineNumber = 0;
+        String line = null;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            String text = line.trim();
+            if (text.length() == 0 || text.charAt(0) == '#') {
+                continue;
+            }
+            rules.add(parseRule(text, lineNumber));
+            lineNumbers.add(lineNumber);
+        }
+        return rules;
+    }
+
+    /**
+     * @return the line number of the rule at the index of the last parsed
+     *         rules.
+     */
+    public int getLineNumber(int ruleIndex) {
+        return lineNumbers.get(ruleIndex);
+    }
+
+    /**
+     * @return "source, line n", to tell where a rule is defined in error
+     *         messages.
+     */
+    public String locationOf(int ruleIndex) {
+        return source + ", line " + getLineNumber(ruleIndex);
+    }
+
+    InternalRule parseRule(String text, int lineNumber) {
+        int arrow = text.lastIndexOf(SHARDS_SEPARATOR);
+        if (arrow < 0) {
+            throw error(lineNumber, "missing '" + SHARDS_SEPARATOR + "' before the shards", text);
+        }
+        String shards = text.substring(arrow + SHARDS_SEPARATOR.length()).trim();
+        if (shards.length() == 0) {
+            throw error(lineNumber, "no shards after '" + SHARDS_SEPARATOR + "'", text);
+        }
+
+        InternalRule rule = new InternalRule();
+        rule.setShards(shards);
+
+        String head = text.substring(0, arrow);
+        int segmentStart = 0;
+        boolean first = true;
+        for (int i = 0; i <= head.length(); i++) {
+            if (i < head.length() && !isOptionSeparatorAt(head, i)) {
+                continue;
+            }
+            String segment = head.substring(segmentStart, i).trim();
+            if (first) {
+                parseScope(rule, segment, lineNumber, text);
+                first = false;
+            } else {
+                parseOption(rule, segment, lineNumber, text);
+            }
+            segmentStart = i + 1;
+        }
+        return rule;
+    }
+
+    private boolean isOptionSeparatorAt(String text, int index) {
+        return text.charAt(index) == OPTION_SEPARATOR
+                && (index == 0 || text.charAt(index - 1) != OPTION_SEPARATOR)
+                && (index == text.length() - 1 || text.charAt(index + 1) != OPTION_SEPARATOR);
+    }
+
+    private void parseScope(InternalRule rule, String segment, int lineNumber, String text) {
+        int space = indexOfWhitespace(segment);
+        if (space < 0) {
+            throw error(lineNumber, "expected 'namespace <id>' or 'sqlmap <id>'", text);
+        }
+        String keyword = segment.substring(0, space);
+        String id = segment.substring(space + 1).trim();
+        if (indexOfWhitespace(id) >= 0) {
+            throw error(lineNumber, "id '" + id + "' can't contain whitespaces", text);
+        }
+        if ("namespace".equals(keyword)) {
+            rule.setNamespace(id);
+        } else if ("sqlmap".equals(keyword)) {
+            rule.setSqlmap(id);
+        } else {
+            throw error(lineNumber, "expected 'namespace' or 'sqlmap' but got '" + keyword + "'",
+                    text);
+        }
+    }
+
+    private void parseOption(InternalRule rule, String segment, int lineNumber, String text) {
+        int colon = segment.indexOf(':');
+        if (colon < 0) {
+            throw error(lineNumber, "option '" + segment + "' is not like 'name: value'", text);
+        }
+        String name = segment.substring(0, colon).trim();
+        String value = segment.substring(colon + 1).trim();
+        if (value.length() == 0) {
+            throw error(lineNumber, "no value for option '" + name + "'", text);
+        }
+
+        String former = null;
+        if ("shardingExpression".equals(name)) {
+            former = rule.getShardingExpression();
+            rule.setShardingExpression(value);
+        } else if ("shardingAttribute".equals(name)) {
+            former = rule.getShardingAttribute();
+            rule.setShardingAttribute(value);
+        } else if ("shardingFunction".equals(name)) {
+            former = rule.getShardingFunction();
+            rule.setShardingFunction(value);
+        } else if ("ranges".equals(name)) {
+            former = rule.getRanges();
+            rule.setRanges(value);
+        } else if ("rangeFromAttribute".equals(name)) {
+            former = rule.getRangeFromAttribute();
+            rule.setRangeFromAttribute(value);
+        } else if ("rangeToAttribute".equals(name)) {
+            former = rule.getRangeToAttribute();
+            rule.setRangeToAttribute(value);
+        } else if ("virtualNodes".equals(name)) {
+            former = rule.getVirtualNodes();
+            rule.setVirtualNodes(value);
+        } else if ("weights".equals(name)) {
+            former = rule.getWeights();
+            rule.setWeights(value);
+        } else {
+            throw error(lineNumber, "unknown option '" + name + "'", text);
+        }
+        if (former != null) {
+            throw error(lineNumber, "option '" + name + "' is given more than once", text);
+        }
+    }
+
+    private static int indexOfWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private IllegalArgumentException error(int lineNumber, String message, String text) {
+        return new IllegalArgumentException(source + ", line " + lineNumber + ": " + message
+                + " in rule:'" + text + "'");
+    }
+}
@@ -16,6 +16,7 @@
  package com.alibaba.cobar.client.router.config.support;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +41,18 @@ public class InternalRuleLoader4DefaultInternalRouter {
     public void loadRulesAndEquipRouter(List<InternalRule> rules,
                                         DefaultCobarClientInternalRouter router,
                                         Map<String, Object> functionsMap) {
+        loadRulesAndEquipRouter(rules, router, functionsMap, false);
+    }
+
+    /**
+     * @param compileShardingExpression, if true, the sharding expressions will
+     *            be compiled once when the rules are loaded, instead of being
+     *            interpreted on each routing request.
+     */
+    public void loadRulesAndEquipRouter(List<InternalRule> rules,
+                                        DefaultCobarClientInternalRouter router,
+                                        Map<String, Object> functionsMap,
+                                        boolean compileShardingExpression) {
         if (CollectionUtils.isEmpty(rules)) {
             return;
         }
@@ -61,6 +74,15 @@ public class InternalRuleLoader4DefaultInternalRouter {
                         "'namespace' and 'sqlAction' are alternatives, can't guess which one to use if both of them are provided.");
             }
 
+            if (ShardingRuleBuilder.isAttributeShardingRule(rule)) {
+                String ruleNamespace = StringUtils.isNotEmpty(namespace) ? namespace : StringUtils
+                        .substringBeforeLast(sqlAction, ".");
+                int sequence = StringUtils.isNotEmpty(namespace) ? 2 : 0;
+                setUpRuleSequenceContainerIfNecessary(router, ruleNamespace).get(sequence).add(
+                        ShardingRuleBuilder.buildAttributeShardingRule(rule, functionsMap));
+                continue;
+            }
+
             if (StringUtils.isNotEmpty(namespace)) {
                 List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequence = setUpRuleSequenceContainerIfNecessary(
                         router, namespace);
@@ -74,6 +96,9 @@ public class InternalRuleLoader4DefaultInternalRouter {
                     if (MapUtils.isNotEmpty(functionsMap)) {
                         insr.setFunctionMap(functionsMap);
                     }
+                    if (compileShardingExpression) {
+                        insr.compile();
+                    }
                     ruleSequence.get(2).add(insr);
                 }
             }
@@ -89,12 +114,61 @@ public class InternalRuleLoader4DefaultInternalRouter {
                     if (MapUtils.isNotEmpty(functionsMap)) {
                         issr.setFunctionMap(functionsMap);
                     }
+                    if (compileShardingExpression) {
+                        issr.compile();
+                    }
                     ruleSequence.get(0).add(issr);
                 }
             }
         }
     }
 
+    /**
+     * tells which parts of the routing rules differ, a rule belongs to its
+     * sql-map action id if it has one, or to its namespace otherwise.<br>
+     * 
+     * @return the sql-map action ids and namespaces whose rules are added,
+     *         removed or changed.
+     */
+    public static Set<String> changedScopesBetween(List<InternalRule> previousRules,
+                                                   List<InternalRule> currentRules) {
+        Map<String, List<InternalRule>> previous = groupByScope(previousRules);
+        Map<String, List<InternalRule>> current = groupByScope(currentRules);
+
+        Set<String> changedScopes = new HashSet<String>();
+        for (Map.Entry<String, List<InternalRule>> entry : previous.entrySet()) {
+            if (!entry.getValue().equals(current.get(entry.getKey()))) {
+                changedScopes.add(entry.getKey());
+            }
+        }
+        for (String scope : current.keySet()) {
+            if (!previous.containsKey(scope)) {
+                changedScopes.add(scope);
+            }
+        }
+        return changedScopes;
+    }
+
+    private static Map<String, List<InternalRule>> groupByScope(List<InternalRule> rules) {
+        Map<String, List<InternalRule>> rulesByScope = new HashMap<String, List<InternalRule>>();
+        if (CollectionUtils.isEmpty(rules)) {
+            return rulesByScope;
+        }
+        for (InternalRule rule : rules) {
+            String scope = StringUtils.trimToEmpty(rule.getSqlmap());
+            if (StringUtils.isEmpty(scope)) {
+                scope = StringUtils.trimToEmpty(rule.getNamespace());
+            }
+            List<InternalRule> scopedRules = rulesByScope.get(scope);
+            if (scopedRules == null) {
+                scopedRules = new ArrayList<InternalRule>();
+                rulesByScope.put(scope, scopedRules);
+            }
+            scopedRules.add(rule);
+        }
+        return rulesByScope;
+    }
+
     private List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> setUpRuleSequenceContainerIfNecessary(
                                                                                                            DefaultCobarClientInternalRouter routerToUse,
                                                                                                            String namespace) {
@@ -0,0 +1,252 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.config.support;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
+
+/**
+ * a compact binary snapshot of validated {@link InternalRule}s, so that the
+ * rules don't have to be parsed from xml on each start.<br>
+ * the snapshot records the checksum of the resources the rules were loaded
+ * from, and is only used while the resources are unchanged; it's read through
+ * a memory-mapped buffer, and the content is verified with a checksum of its
+ * own, a missing, outdated or corrupted snapshot is reported as null, so the
+ * caller can fall back to the resources.<br>
+ * the layout is: magic, format version, checksum of the resources, number of
+ * rules, the fields of each rule as length-prefixed UTF-8 strings(-1 for
+ * null), and the CRC32 of the fields at last.<br>
+ *
+ * @since 1.0.6
+ */
+public class InternalRuleSnapshot {
+
+    private static final transient Logger logger         = LoggerFactory
+                                                                 .getLogger(InternalRuleSnapshot.class);
+
+    public static final int               MAGIC          = 0x43524253;                               // "CRBS"
+    public static final int               FORMAT_VERSION = 1;
+
+    private static final int              FIELDS         = 12;
+
+    /**
+     * @return the CRC32 of the content of the resources, in order.
+     */
+    public static long checksumOf(Resource[] resources) throws IOException {
+        CRC32 crc = new CRC32();
+        if (resources == null) {
+            return crc.getValue();
+        }
+        byte[] buffer = new byte[8192];
+        for (Resource resource : resources) {
+            InputStream in = resource.getInputStream();
+            try {
+                int n = 0;
+                while ((n = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            // separates the resources, so moving content between them changes the checksum.
+            crc.update(0);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * writes the snapshot to a temporary file first, then renames it to the
+     * target, so a half-written snapshot is never read.
+     */
+    public static void write(File file, long sourceChecksum, List<InternalRule> rules)
+            throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(sourceChecksum);
+                out.writeInt(rules.size());
+
+                CRC32 crc = new CRC32();
+                DataOutputStream fields = new DataOutputStream(new CheckedOutputStream(out, crc));
+                for (InternalRule rule : rules) {
+                    for (String field : fieldsOf(rule)) {
+                        writeString(fields, field);
+                    }
+                }
+                fields.flush();
+                out.writeLong(crc.getValue());
+            } finally {
+                out.close();
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("can't replace the snapshot:" + file);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("can't rename " + temp + " to " + file);
+            }
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the rules in the snapshot, or null if the snapshot doesn't
+     *         exist, is taken from other resources, or is corrupted.
+     */
+    public static List<InternalRule> read(File file, long sourceChecksum) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+                        .size());
+                return decode(buffer, sourceChecksum, file);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            logger.warn("failed to read routing rule snapshot:" + file, e);
+            return null;
+        }
+    }
+
+    private static List<InternalRule> decode(ByteBuffer buffer, long sourceChecksum, File file) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                logger.warn("{} is not a routing rule snapshot of format version {}.", file,
+                        FORMAT_VERSION);
+                return null;
+            }
+            if (buffer.getLong() != sourceChecksum) {
+                logger.info("routing rule snapshot:{} is outdated.", file);
+                return null;
+            }
+            int count = buffer.getInt();
+            if (count < 0) {
+                throw new IllegalStateException("negative number of rules:" + count);
+            }
+            CRC32 crc = new CRC32();
+            List<InternalRule> rules = new ArrayList<InternalRule>(Math.min(count, 65536));
+            String[] fields = new String[FIELDS];
+            for (int i = 0; i < count; i++) {
+                for (int f = 0; f < FIELDS; f++) {
+                    fields[f] = readString(buffer, crc);
+                }
+                rules.add(ruleOf(fields));
+            }
+            if (buffer.getLong() != crc.getValue() || buffer.hasRemaining()) {
+                throw new IllegalStateException("checksum mismatch");
+            }
+            return rules;
+        } catch (BufferUnderflowException e) {
+            logger.warn("routing rule snapshot:{} is truncated.", file);
+            return null;
+        } catch (RuntimeException e) {
+            logger.warn("routing rule snapshot:" + file + " is corrupted.", e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer, CRC32 crc) {
+        int length = buffer.getInt();
+        crc.update(length >>> 24);
+        crc.update(length >>> 16);
+        crc.update(length >>> 8);
+        crc.update(length);
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        crc.update(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String[] fieldsOf(InternalRule rule) {
+        return new String[] { rule.getNamespace(), rule.getSqlmap(),
+                rule.getShardingExpression(), rule.getShards(), rule.getShardingAttribute(),
+                rule.getShardingFunction(), rule.getRanges(), rule.getRangeFromAttribute(),
+                rule.getRangeToAttribute(), rule.getVirtualNodes(), rule.getWeights(),
+                rule.getMerger() };
+    }
+
+    private static InternalRule ruleOf(String[] fields) {
+        InternalRule rule = new InternalRule();
+        rule.setNamespace(fields[0]);
+        rule.setSqlmap(fields[1]);
+        rule.setShardingExpression(fields[2]);
+        rule.setShards(fields[3]);
+        rule.setShardingAttribute(fields[4]);
+        rule.setShardingFunction(fields[5]);
+        rule.setRanges(fields[6]);
+        rule.setRangeFromAttribute(fields[7]);
+        rule.setRangeToAttribute(fields[8]);
+        rule.setVirtualNodes(fields[9]);
+        rule.setWeights(fields[10]);
+        rule.setMerger(fields[11]);
+        return rule;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.config.support;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
+import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceConsistentHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRangeShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionConsistentHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRangeShardingRule;
+import com.alibaba.cobar.client.router.rules.support.ConsistentHashRing;
+import com.alibaba.cobar.client.router.rules.support.HashShardingFunction;
+import com.alibaba.cobar.client.router.rules.support.IShardingFunction;
+import com.alibaba.cobar.client.router.rules.support.ModShardingFunction;
+
+/**
+ * builds the sharding rules which are not defined with sharding expressions
+ * from {@link InternalRule}s, it's shared by the rule loaders of different
+ * routers.<br>
+ * a rule with "ranges" becomes a range sharding rule, a rule with
+ * "virtualNodes" or "weights" becomes a consistent hash sharding rule,
+ * otherwise, a rule with "shardingAttribute" becomes a hash sharding rule.<br>
+ *
+ * @since 1.0.6
+ */
+public class ShardingRuleBuilder {
+
+    private static final String[] DATE_PATTERNS = { "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd" };
+
+    /**
+     * @return whether the rule shards on attributes directly instead of with a
+     *         sharding expression.
+     */
+    public static boolean isAttributeShardingRule(InternalRule rule) {
+        return StringUtils.isNotBlank(rule.getShardingAttribute())
+                || StringUtils.isNotBlank(rule.getRanges())
+                || isConsistentHashShardingRule(rule);
+    }
+
+    /**
+     * @param rule, the rule definition whose namespace or sqlmap has been
+     *            validated.
+     * @param functionsMap, where to look up custom sharding functions.
+     */
+    public static AbstractIBatisOrientedRule buildAttributeShardingRule(
+                                                                        InternalRule rule,
+                                                                        Map<String, Object> functionsMap) {
+        if (StringUtils.isNotBlank(rule.getShardingExpression())) {
+            throw new IllegalArgumentException(
+                    "'shardingAttribute' and 'ranges' can't be used with 'shardingExpression' in rule:"
+                            + rule);
+        }
+        if (StringUtils.isNotBlank(rule.getRanges())) {
+            return buildRangeShardingRule(rule);
+        }
+        if (isConsistentHashShardingRule(rule)) {
+            return buildConsistentHashShardingRule(rule);
+        }
+        return buildHashShardingRule(rule, functionsMap);
+    }
+
+    static AbstractIBatisOrientedRule buildHashShardingRule(InternalRule rule,
+                                                            Map<String, Object> functionsMap) {
+        String namespace = StringUtils.trimToEmpty(rule.getNamespace());
+        String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
+        String shardingAttribute = StringUtils.trimToEmpty(rule.getShardingAttribute());
+        String destinations = StringUtils.trimToEmpty(rule.getShards());
+
+        IShardingFunction function = lookupShardingFunction(rule.getShardingFunction(),
+                functionsMap);
+        if (StringUtils.isNotEmpty(namespace)) {
+            return new IBatisNamespaceHashShardingRule(namespace, destinations, shardingAttribute,
+                    function);
+        }
+        return new IBatisSqlActionHashShardingRule(sqlAction, destinations, shardingAttribute,
+                function);
+    }
+
+    static AbstractIBatisOrientedRule buildRangeShardingRule(InternalRule rule) {
+        String namespace = StringUtils.trimToEmpty(rule.getNamespace());
+        String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
+        String destinations = StringUtils.trimToEmpty(rule.getShards());
+
+        String[] bounds = StringUtils.split(rule.getRanges(), ",");
+        int shardCount = StringUtils.split(destinations,
+                AbstractIBatisOrientedRule.DEFAULT_DATASOURCE_IDENTITY_SEPARATOR).length;
+        if (bounds.length != shardCount) {
+            throw new IllegalArgumentException(bounds.length + " ranges are given for "
+                    + shardCount + " shards in rule:" + rule);
+        }
+        long[] lowerBounds = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            lowerBounds[i] = parseBound(StringUtils.trim(bounds[i]));
+        }
+
+        if (StringUtils.isNotEmpty(namespace)) {
+            return new IBatisNamespaceRangeShardingRule(namespace, destinations, lowerBounds, rule
+                    .getShardingAttribute(), rule.getRangeFromAttribute(), rule
+                    .getRangeToAttribute());
+        }
+        return new IBatisSqlActionRangeShardingRule(sqlAction, destinations, lowerBounds, rule
+                .getShardingAttribute(), rule.getRangeFromAttribute(), rule.getRangeToAttribute());
+    }
+
+    static boolean isConsistentHashShardingRule(InternalRule rule) {
+        return StringUtils.isNotBlank(rule.getVirtualNodes())
+                || StringUtils.isNotBlank(rule.getWeights());
+    }
+
+    static AbstractIBatisOrientedRule buildConsistentHashShardingRule(InternalRule rule) {
+        String namespace = StringUtils.trimToEmpty(rule.getNamespace());
+        String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
+        String shardingAttribute = StringUtils.trimToEmpty(rule.getShardingAttribute());
+        String destinations = StringUtils.trimToEmpty(rule.getShards());
+        if (StringUtils.isNotBlank(rule.getShardingFunction())) {
+            throw new IllegalArgumentException(
+                    "'shardingFunction' can't be used with consistent hashing in rule:" + rule);
+        }
+
+        int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+        if (StringUtils.isNotBlank(rule.getVirtualNodes())) {
+            virtualNodes = parsePositiveInt(rule.getVirtualNodes(), "virtualNodes", rule);
+        }
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        if (StringUtils.isNotBlank(rule.getWeights())) {
+            for (String pair : StringUtils.split(rule.getWeights(), ",")) {
+                String shard = StringUtils.trimToEmpty(StringUtils.substringBefore(pair, ":"));
+                String weight = StringUtils.substringAfter(pair, ":");
+                if (StringUtils.isEmpty(shard) || StringUtils.isBlank(weight)) {
+                    throw new IllegalArgumentException("weight:'" + pair
+                            + "' is not like 'shard:weight' in rule:" + rule);
+                }
+                weights.put(shard, parsePositiveInt(weight, "weights", rule));
+            }
+        }
+
+        if (StringUtils.isNotEmpty(namespace)) {
+            return new IBatisNamespaceConsistentHashShardingRule(namespace, destinations,
+                    shardingAttribute, virtualNodes, weights);
+        }
+        return new IBatisSqlActionConsistentHashShardingRule(sqlAction, destinations,
+                shardingAttribute, virtualNodes, weights);
+    }
+
+    private static int parsePositiveInt(String value, String name, InternalRule rule) {
+        try {
+            int result = Integer.parseInt(StringUtils.trim(value));
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("'" + name + "' must be positive integers, but got:'"
+                + value + "' in rule:" + rule);
+    }
+
+    static long parseBound(String bound) {
+        try {
+            return Long.parseLong(bound);
+        } catch (NumberFormatException e) {
+            // try dates then.
+        }
+        for (String pattern : DATE_PATTERNS) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            try {
+                if (bound.length() == pattern.length()) {
+                    return format.parse(bound).getTime();
+                }
+            } catch (ParseException e) {
+                // try next pattern.
+            }
+        }
+        throw new IllegalArgumentException("range bound:'" + bound
+                + "' is neither an integral number nor a date like 'yyyy-MM-dd[ HH:mm:ss]'.");
+    }
+
+    static IShardingFunction lookupShardingFunction(String name, Map<String, Object> functionsMap) {
+        name = StringUtils.trimToEmpty(name);
+        if (StringUtils.isEmpty(name) || ModShardingFunction.NAME.equals(name)) {
+            return new ModShardingFunction();
+        }
+        if (HashShardingFunction.NAME.equals(name)) {
+            return new HashShardingFunction();
+        }
+        Object function = (functionsMap == null) ? null : functionsMap.get(name);
+        if (!(function instanceof IShardingFunction)) {
+            throw new IllegalArgumentException("sharding function:'" + name
+                    + "' is neither a built-in one nor an IShardingFunction in functions map.");
+        }
+        return (IShardingFunction) function;
+    }
+}
@@ -21,6 +21,47 @@ public class InternalRule {
     private String sqlmap;
     private String shardingExpression;
     private String shards;
+    /**
+     * property path of the attribute to shard on, if given, the target shard
+     * will be computed from the attribute value with {@link #shardingFunction}
+     * directly, and {@link #shards} will be taken as an ordered shard list,
+     * it can't be used together with {@link #shardingExpression}.
+     */
+    private String shardingAttribute;
+    /**
+     * "mod", "hash", or name of a function in the functions map which
+     * implements IShardingFunction, "mod" will be used if not given.
+     */
+    private String shardingFunction;
+    /**
+     * comma separated, strictly ascending lower bounds of the key ranges held
+     * by {@link #shards} in order, each one is an integral number or a date
+     * like "2011-01-01" or "2011-01-01 12:00:00". if given, the rule
+     * partitions by ranges, the key of point queries is read from
+     * {@link #shardingAttribute}, while range scans are resolved with
+     * {@link #rangeFromAttribute} and {@link #rangeToAttribute}.
+     */
+    private String ranges;
+    /**
+     * property path of the inclusive lower end of range scans.
+     */
+    private String rangeFromAttribute;
+    /**
+     * property path of the exclusive upper end of range scans.
+     */
+    private String rangeToAttribute;
+    /**
+     * points on the ring per unit of weight, if given(or if {@link #weights}
+     * is given), the rule routes the value of {@link #shardingAttribute} on a
+     * consistent hash ring of {@link #shards}, so adding a shard later only
+     * moves about 1/N of the keys.
+     */
+    private String virtualNodes;
+    /**
+     * comma separated "shard:weight" pairs for consistent hashing, the
+     * shards not listed have weight 1.
+     */
+    private String weights;
     /**
      * this field is not used for now, because it's still in leverage whether
      * it's proper to bind merging information into a routing concern.
@@ -59,6 +100,62 @@ public class InternalRule {
         this.shards = shards;
     }
 
+    public String getShardingAttribute() {
+        return shardingAttribute;
+    }
+
+    public void setShardingAttribute(String shardingAttribute) {
+        this.shardingAttribute = shardingAttribute;
+    }
+
+    public String getShardingFunction() {
+        return shardingFunction;
+    }
+
+    public void setShardingFunction(String shardingFunction) {
+        this.shardingFunction = shardingFunction;
+    }
+
+    public String getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(String ranges) {
+        this.ranges = ranges;
+    }
+
+    public String getRangeFromAttribute() {
+        return rangeFromAttribute;
+    }
+
+    public void setRangeFromAttribute(String rangeFromAttribute) {
+        this.rangeFromAttribute = rangeFromAttribute;
+    }
+
+    public String getRangeToAttribute() {
+        return rangeToAttribute;
+    }
+
+    public void setRangeToAttribute(String rangeToAttribute) {
+        this.rangeToAttribute = rangeToAttribute;
+    }
+
+    public String getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(String virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public String getWeights() {
+        return weights;
+    }
+
+    public void setWeights(String weights) {
+        this.weights = weights;
+    }
+
     /**
      * set the bean name of merger to use.
      * 
@@ -83,6 +180,16 @@ public class InternalRule {
         result = prime * result
                 + ((shardingExpression == null) ? 0 : shardingExpression.hashCode());
         result = prime * result + ((shards == null) ? 0 : shards.hashCode());
+        result = prime * result
+                + ((shardingAttribute == null) ? 0 : shardingAttribute.hashCode());
+        result = prime * result
+                + ((shardingFunction == null) ? 0 : shardingFunction.hashCode());
+        result = prime * result + ((ranges == null) ? 0 : ranges.hashCode());
+        result = prime * result
+                + ((rangeFromAttribute == null) ? 0 : rangeFromAttribute.hashCode());
+        result = prime * result + ((rangeToAttribute == null) ? 0 : rangeToAttribute.hashCode());
+        result = prime * result + ((virtualNodes == null) ? 0 : virtualNodes.hashCode());
+        result = prime * result + ((weights == null) ? 0 : weights.hashCode());
         result = prime * result + ((sqlmap == null) ? 0 : sqlmap.hashCode());
         return result;
     }
@@ -111,6 +218,41 @@ public class InternalRule {
                 return false;
         } else if (!shards.equals(other.shards))
             return false;
+        if (shardingAttribute == null) {
+            if (other.shardingAttribute != null)
+                return false;
+        } else if (!shardingAttribute.equals(other.shardingAttribute))
+            return false;
+        if (shardingFunction == null) {
+            if (other.shardingFunction != null)
+                return false;
+        } else if (!shardingFunction.equals(other.shardingFunction))
+            return false;
+        if (ranges == null) {
+            if (other.ranges != null)
+                return false;
+        } else if (!ranges.equals(other.ranges))
+            return false;
+        if (rangeFromAttribute == null) {
+            if (other.rangeFromAttribute != null)
+                return false;
+        } else if (!rangeFromAttribute.equals(other.rangeFromAttribute))
+            return false;
+        if (rangeToAttribute == null) {
+            if (other.rangeToAttribute != null)
+                return false;
+        } else if (!rangeToAttribute.equals(other.rangeToAttribute))
+            return false;
+        if (virtualNodes == null) {
+            if (other.virtualNodes != null)
+                return false;
+        } else if (!virtualNodes.equals(other.virtualNodes))
+            return false;
+        if (weights == null) {
+            if (other.weights != null)
+                return false;
+        } else if (!weights.equals(other.weights))
+            return false;
         if (sqlmap == null) {
             if (other.sqlmap != null)
                 return false;
@@ -122,6 +264,10 @@ public class InternalRule {
     @Override
     public String toString() {
         return "InternalRule [namespace=" + namespace + ", shardingExpression="
-                + shardingExpression + ", shards=" + shards + ", sqlmap=" + sqlmap + "]";
+                + shardingExpression + ", shardingAttribute=" + shardingAttribute
+                + ", shardingFunction=" + shardingFunction + ", ranges=" + ranges
+                + ", rangeFromAttribute=" + rangeFromAttribute + ", rangeToAttribute="
+                + rangeToAttribute + ", virtualNodes=" + virtualNodes + ", weights=" + weights
+                + ", shards=" + shards + ", sqlmap=" + sqlmap + "]";
     }
 }
@@ -0,0 +1,34 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules;
+
+/**
+ * a rule whose action result depends on the routing fact, for example, a rule
+ * that computes the target shard from an attribute of the fact directly,
+ * instead of being one of N rules that each matches one of the shards.<br>
+ * the routers will call {@link #action(Object)} with the matched fact instead
+ * of {@link #action()} for such rules, {@link #action()} should return all of
+ * the possible results of the rule.<br>
+ * 
+ * @since 1.0.6
+ */
+public interface IFactAwareRoutingRule<F, T> extends IRoutingRule<F, T> {
+    /**
+     * @param routingFact, the fact that this rule {@link #isDefinedAt(Object)}.
+     * @return the action result for the fact.
+     */
+    T action(F routingFact);
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.ibatis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.cobar.client.router.rules.IFactAwareRoutingRule;
+import com.alibaba.cobar.client.router.rules.support.ConsistentHashRing;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.PropertyShardKeyExtractor;
+import com.alibaba.cobar.client.router.support.RoutingResult;
+
+/**
+ * super class of the iBatis oriented rules which route by the value of a
+ * sharding attribute on a {@link ConsistentHashRing} of the shards given as
+ * action, so adding a shard(i.e. a new data source) to the rule only moves
+ * about 1/N of the keys, instead of nearly all of them as with modulo
+ * sharding.<br>
+ * the rule is not defined at the facts whose sharding attribute is null, so
+ * that other rules can take them.<br>
+ * 
+ * @since 1.0.6
+ */
+public abstract class AbstractIBatisOrientedConsistentHashShardingRule extends
+        AbstractIBatisOrientedRule implements IFactAwareRoutingRule<IBatisRoutingFact, List<String>> {
+
+    private transient final Logger          logger = LoggerFactory
+                                                           .getLogger(AbstractIBatisOrientedConsistentHashShardingRule.class);
+
+    private final ConsistentHashRing        ring;
+    private final PropertyShardKeyExtractor attributeReader;
+    /**
+     * the single shard results, shared by the routings to the same shard.
+     */
+    private final List<List<String>>        results;
+
+    /**
+     * @param pattern, the namespace or sql-map action id to match.
+     * @param action, the shards to place on the ring.
+     * @param shardingAttribute, property path of the sharding attribute in the
+     *            argument of sql-map actions.
+     * @param virtualNodes, points on the ring per unit of weight.
+     * @param weights, weight of shards keyed by identity, optional.
+     */
+    public AbstractIBatisOrientedConsistentHashShardingRule(String pattern, String action,
+                                                            String shardingAttribute,
+                                                            int virtualNodes,
+                                                            Map<String, Integer> weights) {
+        super(pattern, action, shardingAttribute);
+        this.ring = new ConsistentHashRing(action(), virtualNodes, weights);
+        this.attributeReader = new PropertyShardKeyExtractor(shardingAttribute);
+        this.results = new ArrayList<List<String>>();
+        for (String shard : ring.getShards()) {
+            results.add(Collections.singletonList(shard));
+        }
+    }
+
+    /**
+     * @return whether the sql-map action of the fact is the one of this rule.
+     */
+    protected abstract boolean matchesAction(IBatisRoutingFact routingFact);
+
+    public boolean isDefinedAt(IBatisRoutingFact routingFact) {
+        return definedValueOf(routingFact) != null;
+    }
+
+    @Override
+    public RoutingResult routingResultIfDefinedAt(IBatisRoutingFact routingFact) {
+        Object value = definedValueOf(routingFact);
+        return (value == null) ? null : internedResultOf(results.get(ring.indexOf(value)));
+    }
+
+    /**
+     * @return the value of the sharding attribute, or null if the rule is not
+     *         defined at the fact.
+     */
+    private Object definedValueOf(IBatisRoutingFact routingFact) {
+        if (routingFact == null || !matchesAction(routingFact)) {
+            return null;
+        }
+        try {
+            return attributeReader.extract(routingFact.getArgument());
+        } catch (RuntimeException e) {
+            logger.info("failed to read attribute:'{}' of fact:'{}'\n{}", new Object[] {
+                    getAttributePattern(), routingFact, e });
+            return null;
+        }
+    }
+
+    public List<String> action(IBatisRoutingFact routingFact) {
+        Object value = attributeReader.extract(routingFact.getArgument());
+        if (value == null) {
+            throw new IllegalArgumentException("can't shard fact:" + routingFact
+                    + " without a value of attribute:" + getAttributePattern());
+        }
+        return results.get(ring.indexOf(value));
+    }
+
+    @Override
+    public RoutingResult routingResultOf(IBatisRoutingFact routingFact) {
+        return internedResultOf(action(routingFact));
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + ring.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj)
+                && ring.equals(((AbstractIBatisOrientedConsistentHashShardingRule) obj).ring);
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.ibatis;
+
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.cobar.client.router.rules.IFactAwareRoutingRule;
+import com.alibaba.cobar.client.router.rules.support.IShardingFunction;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.PropertyShardKeyExtractor;
+import com.alibaba.cobar.client.router.support.RoutingResult;
+
+/**
+ * super class of the iBatis oriented rules which compute the target shard
+ * directly from the value of a sharding attribute with a
+ * {@link IShardingFunction}, so one rule covers all of the shards of a
+ * partitioned table, instead of one sharding expression per shard.<br>
+ * the shards given as action are ordered, the index returned by the sharding
+ * function is the index of the shard to route to.<br>
+ * the rule is not defined at the facts whose sharding attribute is null or
+ * can't be sharded by the function, so that other rules can take them, while
+ * an index out of the shards is an {@link IllegalStateException}, since it's a
+ * broken function instead of a fact for other rules.<br>
+ * the routers shard a fact once with
+ * {@link #routingResultIfDefinedAt(IBatisRoutingFact)}, instead of
+ * {@link #isDefinedAt(IBatisRoutingFact)} and then
+ * {@link #routingResultOf(IBatisRoutingFact)}.<br>
+ * 
+ * @since 1.0.6
+ */
+public abstract class AbstractIBatisOrientedHashShardingRule extends AbstractIBatisOrientedRule
+        implements IFactAwareRoutingRule<IBatisRoutingFact, List<String>> {
+
+    private transient final Logger          logger = LoggerFactory
+                                                           .getLogger(AbstractIBatisOrientedHashShardingRule.class);
+
+    private final IShardingFunction         shardingFunction;
+    private final PropertyShardKeyExtractor attributeReader;
+
+    /**
+     * @param pattern, the namespace or sql-map action id to match.
+     * @param action, the ordered shards.
+     * @param shardingAttribute, property path of the sharding attribute in the
+     *            argument of sql-map actions.
+     * @param shardingFunction, maps the sharding attribute value to shard
+     *            index.
+     */
+    public AbstractIBatisOrientedHashShardingRule(String pattern, String action,
+                                                  String shardingAttribute,
+                                                  IShardingFunction shardingFunction) {
+        super(pattern, action, shardingAttribute);
+        Validate.notNull(shardingFunction, "sharding function must be given.");
+        this.shardingFunction = shardingFunction;
+        this.attributeReader = new PropertyShardKeyExtractor(shardingAttribute);
+    }
+
+    /**
+     * @return whether the sql-map action of the fact is the one of this rule.
+     */
+    protected abstract boolean matchesAction(IBatisRoutingFact routingFact);
+
+    public boolean isDefinedAt(IBatisRoutingFact routingFact) {
+        return definedShardIndexOf(routingFact) >= 0;
+    }
+
+    @Override
+    public RoutingResult routingResultIfDefinedAt(IBatisRoutingFact routingFact) {
+        int index = definedShardIndexOf(routingFact);
+        return (index < 0) ? null : singleShardResultAt(index);
+    }
+
+    public List<String> action(IBatisRoutingFact routingFact) {
+        return routingResultOf(routingFact).getResourceIdentities();
+    }
+
+    @Override
+    public RoutingResult routingResultOf(IBatisRoutingFact routingFact) {
+        int index = shardIndexOf(routingFact);
+        if (index < 0) {
+            throw new IllegalArgumentException("can't shard fact:" + routingFact
+                    + " without a value of attribute:" + getAttributePattern());
+        }
+        return singleShardResultAt(index);
+    }
+
+    /**
+     * @return index of the target shard, or -1 if the sharding attribute is
+     *         null.
+     */
+    protected int shardIndexOf(IBatisRoutingFact routingFact) {
+        Object value = attributeReader.extract(routingFact.getArgument());
+        if (value == null) {
+            return -1;
+        }
+        int index = shardingFunction.shardIndexOf(value, action().size());
+        verifyShardIndex(index);
+        return index;
+    }
+
+    /**
+     * @return index of the target shard, or -1 if the rule is not defined at
+     *         the fact.
+     */
+    private int definedShardIndexOf(IBatisRoutingFact routingFact) {
+        Validate.notNull(routingFact);
+        if (!matchesAction(routingFact)) {
+            return -1;
+        }
+        int index;
+        try {
+            Object value = attributeReader.extract(routingFact.getArgument());
+            if (value == null) {
+                return -1;
+            }
+            index = shardingFunction.shardIndexOf(value, action().size());
+        } catch (RuntimeException e) {
+            logger.info("failed to shard fact:'{}' on attribute:'{}' with function:'{}'\n{}",
+                    new Object[] { routingFact, getAttributePattern(), shardingFunction, e });
+            return -1;
+        }
+        verifyShardIndex(index);
+        return index;
+    }
+
+    private void verifyShardIndex(int index) {
+        int shardCount = action().size();
+        if (index < 0 || index >= shardCount) {
+            throw new IllegalStateException("sharding function:" + shardingFunction
+                    + " returned index:" + index + " out of the " + shardCount + " shards.");
+        }
+    }
+
+    public IShardingFunction getShardingFunction() {
+        return shardingFunction;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + shardingFunction.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj)
+                && shardingFunction.equals(((AbstractIBatisOrientedHashShardingRule) obj).shardingFunction);
+    }
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.ibatis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.cobar.client.router.rules.IFactAwareRoutingRule;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.PropertyShardKeyExtractor;
+import com.alibaba.cobar.client.router.support.RoutingResult;
+
+/**
+ * super class of the iBatis oriented rules which partition a table by
+ * contiguous key ranges, e.g. id ranges or time ranges.<br>
+ * the shards given as action are ordered, each one holds the keys in
+ * [its lower bound, the lower bound of the next shard), the last shard has no
+ * upper bound, and keys lower than the first lower bound belong to no shard.<br>
+ * for point queries, the shard of the value of the sharding attribute is found
+ * with a binary search over the lower bounds; for range scans whose argument
+ * carries a [from, to) range instead, only the shards whose ranges overlap it
+ * are returned. either end of the range can be absent, which means unbounded
+ * on that side, but not both of them.<br>
+ * keys can be integral numbers, {@link Date}s(as milliseconds), or numeric
+ * strings.<br>
+ * 
+ * @since 1.0.6
+ */
+public abstract class AbstractIBatisOrientedRangeShardingRule extends AbstractIBatisOrientedRule
+        implements IFactAwareRoutingRule<IBatisRoutingFact, List<String>> {
+
+    private transient final Logger          logger = LoggerFactory
+                                                           .getLogger(AbstractIBatisOrientedRangeShardingRule.class);
+
+    private final long[]                    lowerBounds;
+    private final String                    shardingAttribute;
+    private final String                    rangeFromAttribute;
+    private final String                    rangeToAttribute;
+
+    private final PropertyShardKeyExtractor keyReader;
+    private final PropertyShardKeyExtractor fromReader;
+    private final PropertyShardKeyExtractor toReader;
+
+    /**
+     * @param pattern, the namespace or sql-map action id to match.
+     * @param action, the ordered shards, one for each lower bound.
+     * @param lowerBounds, strictly ascending lower bounds of the shards.
+     * @param shardingAttribute, property path of the key for point queries,
+     *            optional.
+     * @param rangeFromAttribute, property path of the inclusive lower end of
+     *            range scans, optional.
+     * @param rangeToAttribute, property path of the exclusive upper end of
+     *            range scans, optional.
+     */
+    public AbstractIBatisOrientedRangeShardingRule(String pattern, String action,
+                                                   long[] lowerBounds, String shardingAttribute,
+                                                   String rangeFromAttribute,
+                                                   String rangeToAttribute) {
+        super(pattern, action, describeAttributes(shardingAttribute, rangeFromAttribute,
+                rangeToAttribute));
+        Validate.isTrue(lowerBounds != null && lowerBounds.length > 0,
+                "lower bounds of the ranges must be given.");
+        for (int i = 1; i < lowerBounds.length; i++) {
+            if (lowerBounds[i - 1] >= lowerBounds[i]) {
+                throw new IllegalArgumentException("lower bounds must be strictly ascending, but "
+                        + lowerBounds[i - 1] + " is followed by " + lowerBounds[i]);
+            }
+        }
+        this.lowerBounds = lowerBounds.clone();
+        this.shardingAttribute = StringUtils.trimToNull(shardingAttribute);
+        this.rangeFromAttribute = StringUtils.trimToNull(rangeFromAttribute);
+        this.rangeToAttribute = StringUtils.trimToNull(rangeToAttribute);
+        this.keyReader = readerOf(this.shardingAttribute);
+        this.fromReader = readerOf(this.rangeFromAttribute);
+        this.toReader = readerOf(this.rangeToAttribute);
+    }
+
+    /**
+     * @return whether the sql-map action of the fact is the one of this rule.
+     */
+    protected abstract boolean matchesAction(IBatisRoutingFact routingFact);
+
+    public boolean isDefinedAt(IBatisRoutingFact routingFact) {
+        return definedShardsOf(routingFact) != null;
+    }
+
+    @Override
+    public RoutingResult routingResultIfDefinedAt(IBatisRoutingFact routingFact) {
+        List<String> shards = definedShardsOf(routingFact);
+        return (shards == null) ? null : internedResultOf(shards);
+    }
+
+    /**
+     * @return the shards of the fact, or null if the rule is not defined at
+     *         it.
+     */
+    private List<String> definedShardsOf(IBatisRoutingFact routingFact) {
+        Validate.notNull(routingFact);
+        if (!matchesAction(routingFact)) {
+            return null;
+        }
+        try {
+            List<String> shards = resolveShards(routingFact);
+            return (shards == null || shards.isEmpty()) ? null : shards;
+        } catch (RuntimeException e) {
+            logger.info("failed to resolve ranges of fact:'{}' on attributes:'{}'\n{}",
+                    new Object[] { routingFact, getAttributePattern(), e });
+            return null;
+        }
+    }
+
+    public List<String> action(IBatisRoutingFact routingFact) {
+        List<String> shards = resolveShards(routingFact);
+        if (shards == null) {
+            throw new IllegalArgumentException("neither key nor range is found in fact:"
+                    + routingFact + " with attributes:" + getAttributePattern());
+        }
+        return shards;
+    }
+
+    @Override
+    public RoutingResult routingResultOf(IBatisRoutingFact routingFact) {
+        return internedResultOf(action(routingFact));
+    }
+
+    /**
+     * @return shards for the key or range carried by the fact, or null if
+     *         there is neither key nor range.
+     */
+    protected List<String> resolveShards(IBatisRoutingFact routingFact) {
+        Object argument = routingFact.getArgument();
+        if (keyReader != null) {
+            Object key = keyReader.extract(argument);
+            if (key != null) {
+                return shardOf(toRangeKey(key));
+            }
+        }
+        Object from = (fromReader == null) ? null : fromReader.extract(argument);
+        Object to = (toReader == null) ? null : toReader.extract(argument);
+        if (from == null && to == null) {
+            return null;
+        }
+        return shardsOverlapping((from == null) ? null : toRangeKey(from), (to == null) ? null
+                : toRangeKey(to));
+    }
+
+    /**
+     * @return the shard which holds the key, or an empty list if the key is
+     *         lower than all of the ranges.
+     */
+    public List<String> shardOf(long key) {
+        int index = floorIndexOf(key);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(shards().get(index));
+    }
+
+    /**
+     * @param from, inclusive, null for unbounded.
+     * @param to, exclusive, null for unbounded.
+     * @return the shards whose ranges overlap [from, to), in order.
+     */
+    public List<String> shardsOverlapping(Long from, Long to) {
+        List<String> shards = shards();
+        if (from != null && to != null && from.longValue() >= to.longValue()) {
+            return Collections.emptyList();
+        }
+        int first = (from == null) ? 0 : Math.max(0, floorIndexOf(from.longValue()));
+        int last = (to == null) ? lowerBounds.length - 1 : lastIndexBelow(to.longValue());
+        if (last < first) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<String>(shards.subList(first, last + 1)));
+    }
+
+    /**
+     * @return index of the range that contains the key, -1 if the key is lower
+     *         than the first lower bound.
+     */
+    private int floorIndexOf(long key) {
+        int index = Arrays.binarySearch(lowerBounds, key);
+        return (index >= 0) ? index : -index - 2;
+    }
+
+    /**
+     * @return index of the last range that starts before the key.
+     */
+    private int lastIndexBelow(long key) {
+        int index = Arrays.binarySearch(lowerBounds, key);
+        return (index >= 0) ? index - 1 : -index - 2;
+    }
+
+    private List<String> shards() {
+        List<String> shards = action();
+        if (shards.size() != lowerBounds.length) {
+            throw new IllegalStateException(lowerBounds.length + " lower bounds are given for "
+                    + shards.size() + " shards:" + shards);
+        }
+        return shards;
+    }
+
+    public static long toRangeKey(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("non-numeric range key:'" + value + "'");
+            }
+        }
+        throw new IllegalArgumentException("range key:'" + value + "' of type:"
+                + value.getClass().getName() + " is not supported.");
+    }
+
+    private static PropertyShardKeyExtractor readerOf(String attribute) {
+        return (attribute == null) ? null : new PropertyShardKeyExtractor(attribute);
+    }
+
+    private static String describeAttributes(String shardingAttribute, String rangeFromAttribute,
+                                             String rangeToAttribute) {
+        if (StringUtils.isBlank(shardingAttribute) && StringUtils.isBlank(rangeFromAttribute)
+                && StringUtils.isBlank(rangeToAttribute)) {
+            throw new IllegalArgumentException(
+                    "at least one of sharding attribute and range attributes must be given.");
+        }
+        return StringUtils.trimToEmpty(shardingAttribute) + "["
+                + StringUtils.trimToEmpty(rangeFromAttribute) + ","
+                + StringUtils.trimToEmpty(rangeToAttribute) + ")";
+    }
+
+    public long[] getLowerBounds() {
+        return lowerBounds.clone();
+    }
+
+    public String getShardingAttribute() {
+        return shardingAttribute;
+    }
+
+    public String getRangeFromAttribute() {
+        return rangeFromAttribute;
+    }
+
+    public String getRangeToAttribute() {
+        return rangeToAttribute;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Arrays.hashCode(lowerBounds);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj)
+                && Arrays.equals(lowerBounds, ((AbstractIBatisOrientedRangeShardingRule) obj).lowerBounds);
+    }
+
+}
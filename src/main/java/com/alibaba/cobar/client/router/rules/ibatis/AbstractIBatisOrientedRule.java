@@ -16,6 +16,7 @@
  package com.alibaba.cobar.client.router.rules.ibatis;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,9 +27,14 @@ import org.apache.commons.lang.Validate;
 import com.alibaba.cobar.client.router.rules.AbstractEntityAttributeRule;
 import com.alibaba.cobar.client.router.rules.IRoutingRule;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.RoutingResult;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
 /**
- * super class for all of the {@link IRoutingRule} implementations that is oriented to be used to do routing with iBatis sqlmap.
+ * super class for all of the {@link IRoutingRule} implementations that is oriented to be used to do routing with iBatis sqlmap.<br>
+ * the data source ids are parsed from the action on first use, and the
+ * routing results of the rule are created once and shared afterwards, see
+ * {@link #routingResultOf(IBatisRoutingFact)}, so the routing path neither
+ * takes a lock nor allocates.<br>
  * 
  * @author fujohnwang
  * @since  1.0
@@ -38,9 +44,11 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
     
     private Map<String, Object> functionMap = new HashMap<String, Object>();
 
-    private String actionPatternSeparator = DEFAULT_DATASOURCE_IDENTITY_SEPARATOR;
+    private volatile String actionPatternSeparator = DEFAULT_DATASOURCE_IDENTITY_SEPARATOR;
     
-    private List<String>       dataSourceIds                         = new ArrayList<String>();
+    private volatile List<String> dataSourceIds                      = new ArrayList<String>();
+
+    private volatile InternedResults internedResults;
 
     public AbstractIBatisOrientedRule(String pattern, String action) {
         super(pattern, action);
@@ -50,16 +58,100 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
         super(pattern, action, attributePattern);
     }
 
-    public synchronized List<String> action() {
-        if(CollectionUtils.isEmpty(dataSourceIds))
-        {
-            List<String> ids = new ArrayList<String>();
+    /**
+     * no lock is taken, racing threads may parse the ids more than once, but
+     * they will publish the same ids.
+     */
+    public List<String> action() {
+        List<String> ids = this.dataSourceIds;
+        if (CollectionUtils.isEmpty(ids)) {
+            ids = new ArrayList<String>();
             for (String id : StringUtils.split(getAction(), getActionPatternSeparator())) {
                 ids.add(StringUtils.trimToEmpty(id));
             }
-            setDataSourceIds(ids);
+            ids = Collections.unmodifiableList(ids);
+            this.dataSourceIds = ids;
         }
-        return dataSourceIds;
+        return ids;
+    }
+
+    /**
+     * @return the shared routing result of all of the data sources of the
+     *         rule.
+     */
+    public RoutingResult routingResult() {
+        return internedResults().all;
+    }
+
+    /**
+     * @param routingFact, the fact that this rule
+     *            {@link #isDefinedAt(IBatisRoutingFact)}.
+     * @return the routing result for the fact, the rules whose result depends
+     *         on the fact override this to return one of the shared results.
+     */
+    public RoutingResult routingResultOf(IBatisRoutingFact routingFact) {
+        return routingResult();
+    }
+
+    /**
+     * evaluates the rule and computes its result in one go, the routers call
+     * it instead of {@link #isDefinedAt(IBatisRoutingFact)} and then
+     * {@link #routingResultOf(IBatisRoutingFact)}, so the rules which have to
+     * compute the result to tell whether they are defined at a fact can
+     * override it to compute the result only once.<br>
+     * 
+     * @return the routing result for the fact, or null if the rule is not
+     *         defined at it.
+     */
+    public RoutingResult routingResultIfDefinedAt(IBatisRoutingFact routingFact) {
+        return isDefinedAt(routingFact) ? routingResultOf(routingFact) : null;
+    }
+
+    /**
+     * @return the shared result of the data source at the index of
+     *         {@link #action()}.
+     */
+    protected RoutingResult singleShardResultAt(int index) {
+        return internedResults().singles[index];
+    }
+
+    /**
+     * @return the shared result with the same data sources if there is one,
+     *         otherwise a new immutable result.
+     */
+    protected RoutingResult internedResultOf(List<String> ids) {
+        InternedResults interned = internedResults();
+        if (ids.size() == 1) {
+            RoutingResult result = interned.singlesById.get(ids.get(0));
+            if (result != null) {
+                return result;
+            }
+        } else if (ids == interned.ids || sameIds(ids, interned.ids)) {
+            return interned.all;
+        }
+        return RoutingResult.immutableOf(ids);
+    }
+
+    private static boolean sameIds(List<String> ids1, List<String> ids2) {
+        if (ids1.size() != ids2.size()) {
+            return false;
+        }
+        for (int i = 0; i < ids1.size(); i++) {
+            if (!ids1.get(i).equals(ids2.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private InternedResults internedResults() {
+        InternedResults interned = this.internedResults;
+        List<String> ids = action();
+        if (interned == null || interned.ids != ids) {
+            interned = new InternedResults(ids);
+            this.internedResults = interned;
+        }
+        return interned;
     }
 
     public void setDataSourceIds(List<String> dataSourceIds) {
@@ -73,6 +165,7 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
     public void setActionPatternSeparator(String actionPatternSeparator) {
         Validate.notNull(actionPatternSeparator);
         this.actionPatternSeparator = actionPatternSeparator;
+        this.dataSourceIds = new ArrayList<String>();
     }
 
     public String getActionPatternSeparator() {
@@ -87,4 +180,26 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
         return functionMap;
     }
 
+    /**
+     * the routing results created from one list of data source ids, they
+     * are recreated if the ids are changed.
+     */
+    private static class InternedResults {
+        final List<String>               ids;
+        final RoutingResult              all;
+        final RoutingResult[]            singles;
+        final Map<String, RoutingResult> singlesById = new HashMap<String, RoutingResult>();
+
+        InternedResults(List<String> ids) {
+            this.ids = ids;
+            this.all = RoutingResult.immutableOf(ids);
+            this.singles = new RoutingResult[ids.size()];
+            for (int i = 0; i < singles.length; i++) {
+                singles[i] = RoutingResult.immutableOf(Collections.singletonList(ids.get(i)));
+                if (!singlesById.containsKey(ids.get(i))) {
+                    singlesById.put(ids.get(i), singles[i]);
+                }
+            }
+        }
+    }
 }
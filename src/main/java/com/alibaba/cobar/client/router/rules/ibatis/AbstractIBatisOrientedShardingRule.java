@@ -0,0 +1,118 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.ibatis;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mvel2.MVEL;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.integration.impl.MapVariableResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.cobar.client.router.rules.support.ImmutableFunctionResolverFactory;
+import com.alibaba.cobar.client.router.rules.support.MvelSupport;
+import com.alibaba.cobar.client.router.rules.support.RootObjectResolverFactory;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * super class of the iBatis oriented rules which evaluate a sharding
+ * expression against the argument of the routing fact.<br>
+ * by default, the expression will be interpreted by MVEL on each evaluation,
+ * but if {@link #compile()} is called, the expression will be compiled only
+ * once, and evaluated against a function resolver shared by all of the
+ * evaluations from then on.<br>
+ *
+ * @since 1.0.6
+ */
+public abstract class AbstractIBatisOrientedShardingRule extends AbstractIBatisOrientedRule {
+
+    private transient final Logger                    logger = LoggerFactory
+                                                                     .getLogger(AbstractIBatisOrientedShardingRule.class);
+
+    private volatile Serializable                     compiledExpression;
+    private volatile ImmutableFunctionResolverFactory functionResolverFactory;
+
+    public AbstractIBatisOrientedShardingRule(String pattern, String action,
+                                              String attributePattern) {
+        super(pattern, action, attributePattern);
+    }
+
+    /**
+     * compile the sharding expression and snapshot current function map, so
+     * that later evaluations don't need to parse the expression or copy the
+     * function map any more.<br>
+     *
+     * @throws IllegalArgumentException if the sharding expression can't be
+     *             compiled.
+     */
+    public synchronized void compile() {
+        Serializable expression = null;
+        try {
+            expression = MvelSupport.compileExpression(getAttributePattern());
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("failed to compile sharding expression:'"
+                    + getAttributePattern() + "' of rule:" + this, t);
+        }
+        this.functionResolverFactory = new ImmutableFunctionResolverFactory(getFunctionMap());
+        this.compiledExpression = expression;
+    }
+
+    public boolean isCompiled() {
+        return compiledExpression != null;
+    }
+
+    protected boolean evaluateShardingExpression(IBatisRoutingFact routingFact) {
+        try {
+            Serializable expression = this.compiledExpression;
+            if (expression != null) {
+                VariableResolverFactory vrfactory = new RootObjectResolverFactory(routingFact
+                        .getArgument(), functionResolverFactory);
+                return Boolean.TRUE.equals(MvelSupport.executeExpression(expression, routingFact
+                        .getArgument(), vrfactory, Boolean.class));
+            }
+
+            Map<String, Object> vrs = new HashMap<String, Object>();
+            vrs.putAll(getFunctionMap());
+            vrs.put(RootObjectResolverFactory.ROOT, routingFact.getArgument()); // add top object reference for expression
+            VariableResolverFactory vrfactory = new MapVariableResolverFactory(vrs);
+            if (MVEL.evalToBoolean(getAttributePattern(), routingFact.getArgument(), vrfactory)) {
+                return true;
+            }
+        } catch (Throwable t) {
+            logger.info("failed to evaluate attribute expression:'{}' with context object:'{}'\n{}",
+                    new Object[] { getAttributePattern(), routingFact.getArgument(), t });
+        }
+        return false;
+    }
+
+    @Override
+    public void setAttributePattern(String attributePattern) {
+        super.setAttributePattern(attributePattern);
+        this.compiledExpression = null;
+    }
+
+    @Override
+    public void setFunctionMap(Map<String, Object> functionMap) {
+        super.setFunctionMap(functionMap);
+        if (isCompiled()) {
+            this.functionResolverFactory = new ImmutableFunctionResolverFactory(functionMap);
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.ibatis;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * matches against the namespace of sql-map actions, and resolves the target shards by key
+ * ranges.<br>
+ * 
+ * @since 1.0.6
+ * @see AbstractIBatisOrientedRangeShardingRule
+ */
+public class IBatisNamespaceRangeShardingRule extends AbstractIBatisOrientedRangeShardingRule {
+
+    public IBatisNamespaceRangeShardingRule(String pattern, String action, long[] lowerBounds,
+                                            String shardingAttribute, String rangeFromAttribute,
+                                            String rangeToAttribute) {
+        super(pattern, action, lowerBounds, shardingAttribute, rangeFromAttribute,
+                rangeToAttribute);
+    }
+
+    @Override
+    protected boolean matchesAction(IBatisRoutingFact routingFact) {
+        String namespace = StringUtils.substringBeforeLast(routingFact.getAction(), ".");
+        return StringUtils.equals(namespace, getTypePattern());
+    }
+
+    @Override
+    public String toString() {
+        return "IBatisNamespaceRangeShardingRule [getAttributePattern()=" + getAttributePattern()
+                + ", getLowerBounds()=" + Arrays.toString(getLowerBounds()) + ", getAction()="
+                + getAction() + ", getTypePattern()=" + getTypePattern() + "]";
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.ibatis;
+
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * matches against the sql-map action id, and routes to the shard of the
+ * sharding attribute value on a consistent hash ring.<br>
+ * 
+ * @since 1.0.6
+ * @see AbstractIBatisOrientedConsistentHashShardingRule
+ */
+public class IBatisSqlActionConsistentHashShardingRule extends
+        AbstractIBatisOrientedConsistentHashShardingRule {
+
+    public IBatisSqlActionConsistentHashShardingRule(String pattern, String action,
+                                                String shardingAttribute, int virtualNodes,
+                                                Map<String, Integer> weights) {
+        super(pattern, action, shardingAttribute, virtualNodes, weights);
+    }
+
+    @Override
+    protected boolean matchesAction(IBatisRoutingFact routingFact) {
+        return StringUtils.equals(getTypePattern(), routingFact.getAction());
+    }
+
+    @Override
+    public String toString() {
+        return "IBatisSqlActionConsistentHashShardingRule [getAttributePattern()="
+                + getAttributePattern() + ", getRing()=" + getRing() + ", getAction()="
+                + getAction() + ", getTypePattern()=" + getTypePattern() + "]";
+    }
+
+}
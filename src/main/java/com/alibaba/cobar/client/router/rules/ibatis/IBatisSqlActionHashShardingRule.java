@@ -0,0 +1,50 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.ibatis;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.alibaba.cobar.client.router.rules.support.IShardingFunction;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * matches against the sql-map action id, and computes the target shard from the
+ * sharding attribute directly.<br>
+ * 
+ * @since 1.0.6
+ * @see AbstractIBatisOrientedHashShardingRule
+ */
+public class IBatisSqlActionHashShardingRule extends AbstractIBatisOrientedHashShardingRule {
+
+    public IBatisSqlActionHashShardingRule(String pattern, String action,
+                                           String shardingAttribute,
+                                           IShardingFunction shardingFunction) {
+        super(pattern, action, shardingAttribute, shardingFunction);
+    }
+
+    @Override
+    protected boolean matchesAction(IBatisRoutingFact routingFact) {
+        return StringUtils.equals(getTypePattern(), routingFact.getAction());
+    }
+
+    @Override
+    public String toString() {
+        return "IBatisSqlActionHashShardingRule [getAttributePattern()=" + getAttributePattern()
+                + ", getShardingFunction()=" + getShardingFunction() + ", getAction()="
+                + getAction() + ", getTypePattern()=" + getTypePattern() + "]";
+    }
+
+}
@@ -15,23 +15,12 @@
  */
  package com.alibaba.cobar.client.router.rules.ibatis;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
-import org.mvel2.MVEL;
-import org.mvel2.integration.VariableResolverFactory;
-import org.mvel2.integration.impl.MapVariableResolverFactory;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
 
-public class IBatisSqlActionShardingRule extends AbstractIBatisOrientedRule {
-
-    private transient final Logger logger = LoggerFactory
-                                                  .getLogger(IBatisSqlActionShardingRule.class);
+public class IBatisSqlActionShardingRule extends AbstractIBatisOrientedShardingRule {
 
     public IBatisSqlActionShardingRule(String pattern, String action, String attributePattern) {
         super(pattern, action, attributePattern);
@@ -41,20 +30,7 @@ public class IBatisSqlActionShardingRule extends AbstractIBatisOrientedRule {
         Validate.notNull(routingFact);
         boolean matches = StringUtils.equals(getTypePattern(), routingFact.getAction());
         if (matches) {
-            try {
-                Map<String, Object> vrs = new HashMap<String, Object>();
-                vrs.putAll(getFunctionMap());
-                vrs.put("$ROOT", routingFact.getArgument()); // add top object reference for expression
-                VariableResolverFactory vrfactory = new MapVariableResolverFactory(vrs);
-                if (MVEL.evalToBoolean(getAttributePattern(), routingFact.getArgument(), vrfactory)) {
-                    return true;
-                }
-            } catch (Throwable t) {
-                logger
-                        .info(
-                                "failed to evaluate attribute expression:'{}' with context object:'{}'\n{}",
-                                new Object[] { getAttributePattern(), routingFact.getArgument(), t });
-            }
+            return evaluateShardingExpression(routingFact);
         }
 
         return false;
@@ -0,0 +1,239 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+/**
+ * A consistent hash ring over a list of shards, each shard is placed on the
+ * ring at (virtual nodes * its weight) points, and a key belongs to the shard
+ * of the first point at or after the hash of the key, wrapping around.<br>
+ * the points are kept in a sorted long[] with a parallel int[] of owners, so a
+ * lookup is a binary search without any allocation.<br>
+ * the points of a shard are derived from its identity only, so adding a shard
+ * only takes over about 1/N of the keys from the others, and removing one
+ * only moves its own keys, which keeps data migration and cache misses small
+ * when resharding. use {@link ConsistentHashRingDiff} to see which key ranges
+ * move between two rings.<br>
+ * keys are hashed by value: integral numbers by their long value, dates by
+ * their milliseconds, and anything else by its string form, so the hash is
+ * stable across JVMs.<br>
+ * instances are immutable and thread-safe.<br>
+ * 
+ * @since 1.0.6
+ */
+public class ConsistentHashRing {
+
+    public static final int    DEFAULT_VIRTUAL_NODES = 160;
+
+    private final List<String> shards;
+    private final long[]       points;
+    private final int[]        owners;
+
+    public ConsistentHashRing(List<String> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES, null);
+    }
+
+    /**
+     * @param shards, identities of the shards, no duplicates.
+     * @param virtualNodes, points per unit of weight.
+     * @param weights, weight of shards keyed by identity, optional, 1 for
+     *            the shards without weights.
+     */
+    public ConsistentHashRing(List<String> shards, int virtualNodes, Map<String, Integer> weights) {
+        Validate.notEmpty(shards, "at least one shard must be given.");
+        Validate.isTrue(virtualNodes > 0, "virtual nodes must be positive.");
+        this.shards = Collections.unmodifiableList(new ArrayList<String>(shards));
+        if (weights != null) {
+            for (String shard : weights.keySet()) {
+                if (!this.shards.contains(shard)) {
+                    throw new IllegalArgumentException("weight is given for unknown shard:'"
+                            + shard + "'");
+                }
+            }
+        }
+
+        int total = 0;
+        int[] pointCounts = new int[shards.size()];
+        for (int i = 0; i < pointCounts.length; i++) {
+            String shard = this.shards.get(i);
+            Validate.isTrue(StringUtils.isNotBlank(shard), "empty shard identity is not allowed.");
+            if (this.shards.indexOf(shard) != i) {
+                throw new IllegalArgumentException("duplicate shard:'" + shard + "'");
+            }
+            Integer weight = (weights == null) ? null : weights.get(shard);
+            if (weight != null && weight.intValue() <= 0) {
+                throw new IllegalArgumentException("weight of shard:'" + shard
+                        + "' must be positive.");
+            }
+            pointCounts[i] = virtualNodes * ((weight == null) ? 1 : weight.intValue());
+            total += pointCounts[i];
+        }
+
+        Point[] ring = new Point[total];
+        int n = 0;
+        for (int i = 0; i < pointCounts.length; i++) {
+            for (int v = 0; v < pointCounts[i]; v++) {
+                ring[n++] = new Point(hashOf(this.shards.get(i) + "#" + v), this.shards.get(i), i);
+            }
+        }
+        Arrays.sort(ring);
+
+        // on hash collisions, the point of the shard with the smallest identity wins
+        long[] points = new long[total];
+        int[] owners = new int[total];
+        int size = 0;
+        for (Point point : ring) {
+            if (size > 0 && points[size - 1] == point.position) {
+                continue;
+            }
+            points[size] = point.position;
+            owners[size] = point.owner;
+            size++;
+        }
+        this.points = new long[size];
+        this.owners = new int[size];
+        System.arraycopy(points, 0, this.points, 0, size);
+        System.arraycopy(owners, 0, this.owners, 0, size);
+    }
+
+    /**
+     * @return index of the shard which holds the key, in {@link #getShards()}.
+     */
+    public int indexOf(Object key) {
+        return ownerAt(hashOf(key));
+    }
+
+    /**
+     * @return the shard which holds the key.
+     */
+    public String shardOf(Object key) {
+        return shards.get(indexOf(key));
+    }
+
+    /**
+     * @return index of the shard which holds the given position of the ring.
+     */
+    int ownerAt(long position) {
+        int index = Arrays.binarySearch(points, position);
+        if (index < 0) {
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return owners[index];
+    }
+
+    long[] points() {
+        return points;
+    }
+
+    /**
+     * @return position of the key on the ring.
+     */
+    public static long hashOf(Object key) {
+        Validate.notNull(key, "null key can't be hashed.");
+        if (key instanceof Long || key instanceof Integer || key instanceof Short
+                || key instanceof Byte) {
+            return mix(((Number) key).longValue());
+        }
+        if (key instanceof Date) {
+            return mix(((Date) key).getTime());
+        }
+        // FNV-1a over the characters
+        String s = key.toString();
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * the finalizer of MurmurHash3, spreads similar keys over the ring.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public List<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * @return number of points on the ring.
+     */
+    public int size() {
+        return points.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * shards.hashCode() + Arrays.hashCode(points);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConsistentHashRing)) {
+            return false;
+        }
+        ConsistentHashRing other = (ConsistentHashRing) obj;
+        return shards.equals(other.shards) && Arrays.equals(points, other.points)
+                && Arrays.equals(owners, other.owners);
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashRing [shards=" + shards + ", points=" + points.length + "]";
+    }
+
+    private static class Point implements Comparable<Point> {
+        final long   position;
+        final String shard;
+        final int    owner;
+
+        Point(long position, String shard, int owner) {
+            this.position = position;
+            this.shard = shard;
+            this.owner = owner;
+        }
+
+        public int compareTo(Point other) {
+            if (position != other.position) {
+                return (position < other.position) ? -1 : 1;
+            }
+            return shard.compareTo(other.shard);
+        }
+    }
+}
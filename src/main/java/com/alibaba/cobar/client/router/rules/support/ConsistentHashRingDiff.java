@@ -0,0 +1,191 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * reports the key ranges which move between two {@link ConsistentHashRing}s,
+ * e.g. the ring before and after adding a shard, so that only the data in
+ * these ranges needs to be migrated.<br>
+ * a range is (from, to] on the ring of key hashes, see
+ * {@link ConsistentHashRing#hashOf(Object)}, it may wrap around when from is
+ * not less than to.<br>
+ * 
+ * @since 1.0.6
+ */
+public class ConsistentHashRingDiff {
+
+    private static final double RING_SIZE = Math.pow(2, 64);
+
+    private final List<MovedRange> movedRanges;
+
+    public ConsistentHashRingDiff(ConsistentHashRing before, ConsistentHashRing after) {
+        Validate.notNull(before);
+        Validate.notNull(after);
+        this.movedRanges = Collections.unmodifiableList(diff(before, after));
+    }
+
+    private static List<MovedRange> diff(ConsistentHashRing before, ConsistentHashRing after) {
+        long[] positions = mergePoints(before.points(), after.points());
+        List<MovedRange> ranges = new ArrayList<MovedRange>();
+        MovedRange current = null;
+        // every segment (positions[i-1], positions[i]] has a single owner in both rings
+        for (int i = 0; i < positions.length; i++) {
+            long from = positions[(i == 0) ? positions.length - 1 : i - 1];
+            long to = positions[i];
+            String source = before.getShards().get(before.ownerAt(to));
+            String target = after.getShards().get(after.ownerAt(to));
+            if (source.equals(target)) {
+                current = null;
+                continue;
+            }
+            if (current != null && current.source.equals(source)
+                    && current.target.equals(target)) {
+                current = new MovedRange(current.from, to, source, target);
+                ranges.set(ranges.size() - 1, current);
+            } else {
+                current = new MovedRange(from, to, source, target);
+                ranges.add(current);
+            }
+        }
+        // the first range continues the last one if they are adjacent over the wrap point
+        if (ranges.size() > 1) {
+            MovedRange first = ranges.get(0);
+            MovedRange last = ranges.get(ranges.size() - 1);
+            if (last.to == positions[positions.length - 1] && first.from == last.to
+                    && first.source.equals(last.source) && first.target.equals(last.target)) {
+                ranges.set(0, new MovedRange(last.from, first.to, first.source, first.target));
+                ranges.remove(ranges.size() - 1);
+            }
+        }
+        return ranges;
+    }
+
+    private static long[] mergePoints(long[] a, long[] b) {
+        long[] merged = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            long next;
+            if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (n == 0 || merged[n - 1] != next) {
+                merged[n++] = next;
+            }
+        }
+        long[] result = new long[n];
+        System.arraycopy(merged, 0, result, 0, n);
+        return result;
+    }
+
+    public List<MovedRange> getMovedRanges() {
+        return movedRanges;
+    }
+
+    /**
+     * @return fraction of the whole key space that moves, in [0, 1].
+     */
+    public double getMovedFraction() {
+        double moved = 0;
+        for (MovedRange range : movedRanges) {
+            moved += range.getWidth();
+        }
+        return moved / RING_SIZE;
+    }
+
+    /**
+     * @return a human readable report with one line per moved range.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(movedRanges.size()).append(" ranges moved, ").append(
+                String.format("%.2f%%", getMovedFraction() * 100)).append(" of the keys.\n");
+        for (MovedRange range : movedRanges) {
+            sb.append(range).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashRingDiff [movedRanges=" + movedRanges.size() + ", movedFraction="
+                + getMovedFraction() + "]";
+    }
+
+    /**
+     * a range of key hashes (from, to] which moves from the source shard to
+     * the target shard.<br>
+     */
+    public static class MovedRange {
+        private final long   from;
+        private final long   to;
+        private final String source;
+        private final String target;
+
+        MovedRange(long from, long to, String source, String target) {
+            this.from = from;
+            this.to = to;
+            this.source = source;
+            this.target = target;
+        }
+
+        /**
+         * @return whether the range contains the hash.
+         */
+        public boolean contains(long hash) {
+            if (from < to) {
+                return hash > from && hash <= to;
+            }
+            return hash > from || hash <= to;
+        }
+
+        /**
+         * @return number of hashes in the range, as a double to hold 2^64.
+         */
+        public double getWidth() {
+            double width = (double) (to - from);
+            return (width <= 0) ? width + RING_SIZE : width;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + from + ", " + to + "]: " + source + " -> " + target;
+        }
+    }
+}
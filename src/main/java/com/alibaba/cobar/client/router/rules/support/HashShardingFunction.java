@@ -0,0 +1,53 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.support;
+
+/**
+ * shards values of any type by their hash codes, the hash code will be spread
+ * before modulo to defend against poor hash codes.<br>
+ * the values should have hash codes which are stable across JVMs, like
+ * strings and numbers, or else the same value may go to different shards in
+ * different JVMs.<br>
+ * 
+ * @since 1.0.6
+ */
+public class HashShardingFunction implements IShardingFunction {
+
+    public static final String NAME = "hash";
+
+    public int shardIndexOf(Object value, int shardCount) {
+        int h = value.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        int index = h % shardCount;
+        return (index < 0) ? index + shardCount : index;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return NAME.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return NAME;
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.support;
+
+/**
+ * maps the value of a sharding attribute to the index of a shard directly,
+ * implementations should be stateless and thread-safe.<br>
+ * 
+ * @since 1.0.6
+ */
+public interface IShardingFunction {
+    /**
+     * @param value, value of the sharding attribute, never null.
+     * @param shardCount, number of the shards, always positive.
+     * @return index of the shard, in [0, shardCount).
+     * @throws IllegalArgumentException if the value can't be sharded by this
+     *             function.
+     */
+    int shardIndexOf(Object value, int shardCount);
+}
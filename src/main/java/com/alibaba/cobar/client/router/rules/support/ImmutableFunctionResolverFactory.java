@@ -0,0 +1,114 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.support;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.mvel2.integration.VariableResolver;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.integration.impl.SimpleValueResolver;
+
+import com.alibaba.cobar.client.support.utils.MapUtils;
+
+/**
+ * A read-only {@link VariableResolverFactory} which exposes the custom
+ * functions of sharding expressions.<br>
+ * the resolvers are created once at construction and never change after that,
+ * so one instance can be shared by all of the threads that evaluate compiled
+ * sharding expressions, while MVEL's own factories cache resolvers lazily and
+ * are not safe for such sharing.<br>
+ *
+ * @since 1.0.6
+ * @see RootObjectResolverFactory
+ */
+public class ImmutableFunctionResolverFactory implements VariableResolverFactory {
+
+    private static final long                   serialVersionUID = -3413869425640196431L;
+
+    private final Map<String, VariableResolver> resolvers;
+
+    public ImmutableFunctionResolverFactory(Map<String, Object> functions) {
+        Map<String, VariableResolver> map = new HashMap<String, VariableResolver>();
+        if (MapUtils.isNotEmpty(functions)) {
+            for (Map.Entry<String, Object> entry : functions.entrySet()) {
+                map.put(entry.getKey(), new SimpleValueResolver(entry.getValue()));
+            }
+        }
+        this.resolvers = Collections.unmodifiableMap(map);
+    }
+
+    public VariableResolver getVariableResolver(String name) {
+        return resolvers.get(name);
+    }
+
+    public boolean isTarget(String name) {
+        return resolvers.containsKey(name);
+    }
+
+    public boolean isResolveable(String name) {
+        return resolvers.containsKey(name);
+    }
+
+    public Set<String> getKnownVariables() {
+        return resolvers.keySet();
+    }
+
+    public VariableResolverFactory getNextFactory() {
+        return null;
+    }
+
+    public VariableResolverFactory setNextFactory(VariableResolverFactory resolverFactory) {
+        throw new UnsupportedOperationException("functions resolver can't be chained.");
+    }
+
+    public VariableResolver createVariable(String name, Object value) {
+        throw new UnsupportedOperationException(
+                "sharding expressions are not allowed to define variable:" + name);
+    }
+
+    public VariableResolver createVariable(String name, Object value, Class<?> type) {
+        return createVariable(name, value);
+    }
+
+    public VariableResolver createIndexedVariable(int index, String name, Object value) {
+        return createVariable(name, value);
+    }
+
+    public VariableResolver createIndexedVariable(int index, String name, Object value,
+                                                  Class<?> type) {
+        return createVariable(name, value);
+    }
+
+    public VariableResolver setIndexedVariableResolver(int index, VariableResolver resolver) {
+        throw new UnsupportedOperationException("indexed variables are not supported.");
+    }
+
+    public VariableResolver getIndexedVariableResolver(int index) {
+        return null;
+    }
+
+    public int variableIndexOf(String name) {
+        return -1;
+    }
+
+    public boolean isIndexedFactory() {
+        return false;
+    }
+
+}
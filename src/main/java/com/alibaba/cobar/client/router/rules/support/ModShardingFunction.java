@@ -0,0 +1,63 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.support;
+
+/**
+ * shards integral values by modulo, negative values go to the same shards as
+ * their positive remainders do, that's, -1 goes to the last shard.<br>
+ * numeric strings are accepted too, since the sharding attributes of the
+ * parameter maps of sql-maps are usually strings.<br>
+ * 
+ * @since 1.0.6
+ */
+public class ModShardingFunction implements IShardingFunction {
+
+    public static final String NAME = "mod";
+
+    public int shardIndexOf(Object value, int shardCount) {
+        long number;
+        if (value instanceof Number) {
+            number = ((Number) value).longValue();
+        } else if (value instanceof String) {
+            try {
+                number = Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("can't shard non-numeric value:'" + value
+                        + "' by modulo.");
+            }
+        } else {
+            throw new IllegalArgumentException("can't shard value:'" + value + "' of type:"
+                    + value.getClass().getName() + " by modulo.");
+        }
+        int index = (int) (number % shardCount);
+        return (index < 0) ? index + shardCount : index;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return NAME.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return NAME;
+    }
+}
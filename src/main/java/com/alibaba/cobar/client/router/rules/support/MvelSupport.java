@@ -0,0 +1,130 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.support;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+
+import org.mvel2.MVEL;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.optimizers.AccessorOptimizer;
+import org.mvel2.optimizers.OptimizerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * compiles and evaluates MVEL expressions for the components which compile
+ * expressions once and evaluate them many times.<br>
+ * the dynamic optimizer of MVEL will switch a compiled expression to ASM
+ * generated accessors after a number of evaluations, which fails on newer
+ * JVMs and makes the expression evaluate to wrong results for a few
+ * evaluations in the middle of the switch.<br>
+ * compiled expressions only pay for the accessor creation once, so the
+ * expressions compiled and evaluated here stick to the reflective accessors
+ * which behave the same on all JVMs. the optimizer is only switched for the
+ * current thread during the call, other MVEL users in the same JVM keep
+ * their own optimizer.<br>
+ * 
+ * @since 1.0.6
+ */
+public class MvelSupport {
+
+    private static final Logger                                          logger               = LoggerFactory
+                                                                                                      .getLogger(MvelSupport.class);
+
+    private static final Class<? extends AccessorOptimizer>              REFLECTIVE_OPTIMIZER = OptimizerFactory
+                                                                                                      .getAccessorCompiler(OptimizerFactory.SAFE_REFLECTIVE)
+                                                                                                      .getClass();
+    /**
+     * the per-thread optimizer class of MVEL, read directly since
+     * {@link OptimizerFactory#getThreadAccessorOptimizer()} instantiates the
+     * optimizer by reflection on every call; null if it can't be read, then
+     * the optimizer is read with that method instead.
+     */
+    private static final ThreadLocal<Class<? extends AccessorOptimizer>> THREAD_OPTIMIZER     = threadOptimizerOfMvel();
+
+    public static Serializable compileExpression(String expression) {
+        Class<? extends AccessorOptimizer> previous = useReflectiveAccessors();
+        try {
+            return MVEL.compileExpression(expression);
+        } finally {
+            restoreAccessors(previous);
+        }
+    }
+
+    public static Object executeExpression(Serializable compiledExpression, Object context) {
+        Class<? extends AccessorOptimizer> previous = useReflectiveAccessors();
+        try {
+            return MVEL.executeExpression(compiledExpression, context);
+        } finally {
+            restoreAccessors(previous);
+        }
+    }
+
+    public static <T> T executeExpression(Serializable compiledExpression, Object context,
+                                          VariableResolverFactory factory, Class<T> toType) {
+        Class<? extends AccessorOptimizer> previous = useReflectiveAccessors();
+        try {
+            return MVEL.executeExpression(compiledExpression, context, factory, toType);
+        } finally {
+            restoreAccessors(previous);
+        }
+    }
+
+    /**
+     * an accessor is created by the optimizer of current thread when a node of
+     * the expression is evaluated at the first time, or again when the type of
+     * the context object changes, so the optimizer has to be switched for every
+     * evaluation instead of only for the compilation.<br>
+     * the switch is skipped if the thread already uses the reflective
+     * optimizer, e.g. in a nested evaluation.<br>
+     * 
+     * @return the optimizer of current thread before the switch, which should
+     *         be restored after the call, null if none has been set.
+     */
+    private static Class<? extends AccessorOptimizer> useReflectiveAccessors() {
+        Class<? extends AccessorOptimizer> previous = (THREAD_OPTIMIZER != null) ? THREAD_OPTIMIZER
+                .get() : OptimizerFactory.getThreadAccessorOptimizer().getClass();
+        if (previous != REFLECTIVE_OPTIMIZER) {
+            OptimizerFactory.setThreadAccessorOptimizer(REFLECTIVE_OPTIMIZER);
+        }
+        return previous;
+    }
+
+    private static void restoreAccessors(Class<? extends AccessorOptimizer> previous) {
+        if (previous == REFLECTIVE_OPTIMIZER) {
+            return;
+        }
+        if (previous == null) {
+            THREAD_OPTIMIZER.remove();
+        } else {
+            OptimizerFactory.setThreadAccessorOptimizer(previous);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ThreadLocal<Class<? extends AccessorOptimizer>> threadOptimizerOfMvel() {
+        try {
+            Field field = OptimizerFactory.class.getDeclaredField("threadOptimizer");
+            field.setAccessible(true);
+            return (ThreadLocal<Class<? extends AccessorOptimizer>>) field.get(null);
+        } catch (Exception e) {
+            logger.warn("can't read the thread optimizer of MVEL directly, it will be "
+                    + "instantiated on each evaluation.\n{}", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.rules.support;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.mvel2.integration.VariableResolver;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.integration.impl.SimpleValueResolver;
+
+/**
+ * A per-evaluation {@link VariableResolverFactory} which only knows the
+ * "$ROOT" variable, that's, the argument of current routing fact, and
+ * delegates all of the other variables to a shared
+ * {@link ImmutableFunctionResolverFactory}.<br>
+ * it's cheap to create, so we don't have to copy the whole function map for
+ * each evaluation any more.<br>
+ *
+ * @since 1.0.6
+ */
+public class RootObjectResolverFactory implements VariableResolverFactory {
+
+    private static final long             serialVersionUID = 3094862474930567532L;
+
+    public static final String            ROOT             = "$ROOT";
+
+    private final Object                  root;
+    private final VariableResolverFactory nextFactory;
+
+    public RootObjectResolverFactory(Object root, VariableResolverFactory nextFactory) {
+        this.root = root;
+        this.nextFactory = nextFactory;
+    }
+
+    public VariableResolver getVariableResolver(String name) {
+        if (ROOT.equals(name)) {
+            return new SimpleValueResolver(root);
+        }
+        return (nextFactory == null) ? null : nextFactory.getVariableResolver(name);
+    }
+
+    public boolean isTarget(String name) {
+        return ROOT.equals(name);
+    }
+
+    public boolean isResolveable(String name) {
+        return ROOT.equals(name) || (nextFactory != null && nextFactory.isResolveable(name));
+    }
+
+    public Set<String> getKnownVariables() {
+        Set<String> variables = new HashSet<String>();
+        variables.add(ROOT);
+        if (nextFactory != null) {
+            variables.addAll(nextFactory.getKnownVariables());
+        }
+        return variables;
+    }
+
+    public VariableResolverFactory getNextFactory() {
+        return nextFactory;
+    }
+
+    public VariableResolverFactory setNextFactory(VariableResolverFactory resolverFactory) {
+        throw new UnsupportedOperationException("next factory is fixed at construction.");
+    }
+
+    public VariableResolver createVariable(String name, Object value) {
+        throw new UnsupportedOperationException(
+                "sharding expressions are not allowed to define variable:" + name);
+    }
+
+    public VariableResolver createVariable(String name, Object value, Class<?> type) {
+        return createVariable(name, value);
+    }
+
+    public VariableResolver createIndexedVariable(int index, String name, Object value) {
+        return createVariable(name, value);
+    }
+
+    public VariableResolver createIndexedVariable(int index, String name, Object value,
+                                                  Class<?> type) {
+        return createVariable(name, value);
+    }
+
+    public VariableResolver setIndexedVariableResolver(int index, VariableResolver resolver) {
+        throw new UnsupportedOperationException("indexed variables are not supported.");
+    }
+
+    public VariableResolver getIndexedVariableResolver(int index) {
+        return null;
+    }
+
+    public int variableIndexOf(String name) {
+        return -1;
+    }
+
+    public boolean isIndexedFactory() {
+        return false;
+    }
+
+}
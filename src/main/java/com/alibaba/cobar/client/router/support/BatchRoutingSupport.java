@@ -0,0 +1,166 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.Validate;
+
+import com.alibaba.cobar.client.router.IBatchRouter;
+import com.alibaba.cobar.client.router.ICobarRouter;
+import com.alibaba.cobar.client.router.RoutingException;
+
+/**
+ * groups the arguments of a bulk operation by their routing results for the
+ * routers which implement {@link IBatchRouter}.<br>
+ * one routing fact is reused for the whole batch, and since the built-in rules
+ * hand out shared routing results, the arguments are grouped by the identity
+ * of the result lists first, so an argument usually costs one rule lookup and
+ * one identity map lookup.<br>
+ * if an executor is given, a batch with at least
+ * {@link #getParallelThreshold()} arguments is split into one slice per
+ * processor and the slices are routed in parallel, the order of the arguments
+ * is kept either way.<br>
+ *
+ * @since 1.0.6
+ */
+public class BatchRoutingSupport {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 50000;
+
+    /**
+     * results which are not shared would fill the identity map with one entry
+     * per argument, so it stops growing after this many distinct lists.
+     */
+    private static final int MAX_IDENTITY_KEYS          = 256;
+
+    private ExecutorService  executor;
+    private int              parallelThreshold          = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * @param router, routes one fact, it must not keep the fact since the
+     *            fact is reused for the following arguments.
+     */
+    public Map<List<String>, List<Object>> route(final ICobarRouter<IBatisRoutingFact> router,
+                                                 final String statementName,
+                                                 Collection<?> arguments) throws RoutingException {
+        Validate.notNull(router);
+        Validate.notEmpty(statementName);
+        if (arguments == null || arguments.isEmpty()) {
+            return new LinkedHashMap<List<String>, List<Object>>();
+        }
+        int slices = Runtime.getRuntime().availableProcessors();
+        if (executor == null || arguments.size() < parallelThreshold || slices < 2) {
+            return group(router, statementName, arguments);
+        }
+
+        List<?> argumentList = (arguments instanceof List) ? (List<?>) arguments
+                : new ArrayList<Object>(arguments);
+        int sliceSize = (argumentList.size() + slices - 1) / slices;
+        List<Future<Map<List<String>, List<Object>>>> futures = new ArrayList<Future<Map<List<String>, List<Object>>>>();
+        for (int from = 0; from < argumentList.size(); from += sliceSize) {
+            final List<?> slice = argumentList.subList(from, Math.min(from + sliceSize,
+                    argumentList.size()));
+            futures.add(executor.submit(new Callable<Map<List<String>, List<Object>>>() {
+                public Map<List<String>, List<Object>> call() throws Exception {
+                    return group(router, statementName, slice);
+                }
+            }));
+        }
+
+        Map<List<String>, List<Object>> groups = new LinkedHashMap<List<String>, List<Object>>();
+        for (Future<Map<List<String>, List<Object>>> future : futures) {
+            for (Map.Entry<List<String>, List<Object>> entry : waitFor(future).entrySet()) {
+                List<Object> group = groups.get(entry.getKey());
+                if (group == null) {
+                    groups.put(entry.getKey(), entry.getValue());
+                } else {
+                    group.addAll(entry.getValue());
+                }
+            }
+        }
+        return groups;
+    }
+
+    static Map<List<String>, List<Object>> group(ICobarRouter<IBatisRoutingFact> router,
+                                                 String statementName, Collection<?> arguments) {
+        Map<List<String>, List<Object>> groups = new LinkedHashMap<List<String>, List<Object>>();
+        Map<List<String>, List<Object>> groupsByIdentity = new IdentityHashMap<List<String>, List<Object>>();
+        IBatisRoutingFact fact = new IBatisRoutingFact(statementName, null);
+        for (Object argument : arguments) {
+            fact.setArgument(argument);
+            List<String> identities = router.doRoute(fact).getResourceIdentities();
+            List<Object> group = groupsByIdentity.get(identities);
+            if (group == null) {
+                group = groups.get(identities);
+                if (group == null) {
+                    group = new ArrayList<Object>();
+                    groups.put(identities, group);
+                }
+                if (groupsByIdentity.size() < MAX_IDENTITY_KEYS) {
+                    groupsByIdentity.put(identities, group);
+                }
+            }
+            group.add(argument);
+        }
+        return groups;
+    }
+
+    private Map<List<String>, List<Object>> waitFor(Future<Map<List<String>, List<Object>>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RoutingException("interrupted while routing arguments in parallel.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RoutingException("failed to route arguments in parallel.", cause);
+        }
+    }
+
+    /**
+     * @param executor, to route large batches in parallel with, parallel
+     *            routing is disabled if it's null, which is the default.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        Validate.isTrue(parallelThreshold > 0, "parallelThreshold must be positive.");
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+}
@@ -0,0 +1,716 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.cobar.client.router.rules.IFactAwareRoutingRule;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
+import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceConsistentHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRangeShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionConsistentHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRangeShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionShardingRule;
+import com.alibaba.cobar.client.support.StripedCounter;
+import com.alibaba.cobar.client.support.utils.CollectionUtils;
+
+/**
+ * A read-only index over a sequence of rule sets, so that the routers only
+ * have to evaluate the rules which may match the sql-map action id of a
+ * routing fact, instead of all of the rules.<br>
+ * the rules whose matching is just a string equality test against the sql
+ * action id or its namespace are indexed by that string, the rule sets that
+ * contain any other kind of rule will be scanned as before.<br>
+ * the sequence of the rule sets is kept as it is, so is the iteration order
+ * of the rules in each set, so a lookup always returns the same rule as a
+ * linear scan does.<br>
+ * the index is a snapshot of the rule sets at construction, it will not see
+ * the changes made to the rule sets after that.<br>
+ * <br>
+ * with adaptive ordering, the hits of each rule are counted with striped
+ * counters, and the candidates of each indexed rule set are republished
+ * periodically as immutable arrays sorted by their recent hits, so the rules
+ * which match most often are evaluated first. the lookups only read the
+ * published arrays, they take no lock.<br>
+ * reordering can only be done safely if no two candidates of a rule set match
+ * the same fact, so the rule sets in which rules obviously overlap, e.g. two
+ * rules without sharding expressions for the same sql action, are rejected
+ * at construction; and a rule set is only reordered if the sharding
+ * expressions of the candidates of each sql action can be proven disjoint,
+ * see {@link RangeCondition}, the other rule sets are kept in their original
+ * order, so reordering never changes the routing results.<br>
+ *
+ * @since 1.0.6
+ */
+public class IBatisRuleSequenceIndex {
+
+    public static final long        DEFAULT_REORDER_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * one of this number of lookups on a rule set checks whether it's time to
+     * reorder the rules.
+     */
+    static final int                REORDER_CHECK_INTERVAL          = 256;
+
+    private static final Logger     logger                          = LoggerFactory
+                                                                            .getLogger(IBatisRuleSequenceIndex.class);
+
+    private final List<RuleSetIndex> ruleSetIndexes                 = new ArrayList<RuleSetIndex>();
+
+    public IBatisRuleSequenceIndex(
+                                   List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences) {
+        this(ruleSequences, false, DEFAULT_REORDER_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param adaptive, whether to reorder the rules of each rule set by their
+     *            hits.
+     * @param reorderIntervalMillis, how often the rules are reordered.
+     * @throws IllegalArgumentException if adaptive and some rules overlap in
+     *             a rule set.
+     */
+    public IBatisRuleSequenceIndex(
+                                   List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences,
+                                   boolean adaptive, long reorderIntervalMillis) {
+        if (!CollectionUtils.isEmpty(ruleSequences)) {
+            int tier = 0;
+            for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : ruleSequences) {
+                if (!CollectionUtils.isEmpty(ruleSet)) {
+                    ruleSetIndexes.add(new RuleSetIndex(tier, ruleSet, adaptive,
+                            reorderIntervalMillis));
+                }
+                tier++;
+            }
+        }
+    }
+
+    /**
+     * @return the first rule defined at the routing fact, searching the rule
+     *         sets in sequence, or null if no rule matches.
+     */
+    public IRoutingRule<IBatisRoutingFact, List<String>> lookup(IBatisRoutingFact routingFact) {
+        String action = routingFact.getAction();
+        String namespace = StringUtils.substringBeforeLast(action, ".");
+        for (RuleSetIndex index : ruleSetIndexes) {
+            IRoutingRule<IBatisRoutingFact, List<String>> rule = index.lookup(action, namespace,
+                    routingFact);
+            if (rule != null) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * looks up the rule like {@link #lookup(IBatisRoutingFact)} does, but
+     * computes the routing result while evaluating each rule, see
+     * {@link #routingResultIfDefinedAt(IRoutingRule, IBatisRoutingFact)}, so a
+     * rule isn't evaluated again for its result.<br>
+     * 
+     * @return the routing result of the first rule defined at the routing
+     *         fact, or null if no rule matches.
+     */
+    public RoutingResult route(IBatisRoutingFact routingFact) {
+        String action = routingFact.getAction();
+        String namespace = StringUtils.substringBeforeLast(action, ".");
+        for (RuleSetIndex index : ruleSetIndexes) {
+            RoutingResult result = index.route(action, namespace, routingFact);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the built-in rules hand out shared results, the results of other rules
+     * are copied into new immutable ones.
+     * 
+     * @return the routing result of the rule for the fact, or null if the rule
+     *         is not defined at it.
+     */
+    @SuppressWarnings("unchecked")
+    public static RoutingResult routingResultIfDefinedAt(
+                                                         IRoutingRule<IBatisRoutingFact, List<String>> rule,
+                                                         IBatisRoutingFact routingFact) {
+        if (rule instanceof AbstractIBatisOrientedRule) {
+            return ((AbstractIBatisOrientedRule) rule).routingResultIfDefinedAt(routingFact);
+        }
+        if (!rule.isDefinedAt(routingFact)) {
+            return null;
+        }
+        if (rule instanceof IFactAwareRoutingRule) {
+            return RoutingResult
+                    .immutableOf(((IFactAwareRoutingRule<IBatisRoutingFact, List<String>>) rule)
+                            .action(routingFact));
+        }
+        return RoutingResult.immutableOf(rule.action());
+    }
+
+    /**
+     * evaluates the rules like {@link #lookup(IBatisRoutingFact)} does, but
+     * records the rules evaluated and the one matched in the explanation, and
+     * doesn't count the hit.<br>
+     * 
+     * @return the matched rule, or null if no rule matches.
+     */
+    public IRoutingRule<IBatisRoutingFact, List<String>> explain(IBatisRoutingFact routingFact,
+                                                                 RoutingExplanation explanation) {
+        String action = routingFact.getAction();
+        String namespace = StringUtils.substringBeforeLast(action, ".");
+        for (RuleSetIndex index : ruleSetIndexes) {
+            IRoutingRule<IBatisRoutingFact, List<String>> rule = index.explain(action, namespace,
+                    routingFact, explanation.getEvaluatedRules());
+            if (rule != null) {
+                explanation.setMatchedRule(rule);
+                explanation.setTier(index.tier);
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * a statement is static if, in the first rule set with candidates for it,
+     * the first candidate matches by the statement id or namespace alone.<br>
+     * 
+     * @return how the sql action is routed, or null if some rule set can't be
+     *         indexed, then only routing can tell.
+     */
+    public StatementClassification classify(String action) {
+        String namespace = StringUtils.substringBeforeLast(action, ".");
+        for (RuleSetIndex index : ruleSetIndexes) {
+            if (index.rulesToScan != null) {
+                return null;
+            }
+            IRoutingRule<IBatisRoutingFact, List<String>> first = index.firstCandidateOf(action,
+                    namespace);
+            if (first == null) {
+                continue;
+            }
+            if (first.getClass() == IBatisSqlActionRule.class
+                    || first.getClass() == IBatisNamespaceRule.class) {
+                return StatementClassification.routedTo(first.action());
+            }
+            return StatementClassification.SHARDED;
+        }
+        return StatementClassification.UNSHARDED;
+    }
+
+    /**
+     * republish the candidates of the adaptive rule sets sorted by their
+     * recent hits now, instead of waiting for the reorder interval.<br>
+     */
+    public void reorder() {
+        for (RuleSetIndex index : ruleSetIndexes) {
+            index.reorder();
+        }
+    }
+
+    /**
+     * @return whether the rules of any rule set are still reordered by hits.
+     */
+    public boolean isAdaptive() {
+        for (RuleSetIndex index : ruleSetIndexes) {
+            if (index.adaptive) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the sql action id, if the rule matches by sql action id only.
+     */
+    public static String sqlActionKeyOf(IRoutingRule<IBatisRoutingFact, List<String>> rule) {
+        if (rule instanceof IBatisSqlActionRule || rule instanceof IBatisSqlActionShardingRule
+                || rule instanceof IBatisSqlActionHashShardingRule
+                || rule instanceof IBatisSqlActionRangeShardingRule
+                || rule instanceof IBatisSqlActionConsistentHashShardingRule) {
+            return ((AbstractIBatisOrientedRule) rule).getTypePattern();
+        }
+        return null;
+    }
+
+    /**
+     * @return the namespace, if the rule matches by namespace only.
+     */
+    public static String namespaceKeyOf(IRoutingRule<IBatisRoutingFact, List<String>> rule) {
+        if (rule instanceof IBatisNamespaceRule || rule instanceof IBatisNamespaceShardingRule
+                || rule instanceof IBatisNamespaceHashShardingRule
+                || rule instanceof IBatisNamespaceRangeShardingRule
+                || rule instanceof IBatisNamespaceConsistentHashShardingRule) {
+            return ((AbstractIBatisOrientedRule) rule).getTypePattern();
+        }
+        return null;
+    }
+
+    static class RuleSetIndex {
+        /**
+         * position of the rule set in the rule sequence.
+         */
+        final int                                                   tier;
+        private final Map<String, List<PositionedRule>>             sqlActionRules = new HashMap<String, List<PositionedRule>>();
+        private final Map<String, List<PositionedRule>>             namespaceRules = new HashMap<String, List<PositionedRule>>();
+        /**
+         * not null only if there are rules that can't be indexed in the rule
+         * set, then the whole set will be scanned.
+         */
+        private List<IRoutingRule<IBatisRoutingFact, List<String>>> rulesToScan;
+
+        private volatile Candidates                                 candidates;
+
+        private boolean                                             adaptive;
+        private final long                                          reorderIntervalMillis;
+        private final AtomicBoolean                                 reordering     = new AtomicBoolean();
+        private volatile long                                       lastReorderMillis;
+        /**
+         * a racy counter, losing a few counts only delays reordering a
+         * little.
+         */
+        private int                                                 lookupTicks;
+
+        RuleSetIndex(int tier, Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet,
+                     boolean adaptive, long reorderIntervalMillis) {
+            this.tier = tier;
+            this.reorderIntervalMillis = reorderIntervalMillis;
+            this.lastReorderMillis = System.currentTimeMillis();
+            int position = 0;
+            for (IRoutingRule<IBatisRoutingFact, List<String>> rule : ruleSet) {
+                String sqlAction = sqlActionKeyOf(rule);
+                String namespace = namespaceKeyOf(rule);
+                if (sqlAction != null) {
+                    addTo(sqlActionRules, sqlAction, new PositionedRule(position, rule));
+                } else if (namespace != null) {
+                    addTo(namespaceRules, namespace, new PositionedRule(position, rule));
+                } else {
+                    rulesToScan = new ArrayList<IRoutingRule<IBatisRoutingFact, List<String>>>(
+                            ruleSet);
+                    sqlActionRules.clear();
+                    namespaceRules.clear();
+                    return;
+                }
+                position++;
+            }
+            if (adaptive) {
+                rejectOverlappingRules();
+                if (!isProvenDisjoint()) {
+                    logger.warn("rules of rule set:{} are not proven disjoint, they are kept in "
+                            + "their original order instead of being reordered by hits.", ruleSet);
+                    adaptive = false;
+                }
+            }
+            this.adaptive = adaptive;
+            this.candidates = new Candidates(sqlActionRules, namespaceRules, false);
+        }
+
+        IRoutingRule<IBatisRoutingFact, List<String>> lookup(String action, String namespace,
+                                                             IBatisRoutingFact routingFact) {
+            if (rulesToScan != null) {
+                for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rulesToScan) {
+                    if (rule.isDefinedAt(routingFact)) {
+                        return rule;
+                    }
+                }
+                return null;
+            }
+
+            Candidates current = this.candidates;
+            PositionedRule[] byAction = current.sqlActionRules.get(action);
+            PositionedRule[] byNamespace = current.namespaceRules.get(namespace);
+            if (byAction == null && byNamespace == null) {
+                return null;
+            }
+            if (!adaptive) {
+                PositionedRule matched = firstDefinedAt(byAction, byNamespace, routingFact, null);
+                return (matched == null) ? null : matched.rule;
+            }
+
+            reorderIfDue();
+            PositionedRule matched = firstDefinedAt(byAction, byNamespace, routingFact, null);
+            if (matched == null) {
+                return null;
+            }
+            matched.hits.increment();
+            return matched.rule;
+        }
+
+        /**
+         * same as {@link #lookup(String, String, IBatisRoutingFact)}, but
+         * returns the routing result of the matched rule.
+         */
+        RoutingResult route(String action, String namespace, IBatisRoutingFact routingFact) {
+            if (rulesToScan != null) {
+                for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rulesToScan) {
+                    RoutingResult result = routingResultIfDefinedAt(rule, routingFact);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                return null;
+            }
+
+            Candidates current = this.candidates;
+            PositionedRule[] byAction = current.sqlActionRules.get(action);
+            PositionedRule[] byNamespace = current.namespaceRules.get(namespace);
+            if (byAction == null && byNamespace == null) {
+                return null;
+            }
+            if (adaptive) {
+                reorderIfDue();
+            }
+            int sizeByAction = (byAction == null) ? 0 : byAction.length;
+            int sizeByNamespace = (byNamespace == null) ? 0 : byNamespace.length;
+            int i = 0, j = 0;
+            while (i < sizeByAction || j < sizeByNamespace) {
+                PositionedRule candidate;
+                if (j >= sizeByNamespace
+                        || (i < sizeByAction && byAction[i].order < byNamespace[j].order)) {
+                    candidate = byAction[i++];
+                } else {
+                    candidate = byNamespace[j++];
+                }
+                RoutingResult result = routingResultIfDefinedAt(candidate.rule, routingFact);
+                if (result != null) {
+                    if (adaptive) {
+                        candidate.hits.increment();
+                    }
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        private void reorderIfDue() {
+            int ticks = ++lookupTicks;
+            if (ticks % REORDER_CHECK_INTERVAL == 0
+                    && System.currentTimeMillis() - lastReorderMillis >= reorderIntervalMillis) {
+                reorder();
+            }
+        }
+
+        IRoutingRule<IBatisRoutingFact, List<String>> explain(
+                                                              String action,
+                                                              String namespace,
+                                                              IBatisRoutingFact routingFact,
+                                                              List<IRoutingRule<IBatisRoutingFact, List<String>>> evaluated) {
+            if (rulesToScan != null) {
+                for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rulesToScan) {
+                    evaluated.add(rule);
+                    if (rule.isDefinedAt(routingFact)) {
+                        return rule;
+                    }
+                }
+                return null;
+            }
+            Candidates current = this.candidates;
+            PositionedRule matched = firstDefinedAt(current.sqlActionRules.get(action),
+                    current.namespaceRules.get(namespace), routingFact, evaluated);
+            return (matched == null) ? null : matched.rule;
+        }
+
+        /**
+         * @return the candidate defined first in the rule set, or null.
+         */
+        IRoutingRule<IBatisRoutingFact, List<String>> firstCandidateOf(String action,
+                                                                       String namespace) {
+            List<PositionedRule> byAction = sqlActionRules.get(action);
+            List<PositionedRule> byNamespace = namespaceRules.get(namespace);
+            PositionedRule first = null;
+            if (byAction != null) {
+                first = byAction.get(0);
+            }
+            if (byNamespace != null
+                    && (first == null || byNamespace.get(0).position < first.position)) {
+                first = byNamespace.get(0);
+            }
+            return (first == null) ? null : first.rule;
+        }
+
+        /**
+         * merge the two candidate arrays as per the order of rules, the
+         * position in the original set, or the rank by hits.
+         * 
+         * @param evaluated, to collect the evaluated rules in, if not null.
+         */
+        private PositionedRule firstDefinedAt(
+                                              PositionedRule[] byAction,
+                                              PositionedRule[] byNamespace,
+                                              IBatisRoutingFact routingFact,
+                                              List<IRoutingRule<IBatisRoutingFact, List<String>>> evaluated) {
+            int sizeByAction = (byAction == null) ? 0 : byAction.length;
+            int sizeByNamespace = (byNamespace == null) ? 0 : byNamespace.length;
+            int i = 0, j = 0;
+            while (i < sizeByAction || j < sizeByNamespace) {
+                PositionedRule candidate;
+                if (j >= sizeByNamespace
+                        || (i < sizeByAction && byAction[i].order < byNamespace[j].order)) {
+                    candidate = byAction[i++];
+                } else {
+                    candidate = byNamespace[j++];
+                }
+                if (evaluated != null) {
+                    evaluated.add(candidate.rule);
+                }
+                if (candidate.rule.isDefinedAt(routingFact)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        void reorder() {
+            if (!adaptive || !reordering.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                for (List<PositionedRule> rules : sqlActionRules.values()) {
+                    updateScores(rules);
+                }
+                for (List<PositionedRule> rules : namespaceRules.values()) {
+                    updateScores(rules);
+                }
+                this.candidates = new Candidates(sqlActionRules, namespaceRules, true);
+                this.lastReorderMillis = System.currentTimeMillis();
+            } finally {
+                reordering.set(false);
+            }
+        }
+
+        /**
+         * the score decays by half on each reorder, so the order follows the
+         * recent hits.
+         */
+        private void updateScores(List<PositionedRule> rules) {
+            for (PositionedRule rule : rules) {
+                long hits = rule.hits.sum();
+                rule.score = rule.score / 2 + (hits - rule.lastHits);
+                rule.lastHits = hits;
+            }
+        }
+
+        /**
+         * rules overlap if they may be defined at the same fact, which is
+         * always the case if they are indexed by the same sql action(or the
+         * sql action and its namespace), unless they are all sharding
+         * expression rules with different expressions.
+         */
+        private void rejectOverlappingRules() {
+            for (Map.Entry<String, List<PositionedRule>> entry : sqlActionRules.entrySet()) {
+                List<PositionedRule> rules = new ArrayList<PositionedRule>(entry.getValue());
+                List<PositionedRule> byNamespace = namespaceRules.get(StringUtils
+                        .substringBeforeLast(entry.getKey(), "."));
+                if (byNamespace != null) {
+                    rules.addAll(byNamespace);
+                }
+                rejectOverlappingRules(rules);
+            }
+            for (List<PositionedRule> rules : namespaceRules.values()) {
+                rejectOverlappingRules(rules);
+            }
+        }
+
+        private void rejectOverlappingRules(List<PositionedRule> rules) {
+            if (rules.size() < 2) {
+                return;
+            }
+            Set<String> expressions = new HashSet<String>();
+            for (PositionedRule candidate : rules) {
+                if (!(candidate.rule instanceof AbstractIBatisOrientedShardingRule)
+                        || !expressions.add(((AbstractIBatisOrientedShardingRule) candidate.rule)
+                                .getAttributePattern())) {
+                    List<IRoutingRule<IBatisRoutingFact, List<String>>> overlapped = new ArrayList<IRoutingRule<IBatisRoutingFact, List<String>>>();
+                    for (PositionedRule rule : rules) {
+                        overlapped.add(rule.rule);
+                    }
+                    throw new IllegalArgumentException("rules:" + overlapped
+                            + " overlap in a rule set, they can't be reordered adaptively.");
+                }
+            }
+        }
+
+        /**
+         * @return whether no two candidates of any sql action in the rule set
+         *         can match the same fact, which is the case if they all have
+         *         sharding expressions of disjoint ranges on the same term.
+         */
+        private boolean isProvenDisjoint() {
+            for (Map.Entry<String, List<PositionedRule>> entry : sqlActionRules.entrySet()) {
+                List<PositionedRule> rules = new ArrayList<PositionedRule>(entry.getValue());
+                List<PositionedRule> byNamespace = namespaceRules.get(StringUtils
+                        .substringBeforeLast(entry.getKey(), "."));
+                if (byNamespace != null) {
+                    rules.addAll(byNamespace);
+                }
+                if (!isProvenDisjoint(rules)) {
+                    return false;
+                }
+            }
+            for (List<PositionedRule> rules : namespaceRules.values()) {
+                if (!isProvenDisjoint(rules)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isProvenDisjoint(List<PositionedRule> rules) {
+            if (rules.size() < 2) {
+                return true;
+            }
+            List<RangeCondition> ranges = new ArrayList<RangeCondition>(rules.size());
+            for (PositionedRule candidate : rules) {
+                // non-expression rules are rejected as overlapping already.
+                RangeCondition range = RangeCondition
+                        .parse(((AbstractIBatisOrientedShardingRule) candidate.rule)
+                                .getAttributePattern());
+                if (range == null) {
+                    return false;
+                }
+                for (RangeCondition other : ranges) {
+                    if (!range.isDisjointWith(other)) {
+                        return false;
+                    }
+                }
+                ranges.add(range);
+            }
+            return true;
+        }
+
+        private static void addTo(Map<String, List<PositionedRule>> index, String key,
+                                  PositionedRule rule) {
+            List<PositionedRule> rules = index.get(key);
+            if (rules == null) {
+                rules = new ArrayList<PositionedRule>();
+                index.put(key, rules);
+            }
+            rules.add(rule);
+        }
+    }
+
+    /**
+     * an immutable snapshot of the candidate rules of a rule set, in the
+     * order to evaluate them.<br>
+     */
+    static class Candidates {
+        final Map<String, PositionedRule[]> sqlActionRules;
+        final Map<String, PositionedRule[]> namespaceRules;
+
+        Candidates(Map<String, List<PositionedRule>> sqlActionRules,
+                   Map<String, List<PositionedRule>> namespaceRules, boolean byScore) {
+            List<PositionedRule> all = new ArrayList<PositionedRule>();
+            for (List<PositionedRule> rules : sqlActionRules.values()) {
+                all.addAll(rules);
+            }
+            for (List<PositionedRule> rules : namespaceRules.values()) {
+                all.addAll(rules);
+            }
+            // rank the rules by score, the earlier one wins on ties
+            Map<PositionedRule, Integer> orders = new HashMap<PositionedRule, Integer>();
+            if (byScore) {
+                Collections.sort(all, new Comparator<PositionedRule>() {
+                    public int compare(PositionedRule r1, PositionedRule r2) {
+                        if (r1.score != r2.score) {
+                            return (r1.score > r2.score) ? -1 : 1;
+                        }
+                        return r1.position - r2.position;
+                    }
+                });
+            }
+            for (int i = 0; i < all.size(); i++) {
+                orders.put(all.get(i), byScore ? i : all.get(i).position);
+            }
+            this.sqlActionRules = snapshot(sqlActionRules, orders);
+            this.namespaceRules = snapshot(namespaceRules, orders);
+        }
+
+        private static Map<String, PositionedRule[]> snapshot(Map<String, List<PositionedRule>> index,
+                                                              Map<PositionedRule, Integer> orders) {
+            Map<String, PositionedRule[]> snapshot = new HashMap<String, PositionedRule[]>();
+            for (Map.Entry<String, List<PositionedRule>> entry : index.entrySet()) {
+                PositionedRule[] rules = new PositionedRule[entry.getValue().size()];
+                for (int i = 0; i < rules.length; i++) {
+                    PositionedRule rule = entry.getValue().get(i);
+                    rules[i] = new PositionedRule(rule, orders.get(rule).intValue());
+                }
+                Arrays.sort(rules, new Comparator<PositionedRule>() {
+                    public int compare(PositionedRule r1, PositionedRule r2) {
+                        return r1.order - r2.order;
+                    }
+                });
+                snapshot.put(entry.getKey(), rules);
+            }
+            return snapshot;
+        }
+    }
+
+    static class PositionedRule {
+        final int                                           position;
+        final IRoutingRule<IBatisRoutingFact, List<String>> rule;
+        /**
+         * the order to evaluate the rule in the published candidates.
+         */
+        final int                                           order;
+        /**
+         * shared by all of the published copies of the rule.
+         */
+        final StripedCounter                                hits;
+        /**
+         * only touched by the reordering thread.
+         */
+        long                                                score;
+        long                                                lastHits;
+
+        PositionedRule(int position, IRoutingRule<IBatisRoutingFact, List<String>> rule) {
+            this.position = position;
+            this.rule = rule;
+            this.order = position;
+            this.hits = new StripedCounter();
+        }
+
+        PositionedRule(PositionedRule rule, int order) {
+            this.position = rule.position;
+            this.rule = rule.rule;
+            this.order = order;
+            this.hits = rule.hits;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(rule);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+/**
+ * reads one property of objects of a specific type.<br>
+ * 
+ * @since 1.0.6
+ * @see PropertyAccessorGenerator
+ */
+public interface IPropertyAccessor {
+    /**
+     * @param target, never null, an instance of the type this accessor is
+     *            created for.
+     */
+    Object get(Object target);
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+/**
+ * extracts the value(s) that the routing of a sql-map action depends on from
+ * the argument of the action, for example, the "memberId" of an Offer.<br>
+ * the extracted shard key, together with the sql-map action id, will be used
+ * as the key to cache routing results, instead of the whole argument, so it
+ * MUST cover all of the attributes referenced by the sharding expressions of
+ * the rules the action may match, or else different arguments which should go
+ * to different shards will share a cached routing result.<br>
+ * the shard key returned should implement equals/hashCode properly.<br>
+ * 
+ * @since 1.0.6
+ * @see RoutingCacheKeyFactory
+ */
+public interface IShardKeyExtractor {
+    /**
+     * @param argument, the argument of the sql-map action, may be null.
+     * @return the shard key of the argument.
+     */
+    Object extract(Object argument);
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mvel2.asm.ClassWriter;
+import org.mvel2.asm.MethodVisitor;
+import org.mvel2.asm.Opcodes;
+import org.mvel2.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+
+/**
+ * creates {@link IPropertyAccessor}s which call the getter of a property
+ * directly, so reading shard keys doesn't go through reflection or the MVEL
+ * optimizers on each routing.<br>
+ * for each (type, property), a small class which invokes the getter is
+ * generated and defined in a class loader of its own, whose parent is the
+ * class loader of the type. the generated class has no reference to the
+ * caller, so callers own the cache of accessors and the accessors go away
+ * with them.<br>
+ * if the getter can't be called from outside of its package, e.g. it's
+ * declared in a non-public class, or the generation fails for any other
+ * reason, a reflective accessor is returned instead.<br>
+ * 
+ * @since 1.0.6
+ */
+public class PropertyAccessorGenerator {
+
+    private static final Logger     logger          = LoggerFactory
+                                                            .getLogger(PropertyAccessorGenerator.class);
+
+    private static final String     ACCESSOR_PREFIX = "com/alibaba/cobar/client/router/support/GeneratedPropertyAccessor$";
+    private static final AtomicLong sequence        = new AtomicLong();
+
+    /**
+     * @throws IllegalArgumentException if the type has no readable property
+     *             with the name.
+     */
+    public static IPropertyAccessor accessorOf(Class<?> type, String property) {
+        PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(type, property);
+        if (pd == null || pd.getReadMethod() == null) {
+            throw new IllegalArgumentException("no readable property:'" + property
+                    + "' found in type:" + type.getName());
+        }
+        Method getter = pd.getReadMethod();
+        if (isPubliclyAccessible(getter)) {
+            try {
+                return generate(getter);
+            } catch (Throwable t) {
+                logger.warn("failed to generate accessor for getter:" + getter
+                        + ", fall back to reflection.", t);
+            }
+        }
+        return new ReflectivePropertyAccessor(getter);
+    }
+
+    static boolean isPubliclyAccessible(Method getter) {
+        return Modifier.isPublic(getter.getModifiers())
+                && Modifier.isPublic(getter.getDeclaringClass().getModifiers());
+    }
+
+    private static IPropertyAccessor generate(Method getter) throws Exception {
+        Class<?> owner = getter.getDeclaringClass();
+        String ownerName = Type.getInternalName(owner);
+        String className = ACCESSOR_PREFIX + sequence.incrementAndGet();
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL + Opcodes.ACC_SUPER,
+                className, null, "java/lang/Object", new String[] { Type
+                        .getInternalName(IPropertyAccessor.class) });
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "get", "(Ljava/lang/Object;)Ljava/lang/Object;",
+                null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, ownerName);
+        mv.visitMethodInsn(owner.isInterface() ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL,
+                ownerName, getter.getName(), Type.getMethodDescriptor(getter));
+        box(mv, Type.getType(getter.getReturnType()));
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        Class<?> accessorClass = new AccessorClassLoader(owner.getClassLoader()).define(
+                className.replace('/', '.'), cw.toByteArray());
+        return (IPropertyAccessor) accessorClass.newInstance();
+    }
+
+    private static void box(MethodVisitor mv, Type type) {
+        String wrapper;
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                wrapper = "java/lang/Boolean";
+                break;
+            case Type.CHAR:
+                wrapper = "java/lang/Character";
+                break;
+            case Type.BYTE:
+                wrapper = "java/lang/Byte";
+                break;
+            case Type.SHORT:
+                wrapper = "java/lang/Short";
+                break;
+            case Type.INT:
+                wrapper = "java/lang/Integer";
+                break;
+            case Type.FLOAT:
+                wrapper = "java/lang/Float";
+                break;
+            case Type.LONG:
+                wrapper = "java/lang/Long";
+                break;
+            case Type.DOUBLE:
+                wrapper = "java/lang/Double";
+                break;
+            default:
+                return;
+        }
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapper, "valueOf", "(" + type.getDescriptor()
+                + ")L" + wrapper + ";");
+    }
+
+    /**
+     * defines one generated accessor class, it resolves
+     * {@link IPropertyAccessor} to the one of cobar client, even if the
+     * parent class loader can't see cobar client.<br>
+     */
+    private static class AccessorClassLoader extends ClassLoader {
+        AccessorClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve)
+                throws ClassNotFoundException {
+            if (IPropertyAccessor.class.getName().equals(name)) {
+                return IPropertyAccessor.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    static class ReflectivePropertyAccessor implements IPropertyAccessor {
+        private final Method getter;
+
+        ReflectivePropertyAccessor(Method getter) {
+            if (!getter.isAccessible()) {
+                getter.setAccessible(true);
+            }
+            this.getter = getter;
+        }
+
+        public Object get(Object target) {
+            try {
+                return getter.invoke(target);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("failed to read property with getter:"
+                        + getter + " of object:" + target, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ReflectivePropertyAccessor [getter=" + getter + "]";
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.alibaba.cobar.client.router.rules.support.MvelSupport;
+
+/**
+ * A {@link IShardKeyExtractor} which reads one or more properties of the
+ * argument as the shard key, a property can be a nested path like
+ * "offer.memberId", and if the argument(or an intermediate value on the path)
+ * is a {@link Map}, the property name will be used as the map key.<br>
+ * with one property, the shard key is the value of the property, with more
+ * properties, the shard key is a list of their values.<br>
+ * getters are called through accessors generated by
+ * {@link PropertyAccessorGenerator}, created once per class on the path and
+ * cached, so there is no reflection on the routing path.<br>
+ * a "property" which is not a plain path, e.g. "memberId % 100", is compiled
+ * as an MVEL expression and evaluated against the argument instead.<br>
+ *
+ * @since 1.0.6
+ */
+public class PropertyShardKeyExtractor implements IShardKeyExtractor {
+
+    private static final Pattern PROPERTY_PATH = Pattern
+                                                       .compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*");
+
+    private final String[]       properties;
+    private final ValueReader[]  readers;
+
+    public PropertyShardKeyExtractor(String... properties) {
+        Validate.notEmpty(properties, "at least one property must be given.");
+        this.properties = properties;
+        this.readers = new ValueReader[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            String property = StringUtils.trimToEmpty(properties[i]);
+            Validate.notEmpty(property, "empty property is not allowed.");
+            if (PROPERTY_PATH.matcher(property).matches()) {
+                this.readers[i] = new PathReader(StringUtils.split(property, '.'));
+            } else {
+                this.readers[i] = new ExpressionReader(property);
+            }
+        }
+    }
+
+    public Object extract(Object argument) {
+        if (readers.length == 1) {
+            return readers[0].read(argument);
+        }
+        List<Object> values = new ArrayList<Object>(readers.length);
+        for (ValueReader reader : readers) {
+            values.add(reader.read(argument));
+        }
+        return values;
+    }
+
+    public String[] getProperties() {
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return "PropertyShardKeyExtractor [properties=" + Arrays.toString(properties) + "]";
+    }
+
+    private interface ValueReader {
+        Object read(Object argument);
+    }
+
+    private static class PathReader implements ValueReader {
+        private final PropertyReader[] path;
+
+        PathReader(String[] properties) {
+            this.path = new PropertyReader[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                path[i] = new PropertyReader(properties[i]);
+            }
+        }
+
+        public Object read(Object argument) {
+            Object value = argument;
+            for (PropertyReader reader : path) {
+                if (value == null) {
+                    return null;
+                }
+                value = reader.read(value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * reads one property on the path, with the accessor of the last type seen
+     * kept aside, since the argument of a sql-map action is almost always of
+     * the same type.<br>
+     */
+    private static class PropertyReader {
+        private final String                                           property;
+        private final ConcurrentHashMap<Class<?>, IPropertyAccessor> accessors = new ConcurrentHashMap<Class<?>, IPropertyAccessor>();
+        private volatile TypedAccessor                                 last;
+
+        PropertyReader(String property) {
+            this.property = property;
+        }
+
+        Object read(Object target) {
+            if (target instanceof Map) {
+                return ((Map<?, ?>) target).get(property);
+            }
+            Class<?> type = target.getClass();
+            TypedAccessor cached = last;
+            if (cached != null && cached.type == type) {
+                return cached.accessor.get(target);
+            }
+            IPropertyAccessor accessor = accessors.get(type);
+            if (accessor == null) {
+                accessor = PropertyAccessorGenerator.accessorOf(type, property);
+                IPropertyAccessor existing = accessors.putIfAbsent(type, accessor);
+                if (existing != null) {
+                    accessor = existing;
+                }
+            }
+            last = new TypedAccessor(type, accessor);
+            return accessor.get(target);
+        }
+    }
+
+    private static class TypedAccessor {
+        final Class<?>          type;
+        final IPropertyAccessor accessor;
+
+        TypedAccessor(Class<?> type, IPropertyAccessor accessor) {
+            this.type = type;
+            this.accessor = accessor;
+        }
+    }
+
+    private static class ExpressionReader implements ValueReader {
+        private final String       expression;
+        private final Serializable compiledExpression;
+
+        ExpressionReader(String expression) {
+            this.expression = expression;
+            try {
+                this.compiledExpression = MvelSupport.compileExpression(expression);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("failed to compile expression:'" + expression
+                        + "'", e);
+            }
+        }
+
+        public Object read(Object argument) {
+            if (argument == null) {
+                return null;
+            }
+            try {
+                return MvelSupport.executeExpression(compiledExpression, argument);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("failed to evaluate expression:'" + expression
+                        + "' against object:" + argument, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.math.BigDecimal;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * the range of values a sharding expression accepts, for the expressions
+ * which just compare one term with numeric literals, like
+ * "memberId &gt;= 100 &amp;&amp; memberId &lt; 200" or "mod.apply(id) == 3",
+ * so that the rules with such expressions on the same term can be proven to
+ * never match the same fact.<br>
+ * a term is assumed to evaluate to the same value in the expressions of
+ * different rules, i.e. functions in it have no side effects.<br>
+ *
+ * @since 1.0.6
+ */
+public final class RangeCondition {
+
+    private static final String  TERM       = "([^=<>!|&?:]+?)";
+    private static final String  OPERATOR   = "(==|>=|<=|>|<)";
+    private static final String  LITERAL    = "(-?\\d+(?:\\.\\d+)?)[lLdDfF]?";
+    private static final Pattern TERM_FIRST = Pattern.compile("\\s*" + TERM + "\\s*" + OPERATOR
+                                                    + "\\s*" + LITERAL + "\\s*");
+    private static final Pattern TERM_LAST  = Pattern.compile("\\s*" + LITERAL + "\\s*" + OPERATOR
+                                                    + "\\s*" + TERM + "\\s*");
+
+    private final String         term;
+    /**
+     * null means unbounded.
+     */
+    private final BigDecimal     lower;
+    private final boolean        lowerInclusive;
+    private final BigDecimal     upper;
+    private final boolean        upperInclusive;
+
+    private RangeCondition(String term, BigDecimal lower, boolean lowerInclusive,
+                           BigDecimal upper, boolean upperInclusive) {
+        this.term = term;
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    /**
+     * @return the range of the expression, or null if it's not a conjunction
+     *         of comparisons between the same term and numeric literals.
+     */
+    public static RangeCondition parse(String expression) {
+        if (StringUtils.isBlank(expression)) {
+            return null;
+        }
+        RangeCondition range = null;
+        for (String comparison : StringUtils.splitByWholeSeparator(expression, "&&")) {
+            RangeCondition condition = parseComparison(comparison);
+            if (condition == null || (range != null && !range.term.equals(condition.term))) {
+                return null;
+            }
+            range = (range == null) ? condition : range.intersect(condition);
+        }
+        return range;
+    }
+
+    private static RangeCondition parseComparison(String comparison) {
+        Matcher matcher = TERM_FIRST.matcher(comparison);
+        if (matcher.matches()) {
+            return of(matcher.group(1).trim(), matcher.group(2), new BigDecimal(matcher
+                    .group(3)));
+        }
+        matcher = TERM_LAST.matcher(comparison);
+        if (matcher.matches()) {
+            return of(matcher.group(3).trim(), mirror(matcher.group(2)), new BigDecimal(matcher
+                    .group(1)));
+        }
+        return null;
+    }
+
+    /**
+     * @return the operator with the operands swapped, e.g. "100 &lt; x" is "x
+     *         &gt; 100".
+     */
+    private static String mirror(String operator) {
+        if (operator.startsWith("<")) {
+            return ">" + operator.substring(1);
+        }
+        if (operator.startsWith(">")) {
+            return "<" + operator.substring(1);
+        }
+        return operator;
+    }
+
+    private static RangeCondition of(String term, String operator, BigDecimal value) {
+        if ("==".equals(operator)) {
+            return new RangeCondition(term, value, true, value, true);
+        }
+        if (operator.startsWith(">")) {
+            return new RangeCondition(term, value, operator.length() == 2, null, false);
+        }
+        return new RangeCondition(term, null, false, value, operator.length() == 2);
+    }
+
+    private RangeCondition intersect(RangeCondition other) {
+        BigDecimal newLower = lower;
+        boolean newLowerInclusive = lowerInclusive;
+        if (other.lower != null) {
+            int c = (lower == null) ? -1 : lower.compareTo(other.lower);
+            if (c < 0 || (c == 0 && !other.lowerInclusive)) {
+                newLower = other.lower;
+                newLowerInclusive = other.lowerInclusive;
+            }
+        }
+        BigDecimal newUpper = upper;
+        boolean newUpperInclusive = upperInclusive;
+        if (other.upper != null) {
+            int c = (upper == null) ? 1 : upper.compareTo(other.upper);
+            if (c > 0 || (c == 0 && !other.upperInclusive)) {
+                newUpper = other.upper;
+                newUpperInclusive = other.upperInclusive;
+            }
+        }
+        return new RangeCondition(term, newLower, newLowerInclusive, newUpper, newUpperInclusive);
+    }
+
+    /**
+     * @return whether no value of the term is in both ranges.
+     */
+    public boolean isDisjointWith(RangeCondition other) {
+        if (!term.equals(other.term)) {
+            return false;
+        }
+        return isEmpty() || other.isEmpty() || endsBefore(this, other) || endsBefore(other, this);
+    }
+
+    private boolean isEmpty() {
+        if (lower == null || upper == null) {
+            return false;
+        }
+        int c = lower.compareTo(upper);
+        return c > 0 || (c == 0 && !(lowerInclusive && upperInclusive));
+    }
+
+    private static boolean endsBefore(RangeCondition one, RangeCondition another) {
+        if (one.upper == null || another.lower == null) {
+            return false;
+        }
+        int c = one.upper.compareTo(another.lower);
+        return c < 0 || (c == 0 && !(one.upperInclusive && another.lowerInclusive));
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    @Override
+    public String toString() {
+        return "RangeCondition [" + (lowerInclusive ? "[" : "(")
+                + (lower == null ? "-inf" : lower.toPlainString()) + ", "
+                + (upper == null ? "+inf" : upper.toPlainString()) + (upperInclusive ? "]" : ")")
+                + " of " + term + "]";
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+/**
+ * cache key of a routing result, which is made up of the sql-map action id and
+ * the shard key extracted from the argument of the action.<br>
+ * 
+ * @since 1.0.6
+ * @see RoutingCacheKeyFactory
+ */
+public class RoutingCacheKey {
+
+    private final String action;
+    private final Object shardKey;
+
+    public RoutingCacheKey(String action, Object shardKey) {
+        this.action = action;
+        this.shardKey = shardKey;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public Object getShardKey() {
+        return shardKey;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((action == null) ? 0 : action.hashCode());
+        result = prime * result + ((shardKey == null) ? 0 : shardKey.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        RoutingCacheKey other = (RoutingCacheKey) obj;
+        if (action == null) {
+            if (other.action != null)
+                return false;
+        } else if (!action.equals(other.action))
+            return false;
+        if (shardKey == null) {
+            if (other.shardKey != null)
+                return false;
+        } else if (!shardKey.equals(other.shardKey))
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingCacheKey [action=" + action + ", shardKey=" + shardKey + "]";
+    }
+
+}
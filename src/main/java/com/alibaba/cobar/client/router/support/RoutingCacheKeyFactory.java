@@ -0,0 +1,81 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.cobar.client.support.utils.MapUtils;
+
+/**
+ * creates the keys to cache routing results with.<br>
+ * if a {@link IShardKeyExtractor} is registered for the sql-map action id of a
+ * routing fact, or for its namespace, the key will be a
+ * {@link RoutingCacheKey} made up of the action id and the extracted shard
+ * key, so the cache doesn't depend on the equals/hashCode of the argument, and
+ * doesn't hold the argument either.<br>
+ * otherwise, or if the extraction fails, the routing fact itself will be used
+ * as the key as before.<br>
+ *
+ * @since 1.0.6
+ */
+public class RoutingCacheKeyFactory {
+
+    private transient final Logger                logger     = LoggerFactory
+                                                                     .getLogger(RoutingCacheKeyFactory.class);
+
+    private final Map<String, IShardKeyExtractor> extractors = new HashMap<String, IShardKeyExtractor>();
+
+    /**
+     * @param extractors, keyed by sql-map action id or namespace, the ones
+     *            keyed by action id take precedence.
+     */
+    public RoutingCacheKeyFactory(Map<String, IShardKeyExtractor> extractors) {
+        if (MapUtils.isNotEmpty(extractors)) {
+            this.extractors.putAll(extractors);
+        }
+    }
+
+    public Object createKey(IBatisRoutingFact routingFact) {
+        if (extractors.isEmpty()) {
+            return routingFact;
+        }
+        String action = routingFact.getAction();
+        IShardKeyExtractor extractor = extractors.get(action);
+        if (extractor == null) {
+            extractor = extractors.get(StringUtils.substringBeforeLast(action, "."));
+        }
+        if (extractor == null) {
+            return routingFact;
+        }
+        try {
+            return new RoutingCacheKey(action, extractor.extract(routingFact.getArgument()));
+        } catch (RuntimeException e) {
+            logger.warn("failed to extract shard key with extractor:{} from fact:{}, "
+                    + "fall back to cache with the whole fact.", extractor, routingFact);
+            return routingFact;
+        }
+    }
+
+    public Map<String, IShardKeyExtractor> getExtractors() {
+        return extractors;
+    }
+
+}
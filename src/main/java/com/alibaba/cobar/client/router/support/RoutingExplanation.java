@@ -0,0 +1,144 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.cobar.client.router.IExplainableRouter;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+
+/**
+ * how a routing fact is routed, see {@link IExplainableRouter}.<br>
+ * the tier is the position of the rule set the matched rule belongs to in the
+ * rule sequence, which is, for the internal routers, one of
+ * sqlActionShardingRules, sqlActionRules, namespaceShardingRules and
+ * namespaceRules in order, see {@link #TIER_NAMES}.<br>
+ *
+ * @since 1.0.6
+ */
+public class RoutingExplanation {
+
+    public static final String[] TIER_NAMES = { "sqlActionShardingRules", "sqlActionRules",
+            "namespaceShardingRules", "namespaceRules" };
+
+    public enum CacheStatus {
+        /**
+         * the router doesn't cache routing results.
+         */
+        NOT_CACHED,
+        /**
+         * the result would be returned from the cache.
+         */
+        HIT,
+        /**
+         * the result would be routed by the rules.
+         */
+        MISS
+    }
+
+    private final IBatisRoutingFact                                   routingFact;
+    private RoutingResult                                             result          = RoutingResult.EMPTY;
+    private IRoutingRule<IBatisRoutingFact, List<String>>             matchedRule;
+    private int                                                       tier            = -1;
+    private final List<IRoutingRule<IBatisRoutingFact, List<String>>> evaluatedRules  = new ArrayList<IRoutingRule<IBatisRoutingFact, List<String>>>();
+    private CacheStatus                                               cacheStatus     = CacheStatus.NOT_CACHED;
+    private long                                                      routingNanos;
+
+    public RoutingExplanation(IBatisRoutingFact routingFact) {
+        this.routingFact = routingFact;
+    }
+
+    public IBatisRoutingFact getRoutingFact() {
+        return routingFact;
+    }
+
+    public RoutingResult getResult() {
+        return result;
+    }
+
+    public void setResult(RoutingResult result) {
+        this.result = result;
+    }
+
+    /**
+     * @return the rule which matches the fact, or null if no rule matches.
+     */
+    public IRoutingRule<IBatisRoutingFact, List<String>> getMatchedRule() {
+        return matchedRule;
+    }
+
+    public void setMatchedRule(IRoutingRule<IBatisRoutingFact, List<String>> matchedRule) {
+        this.matchedRule = matchedRule;
+    }
+
+    /**
+     * @return the position of the rule set of the matched rule, or -1 if no
+     *         rule matches.
+     */
+    public int getTier() {
+        return tier;
+    }
+
+    public void setTier(int tier) {
+        this.tier = tier;
+    }
+
+    /**
+     * @return the name of the tier, or null if no rule matches.
+     */
+    public String getTierName() {
+        if (tier < 0) {
+            return null;
+        }
+        return (tier < TIER_NAMES.length) ? TIER_NAMES[tier] : "tier" + tier;
+    }
+
+    /**
+     * @return the rules which are evaluated against the fact, in order, the
+     *         matched rule is the last one if any.
+     */
+    public List<IRoutingRule<IBatisRoutingFact, List<String>>> getEvaluatedRules() {
+        return evaluatedRules;
+    }
+
+    public CacheStatus getCacheStatus() {
+        return cacheStatus;
+    }
+
+    public void setCacheStatus(CacheStatus cacheStatus) {
+        this.cacheStatus = cacheStatus;
+    }
+
+    /**
+     * @return the time to look up and evaluate the rules, in nanoseconds.
+     */
+    public long getRoutingNanos() {
+        return routingNanos;
+    }
+
+    public void setRoutingNanos(long routingNanos) {
+        this.routingNanos = routingNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingExplanation [fact=" + routingFact + ", shards="
+                + result.getResourceIdentities() + ", matchedRule=" + matchedRule + ", tier="
+                + getTierName() + ", evaluatedRules=" + evaluatedRules.size() + ", cache="
+                + cacheStatus + ", routingNanos=" + routingNanos + "]";
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.alibaba.cobar.client.CobarSqlMapClientTemplate;
+
+/**
+ * A routing hint tells {@link CobarSqlMapClientTemplate} where the statements
+ * of the current thread go, for the call sites which already know the
+ * shard.<br>
+ * a hint is opened with one of the static factory methods, and takes effect
+ * on the current thread until it's closed:
+ * 
+ * <pre>
+ * RoutingHint hint = RoutingHint.forceShard(&quot;partition2&quot;);
+ * try {
+ *     template.insert(&quot;com.alibaba.cobar.client.entities.Offer.create&quot;, offer);
+ * } finally {
+ *     hint.close();
+ * }
+ * </pre>
+ * 
+ * hints can be nested, closing a hint brings back the one it's opened in, so
+ * they must be closed in the reverse order they are opened.<br>
+ * a hint only applies to the statements executed on the thread which opens
+ * it, it's not seen by the router, so the routing cache and the statement
+ * plans are not affected.<br>
+ *
+ * @since 1.0.6
+ */
+public final class RoutingHint {
+
+    public enum Type {
+        /**
+         * statements go to the given shards, the router is not consulted.
+         */
+        FORCE_SHARDS,
+        /**
+         * statements are routed as usual, but only the given shards among the
+         * routing result are accessed.
+         */
+        RESTRICT_SHARDS,
+        /**
+         * statements go to the default data source of the template.
+         */
+        DEFAULT_DATA_SOURCE
+    }
+
+    private static final ThreadLocal<RoutingHint> CURRENT = new ThreadLocal<RoutingHint>();
+
+    private final Type                            type;
+    private final List<String>                    shards;
+    private final RoutingHint                     previous;
+    private boolean                               closed;
+
+    private RoutingHint(Type type, List<String> shards) {
+        this.type = type;
+        this.shards = shards;
+        this.previous = CURRENT.get();
+    }
+
+    /**
+     * sends the statements of the current thread to the given shards.
+     */
+    public static RoutingHint forceShard(String... shards) {
+        return open(new RoutingHint(Type.FORCE_SHARDS, shardsOf(shards)));
+    }
+
+    /**
+     * routes the statements of the current thread as usual, but only accesses
+     * the given shards among the routing result, e.g. to broadcast a query to
+     * a part of the shards only.<br>
+     * a statement which is routed to none of the given shards fails with
+     * {@link com.alibaba.cobar.client.router.RoutingException}.
+     */
+    public static RoutingHint restrictToShards(String... shards) {
+        return open(new RoutingHint(Type.RESTRICT_SHARDS, shardsOf(shards)));
+    }
+
+    /**
+     * sends the statements of the current thread to the default data source
+     * of the template, as if they are routed nowhere.
+     */
+    public static RoutingHint forceDefaultDataSource() {
+        List<String> none = Collections.emptyList();
+        return open(new RoutingHint(Type.DEFAULT_DATA_SOURCE, none));
+    }
+
+    /**
+     * @return the innermost hint opened on the current thread, or null if
+     *         there is none.
+     */
+    public static RoutingHint current() {
+        return CURRENT.get();
+    }
+
+    private static RoutingHint open(RoutingHint hint) {
+        CURRENT.set(hint);
+        return hint;
+    }
+
+    private static List<String> shardsOf(String[] shards) {
+        Validate.notEmpty(shards, "at least one shard must be given.");
+        for (String shard : shards) {
+            Validate.isTrue(StringUtils.isNotBlank(shard), "blank shard is not allowed.");
+        }
+        return Collections.unmodifiableList(Arrays.asList(shards.clone()));
+    }
+
+    /**
+     * ends the hint and brings back the one it's opened in, closing a closed
+     * hint does nothing.
+     * 
+     * @throws IllegalStateException if the hint is not the innermost one of
+     *             the current thread.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (CURRENT.get() != this) {
+            throw new IllegalStateException("hint:" + this
+                    + " is not the innermost one of the current thread, "
+                    + "hints must be closed in the reverse order they are opened.");
+        }
+        closed = true;
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the shards to force or to restrict to, empty for
+     *         {@link Type#DEFAULT_DATA_SOURCE}.
+     */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingHint [type=" + type + ", shards=" + shards + "]";
+    }
+}
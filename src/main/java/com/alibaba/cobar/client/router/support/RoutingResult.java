@@ -15,27 +15,61 @@
  */
  package com.alibaba.cobar.client.router.support;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.alibaba.cobar.client.merger.IMerger;
 
 /**
+ * the result of routing, which identifies the data sources to execute on.<br>
+ * besides the mutable results created with the default constructor, the
+ * routers hand out immutable results, which are created once by the rules
+ * and shared by all of the routings to the same data sources, see
+ * {@link #immutableOf(List)}, their setters throw
+ * {@link UnsupportedOperationException}.<br>
+ * 
  * @author fujohnwang
  * @since 1.0
  */
 public class RoutingResult {
-    private List<String>  resourceIdentities;
-    private IMerger<?, ?> merger;
+    /**
+     * the shared result of routings that match no rule.
+     */
+    public static final RoutingResult EMPTY = immutableOf(Collections.<String> emptyList());
+
+    private List<String>              resourceIdentities;
+    private IMerger<?, ?>             merger;
+    private final boolean             immutable;
+
+    public RoutingResult() {
+        this.immutable = false;
+    }
+
+    private RoutingResult(List<String> resourceIdentities) {
+        this.resourceIdentities = resourceIdentities;
+        this.immutable = true;
+    }
+
+    /**
+     * @return an immutable result with a copy of the identities.
+     */
+    public static RoutingResult immutableOf(List<String> resourceIdentities) {
+        return new RoutingResult(Collections.unmodifiableList(new ArrayList<String>(
+                resourceIdentities)));
+    }
 
     public List<String> getResourceIdentities() {
         return resourceIdentities;
     }
 
     public void setResourceIdentities(List<String> resourceIdentities) {
+        checkMutable();
         this.resourceIdentities = resourceIdentities;
     }
 
     public void setMerger(IMerger<?, ?> merger) {
+        checkMutable();
         this.merger = merger;
     }
 
@@ -43,4 +77,20 @@ public class RoutingResult {
         return merger;
     }
 
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    private void checkMutable() {
+        if (immutable) {
+            throw new UnsupportedOperationException("routing result:" + this
+                    + " is shared, it can't be changed.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingResult [resourceIdentities=" + resourceIdentities + "]";
+    }
+
 }
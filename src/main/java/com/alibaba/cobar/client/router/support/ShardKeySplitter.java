@@ -0,0 +1,209 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.springframework.beans.BeanUtils;
+
+import com.alibaba.cobar.client.router.ICobarRouter;
+import com.alibaba.cobar.client.support.utils.CollectionUtils;
+
+/**
+ * splits the shard keys of statements like "WHERE member_id IN (...)" by
+ * their target shards, so that each shard is only queried with its own keys,
+ * instead of all of the keys being sent to every shard.<br>
+ * the keys are read from {@link #keysProperty} of the parameter object(a
+ * property of a bean, or an entry of a map), or the parameter object itself
+ * is the keys if {@link #keysProperty} is not given. the keys can be a
+ * {@link Collection} or an array.<br>
+ * each key is routed on its own, with a map of {@link #keyProperty} to the
+ * key as argument, so the routing rules written for the single key
+ * statements, e.g. "memberId" based rules, can be reused.<br>
+ * for each shard, a copy of the parameter object with only the keys of that
+ * shard is created, the other properties are kept as they are.<br>
+ * 
+ * @since 1.0.6
+ */
+public class ShardKeySplitter {
+
+    private String keysProperty;
+    private String keyProperty;
+
+    public ShardKeySplitter() {
+    }
+
+    public ShardKeySplitter(String keysProperty, String keyProperty) {
+        this.keysProperty = keysProperty;
+        this.keyProperty = keyProperty;
+    }
+
+    /**
+     * @return the parameter objects for each shard keyed by the identity of
+     *         the shard, or null if the parameter object carries no keys or
+     *         some key can't be routed, then the caller should route the
+     *         parameter object as a whole.
+     */
+    public SortedMap<String, Object> split(String statementName, Object parameterObject,
+                                           ICobarRouter<IBatisRoutingFact> router) {
+        Validate.notNull(router);
+        Validate.isTrue(StringUtils.isNotBlank(keyProperty), "'keyProperty' must be given.");
+
+        Object keys = readKeys(parameterObject);
+        if (keys == null) {
+            return null;
+        }
+        Map<String, Set<Object>> keysOfShards = new HashMap<String, Set<Object>>();
+        for (Object key : asCollection(keys)) {
+            List<String> shards = router.doRoute(
+                    new IBatisRoutingFact(statementName, Collections.singletonMap(keyProperty,
+                            key))).getResourceIdentities();
+            if (CollectionUtils.isEmpty(shards)) {
+                return null;
+            }
+            for (String shard : shards) {
+                Set<Object> keysOfShard = keysOfShards.get(shard);
+                if (keysOfShard == null) {
+                    keysOfShard = new LinkedHashSet<Object>();
+                    keysOfShards.put(shard, keysOfShard);
+                }
+                keysOfShard.add(key);
+            }
+        }
+        if (keysOfShards.isEmpty()) {
+            return null;
+        }
+
+        SortedMap<String, Object> parameters = new TreeMap<String, Object>();
+        for (Map.Entry<String, Set<Object>> entry : keysOfShards.entrySet()) {
+            parameters.put(entry.getKey(), copyWithKeys(parameterObject, keys, entry.getValue()));
+        }
+        return parameters;
+    }
+
+    protected Object readKeys(Object parameterObject) {
+        Object keys;
+        if (StringUtils.isBlank(keysProperty) || parameterObject == null) {
+            keys = parameterObject;
+        } else if (parameterObject instanceof Map<?, ?>) {
+            keys = ((Map<?, ?>) parameterObject).get(keysProperty);
+        } else {
+            keys = invoke(descriptorOf(parameterObject.getClass()).getReadMethod(),
+                    parameterObject);
+        }
+        if (keys instanceof Collection<?> || (keys != null && keys.getClass().isArray())) {
+            return keys;
+        }
+        return null;
+    }
+
+    protected Object copyWithKeys(Object parameterObject, Object keys, Collection<Object> keysOfShard) {
+        Object subKeys = sameTypeAs(keys, keysOfShard);
+        if (StringUtils.isBlank(keysProperty)) {
+            return subKeys;
+        }
+        if (parameterObject instanceof Map<?, ?>) {
+            Map<Object, Object> copy = new HashMap<Object, Object>((Map<?, ?>) parameterObject);
+            copy.put(keysProperty, subKeys);
+            return copy;
+        }
+        Object copy = BeanUtils.instantiateClass(parameterObject.getClass());
+        BeanUtils.copyProperties(parameterObject, copy);
+        invoke(descriptorOf(parameterObject.getClass()).getWriteMethod(), copy, subKeys);
+        return copy;
+    }
+
+    private Object sameTypeAs(Object keys, Collection<Object> subKeys) {
+        if (keys.getClass().isArray()) {
+            Object array = Array.newInstance(keys.getClass().getComponentType(), subKeys.size());
+            int i = 0;
+            for (Object key : subKeys) {
+                Array.set(array, i++, key);
+            }
+            return array;
+        }
+        if (keys instanceof Set<?>) {
+            return new LinkedHashSet<Object>(subKeys);
+        }
+        return new ArrayList<Object>(subKeys);
+    }
+
+    private Collection<?> asCollection(Object keys) {
+        if (keys instanceof Collection<?>) {
+            return (Collection<?>) keys;
+        }
+        int length = Array.getLength(keys);
+        List<Object> list = new ArrayList<Object>(length);
+        for (int i = 0; i < length; i++) {
+            list.add(Array.get(keys, i));
+        }
+        return list;
+    }
+
+    private PropertyDescriptor descriptorOf(Class<?> type) {
+        PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(type, keysProperty);
+        if (pd == null || pd.getReadMethod() == null || pd.getWriteMethod() == null) {
+            throw new IllegalArgumentException("no read-write property:'" + keysProperty
+                    + "' found in type:" + type.getName());
+        }
+        return pd;
+    }
+
+    private Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("failed to access property:'" + keysProperty
+                    + "' of object:" + target, e);
+        }
+    }
+
+    public String getKeysProperty() {
+        return keysProperty;
+    }
+
+    public void setKeysProperty(String keysProperty) {
+        this.keysProperty = keysProperty;
+    }
+
+    public String getKeyProperty() {
+        return keyProperty;
+    }
+
+    public void setKeyProperty(String keyProperty) {
+        this.keyProperty = keyProperty;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardKeySplitter [keyProperty=" + keyProperty + ", keysProperty=" + keysProperty
+                + "]";
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.router.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * how the sql-map statements are routed, as far as it can be told from the
+ * rules before any routing request.<br>
+ * {@link Type#STATIC} and {@link Type#BROADCAST} statements are always routed
+ * to the same data sources, {@link Type#UNSHARDED} ones are never routed by
+ * rules, only the {@link Type#SHARDED} ones have to be routed per request.<br>
+ *
+ * @since 1.0.6
+ */
+public class StatementClassification {
+
+    public static enum Type {
+        /**
+         * no rule can match the statement.
+         */
+        UNSHARDED,
+        /**
+         * the statement always matches a rule with a single data source.
+         */
+        STATIC,
+        /**
+         * the statement always matches a rule with more than one data source.
+         */
+        BROADCAST,
+        /**
+         * the rule to match depends on the parameter of the statement.
+         */
+        SHARDED
+    }
+
+    public static final StatementClassification UNSHARDED = new StatementClassification(
+                                                                  Type.UNSHARDED, Collections
+                                                                          .<String> emptyList());
+    public static final StatementClassification SHARDED   = new StatementClassification(
+                                                                  Type.SHARDED, Collections
+                                                                          .<String> emptyList());
+
+    private final Type                          type;
+    private final List<String>                  dataSourceIds;
+
+    private StatementClassification(Type type, List<String> dataSourceIds) {
+        this.type = type;
+        this.dataSourceIds = dataSourceIds;
+    }
+
+    /**
+     * @return a {@link Type#STATIC} or {@link Type#BROADCAST} classification.
+     */
+    public static StatementClassification routedTo(List<String> dataSourceIds) {
+        if (dataSourceIds == null || dataSourceIds.isEmpty()) {
+            return UNSHARDED;
+        }
+        return new StatementClassification(dataSourceIds.size() == 1 ? Type.STATIC
+                : Type.BROADCAST, Collections.unmodifiableList(new ArrayList<String>(dataSourceIds)));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the data sources of {@link Type#STATIC} and
+     *         {@link Type#BROADCAST} statements, empty for others.
+     */
+    public List<String> getDataSourceIds() {
+        return dataSourceIds;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementClassification [type=" + type + ", dataSourceIds=" + dataSourceIds + "]";
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang.Validate;
+
+import com.alibaba.cobar.client.support.utils.Predicate;
+
+/**
+ * A bounded cache which can be shared by many threads, it's used to replace
+ * the synchronized {@link LRUMap} to cache routing results.<br>
+ * entries are striped into segments as per the hash code of their keys, each
+ * segment evicts entries with the CLOCK algorithm, which approximates LRU
+ * without reordering entries on each hit.<br>
+ * a hit only reads a {@link ConcurrentHashMap} and marks the entry as
+ * referenced, so it takes no lock at all, only the insertions and removals
+ * lock the segment they go to.<br>
+ * null keys and null values are not cached, {@link #get(Object)} returns null
+ * if there is no entry for the key.<br>
+ *
+ * @since 1.0.6
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ConcurrentClockCache<K, V> {
+
+    public static final int       DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int             segmentMask;
+    private final int             capacity;
+
+    public ConcurrentClockCache(int capacity) {
+        this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param capacity, max number of entries in the cache.
+     * @param concurrencyLevel, expected number of threads which insert
+     *            entries at the same time, it will be rounded up to a power of
+     *            two, but never exceeds the capacity.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentClockCache(int capacity, int concurrencyLevel) {
+        Validate.isTrue(capacity > 0, "capacity must be positive.");
+        Validate.isTrue(concurrencyLevel > 0, "concurrencyLevel must be positive.");
+
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount * 2 <= capacity) {
+            segmentCount <<= 1;
+        }
+        this.capacity = capacity;
+        this.segmentMask = segmentCount - 1;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // spread the remainder over the first segments, so the sum of segment capacities equals the capacity.
+            int segmentCapacity = capacity / segmentCount + ((i < capacity % segmentCount) ? 1 : 0);
+            segments[i] = new Segment<K, V>(segmentCapacity);
+        }
+    }
+
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * @return the cached value like {@link #get(Object)}, but the lookup is
+     *         neither counted nor taken as a reference to the entry.
+     */
+    public V peek(K key) {
+        if (key == null) {
+            return null;
+        }
+        Node<K, V> node = segmentFor(key).map.get(key);
+        return (node == null) ? null : node.value;
+    }
+
+    public boolean containsKey(K key) {
+        return key != null && segmentFor(key).map.containsKey(key);
+    }
+
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            return;
+        }
+        segmentFor(key).put(key, value);
+    }
+
+    public V remove(K key) {
+        if (key == null) {
+            return null;
+        }
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * removes the entries whose keys match the predicate, the entries put
+     * while it runs may or may not be checked.<br>
+     * 
+     * @return the number of removed entries.
+     */
+    public int removeIf(Predicate keyPredicate) {
+        Validate.notNull(keyPredicate);
+        int removed = 0;
+        for (Segment<K, V> segment : segments) {
+            for (K key : segment.map.keySet()) {
+                if (keyPredicate.evaluate(key) && segment.remove(key) != null) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return a copy of the entries, the entries put or evicted while it runs
+     *         may or may not be in it.
+     */
+    public Map<K, V> toMap() {
+        Map<K, V> entries = new HashMap<K, V>();
+        for (Segment<K, V> segment : segments) {
+            for (Node<K, V> node : segment.map.values()) {
+                entries.put(node.key, node.value);
+            }
+        }
+        return entries;
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.map.size();
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        long count = 0L;
+        for (Segment<K, V> segment : segments) {
+            count += segment.hits.get();
+        }
+        return count;
+    }
+
+    public long getMissCount() {
+        long count = 0L;
+        for (Segment<K, V> segment : segments) {
+            count += segment.misses.get();
+        }
+        return count;
+    }
+
+    public long getEvictionCount() {
+        long count = 0L;
+        for (Segment<K, V> segment : segments) {
+            count += segment.evictions.get();
+        }
+        return count;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        // supplemental hash, same as the one of HashMap, to defend against poor hash codes.
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentClockCache [capacity=" + capacity + ", size=" + size() + ", hits="
+                + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+                + getEvictionCount() + "]";
+    }
+
+    static final class Node<K, V> {
+        final K          key;
+        volatile V       value;
+        volatile boolean referenced;
+        /**
+         * position in the clock of the segment, guarded by the segment lock.
+         */
+        int              slot;
+
+        Node(K key, V value, int slot) {
+            this.key = key;
+            this.value = value;
+            this.slot = slot;
+        }
+    }
+
+    static final class Segment<K, V> {
+        final ConcurrentHashMap<K, Node<K, V>> map;
+        final AtomicLong                       hits      = new AtomicLong();
+        final AtomicLong                       misses    = new AtomicLong();
+        final AtomicLong                       evictions = new AtomicLong();
+
+        private final ReentrantLock            lock      = new ReentrantLock();
+        private final Node<K, V>[]             clock;
+        private int                            size;
+        private int                            hand;
+
+        @SuppressWarnings("unchecked")
+        Segment(int capacity) {
+            this.map = new ConcurrentHashMap<K, Node<K, V>>(capacity * 4 / 3 + 1);
+            this.clock = new Node[capacity];
+        }
+
+        V get(K key) {
+            Node<K, V> node = map.get(key);
+            if (node == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (!node.referenced) {
+                node.referenced = true;
+            }
+            hits.incrementAndGet();
+            return node.value;
+        }
+
+        void put(K key, V value) {
+            lock.lock();
+            try {
+                Node<K, V> node = map.get(key);
+                if (node != null) {
+                    node.value = value;
+                    node.referenced = true;
+                    return;
+                }
+
+                int slot;
+                if (size < clock.length) {
+                    slot = size++;
+                } else {
+                    slot = advanceHandToVictim();
+                    map.remove(clock[slot].key);
+                    evictions.incrementAndGet();
+                }
+                node = new Node<K, V>(key, value, slot);
+                clock[slot] = node;
+                map.put(key, node);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V remove(K key) {
+            lock.lock();
+            try {
+                Node<K, V> node = map.remove(key);
+                if (node == null) {
+                    return null;
+                }
+                // fill the hole with the last node, so the occupied slots stay contiguous.
+                int last = --size;
+                if (node.slot != last) {
+                    clock[node.slot] = clock[last];
+                    clock[node.slot].slot = node.slot;
+                }
+                clock[last] = null;
+                if (hand >= size) {
+                    hand = 0;
+                }
+                return node.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                map.clear();
+                Arrays.fill(clock, null);
+                size = 0;
+                hand = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * gives each referenced node a second chance, and returns the slot of
+         * the first node that is not referenced, it stops within two rounds.
+         */
+        private int advanceHandToVictim() {
+            while (true) {
+                Node<K, V> node = clock[hand];
+                int current = hand;
+                hand = (hand + 1) % clock.length;
+                if (node.referenced) {
+                    node.referenced = false;
+                } else {
+                    return current;
+                }
+            }
+        }
+    }
+}
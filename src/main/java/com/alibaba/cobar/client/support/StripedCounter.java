@@ -0,0 +1,84 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A counter which many threads can increment at the same time without
+ * contending on a single memory location, the count is striped into cells as
+ * per the id of the incrementing thread, each cell takes a cache line of its
+ * own, and {@link #sum()} adds up all of the cells.<br>
+ * the sum is not an atomic snapshot while there are concurrent increments,
+ * which is fine for statistics.<br>
+ *
+ * @since 1.0.6
+ */
+public class StripedCounter {
+
+    /**
+     * longs per cell, so that two cells never share a 64 bytes cache line.
+     */
+    private static final int      CELL_WIDTH = 8;
+
+    private final AtomicLongArray cells;
+    private final int             cellMask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes, expected number of threads which increment the counter
+     *            at the same time, it will be rounded up to a power of two.
+     */
+    public StripedCounter(int stripes) {
+        Validate.isTrue(stripes > 0, "stripes must be positive.");
+        int cellCount = 1;
+        while (cellCount < stripes) {
+            cellCount <<= 1;
+        }
+        this.cellMask = cellCount - 1;
+        this.cells = new AtomicLongArray(cellCount * CELL_WIDTH);
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long delta) {
+        long h = Thread.currentThread().getId();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6bL;
+        h ^= (h >>> 13);
+        cells.addAndGet(((int) h & cellMask) * CELL_WIDTH, delta);
+    }
+
+    public long sum() {
+        long sum = 0L;
+        for (int i = 0; i < cells.length(); i += CELL_WIDTH) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(sum());
+    }
+}
@@ -30,6 +30,8 @@ public class ConcurrentRequest {
     private SqlMapClientCallback action;
     private DataSource           dataSource;
     private ExecutorService      executor;
+    private RequestTrace         trace;
+    private Deadline             deadline;
 
     public SqlMapClientCallback getAction() {
         return action;
@@ -55,4 +57,28 @@ public class ConcurrentRequest {
         this.executor = executor;
     }
 
+    public RequestTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * @param trace, to record the timings of the request in, optional.
+     */
+    public void setTrace(RequestTrace trace) {
+        this.trace = trace;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline, by which the request should be done, optional, the
+     *            statements of the request get the remaining budget as their
+     *            query timeouts, see {@link IConcurrentRequestProcessor}.
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
 }
@@ -0,0 +1,92 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A point in time by which a data access request should be done, shared by
+ * the requests a statement is split into, so each of them gets the budget
+ * which remains when it runs, rather than a timeout of its own.<br>
+ * it's measured with {@link System#nanoTime()}, so it's only meaningful in
+ * the current JVM.<br>
+ *
+ * @since 1.0.6
+ */
+public final class Deadline {
+
+    private final long deadlineNanos;
+    private final long timeoutNanos;
+
+    private Deadline(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+        this.deadlineNanos = System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * @return a deadline which expires after the timeout from now.
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        Validate.isTrue(timeout > 0, "timeout must be positive.");
+        return new Deadline(unit.toNanos(timeout));
+    }
+
+    /**
+     * @return the nanoseconds left, zero or negative if it has expired.
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * @return the remaining budget as a JDBC query timeout, which is in
+     *         seconds, rounded up, and at least 1, since 0 means no timeout
+     *         to JDBC.
+     */
+    public int remainingQueryTimeoutSeconds() {
+        long remaining = remainingNanos();
+        if (remaining <= 0) {
+            return 1;
+        }
+        long seconds = (remaining + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+        return (int) Math.min(seconds, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the earlier one of the deadlines, either of which may be null.
+     */
+    public static Deadline earlierOf(Deadline one, Deadline another) {
+        if (one == null) {
+            return another;
+        }
+        if (another == null) {
+            return one;
+        }
+        return (one.deadlineNanos - another.deadlineNanos <= 0) ? one : another;
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline [timeout=" + TimeUnit.NANOSECONDS.toMillis(timeoutNanos)
+                + "ms, remaining=" + TimeUnit.NANOSECONDS.toMillis(remainingNanos()) + "ms]";
+    }
+}
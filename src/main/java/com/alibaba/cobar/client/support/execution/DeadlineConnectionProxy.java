@@ -0,0 +1,146 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * wraps the connection of a data access request, so that each statement
+ * created with it gets the remaining budget of the request as its query
+ * timeout, and the statements can be cancelled with
+ * {@link #cancelStatements()} from another thread when the deadline
+ * passes.<br>
+ * the statements are wrapped too, so a query timeout set afterwards, e.g.
+ * the <code>timeout</code> of an iBatis mapped statement, is only honoured if
+ * it's shorter than the remaining budget.<br>
+ *
+ * @since 1.0.6
+ */
+public class DeadlineConnectionProxy implements InvocationHandler {
+
+    private transient final Logger logger     = LoggerFactory
+                                                      .getLogger(DeadlineConnectionProxy.class);
+
+    private final Connection       target;
+    private final Deadline         deadline;
+    private final Connection       proxy;
+    private final List<Statement>  statements = new ArrayList<Statement>();
+    private boolean                cancelled;
+
+    public DeadlineConnectionProxy(Connection target, Deadline deadline) {
+        this.target = target;
+        this.deadline = deadline;
+        this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, this);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+        if (result instanceof Statement) {
+            Statement statement = (Statement) result;
+            boolean cancelledAlready;
+            synchronized (statements) {
+                cancelledAlready = cancelled;
+                statements.add(statement);
+            }
+            if (cancelledAlready || deadline.isExpired()) {
+                statement.close();
+                throw new SQLException("deadline of the request has passed: " + deadline);
+            }
+            statement.setQueryTimeout(deadline.remainingQueryTimeoutSeconds());
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { method.getReturnType() }, new StatementHandler(statement));
+        }
+        return result;
+    }
+
+    /**
+     * cancels the statements running with the connection, and fails the ones
+     * to be created afterwards.
+     */
+    public void cancelStatements() {
+        List<Statement> toCancel;
+        synchronized (statements) {
+            cancelled = true;
+            toCancel = new ArrayList<Statement>(statements);
+        }
+        for (Statement statement : toCancel) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                logger.debug("failed to cancel statement after deadline:" + deadline, e);
+            }
+        }
+    }
+
+    /**
+     * caps the query timeouts set on a statement by the remaining budget.
+     */
+    private class StatementHandler implements InvocationHandler {
+        private final Statement target;
+
+        StatementHandler(Statement target) {
+            this.target = target;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("setQueryTimeout".equals(method.getName())) {
+                int seconds = (Integer) args[0];
+                int remaining = deadline.remainingQueryTimeoutSeconds();
+                target.setQueryTimeout((seconds <= 0) ? remaining : Math.min(seconds, remaining));
+                return null;
+            }
+            if ("getConnection".equals(method.getName())) {
+                return DeadlineConnectionProxy.this.proxy;
+            }
+            if ("equals".equals(method.getName())) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(method.getName())) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+    public Connection getProxy() {
+        return proxy;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+}
@@ -20,9 +20,11 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
@@ -30,22 +32,52 @@ import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.CannotGetJdbcConnectionException;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.alibaba.cobar.client.exception.QueryDeadlineExceededException;
+import com.alibaba.cobar.client.merger.IMerger;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
 import com.ibatis.sqlmap.client.SqlMapClient;
 import com.ibatis.sqlmap.client.SqlMapSession;
 
+/**
+ * executes the requests on their executors and waits for all of them, the
+ * connections are fetched in the calling thread beforehand, so the requests
+ * take part in the transaction of the calling thread, unless a subclass
+ * leaves them to the workers, see
+ * {@link #isConnectionFetchedBeforeSubmit(ConcurrentRequest)}.<br>
+ * a single request is executed on the calling thread instead, with the same
+ * connection handling, since there is nothing to run in parallel with it,
+ * unless {@link #callerRunsSingleRequest} is turned off.<br>
+ * asynchronous requests are submitted without waiting, and merged by the
+ * request which completes last, see {@link MergingFuture}.<br>
+ * requests with a {@link Deadline} get the remaining budget as the query
+ * timeouts of their statements, and if they are not all done by the deadline,
+ * the running statements are cancelled, and a
+ * {@link QueryDeadlineExceededException} is thrown at once, the connection of
+ * a request still running is released by its worker when it finishes, so it
+ * never goes back to the pool while in use, unless it's held by a transaction
+ * of the calling thread.<br>
+ * requests processed partially are given up alone at the deadline, while the
+ * results of the others are kept, see {@link #processPartially(List)}.<br>
+ */
 public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProcessor {
 
     private transient final Logger logger = LoggerFactory
                                                   .getLogger(DefaultConcurrentRequestProcessor.class);
 
     private SqlMapClient           sqlMapClient;
+    /**
+     * whether to execute a single request on the calling thread, saving the
+     * hand-off to the executor and the wait for it.
+     */
+    private boolean                callerRunsSingleRequest = true;
 
     public DefaultConcurrentRequestProcessor() {
     }
@@ -60,55 +92,325 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
         if (CollectionUtils.isEmpty(requests))
             return resultList;
 
+        if (requests.size() == 1 && isCallerRunsSingleRequest()) {
+            resultList.add(processInCallerThread(requests.get(0)));
+            return resultList;
+        }
+
+        Deadline deadline = deadlineOf(requests);
         List<RequestDepository> requestsDepo = fetchConnectionsAndDepositForLaterUse(requests);
         final CountDownLatch latch = new CountDownLatch(requestsDepo.size());
         List<Future<Object>> futures = new ArrayList<Future<Object>>();
         try {
 
             for (RequestDepository rdepo : requestsDepo) {
-                ConcurrentRequest request = rdepo.getOriginalRequest();
-                final SqlMapClientCallback action = request.getAction();
-                final Connection connection = rdepo.getConnectionToUse();
-
-                futures.add(request.getExecutor().submit(new Callable<Object>() {
-                    public Object call() throws Exception {
-                        try {
-                            return executeWith(connection, action);
-                        } finally {
-                            latch.countDown();
+                futures.add(submit(rdepo.getOriginalRequest(), newTask(rdepo, latch)));
+            }
+
+            try {
+                if (deadline == null) {
+                    latch.await();
+                } else if (!latch.await(Math.max(deadline.remainingNanos(), 0L),
+                        TimeUnit.NANOSECONDS)) {
+                    abandon(requestsDepo, futures);
+                    throw new QueryDeadlineExceededException(latch.getCount() + " of "
+                            + requestsDepo.size() + " requests are not done by " + deadline);
+                }
+            } catch (InterruptedException e) {
+                throw new ConcurrencyFailureException(
+                        "interrupted when processing data access request in concurrency", e);
+            }
+
+        } finally {
+            for (RequestDepository depo : requestsDepo) {
+                if (depo.settle()) {
+                    releaseConnection(depo);
+                }
+            }
+        }
+
+        fillResultListWithFutureResults(futures, resultList);
+
+        return resultList;
+    }
+
+    /**
+     * each request fetches and releases its connection in the thread of its
+     * executor, so it's independent of the transaction of the calling
+     * thread.
+     */
+    public <T> MergingFuture<T> processAsync(List<ConcurrentRequest> requests,
+                                             IMerger<Object, T> merger) {
+        int size = (requests == null) ? 0 : requests.size();
+        final MergingFuture<T> future = new MergingFuture<T>(size, merger);
+        for (int i = 0; i < size; i++) {
+            final int shard = i;
+            final ConcurrentRequest request = requests.get(i);
+            future.addShardFuture(submit(request, new RequestTask() {
+                public Object call() {
+                    if (future.isDone()) {
+                        return null;
+                    }
+                    Object result;
+                    RequestDepository depo = null;
+                    try {
+                        checkDeadline(request);
+                        depo = fetchConnectionAndDeposit(request);
+                        result = executeWith(depo.getConnectionToExecuteWith(), request
+                                .getAction());
+                    } catch (Throwable t) {
+                        future.setFailure(t);
+                        return null;
+                    } finally {
+                        if (depo != null) {
+                            releaseConnection(depo);
                         }
                     }
-                }));
+                    future.setShardResult(shard, result);
+                    return null;
+                }
+
+                @Override
+                protected void reject(Throwable cause) {
+                    future.setFailure(cause);
+                }
+            }));
+        }
+        return future;
+    }
+
+    /**
+     * each request is always executed on its executor, even if it's the only
+     * one, so that it can be given up at the deadline.<br>
+     * a request which can't get its connection fails alone too.
+     */
+    public List<RequestOutcome> processPartially(List<ConcurrentRequest> requests) {
+        List<RequestOutcome> outcomes = new ArrayList<RequestOutcome>();
+        if (CollectionUtils.isEmpty(requests))
+            return outcomes;
+
+        int size = requests.size();
+        RequestOutcome[] outcomeArray = new RequestOutcome[size];
+        List<RequestDepository> requestsDepo = new ArrayList<RequestDepository>(size);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(size);
+        final CountDownLatch latch = new CountDownLatch(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                final ConcurrentRequest request = requests.get(i);
+                RequestDepository rdepo = null;
+                Future<Object> future = null;
+                try {
+                    rdepo = depositForLaterUse(request);
+                    future = submit(request, newTask(rdepo, latch));
+                } catch (RuntimeException e) {
+                    outcomeArray[i] = outcomeOfFailure(e);
+                    latch.countDown();
+                }
+                requestsDepo.add(rdepo);
+                futures.add(future);
             }
 
+            Deadline deadline = deadlineOf(requests);
             try {
-                latch.await();
+                if (deadline == null) {
+                    latch.await();
+                } else {
+                    latch.await(Math.max(deadline.remainingNanos(), 0L), TimeUnit.NANOSECONDS);
+                }
             } catch (InterruptedException e) {
                 throw new ConcurrencyFailureException(
                         "interrupted when processing data access request in concurrency", e);
             }
 
+            for (int i = 0; i < size; i++) {
+                if (outcomeArray[i] == null) {
+                    outcomeArray[i] = outcomeOf(requestsDepo.get(i), futures.get(i));
+                }
+            }
         } finally {
             for (RequestDepository depo : requestsDepo) {
-                Connection springCon = depo.getConnectionToUse();
-                DataSource dataSource = depo.getOriginalRequest().getDataSource();
+                if (depo != null && depo.settle()) {
+                    releaseConnection(depo);
+                }
+            }
+        }
+
+        for (RequestOutcome outcome : outcomeArray) {
+            outcomes.add(outcome);
+        }
+        return outcomes;
+    }
+
+    /**
+     * @return the outcome of a submitted request, which is timed out if it's
+     *         not finished yet, with its statements cancelled, its worker will
+     *         release the connection when it finishes. a request finished
+     *         already is waited for, since its worker completes the future
+     *         right after counting down the latch.
+     */
+    private RequestOutcome outcomeOf(RequestDepository depo, Future<Object> future) {
+        if (!future.isDone() && !depo.isExecutionFinished()) {
+            future.cancel(false);
+            if (depo.getDeadlineProxy() != null) {
+                depo.getDeadlineProxy().cancelStatements();
+            }
+            return RequestOutcome.timedOut(new QueryDeadlineExceededException(
+                    "request is not done by " + depo.getOriginalRequest().getDeadline()));
+        }
+        try {
+            return RequestOutcome.succeeded(future.get());
+        } catch (InterruptedException e) {
+            throw new ConcurrencyFailureException(
+                    "interrupted when processing data access request in concurrency", e);
+        } catch (CancellationException e) {
+            return RequestOutcome.timedOut(e);
+        } catch (ExecutionException e) {
+            return outcomeOfFailure(e.getCause());
+        }
+    }
+
+    private RequestOutcome outcomeOfFailure(Throwable failure) {
+        if (failure instanceof QueryDeadlineExceededException) {
+            return RequestOutcome.timedOut(failure);
+        }
+        return RequestOutcome.failed(failure);
+    }
+
+    /**
+     * @return the task to execute a deposited request, which fetches the
+     *         connection itself if it's not fetched yet, and releases the
+     *         connection itself if it fetches it, or if the request is given up
+     *         by the processor while it's running.
+     */
+    private RequestTask newTask(final RequestDepository depo, final CountDownLatch latch) {
+        final ConcurrentRequest request = depo.getOriginalRequest();
+        return new RequestTask() {
+            public Object call() throws Exception {
+                if (!depo.startExecution()) {
+                    latch.countDown();
+                    throw new QueryDeadlineExceededException(
+                            "request is given up before it's started");
+                }
+                RequestTrace trace = request.getTrace();
+                long start = (trace == null) ? 0L : System.nanoTime();
                 try {
-                    if (springCon != null) {
-                        if (depo.isTransactionAware()) {
-                            springCon.close();
-                        } else {
-                            DataSourceUtils.doReleaseConnection(springCon, dataSource);
-                        }
+                    checkDeadline(request);
+                    if (depo.isConnectionFetchedByWorker()) {
+                        fetchConnectionInto(depo);
+                    }
+                    return executeWith(depo.getConnectionToExecuteWith(), request.getAction());
+                } catch (RuntimeException e) {
+                    // e.g. the statement is timed out or cancelled.
+                    Deadline deadline = request.getDeadline();
+                    if (deadline != null && deadline.isExpired()) {
+                        throw new QueryDeadlineExceededException("request fails after "
+                                + deadline, e);
                     }
-                } catch (Throwable ex) {
-                    logger.info("Could not close JDBC Connection", ex);
+                    throw e;
+                } finally {
+                    if (trace != null) {
+                        trace.setExecutionNanos(System.nanoTime() - start);
+                    }
+                    if (depo.finishExecution()) {
+                        releaseConnection(depo);
+                    }
+                    latch.countDown();
                 }
             }
+
+            @Override
+            protected void reject(Throwable cause) {
+                latch.countDown();
+            }
+        };
+    }
+
+    /**
+     * @return the earliest deadline of the requests, or null if none of them
+     *         has one.
+     */
+    private Deadline deadlineOf(List<ConcurrentRequest> requests) {
+        Deadline deadline = null;
+        for (ConcurrentRequest request : requests) {
+            deadline = Deadline.earlierOf(deadline, request.getDeadline());
         }
+        return deadline;
+    }
 
-        fillResultListWithFutureResults(futures, resultList);
+    private void checkDeadline(ConcurrentRequest request) {
+        if (request.getDeadline() != null && request.getDeadline().isExpired()) {
+            throw new QueryDeadlineExceededException("request is not started by "
+                    + request.getDeadline());
+        }
+    }
 
-        return resultList;
+    /**
+     * gives up the requests which are not done by the deadline, the ones not
+     * started yet are cancelled, and the statements of the running ones are
+     * cancelled, so that their workers finish, and release their connections,
+     * as soon as possible.
+     */
+    private void abandon(List<RequestDepository> requestsDepo, List<Future<Object>> futures) {
+        for (Future<Object> future : futures) {
+            future.cancel(false);
+        }
+        for (RequestDepository depo : requestsDepo) {
+            if (depo.getDeadlineProxy() != null) {
+                depo.getDeadlineProxy().cancelStatements();
+            }
+        }
+    }
+
+    /**
+     * submits the task of a request to the executor of the request.<br>
+     * a task which is rejected after this method returns must be
+     * {@link RequestTask#reject(Throwable) rejected}, and the returned future
+     * completed with the rejection, instead of being dropped.
+     */
+    protected Future<Object> submit(ConcurrentRequest request, RequestTask task) {
+        return request.getExecutor().submit(task);
+    }
+
+    /**
+     * executes the request as the executor would, but on the calling thread,
+     * a {@link DataAccessException} is thrown as it is, while other failures
+     * are wrapped in a {@link ConcurrencyFailureException}.
+     */
+    private Object processInCallerThread(ConcurrentRequest request) {
+        checkDeadline(request);
+        RequestDepository depo = fetchConnectionAndDeposit(request);
+        RequestTrace trace = request.getTrace();
+        long start = (trace == null) ? 0L : System.nanoTime();
+        try {
+            return executeWith(depo.getConnectionToExecuteWith(), request.getAction());
+        } catch (DataAccessException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new ConcurrencyFailureException("something goes wrong in processing", e);
+        } catch (Error e) {
+            throw new ConcurrencyFailureException("something goes wrong in processing", e);
+        } finally {
+            if (trace != null) {
+                trace.setExecutionNanos(System.nanoTime() - start);
+            }
+            releaseConnection(depo);
+        }
+    }
+
+    private void releaseConnection(RequestDepository depo) {
+        Connection springCon = depo.getConnectionToUse();
+        DataSource dataSource = depo.getOriginalRequest().getDataSource();
+        try {
+            if (springCon != null) {
+                if (depo.isTransactionAware()) {
+                    springCon.close();
+                } else {
+                    DataSourceUtils.doReleaseConnection(springCon, dataSource);
+                }
+            }
+        } catch (Throwable ex) {
+            logger.info("Could not close JDBC Connection", ex);
+        }
     }
 
     protected Object executeWith(Connection connection, SqlMapClientCallback action) {
@@ -139,6 +441,9 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
                 throw new ConcurrencyFailureException(
                         "interrupted when processing data access request in concurrency", e);
             } catch (ExecutionException e) {
+                if (e.getCause() instanceof QueryDeadlineExceededException) {
+                    throw (QueryDeadlineExceededException) e.getCause();
+                }
                 throw new ConcurrencyFailureException("something goes wrong in processing", e);
             }
         }
@@ -148,25 +453,88 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
                                                                           List<ConcurrentRequest> requests) {
         List<RequestDepository> depos = new ArrayList<RequestDepository>();
         for (ConcurrentRequest request : requests) {
-            DataSource dataSource = request.getDataSource();
+            depos.add(depositForLaterUse(request));
+        }
+        return depos;
+    }
 
-            Connection springCon = null;
-            boolean transactionAware = (dataSource instanceof TransactionAwareDataSourceProxy);
-            try {
-                springCon = (transactionAware ? dataSource.getConnection() : DataSourceUtils
-                        .doGetConnection(dataSource));
-            } catch (SQLException ex) {
-                throw new CannotGetJdbcConnectionException("Could not get JDBC Connection", ex);
-            }
+    private RequestDepository depositForLaterUse(ConcurrentRequest request) {
+        if (isConnectionFetchedBeforeSubmit(request)) {
+            return fetchConnectionAndDeposit(request);
+        }
+        RequestDepository depo = new RequestDepository();
+        depo.setOriginalRequest(request);
+        depo.setConnectionFetchedByWorker(true);
+        return depo;
+    }
+
+    /**
+     * @return whether the connection of a request is fetched on the calling
+     *         thread before the request is submitted, otherwise it's fetched
+     *         by the worker of the request once the request is started, then
+     *         the request doesn't take part in the transaction of the calling
+     *         thread.
+     */
+    protected boolean isConnectionFetchedBeforeSubmit(ConcurrentRequest request) {
+        return true;
+    }
+
+    private RequestDepository fetchConnectionAndDeposit(ConcurrentRequest request) {
+        RequestDepository depo = new RequestDepository();
+        depo.setOriginalRequest(request);
+        fetchConnectionInto(depo);
+        depo.setBoundToTransaction(isBoundToTransaction(request.getDataSource()));
+        return depo;
+    }
+
+    private void fetchConnectionInto(RequestDepository depo) {
+        ConcurrentRequest request = depo.getOriginalRequest();
+        DataSource dataSource = request.getDataSource();
 
-            RequestDepository depo = new RequestDepository();
-            depo.setOriginalRequest(request);
-            depo.setConnectionToUse(springCon);
-            depo.setTransactionAware(transactionAware);
-            depos.add(depo);
+        Connection springCon = null;
+        boolean transactionAware = (dataSource instanceof TransactionAwareDataSourceProxy);
+        long start = (request.getTrace() == null) ? 0L : System.nanoTime();
+        try {
+            springCon = (transactionAware ? dataSource.getConnection() : DataSourceUtils
+                    .doGetConnection(dataSource));
+        } catch (SQLException ex) {
+            throw new CannotGetJdbcConnectionException("Could not get JDBC Connection", ex);
+        }
+        if (request.getTrace() != null) {
+            request.getTrace().setConnectionNanos(System.nanoTime() - start);
         }
 
-        return depos;
+        depo.setConnectionToUse(springCon);
+        depo.setTransactionAware(transactionAware);
+        if (request.getDeadline() != null) {
+            depo.setDeadlineProxy(new DeadlineConnectionProxy(springCon, request.getDeadline()));
+        }
+    }
+
+    /**
+     * @return whether the connection just fetched from the data source may be
+     *         held by a transaction of the calling thread.
+     */
+    protected boolean isBoundToTransaction(DataSource dataSource) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            return true;
+        }
+        if (dataSource instanceof TransactionAwareDataSourceProxy) {
+            dataSource = ((TransactionAwareDataSourceProxy) dataSource).getTargetDataSource();
+        }
+        return TransactionSynchronizationManager.hasResource(dataSource);
+    }
+
+    /**
+     * the task of a request, which is told when it's rejected by the executor
+     * asynchronously, so that the processor waiting for it doesn't wait
+     * forever.<br>
+     */
+    protected static abstract class RequestTask implements Callable<Object> {
+        /**
+         * called instead of {@link #call()} when the task will never be run.
+         */
+        protected abstract void reject(Throwable cause);
     }
 
     public void setSqlMapClient(SqlMapClient sqlMapClient) {
@@ -178,4 +546,12 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
         return sqlMapClient;
     }
 
+    public void setCallerRunsSingleRequest(boolean callerRunsSingleRequest) {
+        this.callerRunsSingleRequest = callerRunsSingleRequest;
+    }
+
+    public boolean isCallerRunsSingleRequest() {
+        return callerRunsSingleRequest;
+    }
+
 }
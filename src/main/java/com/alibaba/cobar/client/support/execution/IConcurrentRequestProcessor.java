@@ -17,6 +17,29 @@
 
 import java.util.List;
 
+import com.alibaba.cobar.client.merger.IMerger;
+
 public interface IConcurrentRequestProcessor {
     List<Object> process(List<ConcurrentRequest> requests);
+
+    /**
+     * submits the requests without waiting for them, the results of the
+     * requests are merged by the merger when the last one completes.<br>
+     * the requests don't take part in the transaction of the calling thread,
+     * since they may still be running when it ends.
+     * 
+     * @since 1.0.6
+     */
+    <T> MergingFuture<T> processAsync(List<ConcurrentRequest> requests, IMerger<Object, T> merger);
+
+    /**
+     * processes the requests like {@link #process(List)}, but a request which
+     * fails, or isn't done by its deadline, doesn't fail the others, its
+     * outcome is recorded instead, and the statements of the ones not done
+     * are cancelled.<br>
+     * the outcomes are in the order of the requests.
+     * 
+     * @since 1.0.6
+     */
+    List<RequestOutcome> processPartially(List<ConcurrentRequest> requests);
 }
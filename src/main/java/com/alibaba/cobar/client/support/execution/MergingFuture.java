@@ -0,0 +1,218 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.cobar.client.merger.IMerger;
+
+/**
+ * A {@link Future} of a statement executed on several shards, it's completed
+ * by the shard which finishes last, merging the results of all of the shards
+ * in that thread, so no thread waits for the shards but the ones calling
+ * {@link #get()}.<br>
+ * the first failure of any shard fails the whole future, and the shards which
+ * haven't started yet are cancelled.<br>
+ * listeners added with {@link #addListener(Runnable)} are run when the future
+ * is done, by the thread which completes it, or at once if it's done
+ * already.<br>
+ *
+ * @since 1.0.6
+ */
+public class MergingFuture<T> implements Future<T> {
+
+    private transient final Logger   logger       = LoggerFactory.getLogger(MergingFuture.class);
+
+    private final Object[]           shardResults;
+    private final AtomicInteger      pendingShards;
+    private final IMerger<Object, T> merger;
+    private final List<Future<?>>    shardFutures = new ArrayList<Future<?>>();
+    private final List<Runnable>     listeners    = new ArrayList<Runnable>();
+
+    private final AtomicBoolean      completing   = new AtomicBoolean();
+    private final CountDownLatch     done         = new CountDownLatch(1);
+    private volatile T               value;
+    private volatile Throwable       failure;
+
+    /**
+     * @param shards, how many shard results to wait for.
+     * @param merger, merges the shard results in the order of the shards.
+     */
+    public MergingFuture(int shards, IMerger<Object, T> merger) {
+        this.shardResults = new Object[shards];
+        this.pendingShards = new AtomicInteger(shards);
+        this.merger = merger;
+        if (shards == 0) {
+            merge();
+        }
+    }
+
+    /**
+     * records the result of a shard, for request processors.
+     */
+    public void setShardResult(int shard, Object result) {
+        shardResults[shard] = result;
+        if (pendingShards.decrementAndGet() == 0) {
+            merge();
+        }
+    }
+
+    /**
+     * fails the future, for request processors, the failures after the first
+     * one are ignored.
+     */
+    public void setFailure(Throwable t) {
+        if (complete(null, t)) {
+            cancelShards(false);
+        }
+    }
+
+    /**
+     * keeps the future of a shard request, for request processors, so that
+     * it can be cancelled.
+     */
+    public void addShardFuture(Future<?> shardFuture) {
+        synchronized (shardFutures) {
+            shardFutures.add(shardFuture);
+        }
+        if (isDone()) {
+            shardFuture.cancel(false);
+        }
+    }
+
+    /**
+     * runs the listener when the future is done, listeners shouldn't block,
+     * since they may run in the executor of a shard.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (listeners) {
+            if (done.getCount() > 0) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        runListener(listener);
+    }
+
+    private void merge() {
+        T merged;
+        try {
+            merged = merger.merge(Arrays.asList(shardResults));
+        } catch (RuntimeException e) {
+            complete(null, e);
+            return;
+        }
+        complete(merged, null);
+    }
+
+    private boolean complete(T value, Throwable failure) {
+        if (!completing.compareAndSet(false, true)) {
+            return false;
+        }
+        this.value = value;
+        this.failure = failure;
+        List<Runnable> toRun;
+        synchronized (listeners) {
+            done.countDown();
+            toRun = new ArrayList<Runnable>(listeners);
+            listeners.clear();
+        }
+        for (Runnable listener : toRun) {
+            runListener(listener);
+        }
+        return true;
+    }
+
+    private void runListener(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException e) {
+            logger.warn("listener:" + listener + " of merging future failed.", e);
+        }
+    }
+
+    private void cancelShards(boolean mayInterruptIfRunning) {
+        synchronized (shardFutures) {
+            for (Future<?> shardFuture : shardFutures) {
+                shardFuture.cancel(mayInterruptIfRunning);
+            }
+        }
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(null, new CancellationException())) {
+            return false;
+        }
+        cancelShards(mayInterruptIfRunning);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return isDone() && failure instanceof CancellationException;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    private T report() throws ExecutionException {
+        if (failure instanceof CancellationException) {
+            throw (CancellationException) failure;
+        }
+        if (failure != null) {
+            throw new ShardExecutionException(failure);
+        }
+        return value;
+    }
+
+    /**
+     * the constructors of {@link ExecutionException} are not public before
+     * java 6.
+     */
+    private static class ShardExecutionException extends ExecutionException {
+        private static final long serialVersionUID = -2516427468409286187L;
+
+        ShardExecutionException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
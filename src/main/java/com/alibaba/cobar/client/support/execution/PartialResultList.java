@@ -0,0 +1,48 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * the merged results of the shards which succeeded, with the status of the
+ * ones which didn't, see {@link PartialResultStatus}.<br>
+ *
+ * @since 1.0.6
+ */
+public class PartialResultList extends ArrayList<Object> {
+
+    private static final long         serialVersionUID = 1L;
+
+    private final PartialResultStatus status;
+
+    public PartialResultList(Collection<?> results, PartialResultStatus status) {
+        super(results);
+        this.status = status;
+    }
+
+    public PartialResultStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return whether the results are from all of the shards.
+     */
+    public boolean isComplete() {
+        return status.isComplete();
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.alibaba.cobar.client.CobarSqlMapClientTemplate;
+
+/**
+ * which shards of a statement executed with partial results fail or time out,
+ * see
+ * {@link CobarSqlMapClientTemplate#queryForListWithPartialResults(String, Object)}
+ * and
+ * {@link CobarSqlMapClientTemplate#queryWithRowHandlerWithPartialResults(String, Object, com.ibatis.sqlmap.client.event.RowHandler)}
+ * .<br>
+ * the failures are keyed by the identities of the shards.<br>
+ *
+ * @since 1.0.6
+ */
+public class PartialResultStatus {
+
+    private int                                shardCount;
+    private final SortedMap<String, Throwable> failedShards   = new TreeMap<String, Throwable>();
+    private final SortedMap<String, Throwable> timedOutShards = new TreeMap<String, Throwable>();
+
+    /**
+     * records the outcome of the request on a shard.
+     */
+    public void record(String shard, RequestOutcome outcome) {
+        shardCount++;
+        switch (outcome.getStatus()) {
+            case FAILED:
+                failedShards.put(shard, outcome.getFailure());
+                break;
+            case TIMED_OUT:
+                timedOutShards.put(shard, outcome.getFailure());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the number of shards the statement is executed on.
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public SortedMap<String, Throwable> getFailedShards() {
+        return Collections.unmodifiableSortedMap(failedShards);
+    }
+
+    public SortedMap<String, Throwable> getTimedOutShards() {
+        return Collections.unmodifiableSortedMap(timedOutShards);
+    }
+
+    /**
+     * @return whether all of the shards succeeded.
+     */
+    public boolean isComplete() {
+        return failedShards.isEmpty() && timedOutShards.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "PartialResultStatus [shardCount=" + shardCount + ", failedShards="
+                + failedShards.keySet() + ", timedOutShards=" + timedOutShards.keySet() + "]";
+    }
+}
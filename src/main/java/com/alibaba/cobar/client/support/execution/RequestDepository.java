@@ -16,6 +16,7 @@
  package com.alibaba.cobar.client.support.execution;
 
 import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * temporary status depository for request processing.<br>
@@ -24,9 +25,18 @@ import java.sql.Connection;
  * @since 1.0
  */
 public class RequestDepository {
-    private ConcurrentRequest originalRequest;
-    private Connection        connectionToUse;
-    private boolean           transactionAware;
+    private static final int                 PENDING   = 0;
+    private static final int                 RUNNING   = 1;
+    private static final int                 DONE      = 2;
+    private static final int                 ABANDONED = 3;
+
+    private ConcurrentRequest                originalRequest;
+    private Connection                       connectionToUse;
+    private boolean                          transactionAware;
+    private boolean                          boundToTransaction;
+    private boolean                          connectionFetchedByWorker;
+    private volatile DeadlineConnectionProxy deadlineProxy;
+    private final AtomicInteger              state     = new AtomicInteger(PENDING);
 
     public ConcurrentRequest getOriginalRequest() {
         return originalRequest;
@@ -52,4 +62,93 @@ public class RequestDepository {
         this.transactionAware = transactionAware;
     }
 
+    /**
+     * @return whether the connection is held by the transaction of the thread
+     *         which fetched it, in which case it can only be released in that
+     *         thread.
+     */
+    public boolean isBoundToTransaction() {
+        return boundToTransaction;
+    }
+
+    public void setBoundToTransaction(boolean boundToTransaction) {
+        this.boundToTransaction = boundToTransaction;
+    }
+
+    /**
+     * @return whether the connection is fetched by the worker running the
+     *         request instead of by the processor, in which case the worker
+     *         always releases it.
+     */
+    public boolean isConnectionFetchedByWorker() {
+        return connectionFetchedByWorker;
+    }
+
+    public void setConnectionFetchedByWorker(boolean connectionFetchedByWorker) {
+        this.connectionFetchedByWorker = connectionFetchedByWorker;
+    }
+
+    public DeadlineConnectionProxy getDeadlineProxy() {
+        return deadlineProxy;
+    }
+
+    public void setDeadlineProxy(DeadlineConnectionProxy deadlineProxy) {
+        this.deadlineProxy = deadlineProxy;
+    }
+
+    /**
+     * @return the connection to execute the request with, which applies the
+     *         deadline of the request if there's one.
+     */
+    public Connection getConnectionToExecuteWith() {
+        return (deadlineProxy == null) ? connectionToUse : deadlineProxy.getProxy();
+    }
+
+    /**
+     * called by the worker before it executes the request.<br>
+     * 
+     * @return false if the request has been given up by the processor, then
+     *         the worker should not touch the connection.
+     */
+    public boolean startExecution() {
+        return state.compareAndSet(PENDING, RUNNING);
+    }
+
+    /**
+     * called by the worker after it executes the request.<br>
+     * 
+     * @return whether the worker should release the connection, which is the
+     *         case if the worker fetched it, or if the processor has given up
+     *         the request while it's running, unless the connection is bound to
+     *         a transaction.
+     */
+    public boolean finishExecution() {
+        boolean abandoned = !state.compareAndSet(RUNNING, DONE);
+        return connectionFetchedByWorker || (abandoned && !boundToTransaction);
+    }
+
+    /**
+     * @return whether the worker has finished executing the request, its
+     *         future may still be completing though.
+     */
+    public boolean isExecutionFinished() {
+        return state.get() == DONE;
+    }
+
+    /**
+     * called by the processor when it's done with the request, whether the
+     * request is done or not.<br>
+     * 
+     * @return whether the processor should release the connection now,
+     *         otherwise the worker running the request will release it when
+     *         it's done, so that a connection is never returned to the pool
+     *         while a statement is still running on it.
+     */
+    public boolean settle() {
+        if (state.compareAndSet(RUNNING, ABANDONED)) {
+            return boundToTransaction;
+        }
+        state.compareAndSet(PENDING, ABANDONED);
+        return !connectionFetchedByWorker;
+    }
 }
@@ -0,0 +1,83 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+/**
+ * how a {@link ConcurrentRequest} ends when it's processed with
+ * {@link IConcurrentRequestProcessor#processPartially(java.util.List)}, with
+ * either the result of its action, or the failure which stops it.<br>
+ * a request which is not done by its deadline, or fails after its deadline,
+ * is timed out rather than failed.<br>
+ *
+ * @since 1.0.6
+ */
+public class RequestOutcome {
+
+    public enum Status {
+        SUCCEEDED,
+        FAILED,
+        TIMED_OUT
+    }
+
+    private final Status    status;
+    private final Object    result;
+    private final Throwable failure;
+
+    private RequestOutcome(Status status, Object result, Throwable failure) {
+        this.status = status;
+        this.result = result;
+        this.failure = failure;
+    }
+
+    public static RequestOutcome succeeded(Object result) {
+        return new RequestOutcome(Status.SUCCEEDED, result, null);
+    }
+
+    public static RequestOutcome failed(Throwable failure) {
+        return new RequestOutcome(Status.FAILED, null, failure);
+    }
+
+    public static RequestOutcome timedOut(Throwable failure) {
+        return new RequestOutcome(Status.TIMED_OUT, null, failure);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSucceeded() {
+        return status == Status.SUCCEEDED;
+    }
+
+    /**
+     * @return the result of the action, null unless it succeeded.
+     */
+    public Object getResult() {
+        return result;
+    }
+
+    /**
+     * @return the failure which stops the request, null if it succeeded.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestOutcome [status=" + status + ", failure=" + failure + "]";
+    }
+}
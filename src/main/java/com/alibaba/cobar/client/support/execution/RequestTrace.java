@@ -0,0 +1,68 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+/**
+ * the timings of a {@link ConcurrentRequest} on one data source, which are
+ * recorded by {@link DefaultConcurrentRequestProcessor} if a trace is set on
+ * the request, the timings which are not recorded stay -1.<br>
+ *
+ * @since 1.0.6
+ */
+public class RequestTrace {
+
+    private final String  dataSourceName;
+    private volatile long connectionNanos = -1L;
+    private volatile long executionNanos  = -1L;
+
+    public RequestTrace(String dataSourceName) {
+        this.dataSourceName = dataSourceName;
+    }
+
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    /**
+     * @return the time to get the connection from the data source, in
+     *         nanoseconds.
+     */
+    public long getConnectionNanos() {
+        return connectionNanos;
+    }
+
+    public void setConnectionNanos(long connectionNanos) {
+        this.connectionNanos = connectionNanos;
+    }
+
+    /**
+     * @return the time to execute the action with the connection, in
+     *         nanoseconds.
+     */
+    public long getExecutionNanos() {
+        return executionNanos;
+    }
+
+    public void setExecutionNanos(long executionNanos) {
+        this.executionNanos = executionNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTrace [dataSource=" + dataSourceName + ", connectionNanos="
+                + connectionNanos + ", executionNanos=" + executionNanos + "]";
+    }
+}
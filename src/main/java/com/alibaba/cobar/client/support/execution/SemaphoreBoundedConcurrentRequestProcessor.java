@@ -0,0 +1,315 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.Validate;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.ConcurrencyFailureException;
+
+import com.alibaba.cobar.client.datasources.CobarDataSourceDescriptor;
+import com.alibaba.cobar.client.datasources.ICobarDataSourceService;
+import com.alibaba.cobar.client.exception.QueryDeadlineExceededException;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * A {@link IConcurrentRequestProcessor} which runs the requests of all of the
+ * data sources on one shared executor, instead of on the executor of each
+ * data source, and bounds the concurrency of each data source with a
+ * semaphore instead of a pool size.<br>
+ * a request which can't get a permit of its data source is queued, and
+ * dispatched by the request of that data source which completes next, so
+ * no thread is blocked waiting for permits, and the threads of the shared
+ * executor are only as many as the requests in flight, rather than the sum
+ * of the pool sizes of all of the data sources.<br>
+ * the default shared executor is an unbounded pool whose idle threads die
+ * after a minute, the permits of a data source is the pool size of its
+ * {@link CobarDataSourceDescriptor} if {@link #cobarDataSourceService} is
+ * given, or {@link #defaultPermits} otherwise.<br>
+ * a single request is still run on the calling thread, once it gets a permit
+ * of its data source.<br>
+ * the connection of a request is fetched once the request gets a permit, so
+ * the queued requests don't hold connections of the pool, unless the calling
+ * thread may be in a transaction, in which case the connections are fetched
+ * by the calling thread beforehand to take part in the transaction.<br>
+ * a request rejected by the shared executor fails alone with the
+ * {@link RejectedExecutionException}.<br>
+ * the executors of the requests are ignored.<br>
+ *
+ * @since 1.0.6
+ */
+public class SemaphoreBoundedConcurrentRequestProcessor extends DefaultConcurrentRequestProcessor
+        implements DisposableBean {
+
+    private ExecutorService                          executor;
+    private boolean                                  internalExecutor;
+    private ICobarDataSourceService                  cobarDataSourceService;
+    private int                                      defaultPermits = Runtime.getRuntime()
+                                                                        .availableProcessors() * 5;
+
+    private final Map<DataSource, BoundedDispatcher> dispatchers    = new ConcurrentHashMap<DataSource, BoundedDispatcher>();
+
+    public SemaphoreBoundedConcurrentRequestProcessor() {
+    }
+
+    public SemaphoreBoundedConcurrentRequestProcessor(SqlMapClient sqlMapClient) {
+        super(sqlMapClient);
+    }
+
+    /**
+     * a single request run on the calling thread takes a permit of its data
+     * source too, waiting for it if necessary, but not beyond the deadline
+     * of the request.
+     */
+    @Override
+    public List<Object> process(List<ConcurrentRequest> requests) {
+        if (requests == null || requests.size() != 1 || !isCallerRunsSingleRequest()) {
+            return super.process(requests);
+        }
+        ConcurrentRequest request = requests.get(0);
+        BoundedDispatcher dispatcher = dispatcherOf(request.getDataSource());
+        dispatcher.acquire(request.getDeadline());
+        try {
+            return super.process(requests);
+        } finally {
+            dispatcher.release();
+        }
+    }
+
+    @Override
+    protected Future<Object> submit(ConcurrentRequest request, RequestTask task) {
+        DispatchedTask future = new DispatchedTask(task);
+        dispatcherOf(request.getDataSource()).dispatch(future);
+        return future;
+    }
+
+    @Override
+    protected boolean isConnectionFetchedBeforeSubmit(ConcurrentRequest request) {
+        return isBoundToTransaction(request.getDataSource());
+    }
+
+    private BoundedDispatcher dispatcherOf(DataSource dataSource) {
+        BoundedDispatcher dispatcher = dispatchers.get(dataSource);
+        if (dispatcher == null) {
+            synchronized (dispatchers) {
+                dispatcher = dispatchers.get(dataSource);
+                if (dispatcher == null) {
+                    dispatcher = new BoundedDispatcher(getExecutor(), permitsOf(dataSource));
+                    dispatchers.put(dataSource, dispatcher);
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    private int permitsOf(DataSource dataSource) {
+        if (cobarDataSourceService != null) {
+            Map<String, DataSource> dataSources = cobarDataSourceService.getDataSources();
+            for (CobarDataSourceDescriptor descriptor : cobarDataSourceService
+                    .getDataSourceDescriptors()) {
+                if (dataSources.get(descriptor.getIdentity()) == dataSource) {
+                    return descriptor.getPoolSize();
+                }
+            }
+        }
+        return defaultPermits;
+    }
+
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = createDefaultExecutor();
+            internalExecutor = true;
+        }
+        return executor;
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory tf = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r,
+                        "thread created at SemaphoreBoundedConcurrentRequestProcessor-"
+                                + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), tf);
+    }
+
+    /**
+     * @param executor, the shared executor, it must not run tasks in the
+     *            submitting thread, since the requests of a data source are
+     *            dispatched by each other, the requests whose tasks are
+     *            rejected fail.
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        Validate.notNull(executor);
+        this.executor = executor;
+        this.internalExecutor = false;
+    }
+
+    public void setCobarDataSourceService(ICobarDataSourceService cobarDataSourceService) {
+        this.cobarDataSourceService = cobarDataSourceService;
+    }
+
+    public ICobarDataSourceService getCobarDataSourceService() {
+        return cobarDataSourceService;
+    }
+
+    public void setDefaultPermits(int defaultPermits) {
+        Validate.isTrue(defaultPermits > 0, "defaultPermits must be positive.");
+        this.defaultPermits = defaultPermits;
+    }
+
+    public int getDefaultPermits() {
+        return defaultPermits;
+    }
+
+    /**
+     * @return how many requests of the data source are running, for
+     *         monitoring.
+     */
+    public int getRunningRequestCount(DataSource dataSource) {
+        BoundedDispatcher dispatcher = dispatchers.get(dataSource);
+        return (dispatcher == null) ? 0 : dispatcher.permits
+                - dispatcher.semaphore.availablePermits();
+    }
+
+    /**
+     * shuts down the shared executor if it's created by the processor.
+     */
+    public synchronized void destroy() throws Exception {
+        if (executor != null && internalExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private static class DispatchedTask extends FutureTask<Object> {
+        private final RequestTask task;
+
+        DispatchedTask(RequestTask task) {
+            super(task);
+            this.task = task;
+        }
+
+        /**
+         * fails the task without running it, the future is completed before
+         * the task is told, so whoever is waiting for the task sees the
+         * failure.
+         */
+        void reject(RejectedExecutionException e) {
+            setException(e);
+            task.reject(e);
+        }
+    }
+
+    /**
+     * dispatches the tasks of a data source to the shared executor, with at
+     * most as many of them running as the permits.<br>
+     * a task is queued before a permit is tried, and a permit is released
+     * before the queue is checked again, so a queued task is always picked up
+     * either by the thread queueing it or by the task completing next.<br>
+     * a task rejected by the executor is failed alone, instead of throwing the
+     * rejection to the thread draining the queue, which may be the worker of
+     * another task.
+     */
+    private static class BoundedDispatcher {
+        final ExecutorService      executor;
+        final int                  permits;
+        final Semaphore            semaphore;
+        final Queue<DispatchedTask> pendingTasks = new ConcurrentLinkedQueue<DispatchedTask>();
+
+        BoundedDispatcher(ExecutorService executor, int permits) {
+            this.executor = executor;
+            this.permits = permits;
+            this.semaphore = new Semaphore(permits);
+        }
+
+        /**
+         * @param deadline, by which the permit should be taken, optional.
+         */
+        void acquire(Deadline deadline) {
+            try {
+                if (deadline == null) {
+                    semaphore.acquire();
+                } else if (!semaphore.tryAcquire(Math.max(deadline.remainingNanos(), 0L),
+                        TimeUnit.NANOSECONDS)) {
+                    throw new QueryDeadlineExceededException(
+                            "no permit to access data source is available by " + deadline);
+                }
+            } catch (InterruptedException e) {
+                throw new ConcurrencyFailureException(
+                        "interrupted when waiting for a permit to access data source", e);
+            }
+        }
+
+        /**
+         * releases a permit, and dispatches the queued tasks with it.
+         */
+        void release() {
+            semaphore.release();
+            drain();
+        }
+
+        void dispatch(DispatchedTask task) {
+            pendingTasks.offer(task);
+            drain();
+        }
+
+        private void drain() {
+            while (!pendingTasks.isEmpty() && semaphore.tryAcquire()) {
+                final DispatchedTask task = pendingTasks.poll();
+                if (task == null) {
+                    semaphore.release();
+                    continue;
+                }
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                task.run();
+                            } finally {
+                                release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    semaphore.release();
+                    task.reject(e);
+                }
+            }
+        }
+    }
+}
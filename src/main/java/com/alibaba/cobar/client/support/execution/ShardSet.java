@@ -0,0 +1,112 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import javax.sql.DataSource;
+
+/**
+ * An immutable set of data sources to execute a request on, ordered by their
+ * identities, with the {@link DataSource}s and {@link ExecutorService}s
+ * resolved beforehand, so that dispatching a request needs no map lookup.<br>
+ * shard sets are interned by {@link ShardSetRegistry}, one per distinct
+ * routing result.<br>
+ *
+ * @since 1.0.6
+ */
+public class ShardSet {
+
+    public static final ShardSet               EMPTY = new ShardSet(new String[0], new int[0],
+                                                             new DataSource[0],
+                                                             new ExecutorService[0]);
+
+    private final String[]                      names;
+    private final int[]                         shardIds;
+    private final DataSource[]                  dataSources;
+    private final ExecutorService[]             executors;
+    private final List<String>                  nameList;
+    private final SortedMap<String, DataSource> dataSourceMap;
+
+    /**
+     * @param names, identities of the data sources in ascending order.
+     * @param shardIds, ids of the data sources, as assigned by the registry.
+     */
+    ShardSet(String[] names, int[] shardIds, DataSource[] dataSources,
+             ExecutorService[] executors) {
+        this.names = names;
+        this.shardIds = shardIds;
+        this.dataSources = dataSources;
+        this.executors = executors;
+        this.nameList = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(names)));
+        SortedMap<String, DataSource> map = new TreeMap<String, DataSource>();
+        for (int i = 0; i < names.length; i++) {
+            map.put(names[i], dataSources[i]);
+        }
+        this.dataSourceMap = Collections.unmodifiableSortedMap(map);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public int getShardId(int index) {
+        return shardIds[index];
+    }
+
+    public DataSource getDataSource(int index) {
+        return dataSources[index];
+    }
+
+    public ExecutorService getExecutor(int index) {
+        return executors[index];
+    }
+
+    /**
+     * @return the identities of the data sources, in ascending order.
+     */
+    public List<String> getNames() {
+        return nameList;
+    }
+
+    /**
+     * @return the data sources keyed by identities, as the routing methods
+     *         returned before shard sets, the map is unmodifiable and shared
+     *         by all users of the shard set.
+     */
+    public SortedMap<String, DataSource> toSortedMap() {
+        return dataSourceMap;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardSet " + nameList;
+    }
+}
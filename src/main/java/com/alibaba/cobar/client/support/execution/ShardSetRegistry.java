@@ -0,0 +1,151 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * interns {@link ShardSet}s by the identities of their data sources, so the
+ * data sources and executors of a routing result are resolved and sorted
+ * only the first time it's seen.<br>
+ * the data sources and executors are snapshots of the given maps at the time
+ * a shard set is created, create a new registry if they are changed.<br>
+ * at most {@link #getCapacity()} shard sets are interned, the shard sets of
+ * other routing results are created per call.<br>
+ *
+ * @since 1.0.6
+ */
+public class ShardSetRegistry {
+
+    public static final int                         DEFAULT_CAPACITY = 1024;
+
+    private final Map<String, DataSource>           dataSources;
+    private final Map<String, ExecutorService>      executors;
+    private final int                               capacity;
+
+    private final ConcurrentHashMap<String, Integer> shardIds        = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentHashMap<List<String>, ShardSet> shardSets = new ConcurrentHashMap<List<String>, ShardSet>();
+
+    public ShardSetRegistry(Map<String, DataSource> dataSources,
+                            Map<String, ExecutorService> executors) {
+        this(dataSources, executors, DEFAULT_CAPACITY);
+    }
+
+    public ShardSetRegistry(Map<String, DataSource> dataSources,
+                            Map<String, ExecutorService> executors, int capacity) {
+        Validate.notNull(dataSources);
+        Validate.notNull(executors);
+        Validate.isTrue(capacity > 0, "capacity must be positive.");
+        this.dataSources = dataSources;
+        this.executors = executors;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param names, identities of data sources, in any order, duplicates are
+     *            ignored.
+     */
+    public ShardSet shardSetOf(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            return ShardSet.EMPTY;
+        }
+        List<String> key = (names instanceof List) ? (List<String>) names : new ArrayList<String>(
+                names);
+        ShardSet shardSet = shardSets.get(key);
+        if (shardSet != null) {
+            return shardSet;
+        }
+        shardSet = createShardSet(names);
+        if (shardSets.size() < capacity) {
+            // the key is copied, since the caller may change its collection.
+            ShardSet existing = shardSets.putIfAbsent(new ArrayList<String>(key), shardSet);
+            if (existing != null) {
+                shardSet = existing;
+            }
+        }
+        return shardSet;
+    }
+
+    /**
+     * @param dataSources, data sources keyed by their identities, as a
+     *            subclass of the template may look them up.
+     * @return the interned shard set of the identities if the data sources are
+     *         the registered ones, or a new shard set of the given data
+     *         sources otherwise.
+     */
+    public ShardSet shardSetOf(Map<String, DataSource> dataSources) {
+        if (dataSources == null || dataSources.isEmpty()) {
+            return ShardSet.EMPTY;
+        }
+        ShardSet shardSet = shardSetOf(dataSources.keySet());
+        for (int i = 0; i < shardSet.size(); i++) {
+            if (shardSet.getDataSource(i) != dataSources.get(shardSet.getName(i))) {
+                return createShardSet(dataSources.keySet(), dataSources);
+            }
+        }
+        return shardSet;
+    }
+
+    private ShardSet createShardSet(Collection<String> names) {
+        return createShardSet(names, this.dataSources);
+    }
+
+    private ShardSet createShardSet(Collection<String> names,
+                                    Map<String, DataSource> dataSources) {
+        String[] sortedNames = new TreeSet<String>(names).toArray(new String[0]);
+        int[] ids = new int[sortedNames.length];
+        DataSource[] resolvedDataSources = new DataSource[sortedNames.length];
+        ExecutorService[] resolvedExecutors = new ExecutorService[sortedNames.length];
+        for (int i = 0; i < sortedNames.length; i++) {
+            ids[i] = shardIdOf(sortedNames[i]);
+            resolvedDataSources[i] = dataSources.get(sortedNames[i]);
+            resolvedExecutors[i] = executors.get(sortedNames[i]);
+        }
+        return new ShardSet(sortedNames, ids, resolvedDataSources, resolvedExecutors);
+    }
+
+    private int shardIdOf(String name) {
+        Integer id = shardIds.get(name);
+        if (id == null) {
+            synchronized (shardIds) {
+                id = shardIds.get(name);
+                if (id == null) {
+                    id = shardIds.size();
+                    shardIds.put(name, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return shardSets.size();
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ package com.alibaba.cobar.client.support.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.alibaba.cobar.client.CobarSqlMapClientTemplate;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+import com.alibaba.cobar.client.router.support.RoutingHint;
+
+/**
+ * how a statement is routed, and executed if it's explained with execution,
+ * see {@link CobarSqlMapClientTemplate#explain(String, Object)} and
+ * {@link CobarSqlMapClientTemplate#explainQueryForList(String, Object)}.<br>
+ * the routing explanation is only available if the statement is routed by a
+ * {@link com.alibaba.cobar.client.router.IExplainableRouter}, a planned
+ * statement or a statement whose shard keys are split is not routed by the
+ * router as a whole.<br>
+ * the routing hint is the one which decides or restricts the shards of the
+ * statement, if any.<br>
+ * all of the timings are in nanoseconds, -1 if not measured.<br>
+ *
+ * @since 1.0.6
+ */
+public class StatementExplanation {
+
+    private final String             statementName;
+    private final Object             parameterObject;
+    private boolean                  planned;
+    private boolean                  splitByShardKeys;
+    private RoutingHint              routingHint;
+    private RoutingExplanation       routingExplanation;
+    private List<String>             shards        = Collections.emptyList();
+    private long                     routingNanos  = -1L;
+    private final List<RequestTrace> requestTraces = new ArrayList<RequestTrace>();
+    private long                     executionNanos = -1L;
+    private long                     mergeNanos    = -1L;
+    private Object                   result;
+
+    public StatementExplanation(String statementName, Object parameterObject) {
+        this.statementName = statementName;
+        this.parameterObject = parameterObject;
+    }
+
+    public String getStatementName() {
+        return statementName;
+    }
+
+    public Object getParameterObject() {
+        return parameterObject;
+    }
+
+    /**
+     * @return whether the shards of the statement are planned on start
+     *         instead of routed per request.
+     */
+    public boolean isPlanned() {
+        return planned;
+    }
+
+    public void setPlanned(boolean planned) {
+        this.planned = planned;
+    }
+
+    /**
+     * @return whether the parameter object is split by shard keys, see
+     *         {@link com.alibaba.cobar.client.router.support.ShardKeySplitter}.
+     */
+    public boolean isSplitByShardKeys() {
+        return splitByShardKeys;
+    }
+
+    public void setSplitByShardKeys(boolean splitByShardKeys) {
+        this.splitByShardKeys = splitByShardKeys;
+    }
+
+    public RoutingHint getRoutingHint() {
+        return routingHint;
+    }
+
+    public void setRoutingHint(RoutingHint routingHint) {
+        this.routingHint = routingHint;
+    }
+
+    public RoutingExplanation getRoutingExplanation() {
+        return routingExplanation;
+    }
+
+    public void setRoutingExplanation(RoutingExplanation routingExplanation) {
+        this.routingExplanation = routingExplanation;
+    }
+
+    /**
+     * @return the data sources the statement goes to, empty if it goes to the
+     *         default data source of the template.
+     */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    public void setShards(List<String> shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * @return the time to find the shards, including splitting shard keys and
+     *         resolving data sources.
+     */
+    public long getRoutingNanos() {
+        return routingNanos;
+    }
+
+    public void setRoutingNanos(long routingNanos) {
+        this.routingNanos = routingNanos;
+    }
+
+    /**
+     * @return the timings on each data source, in the order of the shards.
+     */
+    public List<RequestTrace> getRequestTraces() {
+        return requestTraces;
+    }
+
+    public void addRequestTrace(RequestTrace trace) {
+        requestTraces.add(trace);
+    }
+
+    /**
+     * @return the time from submitting the requests till all of them are
+     *         done, including getting the connections.
+     */
+    public long getExecutionNanos() {
+        return executionNanos;
+    }
+
+    public void setExecutionNanos(long executionNanos) {
+        this.executionNanos = executionNanos;
+    }
+
+    /**
+     * @return the time to merge the results of the data sources.
+     */
+    public long getMergeNanos() {
+        return mergeNanos;
+    }
+
+    public void setMergeNanos(long mergeNanos) {
+        this.mergeNanos = mergeNanos;
+    }
+
+    /**
+     * @return the result of the statement, if it's executed.
+     */
+    public Object getResult() {
+        return result;
+    }
+
+    public void setResult(Object result) {
+        this.result = result;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementExplanation [statement=" + statementName + ", shards=" + shards
+                + ", planned=" + planned + ", splitByShardKeys=" + splitByShardKeys
+                + ", hint=" + routingHint
+                + ", routing=" + routingExplanation + ", routingNanos=" + routingNanos
+                + ", requests=" + requestTraces + ", executionNanos=" + executionNanos
+                + ", mergeNanos=" + mergeNanos + "]";
+    }
+}
@@ -1,21 +1,29 @@
 package com.alibaba.cobar.client;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.fail;
 
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import org.apache.commons.lang.StringUtils;
+import org.springframework.dao.DataAccessException;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
 import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.exception.BatchPartiallyFailedException;
+import com.alibaba.cobar.client.router.support.RoutingHint;
 
 @Test(sequential = true)
 public class CobarSqlMapClientDaoSupportTestWithComposedRuleRouter extends
         AbstractTestNGCobarClientTest {
 
     private CobarSqlMapClientDaoSupport dao        = new CobarSqlMapClientDaoSupport();
+    private CobarSqlMapClientDaoSupport groupedDao = new CobarSqlMapClientDaoSupport();
     private Long[]                      memberIds  = new Long[] { 1L, 129L, 257L, 2L, 130L, 258L,
             386L                                  };
 
@@ -32,6 +40,8 @@ public class CobarSqlMapClientDaoSupportTestWithComposedRuleRouter extends
     @BeforeTest
     public void setupDaoSupport() {
         dao.setSqlMapClientTemplate(getSqlMapClientTemplate());
+        groupedDao.setSqlMapClientTemplate(getSqlMapClientTemplate());
+        groupedDao.setShardGroupedBatchEnabled(true);
     }
 
     public void testBatchInsertOnDaoSupport() {
@@ -77,6 +87,73 @@ public class CobarSqlMapClientDaoSupportTestWithComposedRuleRouter extends
         verifyNonExistenceOnPartitions();
     }
 
+    public void testBatchWithFailingEntityOnDaoSupport() {
+        List<Offer> offers = createOffersWithMemberIds(memberIds);
+        offers.get(1).setSubject(StringUtils.repeat("x", 513));
+        try {
+            dao.batchInsert(CREATE_SQL, offers);
+            fail();
+        } catch (BatchPartiallyFailedException e) {
+            fail("the failure of the entity is expected as it is by default.");
+        } catch (DataAccessException e) {
+            // the entities after the failed one are still inserted.
+        }
+        assertEquals(2, jt1m.queryForInt("select count(*) from offers"));
+        assertEquals(4, jt2m.queryForInt("select count(*) from offers"));
+    }
+
+    public void testBatchWithFailingEntityInGroupOnDaoSupport() {
+        List<Offer> offers = createOffersWithMemberIds(memberIds);
+        offers.get(1).setSubject(StringUtils.repeat("x", 513));
+        try {
+            groupedDao.batchInsert(CREATE_SQL, offers);
+            fail();
+        } catch (BatchPartiallyFailedException e) {
+            // the entity inserted before the failure in its group is counted.
+            assertEquals(5, e.getCount());
+        }
+        assertEquals(1, jt1m.queryForInt("select count(*) from offers"));
+        assertEquals(4, jt2m.queryForInt("select count(*) from offers"));
+    }
+
+    public void testSuccessWithoutRowCountCountsAsOneRow() {
+        assertEquals(4, CobarSqlMapClientDaoSupport.rowsOf(new int[] { 1,
+                Statement.SUCCESS_NO_INFO, 0, 2, Statement.EXECUTE_FAILED }));
+        assertEquals(0, CobarSqlMapClientDaoSupport.rowsOf((int[]) null));
+    }
+
+    public void testBatchWithFailingGroupOnDaoSupport() {
+        List<Offer> offers = createOffersWithMemberIds(memberIds);
+        assertEquals(7, groupedDao.batchInsert(CREATE_SQL, offers));
+
+        jt2m.execute("alter table offers rename to offers_away");
+        try {
+            // one group on both partitions, which fails on partition2 only.
+            RoutingHint hint = RoutingHint.forceShard("partition1", "partition2");
+            try {
+                groupedDao.batchDelete(DELETE_SQL, offers);
+                fail();
+            } catch (BatchPartiallyFailedException e) {
+                assertEquals(3, e.getCount());
+                assertNotNull(e.getCause());
+            } finally {
+                hint.close();
+            }
+            assertEquals(0, jt1m.queryForInt("select count(*) from offers"));
+
+            // a group per partition, and the one of partition2 fails.
+            try {
+                groupedDao.batchInsert(CREATE_SQL, createOffersWithMemberIds(memberIds));
+                fail();
+            } catch (BatchPartiallyFailedException e) {
+                assertEquals(3, e.getCount());
+            }
+            assertEquals(3, jt1m.queryForInt("select count(*) from offers"));
+        } finally {
+            jt2m.execute("alter table offers_away rename to offers");
+        }
+    }
+
     private List<Offer> createOffersWithMemberIds(Long[] memberIds) {
         List<Offer> offers = new ArrayList<Offer>();
         for (Long mid : memberIds) {
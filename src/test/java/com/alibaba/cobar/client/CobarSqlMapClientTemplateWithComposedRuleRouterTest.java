@@ -1,21 +1,44 @@
 package com.alibaba.cobar.client;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.sql.DataSource;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.testng.annotations.Test;
 
 import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.RoutingException;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+import com.alibaba.cobar.client.router.support.RoutingHint;
+import com.alibaba.cobar.client.router.support.ShardKeySplitter;
+import com.alibaba.cobar.client.support.execution.MergingFuture;
+import com.alibaba.cobar.client.support.execution.PartialResultList;
+import com.alibaba.cobar.client.support.execution.PartialResultStatus;
+import com.alibaba.cobar.client.support.execution.RequestTrace;
+import com.alibaba.cobar.client.support.execution.StatementExplanation;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
 import com.alibaba.cobar.client.support.vo.BatchInsertTask;
+import com.ibatis.sqlmap.client.event.RowHandler;
+import com.mchange.v2.c3p0.PooledDataSource;
 
 @Test(sequential=true)
 public class CobarSqlMapClientTemplateWithComposedRuleRouterTest extends
@@ -30,7 +53,6 @@ public class CobarSqlMapClientTemplateWithComposedRuleRouterTest extends
 
     public void testInsertOnCobarSqlMapClientTemplate() {
         Offer offer = new Offer();
-        offer.setGmtUpdated(new Date());
         offer.setMemberId(129L);
         offer.setSubject("some offer");
         Object pk = getSqlMapClientTemplate().insert(OFFER_CREATION_SQL, offer);
@@ -43,7 +65,6 @@ public class CobarSqlMapClientTemplateWithComposedRuleRouterTest extends
         verifyEntityNonExistenceOnSpecificDataSource(confirmSQL, jt2s);
 
         offer = new Offer();
-        offer.setGmtUpdated(new Date());
         offer.setMemberId(130L);
         offer.setSubject("some offer");
         pk = null;
@@ -58,7 +79,6 @@ public class CobarSqlMapClientTemplateWithComposedRuleRouterTest extends
 
     public void testInsertOnCobarSqlMapClientTemplateWithoutFoundRule() {
         Offer offer = new Offer();
-        offer.setGmtUpdated(new Date());
         offer.setMemberId(128L);
         offer.setSubject("some offer");
         Object pk = getSqlMapClientTemplate().insert(OFFER_CREATION_SQL, offer);
@@ -172,6 +192,342 @@ public class CobarSqlMapClientTemplateWithComposedRuleRouterTest extends
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public void testQueryForListWithShardKeysSplitByDataSources() {
+        Long[] memberIds = new Long[] { 1L, 129L, 2L, 130L };
+        batchInsertOffersAsFixtureForLaterUse(memberIds);
+        // a stray row which can only be found if all of the keys are sent to partition2
+        jt2m.update("insert into offers(memberId, subject) values(1, 'stray offer')");
+
+        String sqlAction = "com.alibaba.cobar.client.entities.Offer.findByMemberIds";
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        Map<String, ShardKeySplitter> splitters = new HashMap<String, ShardKeySplitter>();
+        splitters.put(sqlAction, new ShardKeySplitter("memberIds", "memberId"));
+        template.setShardKeySplitters(splitters);
+        try {
+            Map<String, Object> parameter = new HashMap<String, Object>();
+            parameter.put("memberIds", Arrays.asList(memberIds));
+            List<Offer> offers = (List<Offer>) template.queryForList(sqlAction, parameter);
+            assertEquals(4, offers.size());
+            for (Offer offer : offers) {
+                assertEquals("fake offer", offer.getSubject());
+            }
+
+            final List<Object> rows = new ArrayList<Object>();
+            template.queryWithRowHandler(sqlAction, parameter, new RowHandler() {
+                public void handleRow(Object row) {
+                    synchronized (rows) {
+                        rows.add(row);
+                    }
+                }
+            });
+            assertEquals(4, rows.size());
+
+            // keys of one data source only
+            parameter.put("memberIds", Arrays.asList(2L, 130L));
+            offers = (List<Offer>) template.queryForList(sqlAction, parameter);
+            assertEquals(2, offers.size());
+        } finally {
+            template.setShardKeySplitters(new HashMap<String, ShardKeySplitter>());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testExplainQueryForListOnCobarSqlMapClientTemplate() {
+        Long[] memberIds = new Long[] { 1L, 129L, 257L, 2L, 130L, 258L, 386L };
+        batchInsertOffersAsFixtureForLaterUse(memberIds);
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+
+        StatementExplanation explanation = template.explainQueryForList(
+                "com.alibaba.cobar.client.entities.Offer.findAll", null);
+        assertTrue(explanation.isPlanned());
+        assertNull(explanation.getRoutingExplanation());
+        assertEquals(Arrays.asList("partition1", "partition2"), explanation.getShards());
+        assertEquals(7, ((List<Offer>) explanation.getResult()).size());
+        assertEquals(2, explanation.getRequestTraces().size());
+        for (RequestTrace trace : explanation.getRequestTraces()) {
+            assertTrue(trace.getConnectionNanos() >= 0L);
+            assertTrue(trace.getExecutionNanos() >= 0L);
+        }
+        assertTrue(explanation.getExecutionNanos() >= 0L);
+        assertTrue(explanation.getMergeNanos() >= 0L);
+
+        // routing only, nothing is updated.
+        Offer offer = new Offer();
+        offer.setMemberId(129L);
+        offer.setSubject("explained offer");
+        explanation = template.explain("com.alibaba.cobar.client.entities.Offer.update", offer);
+        assertFalse(explanation.isPlanned());
+        assertEquals(Arrays.asList("partition1"), explanation.getShards());
+        RoutingExplanation routing = explanation.getRoutingExplanation();
+        assertEquals("namespaceShardingRules", routing.getTierName());
+        assertTrue(routing.getEvaluatedRules().contains(routing.getMatchedRule()));
+        assertTrue(explanation.getRequestTraces().isEmpty());
+        assertNull(explanation.getResult());
+        assertEquals(0, jt1m
+                .queryForInt("select count(*) from offers where subject='explained offer'"));
+    }
+
+    public void testInsertWithRoutingHints() {
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        long forced = template.getRoutingHintCount(RoutingHint.Type.FORCE_SHARDS);
+        long defaulted = template.getRoutingHintCount(RoutingHint.Type.DEFAULT_DATA_SOURCE);
+
+        Offer offer = new Offer();
+        offer.setMemberId(129L);
+        offer.setSubject("hinted offer");
+        RoutingHint hint = RoutingHint.forceShard("partition2");
+        try {
+            Object pk = template.insert(OFFER_CREATION_SQL, offer);
+            String confirmSQL = "SELECT memberId FROM offers where id=" + pk;
+            verifyEntityNonExistenceOnSpecificDataSource(confirmSQL, jt1m);
+            verifyEntityExistenceOnSpecificDataSource(confirmSQL, jt2m);
+
+            // the default data source is partition1 in this context.
+            offer.setMemberId(130L);
+            RoutingHint inner = RoutingHint.forceDefaultDataSource();
+            try {
+                pk = template.insert(OFFER_CREATION_SQL, offer);
+            } finally {
+                inner.close();
+            }
+            confirmSQL = "SELECT memberId FROM offers where id=" + pk;
+            verifyEntityExistenceOnSpecificDataSource(confirmSQL, jt1m);
+            verifyEntityNonExistenceOnSpecificDataSource(confirmSQL, jt2m);
+
+            // batches bypass the batch router under a hint.
+            batchInsertOffersAsFixtureForLaterUse(new Long[] { 1L, 2L });
+        } finally {
+            hint.close();
+        }
+        assertEquals(0, jt1m.queryForInt("select count(*) from offers where subject='fake offer'"));
+        assertEquals(2, jt2m.queryForInt("select count(*) from offers where subject='fake offer'"));
+        assertEquals(forced + 3, template.getRoutingHintCount(RoutingHint.Type.FORCE_SHARDS));
+        assertEquals(defaulted + 1, template
+                .getRoutingHintCount(RoutingHint.Type.DEFAULT_DATA_SOURCE));
+
+        hint = RoutingHint.forceShard("partition3");
+        try {
+            template.insert(OFFER_CREATION_SQL, offer);
+            fail();
+        } catch (RoutingException e) {
+            // pass
+        } finally {
+            hint.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testQueryForListRestrictedByRoutingHint() {
+        Long[] memberIds = new Long[] { 1L, 129L, 257L, 2L, 130L, 258L, 386L };
+        batchInsertOffersAsFixtureForLaterUse(memberIds);
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        long restricted = template.getRoutingHintCount(RoutingHint.Type.RESTRICT_SHARDS);
+
+        String sqlAction = "com.alibaba.cobar.client.entities.Offer.findAll";
+        RoutingHint hint = RoutingHint.restrictToShards("partition1");
+        try {
+            List<Offer> offers = (List<Offer>) template.queryForList(sqlAction);
+            assertEquals(3, offers.size());
+            for (Offer offer : offers) {
+                assertEquals(1L, offer.getMemberId() % 128);
+            }
+
+            StatementExplanation explanation = template.explain(sqlAction, null);
+            assertSame(hint, explanation.getRoutingHint());
+            assertEquals(Arrays.asList("partition1"), explanation.getShards());
+
+            Offer offer = new Offer();
+            offer.setMemberId(130L);
+            try {
+                template.update("com.alibaba.cobar.client.entities.Offer.update", offer);
+                fail();
+            } catch (RoutingException e) {
+                // pass
+            }
+        } finally {
+            hint.close();
+        }
+        assertEquals(restricted + 2, template
+                .getRoutingHintCount(RoutingHint.Type.RESTRICT_SHARDS));
+        assertEquals(7, template.queryForList(sqlAction).size());
+    }
+
+    public void testDataSourcesLookedUpForSubclassesAreCopies() {
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        String sqlAction = "com.alibaba.cobar.client.entities.Offer.findAll";
+
+        SortedMap<String, DataSource> dataSources = template.lookupDataSourcesByRouter(
+                sqlAction, null);
+        assertEquals(Arrays.asList("partition1", "partition2"), new ArrayList<String>(
+                dataSources.keySet()));
+        dataSources.remove("partition2");
+        assertEquals(2, template.lookupDataSourcesByRouter(sqlAction, null).size());
+        assertEquals(2, template.lookupShardSetByRouter(sqlAction, null).size());
+
+        dataSources = template.lookupDataSources(Arrays.asList("partition1", "partition2"));
+        dataSources.clear();
+        assertEquals(2, template.lookupDataSources(Arrays.asList("partition1", "partition2"))
+                .size());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testOverriddenDataSourceLookupsAreUsedForRouting() throws Exception {
+        Long[] memberIds = new Long[] { 1L, 129L, 257L, 2L, 130L, 258L, 386L };
+        batchInsertOffersAsFixtureForLaterUse(memberIds);
+        String sqlAction = "com.alibaba.cobar.client.entities.Offer.findAll";
+
+        CobarSqlMapClientTemplate byRouter = new CobarSqlMapClientTemplate() {
+            @Override
+            protected SortedMap<String, DataSource> lookupDataSourcesByRouter(String statementName,
+                                                                              Object parameterObject) {
+                SortedMap<String, DataSource> dataSources = super.lookupDataSourcesByRouter(
+                        statementName, parameterObject);
+                dataSources.remove("partition1");
+                return dataSources;
+            }
+        };
+        CobarSqlMapClientTemplate byNames = new CobarSqlMapClientTemplate() {
+            @Override
+            protected SortedMap<String, DataSource> lookupDataSources(Collection<String> dsNames) {
+                SortedMap<String, DataSource> dataSources = super.lookupDataSources(dsNames);
+                dataSources.remove("partition2");
+                return dataSources;
+            }
+        };
+        for (CobarSqlMapClientTemplate template : Arrays.asList(byRouter, byNames)) {
+            CobarSqlMapClientTemplate configured = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+            template.setSqlMapClient(configured.getSqlMapClient());
+            template.setCobarDataSourceService(configured.getCobarDataSourceService());
+            template.setRouter(configured.getRouter());
+            template.afterPropertiesSet();
+        }
+        try {
+            assertEquals(4, byRouter.queryForList(sqlAction).size());
+            assertEquals(Arrays.asList("partition2"), byRouter.explain(sqlAction, null)
+                    .getShards());
+            assertEquals(3, byNames.queryForList(sqlAction).size());
+        } finally {
+            byRouter.destroy();
+            byNames.destroy();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testQueryForListWithDefaultQueryTimeout() {
+        Long[] memberIds = new Long[] { 1L, 129L, 257L, 2L, 130L, 258L, 386L };
+        batchInsertOffersAsFixtureForLaterUse(memberIds);
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        template.setDefaultQueryTimeout(60000);
+        try {
+            List<?> offers = template.queryForList(
+                    "com.alibaba.cobar.client.entities.Offer.findAll", null);
+            assertEquals(7, offers.size());
+        } finally {
+            template.setDefaultQueryTimeout(0);
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testSingleShardInsertWithDefaultQueryTimeout() throws Exception {
+        // h2 keeps the query timeout of a statement on its session, start with
+        // connections which never had one.
+        ((PooledDataSource) jt1m.getDataSource()).softResetAllUsers();
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        Offer offer = new Offer();
+        offer.setMemberId(1L);
+        offer.setSubject("slow");
+        template.setDefaultQueryTimeout(1000);
+        long start = System.currentTimeMillis();
+        try {
+            template.insert("com.alibaba.cobar.client.entities.Offer.createSlowly", offer);
+            fail();
+        } catch (DataAccessException e) {
+            // pass
+        } finally {
+            template.setDefaultQueryTimeout(0);
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(0, jt1m.queryForInt("select count(*) from offers"));
+    }
+
+    public void testQueryWithPartialResults() {
+        Long[] memberIds = new Long[] { 1L, 129L, 257L, 2L, 130L, 258L, 386L };
+        batchInsertOffersAsFixtureForLaterUse(memberIds);
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        String sqlAction = "com.alibaba.cobar.client.entities.Offer.findAll";
+
+        PartialResultList offers = template.queryForListWithPartialResults(sqlAction, null);
+        assertEquals(7, offers.size());
+        assertTrue(offers.isComplete());
+        assertEquals(2, offers.getStatus().getShardCount());
+
+        int offersOnPartition1 = jt1m.queryForInt("select count(*) from offers");
+        jt2m.execute("alter table offers rename to offers_away");
+        try {
+            offers = template.queryForListWithPartialResults(sqlAction, null);
+            assertEquals(offersOnPartition1, offers.size());
+            assertFalse(offers.isComplete());
+            assertEquals(1, offers.getStatus().getFailedShards().size());
+            assertTrue(offers.getStatus().getFailedShards().containsKey("partition2"));
+            assertTrue(offers.getStatus().getTimedOutShards().isEmpty());
+
+            final List<Object> rows = new ArrayList<Object>();
+            PartialResultStatus status = template.queryWithRowHandlerWithPartialResults(
+                    sqlAction, null, new RowHandler() {
+                        public void handleRow(Object valueObject) {
+                            synchronized (rows) {
+                                rows.add(valueObject);
+                            }
+                        }
+                    });
+            assertEquals(offersOnPartition1, rows.size());
+            assertTrue(status.getFailedShards().containsKey("partition2"));
+
+            try {
+                template.queryForList(sqlAction, null);
+                fail();
+            } catch (DataAccessException e) {
+                // pass
+            }
+        } finally {
+            jt2m.execute("alter table offers_away rename to offers");
+        }
+    }
+
+    public void testAsyncVariantsOnCobarSqlMapClientTemplate() throws Exception {
+        Long[] memberIds = new Long[] { 1L, 129L, 257L, 2L, 130L, 258L, 386L };
+        batchInsertOffersAsFixtureForLaterUse(memberIds);
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+
+        Offer offer = new Offer();
+        offer.setMemberId(130L);
+        MergingFuture<List> all = template.queryForListAsync(
+                "com.alibaba.cobar.client.entities.Offer.findAll", null);
+        MergingFuture<Object> one = template.queryForObjectAsync(
+                "com.alibaba.cobar.client.entities.Offer.findByMemberId", offer);
+        assertEquals(7, all.get().size());
+        offer = (Offer) one.get();
+        assertEquals(Long.valueOf(130L), offer.getMemberId());
+
+        offer.setSubject("updated offer");
+        MergingFuture<Integer> updated = template.updateAsync(
+                "com.alibaba.cobar.client.entities.Offer.update", offer);
+        assertEquals(Integer.valueOf(1), updated.get());
+        assertEquals(1, jt2m
+                .queryForInt("select count(*) from offers where subject='updated offer'"));
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            template.queryForListAsync("com.alibaba.cobar.client.entities.Offer.findAll", null);
+            fail();
+        } catch (IllegalTransactionStateException e) {
+            // pass
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+    }
+
     public void testQueryForObjectOnCobarSqlMapClientTemplateNormally() {
         Long[] memberIds = new Long[] { 1L, 129L, 257L, 2L, 130L, 258L, 386L };
         batchInsertOffersAsFixtureForLaterUse(memberIds);
@@ -237,7 +593,6 @@ public class CobarSqlMapClientTemplateWithComposedRuleRouterTest extends
         List<Offer> offers = new ArrayList<Offer>();
         for (Long mid : memberIds) {
             Offer offer = new Offer();
-            offer.setGmtUpdated(new Date());
             offer.setMemberId(mid);
             offer.setSubject("fake offer");
             offers.add(offer);
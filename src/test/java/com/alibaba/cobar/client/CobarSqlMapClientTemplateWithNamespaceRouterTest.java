@@ -7,6 +7,7 @@ import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.AssertJUnit.fail;
 
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.lang.ArrayUtils;
@@ -17,6 +18,7 @@ import org.testng.annotations.Test;
 
 import com.alibaba.cobar.client.entities.Follower;
 import com.alibaba.cobar.client.entities.Tweet;
+import com.alibaba.cobar.client.router.support.StatementClassification;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
 import com.ibatis.sqlmap.client.SqlMapExecutor;
 
@@ -224,4 +226,14 @@ public class CobarSqlMapClientTemplateWithNamespaceRouterTest extends AbstractTe
 
     }
 
+    public void testStatementsOfNamespaceRulesArePlannedWithoutRouting() {
+        CobarSqlMapClientTemplate template = (CobarSqlMapClientTemplate) getSqlMapClientTemplate();
+        StatementClassification classification = template
+                .getStatementClassification("com.alibaba.cobar.client.entities.Tweet.create");
+        assertEquals(StatementClassification.Type.STATIC, classification.getType());
+        assertEquals(Arrays.asList("partition1"), classification.getDataSourceIds());
+        assertEquals(StatementClassification.Type.UNSHARDED, template.getStatementClassification(
+                "com.alibaba.cobar.client.entities.Offer.create").getType());
+    }
+
 }
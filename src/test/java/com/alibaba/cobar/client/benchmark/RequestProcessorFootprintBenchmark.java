@@ -0,0 +1,153 @@
+package com.alibaba.cobar.client.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+
+import com.alibaba.cobar.client.AbstractTestNGCobarClientTest;
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.support.execution.ConcurrentRequest;
+import com.alibaba.cobar.client.support.execution.DefaultConcurrentRequestProcessor;
+import com.alibaba.cobar.client.support.execution.IConcurrentRequestProcessor;
+import com.alibaba.cobar.client.support.execution.SemaphoreBoundedConcurrentRequestProcessor;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapExecutor;
+
+/**
+ * compares the thread count, heap usage and throughput(fan-outs/sec) of
+ * {@link DefaultConcurrentRequestProcessor} with one executor per shard, set
+ * up as {@link com.alibaba.cobar.client.CobarSqlMapClientTemplate} does by
+ * default, against {@link SemaphoreBoundedConcurrentRequestProcessor} with
+ * the same bound per shard, while callers keep fanning a statement out to
+ * all of the shards.<br>
+ * each shard is a local H2 database, and the statement sleeps a while after
+ * querying it, to stand for the time blocked in network I/O.<br>
+ * the threads of either processor outlive a round, so only one of them is
+ * measured in a run, run it once for each to compare.<br>
+ * it's not part of the test suites, run it with main method, arguments are:
+ * default|bounded [shards] [callers] [seconds per round] [io millis].
+ */
+public class RequestProcessorFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        boolean bounded = (args.length > 0) && "bounded".equals(args[0]);
+        int shards = (args.length > 1) ? Integer.parseInt(args[1]) : 128;
+        int callers = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+        int seconds = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+        final long ioMillis = (args.length > 4) ? Long.parseLong(args[4]) : 2L;
+        int poolSize = Runtime.getRuntime().availableProcessors() * 5;
+
+        List<DataSource> dataSources = new ArrayList<DataSource>();
+        for (int i = 0; i < shards; i++) {
+            DataSource dataSource = new DriverManagerDataSource("org.h2.Driver",
+                    "jdbc:h2:mem:shard" + i + ";DB_CLOSE_DELAY=-1;MODE=MySQL", "sa", "");
+            new JdbcTemplate(dataSource).execute(AbstractTestNGCobarClientTest.CREATE_TABLE_OFFERS);
+            dataSources.add(dataSource);
+        }
+        SqlMapClientFactoryBean factory = new SqlMapClientFactoryBean();
+        factory.setConfigLocation(new ClassPathResource("META-INF/ibatis/sqlmap-config.xml"));
+        factory.setDataSource(dataSources.get(0));
+        factory.afterPropertiesSet();
+        SqlMapClient sqlMapClient = (SqlMapClient) factory.getObject();
+
+        final Offer offer = new Offer();
+        offer.setMemberId(1L);
+        SqlMapClientCallback action = new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                executor.queryForList(SingleShardLatencyBenchmark.STATEMENT, offer);
+                try {
+                    Thread.sleep(ioMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        };
+
+        List<ExecutorService> executors = new ArrayList<ExecutorService>();
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (DataSource dataSource : dataSources) {
+            ExecutorService executor = createExecutorLikeTemplate(poolSize);
+            executors.add(executor);
+            ConcurrentRequest request = new ConcurrentRequest();
+            request.setAction(action);
+            request.setDataSource(dataSource);
+            request.setExecutor(executor);
+            requests.add(request);
+        }
+
+        SemaphoreBoundedConcurrentRequestProcessor boundedProcessor = new SemaphoreBoundedConcurrentRequestProcessor(
+                sqlMapClient);
+        boundedProcessor.setDefaultPermits(poolSize);
+        IConcurrentRequestProcessor processor = bounded ? boundedProcessor
+                : new DefaultConcurrentRequestProcessor(sqlMapClient);
+        int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        try {
+            for (int round = 0; round < 3; round++) {
+                measure(bounded ? "semaphore bounded" : "default", processor, requests,
+                        callers, seconds, baseThreads);
+            }
+        } finally {
+            for (ExecutorService executor : executors) {
+                executor.shutdown();
+            }
+            boundedProcessor.destroy();
+        }
+    }
+
+    private static ExecutorService createExecutorLikeTemplate(int poolSize) {
+        int coreSize = Math.min(Runtime.getRuntime().availableProcessors(), poolSize);
+        return new ThreadPoolExecutor(coreSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(coreSize),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static void measure(String name, final IConcurrentRequestProcessor processor,
+                                final List<ConcurrentRequest> requests, int callers,
+                                int seconds, int baseThreads) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final AtomicLong fanOuts = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + seconds * 1000L;
+        List<Thread> callerThreads = new ArrayList<Thread>();
+        for (int i = 0; i < callers; i++) {
+            Thread caller = new Thread(new Runnable() {
+                public void run() {
+                    while (System.currentTimeMillis() < deadline) {
+                        processor.process(requests);
+                        fanOuts.incrementAndGet();
+                    }
+                }
+            });
+            caller.start();
+            callerThreads.add(caller);
+        }
+        for (Thread caller : callerThreads) {
+            caller.join();
+        }
+        int peakThreads = threads.getPeakThreadCount() - baseThreads;
+        int liveThreads = threads.getThreadCount() - baseThreads;
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+        System.out.println(name + ": " + fanOuts.get() / seconds
+                + " fan-outs/sec, peak threads created=" + peakThreads
+                + ", threads left alive=" + liveThreads + ", used heap=" + usedHeap / 1024
+                + "KB");
+    }
+}
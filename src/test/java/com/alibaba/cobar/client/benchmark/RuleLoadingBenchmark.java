@@ -0,0 +1,113 @@
+package com.alibaba.cobar.client.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.core.io.FileSystemResource;
+
+import com.alibaba.cobar.client.router.CobarClientInternalRouter;
+import com.alibaba.cobar.client.router.config.AbstractCobarInternalRouterConfigurationFactoryBean;
+import com.alibaba.cobar.client.router.config.CobarInteralRouterXmlFactoryBean;
+import com.alibaba.cobar.client.router.config.CobarInternalRouterDSLFactoryBean;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * compares the time to load the same rules with
+ * {@link CobarInternalRouterDSLFactoryBean} against
+ * {@link CobarInteralRouterXmlFactoryBean}, every four rules share a
+ * namespace and cover all of the four rule sets.<br>
+ * it's not part of the test suites, run it with main method, optional
+ * arguments are: [rules] [rounds].
+ */
+public class RuleLoadingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rules = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        File xml = File.createTempFile("cobar-rules", ".xml");
+        File dsl = File.createTempFile("cobar-rules", ".rules");
+        try {
+            writeRules(xml, dsl, rules);
+            for (int round = 0; round < rounds; round++) {
+                long xmlMillis = measure(new CobarInteralRouterXmlFactoryBean(), xml, rules);
+                long dslMillis = measure(new CobarInternalRouterDSLFactoryBean(), dsl, rules);
+                System.out.println("round " + round + " with " + rules + " rules: xml="
+                        + xmlMillis + " ms, dsl=" + dslMillis + " ms");
+            }
+        } finally {
+            xml.delete();
+            dsl.delete();
+        }
+    }
+
+    private static long measure(AbstractCobarInternalRouterConfigurationFactoryBean factory,
+                                File file, int rules) throws Exception {
+        factory.setConfigLocation(new FileSystemResource(file));
+        long start = System.nanoTime();
+        factory.afterPropertiesSet();
+        long elapsed = System.nanoTime() - start;
+
+        int loaded = 0;
+        for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : ((CobarClientInternalRouter) factory
+                .getObject()).getRuleSequences()) {
+            loaded += ruleSet.size();
+        }
+        if (loaded != rules) {
+            throw new IllegalStateException("expected " + rules + " rules to be loaded, but "
+                    + loaded + " were.");
+        }
+        return elapsed / 1000000L;
+    }
+
+    private static void writeRules(File xmlFile, File dslFile, int rules) throws IOException {
+        Writer xml = new OutputStreamWriter(new FileOutputStream(xmlFile), "UTF-8");
+        Writer dsl = new OutputStreamWriter(new FileOutputStream(dslFile), "UTF-8");
+        try {
+            xml.write("<rules>\n");
+            for (int i = 0; i < rules; i++) {
+                String namespace = "com.alibaba.cobar.client.entities.Entity" + (i / 4);
+                String shards = "partition" + (i % 4) + ", partition" + (i % 4 + 4);
+                xml.write("  <rule>\n");
+                switch (i % 4) {
+                    case 0:
+                        xml.write("    <sqlmap>" + namespace + ".action" + i + "</sqlmap>\n");
+                        xml.write("    <shardingExpression>memberId &gt; " + i
+                                + "</shardingExpression>\n");
+                        dsl.write("sqlmap " + namespace + ".action" + i
+                                + " | shardingExpression: memberId > " + i + " -> " + shards
+                                + "\n");
+                        break;
+                    case 1:
+                        xml.write("    <sqlmap>" + namespace + ".action" + i + "</sqlmap>\n");
+                        dsl.write("sqlmap " + namespace + ".action" + i + " -> " + shards + "\n");
+                        break;
+                    case 2:
+                        xml.write("    <namespace>" + namespace + "</namespace>\n");
+                        xml.write("    <shardingAttribute>memberId</shardingAttribute>\n");
+                        xml.write("    <shardingFunction>mod</shardingFunction>\n");
+                        dsl.write("namespace " + namespace
+                                + " | shardingAttribute: memberId | shardingFunction: mod -> "
+                                + shards + "\n");
+                        break;
+                    default:
+                        xml.write("    <namespace>" + namespace + "</namespace>\n");
+                        dsl.write("namespace " + namespace + " -> " + shards + "\n");
+                        break;
+                }
+                xml.write("    <shards>" + shards + "</shards>\n");
+                xml.write("  </rule>\n");
+            }
+            xml.write("</rules>\n");
+        } finally {
+            xml.close();
+            dsl.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.alibaba.cobar.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.ICobarRouter;
+import com.alibaba.cobar.client.router.config.StaticCobarClientInternalRouterFactoryBean;
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
+import com.alibaba.cobar.client.router.rules.support.ModFunction;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * compares the routing throughput(routes/sec) of interpreted sharding
+ * expressions against compiled ones, and against one hash sharding rule which
+ * computes the shard directly.<br>
+ * it's not part of the test suites, run it with main method, optional
+ * arguments are: [shards] [routes per round].
+ */
+public class ShardingExpressionRoutingBenchmark {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+
+    public static void main(String[] args) throws Exception {
+        int shards = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+        int routes = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+
+        ICobarRouter<IBatisRoutingFact> interpreted = createRouter(shards, false);
+        ICobarRouter<IBatisRoutingFact> compiled = createRouter(shards, true);
+        ICobarRouter<IBatisRoutingFact> hashSharding = createHashShardingRouter(shards);
+
+        List<IBatisRoutingFact> facts = createFacts(routes);
+
+        for (int round = 0; round < 5; round++) {
+            long interpretedRate = measure(interpreted, facts);
+            long compiledRate = measure(compiled, facts);
+            long hashShardingRate = measure(hashSharding, facts);
+            System.out.println("round " + round + " with " + shards
+                    + " sharding rules: interpreted=" + interpretedRate + " routes/sec, compiled="
+                    + compiledRate + " routes/sec, hash sharding=" + hashShardingRate
+                    + " routes/sec");
+        }
+    }
+
+    public static ICobarRouter<IBatisRoutingFact> createRouter(int shards, boolean compile)
+            throws Exception {
+        List<InternalRule> rules = new ArrayList<InternalRule>();
+        for (int i = 0; i < shards; i++) {
+            InternalRule rule = new InternalRule();
+            rule.setNamespace(NAMESPACE);
+            rule.setShardingExpression("mod.apply(memberId)==" + i);
+            rule.setShards("partition" + i);
+            rules.add(rule);
+        }
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction(Long.valueOf(shards)));
+
+        StaticCobarClientInternalRouterFactoryBean factory = new StaticCobarClientInternalRouterFactoryBean();
+        factory.setRules(rules);
+        factory.setFunctionsMap(functions);
+        factory.setCompileShardingExpressions(compile);
+        factory.afterPropertiesSet();
+        return factory.getRouter();
+    }
+
+    public static ICobarRouter<IBatisRoutingFact> createHashShardingRouter(int shards)
+            throws Exception {
+        StringBuilder destinations = new StringBuilder();
+        for (int i = 0; i < shards; i++) {
+            destinations.append((i == 0) ? "" : ",").append("partition").append(i);
+        }
+        InternalRule rule = new InternalRule();
+        rule.setNamespace(NAMESPACE);
+        rule.setShardingAttribute("memberId");
+        rule.setShardingFunction("mod");
+        rule.setShards(destinations.toString());
+
+        StaticCobarClientInternalRouterFactoryBean factory = new StaticCobarClientInternalRouterFactoryBean();
+        factory.setRules(Collections.singletonList(rule));
+        factory.afterPropertiesSet();
+        return factory.getRouter();
+    }
+
+    public static List<IBatisRoutingFact> createFacts(int size) {
+        List<IBatisRoutingFact> facts = new ArrayList<IBatisRoutingFact>(size);
+        for (int i = 0; i < size; i++) {
+            Offer offer = new Offer();
+            offer.setMemberId(Long.valueOf(i));
+            facts.add(new IBatisRoutingFact(NAMESPACE + ".update", offer));
+        }
+        return facts;
+    }
+
+    private static long measure(ICobarRouter<IBatisRoutingFact> router,
+                                List<IBatisRoutingFact> facts) {
+        long matched = 0;
+        long start = System.nanoTime();
+        for (IBatisRoutingFact fact : facts) {
+            matched += router.doRoute(fact).getResourceIdentities().size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (matched != facts.size()) {
+            throw new IllegalStateException("expected every fact to be routed to one shard, but "
+                    + matched + " of " + facts.size() + " were.");
+        }
+        return facts.size() * 1000000000L / Math.max(elapsed, 1L);
+    }
+}
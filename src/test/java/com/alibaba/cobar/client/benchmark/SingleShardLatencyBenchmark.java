@@ -0,0 +1,102 @@
+package com.alibaba.cobar.client.benchmark;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+
+import com.alibaba.cobar.client.AbstractTestNGCobarClientTest;
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.support.execution.ConcurrentRequest;
+import com.alibaba.cobar.client.support.execution.DefaultConcurrentRequestProcessor;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapExecutor;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * compares the latency of single-shard queries executed on the calling thread
+ * against the ones handed off to the executor of the shard, with one local H2
+ * shard, the query is a lookup on a few rows, so the hand-off is a visible
+ * part of it.<br>
+ * it's not part of the test suites, run it with main method, optional
+ * arguments are: [queries per round].
+ */
+public class SingleShardLatencyBenchmark {
+
+    public static final String STATEMENT = "com.alibaba.cobar.client.entities.Offer.findByMemberId";
+
+    public static void main(String[] args) throws Exception {
+        int queries = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+
+        ComboPooledDataSource dataSource = new ComboPooledDataSource();
+        dataSource.setDriverClass("org.h2.Driver");
+        dataSource.setJdbcUrl("jdbc:h2:mem:latency_benchmark;DB_CLOSE_DELAY=-1;MODE=MySQL");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        dataSource.setMaxPoolSize(4);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.execute(AbstractTestNGCobarClientTest.CREATE_TABLE_OFFERS);
+            for (int i = 0; i < 1000; i++) {
+                jdbcTemplate.update("insert into offers(memberId, subject) values(" + i
+                        + ", 'offer')");
+            }
+
+            SqlMapClientFactoryBean factory = new SqlMapClientFactoryBean();
+            factory.setConfigLocation(new ClassPathResource("META-INF/ibatis/sqlmap-config.xml"));
+            factory.setDataSource(dataSource);
+            factory.afterPropertiesSet();
+            SqlMapClient sqlMapClient = (SqlMapClient) factory.getObject();
+
+            DefaultConcurrentRequestProcessor callerRuns = new DefaultConcurrentRequestProcessor(
+                    sqlMapClient);
+            DefaultConcurrentRequestProcessor handOff = new DefaultConcurrentRequestProcessor(
+                    sqlMapClient);
+            handOff.setCallerRunsSingleRequest(false);
+
+            ConcurrentRequest request = new ConcurrentRequest();
+            request.setDataSource(dataSource);
+            request.setExecutor(executor);
+            request.setAction(new SqlMapClientCallback() {
+                private long memberId;
+
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    Offer offer = new Offer();
+                    offer.setMemberId(memberId++ % 1000);
+                    return executor.queryForList(STATEMENT, offer);
+                }
+            });
+            List<ConcurrentRequest> requests = Collections.singletonList(request);
+
+            for (int round = 0; round < 5; round++) {
+                System.out.println("round " + round + ": caller runs "
+                        + measure(callerRuns, requests, queries) + ", hand off "
+                        + measure(handOff, requests, queries));
+            }
+        } finally {
+            executor.shutdown();
+            dataSource.close();
+        }
+    }
+
+    private static String measure(DefaultConcurrentRequestProcessor processor,
+                                  List<ConcurrentRequest> requests, int queries) {
+        long[] latencies = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            long start = System.nanoTime();
+            processor.process(requests);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return "p50=" + latencies[queries / 2] / 1000 + "us p99="
+                + latencies[(int) (queries * 0.99)] / 1000 + "us";
+    }
+}
@@ -0,0 +1,353 @@
+package com.alibaba.cobar.client.router;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionShardingRule;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.IShardKeyExtractor;
+import com.alibaba.cobar.client.router.support.PropertyShardKeyExtractor;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+import com.alibaba.cobar.client.router.support.RoutingResult;
+import com.alibaba.cobar.client.router.support.StatementClassification;
+import com.alibaba.cobar.client.support.LRUMap;
+
+@Test
+public class CobarClientInternalRouterTest {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+
+    public void testRulePrecedenceIsKeptWithIndexedLookup() {
+        CobarClientInternalRouter router = new CobarClientInternalRouter(false);
+        router.setRuleSequences(createRuleSequences());
+        assertRoutingWithRulePrecedence(router);
+    }
+
+    public void testRulePrecedenceIsKeptWithIndexedLookupOfDefaultRouter() {
+        DefaultCobarClientInternalRouter router = new DefaultCobarClientInternalRouter();
+        Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rules = new HashMap<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>>();
+        rules.put(NAMESPACE, createRuleSequences());
+        router.setRulesGroupByNamespaces(rules);
+        assertRoutingWithRulePrecedence(router);
+    }
+
+    public void testRulePrecedenceIsKeptWithAdaptiveRuleOrdering() {
+        CobarClientInternalRouter router = new CobarClientInternalRouter(false);
+        router.setRuleSequences(createRuleSequences());
+        router.setAdaptiveRuleOrdering(true);
+        for (int i = 0; i < 1000; i++) {
+            assertRoutingWithRulePrecedence(router);
+        }
+
+        DefaultCobarClientInternalRouter defaultRouter = new DefaultCobarClientInternalRouter();
+        Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rules = new HashMap<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>>();
+        rules.put(NAMESPACE, createRuleSequences());
+        defaultRouter.setRulesGroupByNamespaces(rules);
+        defaultRouter.setAdaptiveRuleOrdering(true);
+        for (int i = 0; i < 1000; i++) {
+            assertRoutingWithRulePrecedence(defaultRouter);
+        }
+    }
+
+    public void testOverlappingRulesAreRejectedWithAdaptiveRuleOrdering() {
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules = new LinkedHashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+        rules.add(new IBatisSqlActionRule(NAMESPACE + ".delete", "partition2"));
+        rules.add(new IBatisNamespaceRule(NAMESPACE, "partition1"));
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+        ruleSequences.add(rules);
+
+        CobarClientInternalRouter router = new CobarClientInternalRouter(false);
+        router.setRuleSequences(ruleSequences);
+        try {
+            router.setAdaptiveRuleOrdering(true);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public void testMatchedRulesHandOutSharedImmutableResults() {
+        CobarClientInternalRouter router = new CobarClientInternalRouter(false);
+        router.setRuleSequences(createRuleSequences());
+        Offer offer = new Offer();
+        offer.setMemberId(1000L);
+
+        RoutingResult result = router.doRoute(new IBatisRoutingFact(NAMESPACE + ".update", offer));
+        assertSame(result, router.doRoute(new IBatisRoutingFact(NAMESPACE + ".update", offer)));
+        assertSame(RoutingResult.EMPTY, router.doRoute(new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entities.Tweet.create", offer)));
+        try {
+            result.getResourceIdentities().add("partition1");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // pass
+        }
+        try {
+            result.setResourceIdentities(new ArrayList<String>());
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // pass
+        }
+    }
+
+    public void testExplainTellsMatchedRuleAndEvaluatedRules() {
+        CobarClientInternalRouter router = new CobarClientInternalRouter(true);
+        router.setRuleSequences(createRuleSequences());
+        Offer offer = new Offer();
+        offer.setMemberId(1000L);
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".update", offer);
+
+        RoutingExplanation explanation = router.explain(fact);
+        assertExplainedWithNamespaceShardingRule(explanation);
+        assertEquals(RoutingExplanation.CacheStatus.MISS, explanation.getCacheStatus());
+        assertEquals(0, router.getRoutingCache().size());
+
+        router.doRoute(fact);
+        long hits = router.getRoutingCache().getHitCount();
+        explanation = router.explain(fact);
+        assertExplainedWithNamespaceShardingRule(explanation);
+        assertEquals(RoutingExplanation.CacheStatus.HIT, explanation.getCacheStatus());
+        assertEquals(hits, router.getRoutingCache().getHitCount());
+
+        DefaultCobarClientInternalRouter defaultRouter = new DefaultCobarClientInternalRouter();
+        Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rules = new HashMap<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>>();
+        rules.put(NAMESPACE, createRuleSequences());
+        defaultRouter.setRulesGroupByNamespaces(rules);
+        explanation = defaultRouter.explain(fact);
+        assertExplainedWithNamespaceShardingRule(explanation);
+        assertEquals(RoutingExplanation.CacheStatus.NOT_CACHED, explanation.getCacheStatus());
+
+        explanation = router.explain(new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entities.Tweet.create", offer));
+        assertNull(explanation.getMatchedRule());
+        assertEquals(-1, explanation.getTier());
+        assertEquals(1, explanation.getEvaluatedRules().size());
+        assertSame(RoutingResult.EMPTY, explanation.getResult());
+    }
+
+    private void assertExplainedWithNamespaceShardingRule(RoutingExplanation explanation) {
+        assertEquals(Arrays.asList("partition2"), explanation.getResult().getResourceIdentities());
+        assertEquals(2, explanation.getTier());
+        assertEquals("namespaceShardingRules", explanation.getTierName());
+        assertSame(explanation.getMatchedRule(), explanation.getEvaluatedRules().get(1));
+        assertEquals(2, explanation.getEvaluatedRules().size());
+        assertTrue(explanation.getMatchedRule() instanceof IBatisNamespaceShardingRule);
+        assertTrue(explanation.getEvaluatedRules().get(0) instanceof IBatisSqlActionShardingRule);
+        assertTrue(explanation.getRoutingNanos() > 0L);
+    }
+
+    public void testCachedRoutingAllocatesNothing() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        CobarClientInternalRouter router = new CobarClientInternalRouter(true);
+        router.setRuleSequences(createRuleSequences());
+        Offer offer = new Offer();
+        offer.setMemberId(1000L);
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".update", offer);
+        int routes = 100000;
+        for (int i = 0; i < routes; i++) {
+            router.doRoute(fact);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long start = allocations.getThreadAllocatedBytes(threadId);
+        long overhead = allocations.getThreadAllocatedBytes(threadId) - start;
+        start = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < routes; i++) {
+            router.doRoute(fact);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - start - overhead;
+        assertEquals("bytes allocated per cached route", 0L, allocated / routes);
+    }
+
+    public void testStatementsAreClassifiedByTheirFirstCandidateRules() {
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = createRuleSequences();
+        ruleSequences.get(1).add(
+                new IBatisSqlActionRule("com.alibaba.cobar.client.entities.Tweet.delete",
+                        "partition1, partition2"));
+        ruleSequences.get(3).add(
+                new IBatisNamespaceRule("com.alibaba.cobar.client.entities.Follower", "partition3"));
+        CobarClientInternalRouter router = new CobarClientInternalRouter(false);
+        router.setRuleSequences(ruleSequences);
+        DefaultCobarClientInternalRouter defaultRouter = new DefaultCobarClientInternalRouter();
+        Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rules = new HashMap<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>>();
+        rules.put(NAMESPACE, createRuleSequences());
+        rules.put("com.alibaba.cobar.client.entities.Tweet", ruleSequences);
+        rules.put("com.alibaba.cobar.client.entities.Follower", ruleSequences);
+        defaultRouter.setRulesGroupByNamespaces(rules);
+
+        for (IStatementClassifier classifier : new IStatementClassifier[] { router, defaultRouter }) {
+            assertEquals(StatementClassification.Type.SHARDED, classifier.classify(
+                    NAMESPACE + ".update").getType());
+            // the namespace sharding rule precedes the namespace rule
+            assertEquals(StatementClassification.Type.SHARDED, classifier.classify(
+                    NAMESPACE + ".create").getType());
+            StatementClassification broadcast = classifier
+                    .classify("com.alibaba.cobar.client.entities.Tweet.delete");
+            assertEquals(StatementClassification.Type.BROADCAST, broadcast.getType());
+            assertEquals(Arrays.asList("partition1", "partition2"), broadcast
+                    .getDataSourceIds());
+            StatementClassification single = classifier
+                    .classify("com.alibaba.cobar.client.entities.Follower.create");
+            assertEquals(StatementClassification.Type.STATIC, single.getType());
+            assertEquals(Arrays.asList("partition3"), single.getDataSourceIds());
+            assertEquals(StatementClassification.Type.UNSHARDED, classifier.classify(
+                    "com.alibaba.cobar.client.entities.Unknown.create").getType());
+        }
+    }
+
+    public void testRulesThatCanNotBeIndexedAreStillEvaluatedInOrder() {
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> mixedRules = new LinkedHashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+        mixedRules.add(new IBatisSqlActionRule(NAMESPACE + ".delete", "partition2"));
+        mixedRules.add(new IRoutingRule<IBatisRoutingFact, List<String>>() {
+            public boolean isDefinedAt(IBatisRoutingFact routingFact) {
+                return routingFact.getAction().endsWith(".update");
+            }
+
+            public List<String> action() {
+                return Arrays.asList("partition3");
+            }
+        });
+        mixedRules.add(new IBatisNamespaceRule(NAMESPACE, "partition1"));
+
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+        ruleSequences.add(mixedRules);
+        CobarClientInternalRouter router = new CobarClientInternalRouter(false);
+        router.setRuleSequences(ruleSequences);
+
+        assertRoutedTo(router, NAMESPACE + ".delete", null, "partition2");
+        assertRoutedTo(router, NAMESPACE + ".update", null, "partition3");
+        assertRoutedTo(router, NAMESPACE + ".create", null, "partition1");
+        assertRoutedTo(router, "com.alibaba.cobar.client.entities.Tweet.update", null,
+                "partition3");
+    }
+
+    public void testRuleIndexIsRebuiltWhenRulesAreSetAgain() {
+        CobarClientInternalRouter router = new CobarClientInternalRouter(false);
+        assertTrue(router.doRoute(new IBatisRoutingFact(NAMESPACE + ".create", null))
+                .getResourceIdentities().isEmpty());
+
+        router.setRuleSequences(createRuleSequences());
+        assertRoutedTo(router, NAMESPACE + ".create", null, "partition1");
+    }
+
+    public void testRoutingResultsAreCachedByShardKeys() {
+        CobarClientInternalRouter router = new CobarClientInternalRouter(true);
+        router.setRuleSequences(createRuleSequences());
+        Map<String, IShardKeyExtractor> extractors = new HashMap<String, IShardKeyExtractor>();
+        extractors.put(NAMESPACE, new PropertyShardKeyExtractor("memberId"));
+        router.setShardKeyExtractors(extractors);
+
+        for (int i = 0; i < 10; i++) {
+            Offer offer = new Offer();
+            offer.setMemberId(1000L);
+            offer.setSubject("offer" + i);
+            assertRoutedTo(router, NAMESPACE + ".update", offer, "partition2");
+        }
+        assertEquals(1, router.getRoutingCache().size());
+        assertEquals(9L, router.getRoutingCache().getHitCount());
+
+        Offer offer = new Offer();
+        offer.setMemberId(1L);
+        assertRoutedTo(router, NAMESPACE + ".update", offer, "partition4");
+        assertEquals(2, router.getRoutingCache().size());
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testLocalCacheIsSnapshotOfRoutingCache() {
+        CobarClientInternalRouter router = new CobarClientInternalRouter(true);
+        router.setRuleSequences(createRuleSequences());
+        Offer offer = new Offer();
+        offer.setMemberId(1L);
+        assertRoutedTo(router, NAMESPACE + ".update", offer, "partition4");
+
+        LRUMap snapshot = router.getLocalCache();
+        assertEquals(1, snapshot.size());
+        snapshot.clear();
+        assertEquals(1, router.getRoutingCache().size());
+
+        assertNull(new CobarClientInternalRouter(false).getLocalCache());
+    }
+
+    private void assertRoutingWithRulePrecedence(ICobarRouter<IBatisRoutingFact> router) {
+        Offer offer = new Offer();
+        offer.setMemberId(1L);
+        // sql action sharding rule wins
+        assertRoutedTo(router, NAMESPACE + ".update", offer, "partition4");
+        // falls back to sql action rule
+        assertRoutedTo(router, NAMESPACE + ".delete", offer, "partition3");
+
+        offer.setMemberId(1000L);
+        // falls back to sql action rule and namespace sharding rule in turn
+        assertRoutedTo(router, NAMESPACE + ".update", offer, "partition2");
+        assertRoutedTo(router, NAMESPACE + ".delete", offer, "partition3");
+        // falls back to namespace rule
+        assertRoutedTo(router, NAMESPACE + ".create", null, "partition1");
+
+        assertTrue(router.doRoute(
+                new IBatisRoutingFact("com.alibaba.cobar.client.entities.Tweet.create", offer))
+                .getResourceIdentities().isEmpty());
+    }
+
+    private List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> createRuleSequences() {
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> sqlActionShardingRules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> sqlActionRules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> namespaceShardingRules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> namespaceRules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+
+        sqlActionShardingRules.add(new IBatisSqlActionShardingRule(NAMESPACE + ".update",
+                "partition4", "memberId < 100"));
+        sqlActionShardingRules.add(new IBatisSqlActionShardingRule(NAMESPACE + ".delete",
+                "partition5", "memberId > 10000"));
+        sqlActionRules.add(new IBatisSqlActionRule(NAMESPACE + ".delete", "partition3"));
+        namespaceShardingRules.add(new IBatisNamespaceShardingRule(NAMESPACE, "partition2",
+                "memberId >= 100"));
+        namespaceShardingRules.add(new IBatisNamespaceShardingRule(
+                "com.alibaba.cobar.client.entities.Tweet", "partition5", "memberId >= 100000"));
+        namespaceRules.add(new IBatisNamespaceRule(NAMESPACE, "partition1"));
+
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+        ruleSequences.add(sqlActionShardingRules);
+        ruleSequences.add(sqlActionRules);
+        ruleSequences.add(namespaceShardingRules);
+        ruleSequences.add(namespaceRules);
+        return ruleSequences;
+    }
+
+    private void assertRoutedTo(ICobarRouter<IBatisRoutingFact> router, String action,
+                                Object argument, String shard) {
+        List<String> shards = router.doRoute(new IBatisRoutingFact(action, argument))
+                .getResourceIdentities();
+        assertEquals(1, shards.size());
+        assertEquals(shard, shards.get(0));
+    }
+}
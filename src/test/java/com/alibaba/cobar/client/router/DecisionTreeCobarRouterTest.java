@@ -0,0 +1,226 @@
+package com.alibaba.cobar.client.router;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionShardingRule;
+import com.alibaba.cobar.client.router.rules.support.ModShardingFunction;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+import com.alibaba.cobar.client.router.support.RoutingResult;
+import com.alibaba.cobar.client.router.support.StatementClassification;
+
+@Test
+public class DecisionTreeCobarRouterTest {
+
+    private static final String PACKAGE    = "com.alibaba.cobar.client.entities.Entity";
+    private static final int    NAMESPACES = 4;
+    private static final int    ACTIONS    = 5;
+    private static final int    ROUNDS     = 20;
+    private static final int    FACTS      = 2000;
+
+    public void testSameResultsAsCobarClientInternalRouterOnRandomFacts() {
+        for (int round = 0; round < ROUNDS; round++) {
+            long seed = System.nanoTime() + round;
+            Random random = new Random(seed);
+            List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = randomRuleSequences(
+                    random, null);
+
+            CobarClientInternalRouter expected = new CobarClientInternalRouter(false);
+            expected.setRuleSequences(ruleSequences);
+            DecisionTreeCobarRouter actual = new DecisionTreeCobarRouter();
+            actual.setRuleSequences(ruleSequences);
+
+            assertSameRoutes(expected, actual, random, seed);
+        }
+    }
+
+    public void testSameResultsAsDefaultInternalRouterOnRandomFacts() {
+        for (int round = 0; round < ROUNDS; round++) {
+            long seed = System.nanoTime() + round;
+            Random random = new Random(seed);
+            Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rules = new HashMap<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>>();
+            for (int n = 0; n < NAMESPACES; n++) {
+                if (random.nextInt(5) > 0) {
+                    rules.put(namespace(n), randomRuleSequences(random, Integer.valueOf(n)));
+                }
+            }
+
+            DefaultCobarClientInternalRouter expected = new DefaultCobarClientInternalRouter();
+            expected.setRulesGroupByNamespaces(rules);
+            DecisionTreeCobarRouter actual = new DecisionTreeCobarRouter(rules);
+
+            assertSameRoutes(expected, actual, random, seed);
+        }
+    }
+
+    public void testUnconditionalRulesEndTheChains() {
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = emptyRuleSequences();
+        ruleSequences.get(0).add(
+                new IBatisSqlActionShardingRule(action(0, 0), "partition1", "memberId < 100"));
+        ruleSequences.get(1).add(new IBatisSqlActionRule(action(0, 0), "partition2"));
+        ruleSequences.get(2).add(
+                new IBatisNamespaceShardingRule(namespace(0), "partition3", "memberId < 1000"));
+        ruleSequences.get(3).add(new IBatisNamespaceRule(namespace(0), "partition4"));
+
+        DroolsBasedCobarRouter router = new DroolsBasedCobarRouter();
+        router.setRuleSequences(ruleSequences);
+        assertEquals(2, router.getMaxChainLength());
+
+        assertRoutedTo(router, action(0, 0), 10L, "partition1");
+        assertRoutedTo(router, action(0, 0), 500L, "partition2");
+        assertRoutedTo(router, action(0, 1), 500L, "partition3");
+        assertRoutedTo(router, action(0, 1), 5000L, "partition4");
+        assertSame(RoutingResult.EMPTY, router.doRoute(new IBatisRoutingFact(action(1, 0),
+                offerOf(1L))));
+
+        assertEquals(StatementClassification.Type.SHARDED, router.classify(action(0, 0))
+                .getType());
+        assertEquals(StatementClassification.UNSHARDED, router.classify(action(1, 0)));
+
+        RoutingExplanation explanation = router.explain(new IBatisRoutingFact(action(0, 1),
+                offerOf(5000L)));
+        assertEquals("namespaceRules", explanation.getTierName());
+        assertEquals(2, explanation.getEvaluatedRules().size());
+        assertTrue(explanation.getMatchedRule() instanceof IBatisNamespaceRule);
+    }
+
+    public void testChainsWithUnkeyedRulesCanNotBeClassified() {
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = emptyRuleSequences();
+        ruleSequences.get(0).add(new EvenMemberIdRule());
+        ruleSequences.get(3).add(new IBatisNamespaceRule(namespace(0), "partition4"));
+
+        DecisionTreeCobarRouter router = new DecisionTreeCobarRouter();
+        router.setRuleSequences(ruleSequences);
+        assertNull(router.classify(action(0, 0)));
+        assertRoutedTo(router, action(0, 0), 2L, "partition9");
+        assertRoutedTo(router, action(0, 0), 3L, "partition4");
+        assertRoutedTo(router, action(1, 0), 2L, "partition9");
+    }
+
+    private void assertSameRoutes(ICobarRouter<IBatisRoutingFact> expected,
+                                  DecisionTreeCobarRouter actual, Random random, long seed) {
+        for (int i = 0; i < FACTS; i++) {
+            // one more namespace and action than the rules know
+            String action = action(random.nextInt(NAMESPACES + 1), random.nextInt(ACTIONS + 1));
+            IBatisRoutingFact fact = new IBatisRoutingFact(action, offerOf(random.nextInt(2000)));
+            assertEquals("seed:" + seed + ", fact:" + fact, expected.doRoute(fact)
+                    .getResourceIdentities(), actual.doRoute(fact).getResourceIdentities());
+            assertEquals("seed:" + seed + ", fact:" + fact,
+                    ((IExplainableRouter) expected).explain(fact).getMatchedRule(), actual
+                            .explain(fact).getMatchedRule());
+        }
+    }
+
+    /**
+     * @param namespaceIndex, the only namespace of the rules, or null for
+     *            all.
+     */
+    private List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> randomRuleSequences(
+                                                                                          Random random,
+                                                                                          Integer namespaceIndex) {
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = emptyRuleSequences();
+        int rules = 5 + random.nextInt(30);
+        for (int i = 0; i < rules; i++) {
+            int n = (namespaceIndex == null) ? random.nextInt(NAMESPACES) : namespaceIndex
+                    .intValue();
+            String action = action(n, random.nextInt(ACTIONS));
+            String shards = "partition" + random.nextInt(8);
+            switch (random.nextInt(8)) {
+                case 0:
+                    ruleSequences.get(0).add(
+                            new IBatisSqlActionShardingRule(action, shards, "memberId < "
+                                    + random.nextInt(2000)));
+                    break;
+                case 1:
+                    ruleSequences.get(0).add(
+                            new IBatisSqlActionHashShardingRule(action, shards + ",partition8",
+                                    "memberId", new ModShardingFunction()));
+                    break;
+                case 2:
+                    ruleSequences.get(1).add(new IBatisSqlActionRule(action, shards));
+                    break;
+                case 3:
+                case 4:
+                    ruleSequences.get(2).add(
+                            new IBatisNamespaceShardingRule(namespace(n), shards, "memberId % "
+                                    + (2 + random.nextInt(5)) + " == 1"));
+                    break;
+                case 5:
+                    ruleSequences.get(2).add(
+                            new IBatisNamespaceHashShardingRule(namespace(n), shards
+                                    + ",partition8", "memberId", new ModShardingFunction()));
+                    break;
+                case 6:
+                    ruleSequences.get(3).add(new IBatisNamespaceRule(namespace(n), shards));
+                    break;
+                default:
+                    ruleSequences.get(random.nextInt(4)).add(new EvenMemberIdRule());
+                    break;
+            }
+        }
+        return ruleSequences;
+    }
+
+    private List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> emptyRuleSequences() {
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+        for (int i = 0; i < 4; i++) {
+            ruleSequences.add(new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>());
+        }
+        return ruleSequences;
+    }
+
+    private void assertRoutedTo(ICobarRouter<IBatisRoutingFact> router, String action,
+                                long memberId, String shard) {
+        assertEquals(Arrays.asList(shard), router.doRoute(
+                new IBatisRoutingFact(action, offerOf(memberId))).getResourceIdentities());
+    }
+
+    private static String namespace(int n) {
+        return PACKAGE + n;
+    }
+
+    private static String action(int n, int a) {
+        return namespace(n) + ".action" + a;
+    }
+
+    private static Offer offerOf(long memberId) {
+        Offer offer = new Offer();
+        offer.setMemberId(memberId);
+        return offer;
+    }
+
+    /**
+     * a rule which is keyed by neither action id nor namespace.
+     */
+    private static class EvenMemberIdRule implements IRoutingRule<IBatisRoutingFact, List<String>> {
+        public boolean isDefinedAt(IBatisRoutingFact routingFact) {
+            Object argument = routingFact.getArgument();
+            return argument instanceof Offer && ((Offer) argument).getMemberId() % 2 == 0;
+        }
+
+        public List<String> action() {
+            return Arrays.asList("partition9");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.alibaba.cobar.client.router;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.router.config.support.InternalRuleLoader4DefaultInternalRouter;
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.RoutingExplanation;
+
+@Test
+public class ReloadableCobarRouterTest {
+
+    public static final String OFFER_NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+    public static final String TWEET_NAMESPACE = "com.alibaba.cobar.client.entities.Tweet";
+
+    public void testOnlyResultsOfChangedScopesAreInvalidated() {
+        List<InternalRule> rules = Arrays.asList(namespaceRule(OFFER_NAMESPACE, "partition1"),
+                namespaceRule(TWEET_NAMESPACE, "partition1"));
+        ReloadableCobarRouter router = new ReloadableCobarRouter(routerOf(rules), 100);
+
+        IBatisRoutingFact offerFact = new IBatisRoutingFact(OFFER_NAMESPACE + ".create", null);
+        IBatisRoutingFact tweetFact = new IBatisRoutingFact(TWEET_NAMESPACE + ".create", null);
+        assertEquals(Arrays.asList("partition1"), router.doRoute(offerFact)
+                .getResourceIdentities());
+        assertEquals(Arrays.asList("partition1"), router.doRoute(tweetFact)
+                .getResourceIdentities());
+        assertEquals(2, router.getCache().size());
+
+        List<InternalRule> newRules = Arrays.asList(namespaceRule(OFFER_NAMESPACE, "partition2"),
+                namespaceRule(TWEET_NAMESPACE, "partition1"));
+        Set<String> changedScopes = InternalRuleLoader4DefaultInternalRouter
+                .changedScopesBetween(rules, newRules);
+        assertEquals(Collections.singleton(OFFER_NAMESPACE), changedScopes);
+
+        router.publish(routerOf(newRules), changedScopes);
+        assertEquals(1L, router.getVersion());
+        assertEquals(1, router.getCache().size());
+        assertTrue(router.getCache().containsKey(tweetFact));
+
+        long hits = router.getCache().getHitCount();
+        assertEquals(Arrays.asList("partition2"), router.doRoute(offerFact)
+                .getResourceIdentities());
+        assertEquals(Arrays.asList("partition1"), router.doRoute(tweetFact)
+                .getResourceIdentities());
+        assertEquals(hits + 1, router.getCache().getHitCount());
+    }
+
+    public void testExplainTellsWhetherTheCachedResultIsUpToDate() {
+        List<InternalRule> rules = Arrays.asList(namespaceRule(OFFER_NAMESPACE, "partition1"));
+        ReloadableCobarRouter router = new ReloadableCobarRouter(routerOf(rules), 100);
+        IBatisRoutingFact fact = new IBatisRoutingFact(OFFER_NAMESPACE + ".create", null);
+
+        assertEquals(RoutingExplanation.CacheStatus.MISS, router.explain(fact).getCacheStatus());
+        router.doRoute(fact);
+        RoutingExplanation explanation = router.explain(fact);
+        assertEquals(RoutingExplanation.CacheStatus.HIT, explanation.getCacheStatus());
+        assertEquals("namespaceRules", explanation.getTierName());
+
+        // a stale result put by an in-flight request is not a hit.
+        DefaultCobarClientInternalRouter formerRouter = router.getCurrentRouter();
+        List<InternalRule> newRules = Arrays.asList(namespaceRule(OFFER_NAMESPACE, "partition2"));
+        router.publish(routerOf(newRules), InternalRuleLoader4DefaultInternalRouter
+                .changedScopesBetween(rules, newRules));
+        router.getCache().put(fact,
+                new ReloadableCobarRouter.CachedRoutingResult(formerRouter.doRoute(fact), 0L));
+        explanation = router.explain(fact);
+        assertEquals(RoutingExplanation.CacheStatus.MISS, explanation.getCacheStatus());
+        assertEquals(Arrays.asList("partition2"), explanation.getResult().getResourceIdentities());
+    }
+
+    public void testStaleResultsPutByInFlightRequestsAreIgnored() {
+        List<InternalRule> rules = Arrays.asList(namespaceRule(OFFER_NAMESPACE, "partition1"));
+        ReloadableCobarRouter router = new ReloadableCobarRouter(routerOf(rules), 100);
+        DefaultCobarClientInternalRouter formerRouter = router.getCurrentRouter();
+
+        List<InternalRule> newRules = Arrays.asList(namespaceRule(OFFER_NAMESPACE, "partition2"));
+        router.publish(routerOf(newRules), InternalRuleLoader4DefaultInternalRouter
+                .changedScopesBetween(rules, newRules));
+
+        // a request which started before the reload routes with the former rules, and caches its result late.
+        IBatisRoutingFact fact = new IBatisRoutingFact(OFFER_NAMESPACE + ".update", null);
+        router.getCache().put(fact,
+                new ReloadableCobarRouter.CachedRoutingResult(formerRouter.doRoute(fact), 0L));
+
+        assertEquals(Arrays.asList("partition2"), router.doRoute(fact).getResourceIdentities());
+        assertEquals(1L, router.getCache().get(fact).getVersion());
+    }
+
+    public void testRoutesWithoutCacheAndNotifiesListeners() {
+        List<InternalRule> rules = Arrays.asList(sqlmapRule(OFFER_NAMESPACE + ".create",
+                "partition1"));
+        ReloadableCobarRouter router = new ReloadableCobarRouter(routerOf(rules));
+        assertNull(router.getCache());
+
+        final List<Set<String>> notifications = new ArrayList<Set<String>>();
+        IRoutingRuleReloadListener listener = new IRoutingRuleReloadListener() {
+            public void onRulesReloaded(ReloadableCobarRouter router, Set<String> changedScopes) {
+                notifications.add(changedScopes);
+            }
+        };
+        router.addReloadListener(listener);
+        router.addReloadListener(listener);
+
+        IBatisRoutingFact fact = new IBatisRoutingFact(OFFER_NAMESPACE + ".create", null);
+        assertEquals(Arrays.asList("partition1"), router.doRoute(fact).getResourceIdentities());
+        assertNotNull(router.classify(OFFER_NAMESPACE + ".create"));
+
+        List<InternalRule> newRules = Arrays.asList(sqlmapRule(OFFER_NAMESPACE + ".create",
+                "partition2"));
+        router.publish(routerOf(newRules), new HashSet<String>(Arrays
+                .asList(OFFER_NAMESPACE + ".create")));
+        assertEquals(Arrays.asList("partition2"), router.doRoute(fact).getResourceIdentities());
+        assertEquals(1, notifications.size());
+        assertEquals(Collections.singleton(OFFER_NAMESPACE + ".create"), notifications.get(0));
+
+        router.removeReloadListener(listener);
+        router.publish(routerOf(rules), Collections.<String> emptySet());
+        assertEquals(1, notifications.size());
+        assertSame(router.getCurrentRouter(), router.getCurrentRouter());
+    }
+
+    public void testChangedScopes() {
+        InternalRule offer = namespaceRule(OFFER_NAMESPACE, "partition1");
+        InternalRule tweet = namespaceRule(TWEET_NAMESPACE, "partition1");
+        InternalRule create = sqlmapRule(OFFER_NAMESPACE + ".create", "partition2");
+
+        assertTrue(InternalRuleLoader4DefaultInternalRouter.changedScopesBetween(
+                Arrays.asList(offer, tweet), Arrays.asList(namespaceRule(OFFER_NAMESPACE,
+                        "partition1"), tweet)).isEmpty());
+        assertEquals(new HashSet<String>(Arrays.asList(TWEET_NAMESPACE, OFFER_NAMESPACE
+                + ".create")), InternalRuleLoader4DefaultInternalRouter.changedScopesBetween(
+                Arrays.asList(offer, tweet), Arrays.asList(offer, create)));
+    }
+
+    private DefaultCobarClientInternalRouter routerOf(List<InternalRule> rules) {
+        DefaultCobarClientInternalRouter router = new DefaultCobarClientInternalRouter();
+        new InternalRuleLoader4DefaultInternalRouter().loadRulesAndEquipRouter(rules, router,
+                null);
+        return router;
+    }
+
+    private InternalRule namespaceRule(String namespace, String shards) {
+        InternalRule rule = new InternalRule();
+        rule.setNamespace(namespace);
+        rule.setShards(shards);
+        return rule;
+    }
+
+    private InternalRule sqlmapRule(String sqlmap, String shards) {
+        InternalRule rule = new InternalRule();
+        rule.setSqlmap(sqlmap);
+        rule.setShards(shards);
+        return rule;
+    }
+}
@@ -0,0 +1,136 @@
+package com.alibaba.cobar.client.router.config;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.router.CobarClientInternalRouter;
+import com.alibaba.cobar.client.router.config.support.InternalRuleDslParser;
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+@Test
+public class CobarInternalRouterDSLFactoryBeanTest {
+
+    public static final String FIXTURE_PATH = "com/alibaba/cobar/client/router/config/";
+
+    public void testRulesAreAssembledSameAsXmlRules() throws Exception {
+        CobarInteralRouterXmlFactoryBean xmlFactory = new CobarInteralRouterXmlFactoryBean();
+        xmlFactory.setConfigLocation(new ClassPathResource(FIXTURE_PATH
+                + "normal_rule_fixture.xml"));
+        xmlFactory.afterPropertiesSet();
+
+        CobarInternalRouterDSLFactoryBean dslFactory = new CobarInternalRouterDSLFactoryBean();
+        dslFactory.setConfigLocation(new ClassPathResource(FIXTURE_PATH
+                + "normal_rule_fixture.rules"));
+        dslFactory.afterPropertiesSet();
+
+        assertSameRuleSequences((CobarClientInternalRouter) xmlFactory.getObject(),
+                (CobarClientInternalRouter) dslFactory.getObject());
+    }
+
+    public void testShardingRulesAreAssembledSameAsXmlRules() throws Exception {
+        CobarInteralRouterXmlFactoryBean xmlFactory = new CobarInteralRouterXmlFactoryBean();
+        xmlFactory.setConfigLocations(new Resource[] {
+                new ClassPathResource(FIXTURE_PATH + "hash_sharding_rule_fixture.xml"),
+                new ClassPathResource(FIXTURE_PATH + "range_sharding_rule_fixture.xml") });
+        xmlFactory.afterPropertiesSet();
+
+        CobarInternalRouterDSLFactoryBean dslFactory = new CobarInternalRouterDSLFactoryBean();
+        dslFactory.setConfigLocation(new ClassPathResource(FIXTURE_PATH
+                + "sharding_rule_fixture.rules"));
+        dslFactory.afterPropertiesSet();
+
+        CobarClientInternalRouter router = (CobarClientInternalRouter) dslFactory.getObject();
+        assertSameRuleSequences((CobarClientInternalRouter) xmlFactory.getObject(), router);
+        assertEquals(4, router.getRuleSequences().get(0).size()
+                + router.getRuleSequences().get(2).size());
+    }
+
+    public void testParsingOptions() throws Exception {
+        List<InternalRule> rules = new InternalRuleDslParser("test").parse(new StringReader(
+                "  # comment\n\n"
+                        + "namespace a.b | shardingExpression: x || y -> p1\n"
+                        + "sqlmap a.b.c|shardingAttribute:id|virtualNodes: 10|weights: p1:1, p2:2->p1,p2\n"));
+        assertEquals(2, rules.size());
+        assertEquals("a.b", rules.get(0).getNamespace());
+        assertEquals("x || y", rules.get(0).getShardingExpression());
+        assertEquals("p1", rules.get(0).getShards());
+        assertEquals("a.b.c", rules.get(1).getSqlmap());
+        assertEquals("id", rules.get(1).getShardingAttribute());
+        assertEquals("10", rules.get(1).getVirtualNodes());
+        assertEquals("p1:1, p2:2", rules.get(1).getWeights());
+        assertEquals("p1,p2", rules.get(1).getShards());
+    }
+
+    public void testSyntaxErrorsAreReportedWithLineNumbers() throws Exception {
+        assertParsingFails("namespace a.b\n", "test, line 1: missing '->'");
+        assertParsingFails("# rules\nnamespace a.b -> \n", "test, line 2: no shards");
+        assertParsingFails("\n\nrule a.b -> p1\n", "test, line 3: expected 'namespace' or 'sqlmap'");
+        assertParsingFails("namespace a b -> p1\n", "test, line 1: id 'a b'");
+        assertParsingFails("namespace a.b | shards -> p1\n", "test, line 1: option 'shards'");
+        assertParsingFails("namespace a.b | shards: p2 -> p1\n", "test, line 1: unknown option");
+        assertParsingFails("namespace a.b | ranges: -> p1\n", "test, line 1: no value");
+        assertParsingFails(
+                "namespace a.b | shardingAttribute: id | shardingAttribute: id -> p1\n",
+                "test, line 1: option 'shardingAttribute' is given more than once");
+    }
+
+    public void testInvalidRulesAreReportedWithLineNumbers() throws Exception {
+        CobarInternalRouterDSLFactoryBean factory = new CobarInternalRouterDSLFactoryBean();
+        factory.setConfigLocation(new ByteArrayResource(
+                ("namespace a.b -> p1\n\n"
+                        + "namespace a.b | shardingAttribute: id | ranges: 0, 1000 -> p1\n")
+                        .getBytes("UTF-8"), "dsl rules"));
+        try {
+            factory.afterPropertiesSet();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(
+                    "line 3: 2 ranges are given for 1 shards"));
+        }
+    }
+
+    private void assertParsingFails(String rules, String expectedMessage) throws Exception {
+        try {
+            new InternalRuleDslParser("test").parse(new StringReader(rules));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(expectedMessage));
+        }
+    }
+
+    private void assertSameRuleSequences(CobarClientInternalRouter expected,
+                                         CobarClientInternalRouter actual) {
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> expectedSequences = expected
+                .getRuleSequences();
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> actualSequences = actual
+                .getRuleSequences();
+        assertEquals(expectedSequences.size(), actualSequences.size());
+        for (int i = 0; i < expectedSequences.size(); i++) {
+            assertEquals(descriptionsOf(expectedSequences.get(i)),
+                    descriptionsOf(actualSequences.get(i)));
+        }
+    }
+
+    private List<String> descriptionsOf(Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules) {
+        List<String> descriptions = new ArrayList<String>();
+        for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
+            descriptions.add(String.valueOf(rule));
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+}
@@ -5,6 +5,9 @@ import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.AssertJUnit.fail;
 
 import java.io.FileNotFoundException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,11 +19,16 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.alibaba.cobar.client.entities.Offer;
 import com.alibaba.cobar.client.router.CobarClientInternalRouter;
 import com.alibaba.cobar.client.router.rules.IRoutingRule;
 import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
+import com.alibaba.cobar.client.router.rules.ibatis.AbstractIBatisOrientedShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceHashShardingRule;
 import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionHashShardingRule;
 import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionShardingRule;
+import com.alibaba.cobar.client.router.rules.support.ConsistentHashRing;
 import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
 import com.alibaba.cobar.client.support.utils.CollectionUtils;
 import com.alibaba.cobar.client.support.utils.MapUtils;
@@ -161,4 +169,131 @@ public class CobarInternalRouterXmlFactoryBeanTest {
         assertEquals(2, rules.get(2).size());
         assertEquals(1, rules.get(3).size());
     }
+
+    public void testAssemblingRulesWithCompiledShardingExpressions() throws Exception {
+        factory.setCompileShardingExpressions(true);
+        factory.setConfigLocation(new ClassPathResource(
+                "com/alibaba/cobar/client/router/config/normal_rule_fixture.xml"));
+        factory.afterPropertiesSet();
+        CobarClientInternalRouter router = (CobarClientInternalRouter) factory.getObject();
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> rules = router.getRuleSequences();
+        assertEquals(4, rules.size());
+        for (IRoutingRule<IBatisRoutingFact, List<String>> r : rules.get(0)) {
+            assertTrue(((AbstractIBatisOrientedShardingRule) r).isCompiled());
+        }
+        for (IRoutingRule<IBatisRoutingFact, List<String>> r : rules.get(2)) {
+            assertTrue(((AbstractIBatisOrientedShardingRule) r).isCompiled());
+        }
+    }
+
+    public void testAssemblingHashShardingRules() throws Exception {
+        factory.setConfigLocation(new ClassPathResource(
+                "com/alibaba/cobar/client/router/config/hash_sharding_rule_fixture.xml"));
+        factory.afterPropertiesSet();
+        CobarClientInternalRouter router = (CobarClientInternalRouter) factory.getObject();
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> rules = router.getRuleSequences();
+        assertEquals(1, rules.get(0).size());
+        assertTrue(rules.get(0).iterator().next() instanceof IBatisSqlActionHashShardingRule);
+        assertEquals(1, rules.get(2).size());
+        assertTrue(rules.get(2).iterator().next() instanceof IBatisNamespaceHashShardingRule);
+
+        Offer offer = new Offer();
+        for (long memberId = 0; memberId < 8; memberId++) {
+            offer.setMemberId(memberId);
+            List<String> shards = router.doRoute(
+                    new IBatisRoutingFact("com.alibaba.cobar.client.entities.Offer.create", offer))
+                    .getResourceIdentities();
+            assertEquals(1, shards.size());
+            assertEquals("partition" + (memberId % 4), shards.get(0));
+        }
+
+        // falls back to the namespace sharding rule without the subject, then to the namespace rule without memberId
+        offer.setMemberId(7L);
+        assertEquals("partition3", router.doRoute(
+                new IBatisRoutingFact("com.alibaba.cobar.client.entities.Offer.update", offer))
+                .getResourceIdentities().get(0));
+        offer.setMemberId(null);
+        assertEquals("partition0", router.doRoute(
+                new IBatisRoutingFact("com.alibaba.cobar.client.entities.Offer.update", offer))
+                .getResourceIdentities().get(0));
+
+        offer.setSubject("subject");
+        List<String> shards = router.doRoute(
+                new IBatisRoutingFact("com.alibaba.cobar.client.entities.Offer.update", offer))
+                .getResourceIdentities();
+        assertEquals(1, shards.size());
+        assertTrue(shards.get(0).equals("partition4") || shards.get(0).equals("partition5"));
+    }
+
+    public void testAssemblingHashShardingRulesWithShardingExpression() {
+        factory.setConfigLocation(new ClassPathResource(
+                "com/alibaba/cobar/client/router/config/abnormal_rule_fixture5.xml"));
+        try {
+            factory.afterPropertiesSet();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e instanceof IllegalArgumentException);
+        }
+    }
+
+    public void testAssemblingRangeShardingRules() throws Exception {
+        factory.setConfigLocation(new ClassPathResource(
+                "com/alibaba/cobar/client/router/config/range_sharding_rule_fixture.xml"));
+        factory.afterPropertiesSet();
+        CobarClientInternalRouter router = (CobarClientInternalRouter) factory.getObject();
+
+        Offer offer = new Offer();
+        offer.setId(2500L);
+        assertEquals(Arrays.asList("partition2"), router.doRoute(
+                new IBatisRoutingFact("com.alibaba.cobar.client.entities.Offer.update", offer))
+                .getResourceIdentities());
+
+        Map<String, Object> range = new HashMap<String, Object>();
+        range.put("fromId", 500L);
+        range.put("toId", 2000L);
+        assertEquals(Arrays.asList("partition0", "partition1"), router.doRoute(
+                new IBatisRoutingFact("com.alibaba.cobar.client.entities.Offer.find", range))
+                .getResourceIdentities());
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        range = new HashMap<String, Object>();
+        range.put("updatedFrom", format.parse("2011-03-01"));
+        assertEquals(Arrays.asList("partition4", "partition5"), router.doRoute(
+                new IBatisRoutingFact(
+                        "com.alibaba.cobar.client.entities.Offer.findByUpdateTime", range))
+                .getResourceIdentities());
+        range.put("updatedFrom", format.parse("2011-08-01"));
+        assertEquals(Arrays.asList("partition5"), router.doRoute(
+                new IBatisRoutingFact(
+                        "com.alibaba.cobar.client.entities.Offer.findByUpdateTime", range))
+                .getResourceIdentities());
+    }
+
+    public void testAssemblingRangeShardingRulesWithMismatchedShards() {
+        factory.setConfigLocation(new ClassPathResource(
+                "com/alibaba/cobar/client/router/config/abnormal_rule_fixture6.xml"));
+        try {
+            factory.afterPropertiesSet();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e instanceof IllegalArgumentException);
+        }
+    }
+
+    public void testAssemblingConsistentHashShardingRules() throws Exception {
+        factory.setConfigLocation(new ClassPathResource(
+                "com/alibaba/cobar/client/router/config/consistent_hash_sharding_rule_fixture.xml"));
+        factory.afterPropertiesSet();
+        CobarClientInternalRouter router = (CobarClientInternalRouter) factory.getObject();
+
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("partition0",
+                "partition1", "partition2"), 100, Collections.singletonMap("partition0", 2));
+        Offer offer = new Offer();
+        for (long memberId = 0; memberId < 100; memberId++) {
+            offer.setMemberId(memberId);
+            assertEquals(Arrays.asList(ring.shardOf(memberId)), router.doRoute(
+                    new IBatisRoutingFact("com.alibaba.cobar.client.entities.Offer.update", offer))
+                    .getResourceIdentities());
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package com.alibaba.cobar.client.router.config;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.core.io.FileSystemResource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.router.DecisionTreeCobarRouter;
+import com.alibaba.cobar.client.router.ICobarRouter;
+import com.alibaba.cobar.client.router.ReloadableCobarRouter;
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+@Test
+public class DefaultCobarClientInternalRouterXmlFactoryBeanTest {
+
+    public static final String                     NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+
+    private File                                   ruleFile;
+    private DefaultCobarClientInternalRouterXmlFactoryBean factory;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        ruleFile = File.createTempFile("cobar-rules", ".xml");
+        writeRules(ruleFile, "partition1", 1000L);
+        factory = new DefaultCobarClientInternalRouterXmlFactoryBean();
+        factory.setConfigLocation(new FileSystemResource(ruleFile));
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        factory.destroy();
+        ruleFile.delete();
+    }
+
+    public void testRulesAreNotReloadableByDefault() throws Exception {
+        factory.afterPropertiesSet();
+        assertFalse(factory.getObject() instanceof ReloadableCobarRouter);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testRulesCompiledIntoDecisionTree() throws Exception {
+        factory.setDecisionTree(true);
+        factory.afterPropertiesSet();
+        assertTrue(factory.getObject() instanceof DecisionTreeCobarRouter);
+        assertEquals(Arrays.asList("partition1"),
+                route((ICobarRouter<IBatisRoutingFact>) factory.getObject()));
+
+        DefaultCobarClientInternalRouterXmlFactoryBean reloadable = new DefaultCobarClientInternalRouterXmlFactoryBean();
+        reloadable.setConfigLocation(new FileSystemResource(ruleFile));
+        reloadable.setDecisionTree(true);
+        reloadable.setReloadIntervalMillis(1000L);
+        try {
+            reloadable.afterPropertiesSet();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public void testModifiedRulesAreReloaded() throws Exception {
+        factory.setReloadIntervalMillis(Long.MAX_VALUE / 2);
+        factory.setEnableCache(true);
+        factory.afterPropertiesSet();
+        ICobarRouter<IBatisRoutingFact> router = routerOf(factory);
+        assertEquals(Arrays.asList("partition1"), route(router));
+        assertFalse(factory.reloadIfModified());
+
+        writeRules(ruleFile, "partition2", 2000L);
+        assertTrue(factory.reloadIfModified());
+        assertEquals(Arrays.asList("partition2"), route(router));
+        assertEquals(1L, ((ReloadableCobarRouter) router).getVersion());
+
+        // touched without changes
+        writeRules(ruleFile, "partition2", 3000L);
+        assertFalse(factory.reloadIfModified());
+        assertEquals(1L, ((ReloadableCobarRouter) router).getVersion());
+    }
+
+    public void testInvalidRulesAreNotPublished() throws Exception {
+        factory.setReloadIntervalMillis(Long.MAX_VALUE / 2);
+        factory.afterPropertiesSet();
+        ICobarRouter<IBatisRoutingFact> router = routerOf(factory);
+
+        writeRules(ruleFile, "", 2000L);
+        assertFalse(factory.reloadIfModified());
+        assertEquals(Arrays.asList("partition1"), route(router));
+
+        writeContent(ruleFile, "<rules><rule>", 3000L);
+        assertFalse(factory.reloadIfModified());
+        assertEquals(Arrays.asList("partition1"), route(router));
+        assertEquals(0L, ((ReloadableCobarRouter) router).getVersion());
+    }
+
+    public void testRulesAreReloadedInBackground() throws Exception {
+        factory.setReloadIntervalMillis(10L);
+        factory.afterPropertiesSet();
+        ICobarRouter<IBatisRoutingFact> router = routerOf(factory);
+
+        writeRules(ruleFile, "partition2", 2000L);
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (!Arrays.asList("partition2").equals(route(router))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(Arrays.asList("partition2"), route(router));
+    }
+
+    public void testRulesAreLoadedFromSnapshotUntilXmlChanges() throws Exception {
+        File snapshotFile = new File(ruleFile.getPath() + ".snapshot");
+        try {
+            CountingFactoryBean first = newCountingFactory(snapshotFile);
+            first.afterPropertiesSet();
+            assertEquals(1, first.xmlLoads);
+            assertTrue(snapshotFile.isFile());
+
+            CountingFactoryBean second = newCountingFactory(snapshotFile);
+            second.afterPropertiesSet();
+            assertEquals(0, second.xmlLoads);
+            assertEquals(Arrays.asList("partition1"), route(plainRouterOf(second)));
+
+            writeRules(ruleFile, "partition2", 2000L);
+            CountingFactoryBean third = newCountingFactory(snapshotFile);
+            third.afterPropertiesSet();
+            assertEquals(1, third.xmlLoads);
+            assertEquals(Arrays.asList("partition2"), route(plainRouterOf(third)));
+
+            CountingFactoryBean fourth = newCountingFactory(snapshotFile);
+            fourth.afterPropertiesSet();
+            assertEquals(0, fourth.xmlLoads);
+            assertEquals(Arrays.asList("partition2"), route(plainRouterOf(fourth)));
+        } finally {
+            snapshotFile.delete();
+        }
+    }
+
+    public void testCorruptedSnapshotFallsBackToXml() throws Exception {
+        File snapshotFile = new File(ruleFile.getPath() + ".snapshot");
+        try {
+            newCountingFactory(snapshotFile).afterPropertiesSet();
+            writeContent(snapshotFile, "not a snapshot", 2000L);
+
+            CountingFactoryBean factory = newCountingFactory(snapshotFile);
+            factory.afterPropertiesSet();
+            assertEquals(1, factory.xmlLoads);
+            assertEquals(Arrays.asList("partition1"), route(plainRouterOf(factory)));
+
+            // the snapshot is repaired
+            CountingFactoryBean next = newCountingFactory(snapshotFile);
+            next.afterPropertiesSet();
+            assertEquals(0, next.xmlLoads);
+        } finally {
+            snapshotFile.delete();
+        }
+    }
+
+    public void testInvalidRulesAreNotSavedToSnapshot() throws Exception {
+        File snapshotFile = new File(ruleFile.getPath() + ".snapshot");
+        writeRules(ruleFile, "", 2000L);
+        CountingFactoryBean factory = newCountingFactory(snapshotFile);
+        try {
+            factory.afterPropertiesSet();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        assertFalse(snapshotFile.exists());
+    }
+
+    private CountingFactoryBean newCountingFactory(File snapshotFile) {
+        CountingFactoryBean factory = new CountingFactoryBean();
+        factory.setConfigLocation(new FileSystemResource(ruleFile));
+        factory.setSnapshotFile(snapshotFile);
+        return factory;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ICobarRouter<IBatisRoutingFact> plainRouterOf(
+                                                         DefaultCobarClientInternalRouterXmlFactoryBean factory)
+            throws Exception {
+        return (ICobarRouter<IBatisRoutingFact>) factory.getObject();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ICobarRouter<IBatisRoutingFact> routerOf(
+                                                    DefaultCobarClientInternalRouterXmlFactoryBean factory)
+            throws Exception {
+        Object router = factory.getObject();
+        assertTrue(router instanceof ReloadableCobarRouter);
+        return (ICobarRouter<IBatisRoutingFact>) router;
+    }
+
+    private List<String> route(ICobarRouter<IBatisRoutingFact> router) {
+        return router.doRoute(new IBatisRoutingFact(NAMESPACE + ".create", null))
+                .getResourceIdentities();
+    }
+
+    private void writeRules(File file, String shards, long lastModified) throws IOException {
+        writeContent(file, "<rules><rule><namespace>" + NAMESPACE + "</namespace><shards>"
+                + shards + "</shards></rule></rules>", lastModified);
+    }
+
+    private static class CountingFactoryBean extends
+            DefaultCobarClientInternalRouterXmlFactoryBean {
+        int xmlLoads;
+
+        @Override
+        protected List<InternalRule> loadRulesFromXml() throws IOException {
+            xmlLoads++;
+            return super.loadRulesFromXml();
+        }
+    }
+
+    private void writeContent(File file, String content, long lastModified) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        file.setLastModified(lastModified);
+    }
+}
@@ -0,0 +1,126 @@
+package com.alibaba.cobar.client.router.config.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.router.config.vo.InternalRule;
+
+@Test
+public class InternalRuleSnapshotTest {
+
+    private File snapshotFile;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        snapshotFile = File.createTempFile("cobar-rules", ".snapshot");
+    }
+
+    @AfterMethod
+    protected void tearDown() {
+        snapshotFile.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        List<InternalRule> rules = fixtureRules();
+        InternalRuleSnapshot.write(snapshotFile, 42L, rules);
+
+        List<InternalRule> loaded = InternalRuleSnapshot.read(snapshotFile, 42L);
+        assertEquals(rules.size(), loaded.size());
+        for (int i = 0; i < rules.size(); i++) {
+            assertRuleEquals(rules.get(i), loaded.get(i));
+        }
+    }
+
+    public void testOutdatedSnapshotIsNotRead() throws Exception {
+        InternalRuleSnapshot.write(snapshotFile, 42L, fixtureRules());
+        assertNull(InternalRuleSnapshot.read(snapshotFile, 43L));
+        assertNull(InternalRuleSnapshot.read(new File(snapshotFile.getPath() + ".absent"), 42L));
+    }
+
+    public void testCorruptedSnapshotIsNotRead() throws Exception {
+        InternalRuleSnapshot.write(snapshotFile, 42L, fixtureRules());
+        RandomAccessFile raf = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            raf.seek(raf.length() - 12);
+            int b = raf.read();
+            raf.seek(raf.length() - 12);
+            raf.write(b ^ 0x01);
+        } finally {
+            raf.close();
+        }
+        assertNull(InternalRuleSnapshot.read(snapshotFile, 42L));
+    }
+
+    public void testTruncatedSnapshotIsNotRead() throws Exception {
+        InternalRuleSnapshot.write(snapshotFile, 42L, fixtureRules());
+        RandomAccessFile raf = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+        assertNull(InternalRuleSnapshot.read(snapshotFile, 42L));
+    }
+
+    public void testChecksumFollowsContentOfResources() throws Exception {
+        long checksum = InternalRuleSnapshot.checksumOf(new Resource[] {
+                new ByteArrayResource("<rules/>".getBytes("UTF-8")),
+                new ByteArrayResource("<rules></rules>".getBytes("UTF-8")) });
+        assertEquals(checksum, InternalRuleSnapshot.checksumOf(new Resource[] {
+                new ByteArrayResource("<rules/>".getBytes("UTF-8")),
+                new ByteArrayResource("<rules></rules>".getBytes("UTF-8")) }));
+        assertFalse(checksum == InternalRuleSnapshot.checksumOf(new Resource[] {
+                new ByteArrayResource("<rules></rules>".getBytes("UTF-8")),
+                new ByteArrayResource("<rules/>".getBytes("UTF-8")) }));
+    }
+
+    private List<InternalRule> fixtureRules() {
+        List<InternalRule> rules = new ArrayList<InternalRule>();
+        InternalRule rule = new InternalRule();
+        rule.setNamespace("com.alibaba.cobar.client.entities.Offer");
+        rule.setShardingExpression("memberId.startsWith('中')");
+        rule.setShards("partition1, partition2");
+        rule.setMerger("merger");
+        rules.add(rule);
+
+        rule = new InternalRule();
+        rule.setSqlmap("com.alibaba.cobar.client.entities.Offer.update");
+        rule.setShards("partition1,partition2");
+        rule.setShardingAttribute("id");
+        rule.setShardingFunction("hash");
+        rule.setRanges("0,1000");
+        rule.setRangeFromAttribute("from");
+        rule.setRangeToAttribute("to");
+        rule.setVirtualNodes("");
+        rule.setWeights("partition1:1,partition2:2");
+        rules.add(rule);
+        return rules;
+    }
+
+    private void assertRuleEquals(InternalRule expected, InternalRule actual) {
+        assertEquals(expected.getNamespace(), actual.getNamespace());
+        assertEquals(expected.getSqlmap(), actual.getSqlmap());
+        assertEquals(expected.getShardingExpression(), actual.getShardingExpression());
+        assertEquals(expected.getShards(), actual.getShards());
+        assertEquals(expected.getShardingAttribute(), actual.getShardingAttribute());
+        assertEquals(expected.getShardingFunction(), actual.getShardingFunction());
+        assertEquals(expected.getRanges(), actual.getRanges());
+        assertEquals(expected.getRangeFromAttribute(), actual.getRangeFromAttribute());
+        assertEquals(expected.getRangeToAttribute(), actual.getRangeToAttribute());
+        assertEquals(expected.getVirtualNodes(), actual.getVirtualNodes());
+        assertEquals(expected.getWeights(), actual.getWeights());
+        assertEquals(expected.getMerger(), actual.getMerger());
+    }
+}
@@ -0,0 +1,155 @@
+package com.alibaba.cobar.client.router.rules;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceConsistentHashShardingRule;
+import com.alibaba.cobar.client.router.rules.support.ConsistentHashRing;
+import com.alibaba.cobar.client.router.rules.support.ConsistentHashRingDiff;
+import com.alibaba.cobar.client.router.rules.support.ConsistentHashRingDiff.MovedRange;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+@Test
+public class IBatisConsistentHashShardingRuleTest {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+    public static final int    KEYS      = 100000;
+
+    public void testRoutingOnRing() {
+        IBatisNamespaceConsistentHashShardingRule rule = new IBatisNamespaceConsistentHashShardingRule(
+                NAMESPACE, "p0, p1, p2", "memberId", 100, null);
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("p0", "p1", "p2"), 100,
+                null);
+        assertEquals(ring, rule.getRing());
+
+        Offer offer = new Offer();
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".update", offer);
+        assertFalse(rule.isDefinedAt(fact));
+        assertFalse(rule.isDefinedAt(new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entities.Tweet.update", offer)));
+
+        offer.setMemberId(42L);
+        assertTrue(rule.isDefinedAt(fact));
+        List<String> shards = rule.action(fact);
+        assertEquals(Arrays.asList(ring.shardOf(42L)), shards);
+        // results are shared instead of allocated per routing
+        assertSame(shards, rule.action(fact));
+        // the same value hashes the same whatever its integral type is
+        assertEquals(ring.shardOf(42L), ring.shardOf(Integer.valueOf(42)));
+    }
+
+    public void testWeightsSkewTheDistribution() {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("p0", 3);
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("p0", "p1", "p2"), 160,
+                weights);
+        assertEquals(160 * 5, ring.size());
+        int[] counts = new int[3];
+        for (long key = 0; key < KEYS; key++) {
+            counts[ring.indexOf(key)]++;
+        }
+        // expected 60%, 20%, 20%
+        assertTrue(counts[0] > KEYS * 0.5 && counts[0] < KEYS * 0.7);
+        assertTrue(counts[1] > KEYS * 0.13 && counts[1] < KEYS * 0.27);
+        assertTrue(counts[2] > KEYS * 0.13 && counts[2] < KEYS * 0.27);
+    }
+
+    public void testAddingShardMovesOnlyItsShareOfKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("p0", "p1", "p2", "p3"));
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("p0", "p1", "p2", "p3",
+                "p4"));
+        ConsistentHashRingDiff diff = new ConsistentHashRingDiff(before, after);
+
+        int moved = 0;
+        for (long key = 0; key < KEYS; key++) {
+            String source = before.shardOf(key);
+            String target = after.shardOf(key);
+            boolean reported = isReportedAsMoved(diff, ConsistentHashRing.hashOf(key), source,
+                    target);
+            if (!source.equals(target)) {
+                moved++;
+                // only the new shard takes keys
+                assertEquals("p4", target);
+                assertTrue(reported);
+            } else {
+                assertFalse(reported);
+            }
+        }
+        // about 1/5 of the keys move
+        assertTrue(moved > KEYS * 0.15 && moved < KEYS * 0.25);
+        assertTrue(diff.getMovedFraction() > 0.15 && diff.getMovedFraction() < 0.25);
+        assertTrue(Math.abs(moved / (double) KEYS - diff.getMovedFraction()) < 0.02);
+        for (MovedRange range : diff.getMovedRanges()) {
+            assertEquals("p4", range.getTarget());
+        }
+        assertTrue(diff.report().startsWith(diff.getMovedRanges().size() + " ranges moved"));
+
+        assertTrue(new ConsistentHashRingDiff(before, before).getMovedRanges().isEmpty());
+    }
+
+    public void testRemovingShardMovesOnlyItsKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("p0", "p1", "p2"));
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("p0", "p2"));
+        for (MovedRange range : new ConsistentHashRingDiff(before, after).getMovedRanges()) {
+            assertEquals("p1", range.getSource());
+        }
+        ConsistentHashRingDiff diff = new ConsistentHashRingDiff(new ConsistentHashRing(Arrays
+                .asList("p0"), 1, null), new ConsistentHashRing(Arrays.asList("p1"), 1, null));
+        assertEquals(1, diff.getMovedRanges().size());
+        assertEquals(1.0, diff.getMovedFraction(), 0.0001);
+    }
+
+    private boolean isReportedAsMoved(ConsistentHashRingDiff diff, long hash, String source,
+                                      String target) {
+        for (MovedRange range : diff.getMovedRanges()) {
+            if (range.contains(hash)) {
+                assertEquals(source, range.getSource());
+                assertEquals(target, range.getTarget());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void testInvalidRings() {
+        try {
+            new ConsistentHashRing(Arrays.asList("p0", "p0"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        try {
+            new ConsistentHashRing(Arrays.asList("p0"), 0, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("p9", 2);
+        try {
+            new ConsistentHashRing(Arrays.asList("p0"), 10, weights);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        weights.clear();
+        weights.put("p0", 0);
+        try {
+            new ConsistentHashRing(Arrays.asList("p0"), 10, weights);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+}
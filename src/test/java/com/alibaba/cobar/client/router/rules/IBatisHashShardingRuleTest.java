@@ -0,0 +1,141 @@
+package com.alibaba.cobar.client.router.rules;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceHashShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionHashShardingRule;
+import com.alibaba.cobar.client.router.rules.support.HashShardingFunction;
+import com.alibaba.cobar.client.router.rules.support.IShardingFunction;
+import com.alibaba.cobar.client.router.rules.support.ModShardingFunction;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+import com.alibaba.cobar.client.router.support.IBatisRuleSequenceIndex;
+
+@Test
+public class IBatisHashShardingRuleTest {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+    public static final String SHARDS    = "partition0, partition1, partition2";
+
+    public void testModShardingOnNamespace() {
+        IBatisNamespaceHashShardingRule rule = new IBatisNamespaceHashShardingRule(NAMESPACE,
+                SHARDS, "memberId", new ModShardingFunction());
+        Offer offer = new Offer();
+        for (long memberId = -3; memberId < 10; memberId++) {
+            offer.setMemberId(memberId);
+            IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".update", offer);
+            assertTrue(rule.isDefinedAt(fact));
+            List<String> shards = rule.action(fact);
+            assertEquals(1, shards.size());
+            assertEquals("partition" + (((memberId % 3) + 3) % 3), shards.get(0));
+        }
+        assertEquals(3, rule.action().size());
+
+        assertFalse(rule.isDefinedAt(new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entities.Tweet.update", offer)));
+        offer.setMemberId(null);
+        assertFalse(rule.isDefinedAt(new IBatisRoutingFact(NAMESPACE + ".update", offer)));
+        assertFalse(rule.isDefinedAt(new IBatisRoutingFact(NAMESPACE + ".update", null)));
+    }
+
+    public void testModShardingOnSqlActionWithMapArgument() {
+        IBatisSqlActionHashShardingRule rule = new IBatisSqlActionHashShardingRule(NAMESPACE
+                + ".update", SHARDS, "memberId", new ModShardingFunction());
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("memberId", "4");
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".update", parameters);
+        assertTrue(rule.isDefinedAt(fact));
+        assertEquals("partition1", rule.action(fact).get(0));
+
+        assertFalse(rule.isDefinedAt(new IBatisRoutingFact(NAMESPACE + ".delete", parameters)));
+
+        parameters.put("memberId", "not a number");
+        assertFalse(rule.isDefinedAt(fact));
+    }
+
+    public void testHashShardingIsStable() {
+        IShardingFunction function = new HashShardingFunction();
+        for (int i = 0; i < 100; i++) {
+            int index = function.shardIndexOf("subject" + i, 7);
+            assertTrue(index >= 0 && index < 7);
+            assertEquals(index, function.shardIndexOf(new String("subject" + i), 7));
+        }
+    }
+
+    public void testCustomShardingFunctionOutOfRange() {
+        IBatisNamespaceHashShardingRule rule = new IBatisNamespaceHashShardingRule(NAMESPACE,
+                SHARDS, "memberId", new IShardingFunction() {
+                    public int shardIndexOf(Object value, int shardCount) {
+                        return shardCount;
+                    }
+                });
+        Offer offer = new Offer();
+        offer.setMemberId(1L);
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".update", offer);
+        try {
+            rule.isDefinedAt(fact);
+            fail();
+        } catch (IllegalStateException e) {
+            // pass
+        }
+        try {
+            rule.action(fact);
+            fail();
+        } catch (IllegalStateException e) {
+            // pass
+        }
+    }
+
+    public void testShardingFunctionRunsOncePerRouting() {
+        final AtomicInteger calls = new AtomicInteger();
+        IBatisNamespaceHashShardingRule rule = new IBatisNamespaceHashShardingRule(NAMESPACE,
+                SHARDS, "memberId", new IShardingFunction() {
+                    public int shardIndexOf(Object value, int shardCount) {
+                        calls.incrementAndGet();
+                        return (int) (((Long) value) % shardCount);
+                    }
+                });
+        Offer offer = new Offer();
+        offer.setMemberId(4L);
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".update", offer);
+        assertEquals("partition1", rule.routingResultIfDefinedAt(fact).getResourceIdentities()
+                .get(0));
+        assertEquals(1, calls.get());
+
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+        ruleSet.add(rule);
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+        ruleSequences.add(ruleSet);
+        IBatisRuleSequenceIndex index = new IBatisRuleSequenceIndex(ruleSequences);
+        assertEquals("partition1", index.route(fact).getResourceIdentities().get(0));
+        assertEquals(2, calls.get());
+
+        offer.setMemberId(null);
+        assertNull(rule.routingResultIfDefinedAt(fact));
+        assertNull(index.route(fact));
+        assertEquals(2, calls.get());
+    }
+
+    public void testRulesWithDifferentFunctionsAreDifferent() {
+        assertFalse(new IBatisNamespaceHashShardingRule(NAMESPACE, SHARDS, "memberId",
+                new ModShardingFunction()).equals(new IBatisNamespaceHashShardingRule(NAMESPACE,
+                SHARDS, "memberId", new HashShardingFunction())));
+        assertEquals(new IBatisNamespaceHashShardingRule(NAMESPACE, SHARDS, "memberId",
+                new ModShardingFunction()), new IBatisNamespaceHashShardingRule(NAMESPACE,
+                SHARDS, "memberId", new ModShardingFunction()));
+    }
+}
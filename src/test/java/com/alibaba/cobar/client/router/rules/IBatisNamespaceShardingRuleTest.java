@@ -8,9 +8,13 @@ import static org.testng.AssertJUnit.fail;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
+import org.mvel2.optimizers.OptimizerFactory;
+import org.mvel2.optimizers.dynamic.DynamicOptimizer;
+import org.mvel2.optimizers.impl.refl.ReflectiveAccessorOptimizer;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -205,4 +209,101 @@ public class IBatisNamespaceShardingRuleTest {
                 "com.alibaba.cobar.client.entity.Tweet.create", "Donald");
         assertFalse(r.isDefinedAt(fact));
     }
+
+    public void testRuleShardingPatternMatchingWithCompiledExpression() {
+        rule.compile();
+        assertTrue(rule.isCompiled());
+
+        Tweet t = new Tweet();
+        t.setId(15000L);
+        IBatisRoutingFact fact = new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entity.Tweet.update", t);
+        assertTrue(rule.isDefinedAt(fact));
+
+        t.setId(20000001L);
+        assertFalse(rule.isDefinedAt(fact));
+
+        fact = new IBatisRoutingFact("com.alibaba.cobar.client.entity.Tweet.update", null);
+        assertFalse(rule.isDefinedAt(fact));
+
+        Map<String, Long> ctx = new HashMap<String, Long>();
+        ctx.put("id", 18000L);
+        fact = new IBatisRoutingFact("com.alibaba.cobar.client.entity.Tweet.update", ctx);
+        assertTrue(rule.isDefinedAt(fact));
+
+        rule.setAttributePattern("id < 100");
+        assertFalse(rule.isCompiled());
+    }
+
+    public void testRuleShardingPatternWithCustomFunctionsAndCompiledExpression() {
+        IBatisNamespaceShardingRule r = new IBatisNamespaceShardingRule(DEFAULT_TYPE_PATTEN,
+                StringUtils.join(DEFAULT_SHARDS, ","), "mod.apply(id)==3 && $ROOT.id > 0");
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction(18L));
+        r.setFunctionMap(functions);
+        r.compile();
+
+        Tweet t = new Tweet();
+        t.setId(21L);
+        IBatisRoutingFact fact = new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entity.Tweet.create", t);
+        assertTrue(r.isDefinedAt(fact));
+
+        t.setId(22L);
+        assertFalse(r.isDefinedAt(fact));
+    }
+
+    public void testCompilingInvalidShardingExpression() {
+        IBatisNamespaceShardingRule r = new IBatisNamespaceShardingRule(DEFAULT_TYPE_PATTEN,
+                "shard1", "id >= (10000");
+        try {
+            r.compile();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        assertFalse(r.isCompiled());
+    }
+
+    public void testCompiledExpressionLeavesOptimizerOfMvelUntouched() {
+        OptimizerFactory.setThreadAccessorOptimizer(DynamicOptimizer.class);
+        rule.compile();
+
+        Tweet t = new Tweet();
+        t.setId(15000L);
+        assertTrue(rule.isDefinedAt(new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entity.Tweet.update", t)));
+
+        assertEquals(DynamicOptimizer.class, OptimizerFactory.getThreadAccessorOptimizer()
+                .getClass());
+        assertEquals(DynamicOptimizer.class, OptimizerFactory.getDefaultAccessorCompiler()
+                .getClass());
+    }
+
+    public void testEvaluationDoesNotInstantiateOptimizerOfThread() {
+        rule.compile();
+        Tweet t = new Tweet();
+        t.setId(15000L);
+        OptimizerFactory.setThreadAccessorOptimizer(CountingOptimizer.class);
+        try {
+            CountingOptimizer.instances.set(0);
+            for (int i = 0; i < 3; i++) {
+                assertTrue(rule.isDefinedAt(new IBatisRoutingFact(
+                        "com.alibaba.cobar.client.entity.Tweet.update", t)));
+            }
+            assertEquals(0, CountingOptimizer.instances.get());
+            assertEquals(CountingOptimizer.class, OptimizerFactory.getThreadAccessorOptimizer()
+                    .getClass());
+        } finally {
+            OptimizerFactory.setThreadAccessorOptimizer(DynamicOptimizer.class);
+        }
+    }
+
+    public static class CountingOptimizer extends ReflectiveAccessorOptimizer {
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public CountingOptimizer() {
+            instances.incrementAndGet();
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.alibaba.cobar.client.router.rules;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceRangeShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRangeShardingRule;
+import com.alibaba.cobar.client.router.support.IBatisRoutingFact;
+
+@Test
+public class IBatisRangeShardingRuleTest {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+    public static final String SHARDS    = "p0, p1, p2, p3";
+    public static final long[] BOUNDS    = { 0L, 100L, 200L, 300L };
+
+    private IBatisNamespaceRangeShardingRule createRule() {
+        return new IBatisNamespaceRangeShardingRule(NAMESPACE, SHARDS, BOUNDS, "id", "fromId",
+                "toId");
+    }
+
+    public void testPointQueriesWithBinarySearch() {
+        IBatisNamespaceRangeShardingRule rule = createRule();
+        assertEquals(Collections.emptyList(), rule.shardOf(-1L));
+        assertEquals(Arrays.asList("p0"), rule.shardOf(0L));
+        assertEquals(Arrays.asList("p0"), rule.shardOf(99L));
+        assertEquals(Arrays.asList("p1"), rule.shardOf(100L));
+        assertEquals(Arrays.asList("p2"), rule.shardOf(250L));
+        assertEquals(Arrays.asList("p3"), rule.shardOf(Long.MAX_VALUE));
+
+        Offer offer = new Offer();
+        offer.setId(150L);
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".update", offer);
+        assertTrue(rule.isDefinedAt(fact));
+        assertEquals(Arrays.asList("p1"), rule.action(fact));
+
+        offer.setId(-5L);
+        assertFalse(rule.isDefinedAt(fact));
+        assertFalse(rule.isDefinedAt(new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entities.Tweet.update", offer)));
+        assertFalse(rule.isDefinedAt(new IBatisRoutingFact(NAMESPACE + ".update", new Offer())));
+    }
+
+    public void testRangeQueriesReturnOverlappingShards() {
+        IBatisNamespaceRangeShardingRule rule = createRule();
+        assertEquals(Arrays.asList("p0", "p1", "p2", "p3"), rule.shardsOverlapping(null, null));
+        assertEquals(Arrays.asList("p1"), rule.shardsOverlapping(100L, 200L));
+        assertEquals(Arrays.asList("p1", "p2"), rule.shardsOverlapping(100L, 201L));
+        assertEquals(Arrays.asList("p0", "p1"), rule.shardsOverlapping(-50L, 150L));
+        assertEquals(Arrays.asList("p2", "p3"), rule.shardsOverlapping(250L, null));
+        assertEquals(Arrays.asList("p0"), rule.shardsOverlapping(null, 100L));
+        assertEquals(Collections.emptyList(), rule.shardsOverlapping(null, 0L));
+        assertEquals(Collections.emptyList(), rule.shardsOverlapping(150L, 150L));
+
+        Map<String, Object> range = new HashMap<String, Object>();
+        range.put("fromId", 150L);
+        range.put("toId", "350");
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".find", range);
+        assertTrue(rule.isDefinedAt(fact));
+        assertEquals(Arrays.asList("p1", "p2", "p3"), rule.action(fact));
+
+        range.put("fromId", null);
+        range.put("toId", -10L);
+        assertFalse(rule.isDefinedAt(fact));
+
+        // neither key nor range
+        assertFalse(rule.isDefinedAt(new IBatisRoutingFact(NAMESPACE + ".find",
+                new HashMap<String, Object>())));
+    }
+
+    public void testRangesOfDates() {
+        Date now = new Date();
+        IBatisSqlActionRangeShardingRule rule = new IBatisSqlActionRangeShardingRule(NAMESPACE
+                + ".findByTime", "old, new", new long[] { 0L, now.getTime() }, null, "from", "to");
+        Map<String, Object> range = new HashMap<String, Object>();
+        range.put("from", new Date(now.getTime() - 1000L));
+        IBatisRoutingFact fact = new IBatisRoutingFact(NAMESPACE + ".findByTime", range);
+        assertEquals(Arrays.asList("old", "new"), rule.action(fact));
+        range.put("to", now);
+        assertEquals(Arrays.asList("old"), rule.action(fact));
+    }
+
+    public void testInvalidRules() {
+        try {
+            new IBatisNamespaceRangeShardingRule(NAMESPACE, SHARDS, new long[] { 0L, 0L, 1L, 2L },
+                    "id", null, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        try {
+            new IBatisNamespaceRangeShardingRule(NAMESPACE, SHARDS, BOUNDS, null, null, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        IBatisNamespaceRangeShardingRule rule = new IBatisNamespaceRangeShardingRule(NAMESPACE,
+                "p0, p1", BOUNDS, "id", null, null);
+        try {
+            rule.shardOf(1L);
+            fail();
+        } catch (IllegalStateException e) {
+            // pass
+        }
+    }
+}
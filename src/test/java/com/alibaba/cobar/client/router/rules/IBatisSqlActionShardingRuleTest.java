@@ -168,4 +168,26 @@ public class IBatisSqlActionShardingRuleTest{
         
         
     }
+
+    public void testSqlActionShardingRuleWithCompiledExpression() {
+        rule.compile();
+
+        Tweet t = new Tweet();
+        t.setId(15000L);
+        IBatisRoutingFact fact = new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entity.Tweet.create", t);
+        assertTrue(rule.isDefinedAt(fact));
+
+        t.setId(20000L);
+        assertFalse(rule.isDefinedAt(fact));
+
+        fact = new IBatisRoutingFact("com.alibaba.cobar.client.entity.Tweet.create", new Object());
+        assertFalse(rule.isDefinedAt(fact));
+
+        IBatisSqlActionShardingRule r = new IBatisSqlActionShardingRule(DEFAULT_TYPE_PATTEN,
+                "shard1", "$ROOT.startsWith(\"J\")");
+        r.compile();
+        assertTrue(r.isDefinedAt(new IBatisRoutingFact(DEFAULT_TYPE_PATTEN, "Jack")));
+        assertFalse(r.isDefinedAt(new IBatisRoutingFact(DEFAULT_TYPE_PATTEN, "Amanda")));
+    }
 }
@@ -0,0 +1,122 @@
+package com.alibaba.cobar.client.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.CobarClientInternalRouter;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceHashShardingRule;
+import com.alibaba.cobar.client.router.rules.support.ModShardingFunction;
+
+@Test
+public class BatchRoutingSupportTest {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+
+    public void testArgumentsAreGroupedByShardsInOrder() {
+        CobarClientInternalRouter router = createRouter();
+        List<Offer> offers = offersOf(10);
+
+        Map<List<String>, List<Object>> groups = router.doRouteBatch(NAMESPACE + ".create",
+                offers);
+        assertEquals(2, groups.size());
+        List<List<String>> keys = new ArrayList<List<String>>(groups.keySet());
+        assertEquals(Arrays.asList("partition1"), keys.get(0));
+        assertEquals(Arrays.asList("partition2"), keys.get(1));
+        assertEquals(Arrays.<Object> asList(offers.get(0), offers.get(2), offers.get(4), offers
+                .get(6), offers.get(8)), groups.get(keys.get(0)));
+        assertEquals(Arrays.<Object> asList(offers.get(1), offers.get(3), offers.get(5), offers
+                .get(7), offers.get(9)), groups.get(keys.get(1)));
+
+        for (Offer offer : offers) {
+            List<String> identities = router.doRoute(
+                    new IBatisRoutingFact(NAMESPACE + ".create", offer)).getResourceIdentities();
+            assertTrue(groups.get(identities).contains(offer));
+        }
+    }
+
+    public void testArgumentsMatchingNoRuleAreGroupedUnderEmptyList() {
+        CobarClientInternalRouter router = createRouter();
+        List<Offer> offers = offersOf(3);
+
+        Map<List<String>, List<Object>> groups = router.doRouteBatch(
+                "com.alibaba.cobar.client.entities.Tweet.create", offers);
+        assertEquals(1, groups.size());
+        assertTrue(groups.keySet().iterator().next().isEmpty());
+        assertEquals(new ArrayList<Object>(offers), groups.values().iterator().next());
+
+        assertTrue(router.doRouteBatch(NAMESPACE + ".create", new ArrayList<Offer>()).isEmpty());
+    }
+
+    public void testBatchRoutingBypassesCache() {
+        CobarClientInternalRouter router = createRouter();
+        router.doRouteBatch(NAMESPACE + ".create", offersOf(100));
+        assertEquals(0, router.getRoutingCache().size());
+    }
+
+    public void testParallelRoutingKeepsTheOrderOfArguments() {
+        List<Offer> offers = offersOf(100000);
+        Map<List<String>, List<Object>> expected = createRouter().doRouteBatch(
+                NAMESPACE + ".create", offers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CobarClientInternalRouter router = createRouter();
+            router.setBatchRoutingExecutor(executor);
+            router.setParallelBatchRoutingThreshold(1000);
+            Map<List<String>, List<Object>> groups = router.doRouteBatch(NAMESPACE + ".create",
+                    offers);
+            assertEquals(expected, groups);
+            assertEquals(50000, groups.get(Arrays.asList("partition1")).size());
+            assertEquals(50000, groups.get(Arrays.asList("partition2")).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testInvalidParallelThresholdIsRejected() {
+        try {
+            new BatchRoutingSupport().setParallelThreshold(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    private CobarClientInternalRouter createRouter() {
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+        rules.add(new IBatisNamespaceHashShardingRule(NAMESPACE, "partition1,partition2",
+                "memberId", new ModShardingFunction()));
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+        ruleSequences.add(rules);
+
+        CobarClientInternalRouter router = new CobarClientInternalRouter(true);
+        router.setRuleSequences(ruleSequences);
+        return router;
+    }
+
+    private List<Offer> offersOf(int count) {
+        List<Offer> offers = new ArrayList<Offer>(count);
+        for (int i = 0; i < count; i++) {
+            Offer offer = new Offer();
+            offer.setId((long) i);
+            offer.setMemberId((long) i);
+            offer.setSubject("offer" + i);
+            offers.add(offer);
+        }
+        return offers;
+    }
+}
@@ -0,0 +1,154 @@
+package com.alibaba.cobar.client.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.rules.IRoutingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
+import com.alibaba.cobar.client.router.rules.ibatis.IBatisSqlActionShardingRule;
+
+@Test
+public class IBatisRuleSequenceIndexTest {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+
+    public void testHotRulesAreEvaluatedFirstAfterReordering() {
+        CountingRule cold = new CountingRule(NAMESPACE, "partition1", "memberId < 100");
+        CountingRule hot = new CountingRule(NAMESPACE, "partition2", "memberId >= 100");
+        IBatisRuleSequenceIndex index = new IBatisRuleSequenceIndex(sequenceOf(cold, hot), true,
+                Long.MAX_VALUE);
+
+        IBatisRoutingFact fact = factOf(NAMESPACE + ".update", 1000L);
+        for (int i = 0; i < 100; i++) {
+            assertSame(hot, index.lookup(fact));
+        }
+        assertEquals(100, cold.evaluations);
+
+        index.reorder();
+        cold.evaluations = 0;
+        for (int i = 0; i < 100; i++) {
+            assertSame(hot, index.lookup(fact));
+        }
+        assertEquals(0, cold.evaluations);
+        assertSame(cold, index.lookup(factOf(NAMESPACE + ".update", 1L)));
+        assertNull(index.lookup(factOf("com.alibaba.cobar.client.entities.Tweet.update", 1L)));
+        assertTrue(index.isAdaptive());
+    }
+
+    public void testRulesAreKeptInOrderWithoutAdaptiveOrdering() {
+        CountingRule cold = new CountingRule(NAMESPACE, "partition1", "memberId < 100");
+        CountingRule hot = new CountingRule(NAMESPACE, "partition2", "memberId >= 100");
+        IBatisRuleSequenceIndex index = new IBatisRuleSequenceIndex(sequenceOf(cold, hot));
+
+        IBatisRoutingFact fact = factOf(NAMESPACE + ".update", 1000L);
+        for (int i = 0; i < 100; i++) {
+            assertSame(hot, index.lookup(fact));
+        }
+        index.reorder();
+        for (int i = 0; i < 100; i++) {
+            assertSame(hot, index.lookup(fact));
+        }
+        assertEquals(200, cold.evaluations);
+        assertFalse(index.isAdaptive());
+    }
+
+    public void testOverlappingRulesAreRejected() {
+        assertRejected(new IBatisSqlActionRule(NAMESPACE + ".update", "partition1"),
+                new IBatisSqlActionShardingRule(NAMESPACE + ".update", "partition2",
+                        "memberId < 100"));
+        assertRejected(new IBatisNamespaceShardingRule(NAMESPACE, "partition1", "memberId < 100"),
+                new IBatisNamespaceShardingRule(NAMESPACE, "partition2", "memberId < 100"));
+
+        // rules of different rule sets never overlap
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = sequenceOf(new IBatisSqlActionRule(
+                NAMESPACE + ".update", "partition1"));
+        ruleSequences.addAll(sequenceOf(new IBatisSqlActionRule(NAMESPACE + ".update",
+                "partition2")));
+        new IBatisRuleSequenceIndex(ruleSequences, true, Long.MAX_VALUE);
+    }
+
+    public void testRulesNotProvenDisjointAreKeptInOriginalOrder() {
+        CountingRule first = new CountingRule(NAMESPACE, "partition1", "memberId > 10");
+        CountingRule second = new CountingRule(NAMESPACE, "partition2", "memberId > 0");
+        IBatisRuleSequenceIndex index = new IBatisRuleSequenceIndex(sequenceOf(first, second),
+                true, Long.MAX_VALUE);
+        assertFalse(index.isAdaptive());
+
+        for (int i = 0; i < 1000; i++) {
+            assertSame(second, index.lookup(factOf(NAMESPACE + ".update", 5L)));
+        }
+        index.reorder();
+        // the hot rule overlaps the first one, so it must not be evaluated first.
+        assertSame(first, index.lookup(factOf(NAMESPACE + ".update", 50L)));
+    }
+
+    public void testRulesProvenDisjointAreReordered() {
+        CountingRule low = new CountingRule(NAMESPACE, "partition1",
+                "memberId >= 0 && memberId < 100");
+        CountingRule high = new CountingRule(NAMESPACE, "partition2", "100 <= memberId");
+        IBatisRuleSequenceIndex index = new IBatisRuleSequenceIndex(sequenceOf(low, high), true,
+                Long.MAX_VALUE);
+        assertTrue(index.isAdaptive());
+
+        // rules with other kinds of expressions are not proven disjoint.
+        index = new IBatisRuleSequenceIndex(sequenceOf(new CountingRule(NAMESPACE, "partition1",
+                "memberId < 100"), new CountingRule(NAMESPACE, "partition2",
+                "memberId >= 100 || memberId == 5")), true, Long.MAX_VALUE);
+        assertFalse(index.isAdaptive());
+    }
+
+    private void assertRejected(IRoutingRule<IBatisRoutingFact, List<String>> rule1,
+                                IRoutingRule<IBatisRoutingFact, List<String>> rule2) {
+        new IBatisRuleSequenceIndex(sequenceOf(rule1, rule2));
+        try {
+            new IBatisRuleSequenceIndex(sequenceOf(rule1, rule2), true, Long.MAX_VALUE);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    private List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> sequenceOf(
+                                                                              IRoutingRule<IBatisRoutingFact, List<String>>... rules) {
+        Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet = new LinkedHashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
+        for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
+            ruleSet.add(rule);
+        }
+        List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+        ruleSequences.add(ruleSet);
+        return ruleSequences;
+    }
+
+    private IBatisRoutingFact factOf(String action, long memberId) {
+        Offer offer = new Offer();
+        offer.setMemberId(memberId);
+        return new IBatisRoutingFact(action, offer);
+    }
+
+    private static class CountingRule extends IBatisNamespaceShardingRule {
+        int evaluations;
+
+        CountingRule(String pattern, String action, String attributePattern) {
+            super(pattern, action, attributePattern);
+        }
+
+        @Override
+        public boolean isDefinedAt(IBatisRoutingFact routingFact) {
+            evaluations++;
+            return super.isDefinedAt(routingFact);
+        }
+    }
+}
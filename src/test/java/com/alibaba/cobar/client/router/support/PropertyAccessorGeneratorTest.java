@@ -0,0 +1,69 @@
+package com.alibaba.cobar.client.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.Date;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+import com.alibaba.cobar.client.router.support.PropertyAccessorGenerator.ReflectivePropertyAccessor;
+
+@Test
+public class PropertyAccessorGeneratorTest {
+
+    public void testGeneratedAccessors() {
+        Offer offer = new Offer();
+        offer.setMemberId(1L);
+        IPropertyAccessor accessor = PropertyAccessorGenerator.accessorOf(Offer.class, "memberId");
+        assertFalse(accessor instanceof ReflectivePropertyAccessor);
+        assertEquals(Long.valueOf(1L), accessor.get(offer));
+        offer.setMemberId(null);
+        assertNull(accessor.get(offer));
+
+        // primitives are boxed
+        IPropertyAccessor time = PropertyAccessorGenerator.accessorOf(Date.class, "time");
+        assertFalse(time instanceof ReflectivePropertyAccessor);
+        assertEquals(Long.valueOf(1000L), time.get(new Date(1000L)));
+        assertEquals(Integer.valueOf(3), PropertyAccessorGenerator.accessorOf(PublicBean.class,
+                "count").get(new PublicBean()));
+        assertEquals(Boolean.TRUE, PropertyAccessorGenerator.accessorOf(PublicBean.class, "vip")
+                .get(new PublicBean()));
+    }
+
+    public void testReflectiveFallbackForInaccessibleGetters() {
+        IPropertyAccessor accessor = PropertyAccessorGenerator.accessorOf(HiddenBean.class,
+                "count");
+        assertTrue(accessor instanceof ReflectivePropertyAccessor);
+        assertEquals(Integer.valueOf(5), accessor.get(new HiddenBean()));
+    }
+
+    public void testMissingProperty() {
+        try {
+            PropertyAccessorGenerator.accessorOf(Offer.class, "noSuchProperty");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public static class PublicBean {
+        public int getCount() {
+            return 3;
+        }
+
+        public boolean isVip() {
+            return true;
+        }
+    }
+
+    static class HiddenBean {
+        public int getCount() {
+            return 5;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.alibaba.cobar.client.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.testng.annotations.Test;
+
+@Test
+public class RangeConditionTest {
+
+    public void testParseComparisons() {
+        assertEquals("memberId", RangeCondition.parse("memberId < 100").getTerm());
+        assertEquals("mod.apply(memberId)", RangeCondition.parse(" mod.apply(memberId)==3 ")
+                .getTerm());
+        assertEquals("memberId", RangeCondition.parse("100 <= memberId && memberId < 200L")
+                .getTerm());
+
+        assertNull(RangeCondition.parse(""));
+        assertNull(RangeCondition.parse("memberId < 100 || memberId > 200"));
+        assertNull(RangeCondition.parse("memberId > 100 && id < 200"));
+        assertNull(RangeCondition.parse("name == 'offer'"));
+        assertNull(RangeCondition.parse("memberId != 100"));
+        assertNull(RangeCondition.parse("memberId > 100 ? true : false"));
+    }
+
+    public void testDisjointRanges() {
+        assertDisjoint("memberId < 100", "memberId >= 100");
+        assertDisjoint("memberId >= 0 && memberId < 100", "memberId >= 100 && memberId < 200");
+        assertDisjoint("memberId <= 99", "100 <= memberId");
+        assertDisjoint("memberId == 1", "memberId == 2");
+        assertDisjoint("memberId > 5 && memberId < 5", "memberId == 5");
+        assertDisjoint("memberId < 9007199254740993", "memberId >= 9007199254740993");
+
+        assertOverlapping("memberId <= 100", "memberId >= 100");
+        assertOverlapping("memberId > 10", "memberId > 0");
+        assertOverlapping("memberId == 1", "memberId == 1.0");
+        assertOverlapping("memberId < 100", "id >= 100");
+    }
+
+    private void assertDisjoint(String expression, String another) {
+        assertTrue(RangeCondition.parse(expression).isDisjointWith(RangeCondition.parse(another)));
+        assertTrue(RangeCondition.parse(another).isDisjointWith(RangeCondition.parse(expression)));
+    }
+
+    private void assertOverlapping(String expression, String another) {
+        assertFalse(RangeCondition.parse(expression)
+                .isDisjointWith(RangeCondition.parse(another)));
+        assertFalse(RangeCondition.parse(another)
+                .isDisjointWith(RangeCondition.parse(expression)));
+    }
+}
@@ -0,0 +1,112 @@
+package com.alibaba.cobar.client.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.entities.Offer;
+
+@Test
+public class RoutingCacheKeyFactoryTest {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entities.Offer";
+
+    public void testPropertyShardKeyExtractor() {
+        Offer offer = new Offer();
+        offer.setMemberId(1L);
+        offer.setSubject("subject");
+
+        assertEquals(Long.valueOf(1L), new PropertyShardKeyExtractor("memberId").extract(offer));
+        assertEquals(Arrays.asList(Long.valueOf(1L), "subject"), new PropertyShardKeyExtractor(
+                "memberId", "subject").extract(offer));
+        assertNull(new PropertyShardKeyExtractor("memberId").extract(null));
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("offer", offer);
+        assertEquals(Long.valueOf(1L), new PropertyShardKeyExtractor("offer.memberId")
+                .extract(parameters));
+
+        try {
+            new PropertyShardKeyExtractor("noSuchProperty").extract(offer);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        try {
+            new PropertyShardKeyExtractor();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public void testPropertyShardKeyExtractorWithExpressions() {
+        Offer offer = new Offer();
+        offer.setMemberId(123L);
+        PropertyShardKeyExtractor extractor = new PropertyShardKeyExtractor("memberId % 100");
+        assertEquals(23L, ((Number) extractor.extract(offer)).longValue());
+        Map<String, Object> argument = new HashMap<String, Object>();
+        argument.put("memberId", 456L);
+        assertEquals(56L, ((Number) extractor.extract(argument)).longValue());
+        assertNull(extractor.extract(null));
+        try {
+            new PropertyShardKeyExtractor("memberId %");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public void testCacheKeysAreCreatedAsPerActionAndNamespace() {
+        Map<String, IShardKeyExtractor> extractors = new HashMap<String, IShardKeyExtractor>();
+        extractors.put(NAMESPACE, new PropertyShardKeyExtractor("memberId"));
+        extractors.put(NAMESPACE + ".update", new PropertyShardKeyExtractor("id"));
+        RoutingCacheKeyFactory factory = new RoutingCacheKeyFactory(extractors);
+
+        Offer offer = new Offer();
+        offer.setId(2L);
+        offer.setMemberId(1L);
+
+        assertEquals(new RoutingCacheKey(NAMESPACE + ".create", 1L), factory
+                .createKey(new IBatisRoutingFact(NAMESPACE + ".create", offer)));
+        assertEquals(new RoutingCacheKey(NAMESPACE + ".update", 2L), factory
+                .createKey(new IBatisRoutingFact(NAMESPACE + ".update", offer)));
+        assertFalse(new RoutingCacheKey(NAMESPACE + ".create", 1L).equals(new RoutingCacheKey(
+                NAMESPACE + ".delete", 1L)));
+
+        IBatisRoutingFact fact = new IBatisRoutingFact(
+                "com.alibaba.cobar.client.entities.Tweet.create", offer);
+        assertSame(fact, factory.createKey(fact));
+
+        // fall back to the fact itself if the shard key can't be extracted.
+        fact = new IBatisRoutingFact(NAMESPACE + ".create", "not an offer");
+        assertSame(fact, factory.createKey(fact));
+    }
+
+    public void testSameShardKeySharesCachedRoutingResult() {
+        RoutingCacheKeyFactory factory = new RoutingCacheKeyFactory(Collections
+                .<String, IShardKeyExtractor> singletonMap(NAMESPACE,
+                        new PropertyShardKeyExtractor("memberId")));
+        Offer offer1 = new Offer();
+        offer1.setMemberId(1L);
+        offer1.setSubject("first");
+        Offer offer2 = new Offer();
+        offer2.setMemberId(1L);
+        offer2.setSubject("second");
+
+        Object key1 = factory.createKey(new IBatisRoutingFact(NAMESPACE + ".update", offer1));
+        Object key2 = factory.createKey(new IBatisRoutingFact(NAMESPACE + ".update", offer2));
+        assertTrue(key1.equals(key2));
+        assertEquals(key1.hashCode(), key2.hashCode());
+    }
+}
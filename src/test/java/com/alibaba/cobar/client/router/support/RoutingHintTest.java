@@ -0,0 +1,90 @@
+package com.alibaba.cobar.client.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.Test;
+
+@Test
+public class RoutingHintTest {
+
+    public void testNestedHintsAreClosedInReverseOrder() {
+        assertNull(RoutingHint.current());
+        RoutingHint outer = RoutingHint.restrictToShards("partition1", "partition2");
+        try {
+            assertSame(outer, RoutingHint.current());
+            assertEquals(RoutingHint.Type.RESTRICT_SHARDS, outer.getType());
+            assertEquals(Arrays.asList("partition1", "partition2"), outer.getShards());
+
+            RoutingHint inner = RoutingHint.forceDefaultDataSource();
+            try {
+                assertSame(inner, RoutingHint.current());
+                assertTrue(inner.getShards().isEmpty());
+            } finally {
+                inner.close();
+            }
+            assertSame(outer, RoutingHint.current());
+            // closing twice does nothing.
+            inner.close();
+            assertSame(outer, RoutingHint.current());
+        } finally {
+            outer.close();
+        }
+        assertNull(RoutingHint.current());
+    }
+
+    public void testClosingOuterHintFirstIsRejected() {
+        RoutingHint outer = RoutingHint.forceShard("partition1");
+        RoutingHint inner = RoutingHint.forceShard("partition2");
+        try {
+            outer.close();
+            fail();
+        } catch (IllegalStateException e) {
+            // pass
+        } finally {
+            inner.close();
+            outer.close();
+        }
+        assertNull(RoutingHint.current());
+    }
+
+    public void testHintsAreNotSeenByOtherThreads() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        RoutingHint hint = RoutingHint.forceShard("partition2");
+        try {
+            Object current = executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return RoutingHint.current();
+                }
+            }).get();
+            assertNull(current);
+        } finally {
+            hint.close();
+            executor.shutdown();
+        }
+    }
+
+    public void testInvalidShards() {
+        try {
+            RoutingHint.forceShard();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        try {
+            RoutingHint.restrictToShards("partition1", " ");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        assertNull(RoutingHint.current());
+    }
+}
@@ -0,0 +1,107 @@
+package com.alibaba.cobar.client.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.router.ICobarRouter;
+import com.alibaba.cobar.client.router.RoutingException;
+
+@Test
+public class ShardKeySplitterTest {
+
+    public static final String STATEMENT = "com.alibaba.cobar.client.entities.Offer.findByMemberIds";
+
+    /**
+     * routes odd member ids to partition1, even ones to partition2, and
+     * negative ones to nowhere.
+     */
+    private final ICobarRouter<IBatisRoutingFact> router = new ICobarRouter<IBatisRoutingFact>() {
+        public RoutingResult doRoute(IBatisRoutingFact routingFact) throws RoutingException {
+            Long memberId = (Long) ((Map<?, ?>) routingFact.getArgument()).get("memberId");
+            RoutingResult result = new RoutingResult();
+            List<String> shards = new ArrayList<String>();
+            if (memberId >= 0) {
+                shards.add((memberId % 2 == 1) ? "partition1" : "partition2");
+            }
+            result.setResourceIdentities(shards);
+            return result;
+        }
+    };
+
+    public void testSplittingKeysInMap() {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberIds", Arrays.asList(1L, 2L, 3L, 4L, 3L));
+        parameter.put("subject", "s");
+        SortedMap<String, Object> parameters = new ShardKeySplitter("memberIds", "memberId").split(
+                STATEMENT, parameter, router);
+        assertEquals(Arrays.asList("partition1", "partition2"), new ArrayList<String>(parameters
+                .keySet()));
+        Map<?, ?> first = (Map<?, ?>) parameters.get("partition1");
+        assertEquals(Arrays.asList(1L, 3L), first.get("memberIds"));
+        assertEquals("s", first.get("subject"));
+        assertEquals(Arrays.asList(2L, 4L), ((Map<?, ?>) parameters.get("partition2"))
+                .get("memberIds"));
+        // the original parameter is untouched
+        assertEquals(5, ((List<?>) parameter.get("memberIds")).size());
+    }
+
+    public void testSplittingKeysInArraysAndBeans() {
+        SortedMap<String, Object> parameters = new ShardKeySplitter(null, "memberId").split(
+                STATEMENT, new long[] { 1L, 2L, 5L }, router);
+        assertTrue(Arrays.equals(new long[] { 1L, 5L }, (long[]) parameters.get("partition1")));
+        assertTrue(Arrays.equals(new long[] { 2L }, (long[]) parameters.get("partition2")));
+
+        Query query = new Query();
+        query.setMemberIds(new Long[] { 2L, 4L });
+        query.setLimit(10);
+        parameters = new ShardKeySplitter("memberIds", "memberId").split(STATEMENT, query, router);
+        assertEquals(1, parameters.size());
+        Query copy = (Query) parameters.get("partition2");
+        assertTrue(Arrays.equals(new Long[] { 2L, 4L }, copy.getMemberIds()));
+        assertEquals(10, copy.getLimit());
+    }
+
+    public void testParametersWhichCanNotBeSplit() {
+        ShardKeySplitter splitter = new ShardKeySplitter("memberIds", "memberId");
+        assertNull(splitter.split(STATEMENT, null, router));
+        assertNull(splitter.split(STATEMENT, new HashMap<String, Object>(), router));
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberIds", Collections.emptyList());
+        assertNull(splitter.split(STATEMENT, parameter, router));
+        // a key which routes nowhere
+        parameter.put("memberIds", Arrays.asList(1L, -1L));
+        assertNull(splitter.split(STATEMENT, parameter, router));
+    }
+
+    public static class Query {
+        private Long[] memberIds;
+        private int    limit;
+
+        public Long[] getMemberIds() {
+            return memberIds;
+        }
+
+        public void setMemberIds(Long[] memberIds) {
+            this.memberIds = memberIds;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public void setLimit(int limit) {
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.alibaba.cobar.client.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.support.utils.Predicate;
+
+@Test
+public class ConcurrentClockCacheTest {
+
+    public void testGetAndPutWithCounters() {
+        ConcurrentClockCache<String, String> cache = new ConcurrentClockCache<String, String>(10);
+        assertNull(cache.get("k1"));
+        cache.put("k1", "v1");
+        assertEquals("v1", cache.get("k1"));
+        assertTrue(cache.containsKey("k1"));
+        cache.put("k1", "v2");
+        assertEquals("v2", cache.get("k1"));
+
+        assertEquals(1, cache.size());
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(0L, cache.getEvictionCount());
+    }
+
+    public void testNullKeysAndValuesAreNotCached() {
+        ConcurrentClockCache<String, String> cache = new ConcurrentClockCache<String, String>(10);
+        cache.put(null, "v");
+        cache.put("k", null);
+        assertEquals(0, cache.size());
+        assertNull(cache.get(null));
+        assertFalse(cache.containsKey("k"));
+    }
+
+    public void testReferencedEntriesSurviveEviction() {
+        ConcurrentClockCache<Integer, Integer> cache = new ConcurrentClockCache<Integer, Integer>(
+                3, 1);
+        cache.put(1, 1);
+        cache.put(2, 2);
+        cache.put(3, 3);
+        cache.get(1);
+        cache.get(3);
+
+        cache.put(4, 4);
+        assertEquals(3, cache.size());
+        assertEquals(1L, cache.getEvictionCount());
+        assertFalse(cache.containsKey(2));
+        assertTrue(cache.containsKey(1));
+        assertTrue(cache.containsKey(3));
+        assertTrue(cache.containsKey(4));
+    }
+
+    public void testSizeNeverExceedsCapacity() {
+        ConcurrentClockCache<Integer, Integer> cache = new ConcurrentClockCache<Integer, Integer>(
+                100);
+        for (int i = 0; i < 10000; i++) {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 100);
+        }
+        assertEquals(100, cache.size());
+        assertEquals(9900L, cache.getEvictionCount());
+    }
+
+    public void testRemoveAndClear() {
+        ConcurrentClockCache<Integer, Integer> cache = new ConcurrentClockCache<Integer, Integer>(
+                4, 1);
+        for (int i = 0; i < 4; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(Integer.valueOf(1), cache.remove(1));
+        assertNull(cache.remove(1));
+        assertEquals(3, cache.size());
+
+        cache.put(5, 5);
+        cache.put(6, 6);
+        assertEquals(4, cache.size());
+        assertEquals(1L, cache.getEvictionCount());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        cache.put(7, 7);
+        assertEquals(Integer.valueOf(7), cache.get(7));
+    }
+
+    public void testRemoveIf() {
+        ConcurrentClockCache<Integer, Integer> cache = new ConcurrentClockCache<Integer, Integer>(
+                100);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+        }
+        int removed = cache.removeIf(new Predicate() {
+            public boolean evaluate(Object key) {
+                return ((Integer) key) % 2 == 0;
+            }
+        });
+        assertEquals(5, removed);
+        assertEquals(5, cache.size());
+        assertFalse(cache.containsKey(4));
+        assertTrue(cache.containsKey(5));
+        cache.put(10, 10);
+        assertEquals(Integer.valueOf(10), cache.get(10));
+    }
+
+    public void testInvalidArguments() {
+        try {
+            new ConcurrentClockCache<String, String>(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        try {
+            new ConcurrentClockCache<String, String>(10, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentClockCache<Integer, Integer> cache = new ConcurrentClockCache<Integer, Integer>(
+                256);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        for (int i = 0; i < 20000; i++) {
+                            Integer key = Integer.valueOf((i * 31 + seed) % 512);
+                            Integer value = cache.get(key);
+                            if (value == null) {
+                                cache.put(key, key);
+                            } else if (!value.equals(key)) {
+                                throw new IllegalStateException("unexpected value " + value
+                                        + " for key " + key);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.size() <= 256);
+        assertEquals(8 * 20000L, cache.getHitCount() + cache.getMissCount());
+    }
+}
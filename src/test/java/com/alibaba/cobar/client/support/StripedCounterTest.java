@@ -0,0 +1,59 @@
+package com.alibaba.cobar.client.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+@Test
+public class StripedCounterTest {
+
+    public void testIncrementAndAdd() {
+        StripedCounter counter = new StripedCounter(3);
+        assertEquals(0L, counter.sum());
+        counter.increment();
+        counter.add(41L);
+        assertEquals(42L, counter.sum());
+        assertEquals("42", counter.toString());
+    }
+
+    public void testInvalidStripes() {
+        try {
+            new StripedCounter(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public void testConcurrentIncrementsAreNotLost() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        for (int i = 0; i < 100000; i++) {
+                            counter.increment();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(8 * 100000L, counter.sum());
+    }
+}
@@ -0,0 +1,444 @@
+package com.alibaba.cobar.client.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.exception.QueryDeadlineExceededException;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapExecutor;
+
+@Test
+public class DefaultConcurrentRequestProcessorTest {
+
+    private static final String SUM_OF_RANGE = "com.alibaba.cobar.client.entities.Offer.sumOfRange";
+
+    private DataSource        dataSource;
+    private SqlMapClient      sqlMapClient;
+    private ExecutorService   executor;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        dataSource = new DriverManagerDataSource("org.h2.Driver",
+                "jdbc:h2:mem:request_processor;DB_CLOSE_DELAY=-1", "sa", "");
+        SqlMapClientFactoryBean factory = new SqlMapClientFactoryBean();
+        factory.setConfigLocation(new ClassPathResource("META-INF/ibatis/sqlmap-config.xml"));
+        factory.setDataSource(dataSource);
+        factory.afterPropertiesSet();
+        sqlMapClient = (SqlMapClient) factory.getObject();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    public void testSingleRequestRunsOnCallerThread() {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(newRequest());
+        RequestTrace trace = new RequestTrace("partition1");
+        requests.get(0).setTrace(trace);
+
+        List<Object> results = processor.process(requests);
+        assertEquals(1, results.size());
+        assertSame(Thread.currentThread(), results.get(0));
+        assertTrue(trace.getConnectionNanos() >= 0L);
+        assertTrue(trace.getExecutionNanos() >= 0L);
+
+        processor.setCallerRunsSingleRequest(false);
+        results = processor.process(requests);
+        assertNotSame(Thread.currentThread(), results.get(0));
+    }
+
+    public void testMultipleRequestsRunOnExecutors() {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(newRequest());
+        requests.add(newRequest());
+
+        List<Object> results = processor.process(requests);
+        assertEquals(2, results.size());
+        for (Object thread : results) {
+            assertNotSame(Thread.currentThread(), thread);
+        }
+    }
+
+    public void testDataAccessFailureOfSingleRequestIsThrownAsItIs() {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        ConcurrentRequest request = newRequest();
+        request.setAction(new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                throw new SQLException("expected failure");
+            }
+        });
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request);
+        try {
+            processor.process(requests);
+            fail();
+        } catch (ConcurrencyFailureException e) {
+            fail("a translated SQLException is not wrapped.");
+        } catch (DataAccessException e) {
+            assertEquals("expected failure", e.getCause().getMessage());
+        }
+
+        request.setAction(new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                throw new QueryDeadlineExceededException("expected failure");
+            }
+        });
+        try {
+            processor.process(requests);
+            fail();
+        } catch (QueryDeadlineExceededException e) {
+            // pass
+        }
+    }
+
+    public void testOtherFailureOfSingleRequestIsWrapped() {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        ConcurrentRequest request = newRequest();
+        request.setAction(new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                throw new IllegalStateException("expected failure");
+            }
+        });
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request);
+        try {
+            processor.process(requests);
+            fail();
+        } catch (ConcurrencyFailureException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public void testStragglerIsCancelledAtDeadline() throws Exception {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        ExecutorService slowExecutor = Executors.newSingleThreadExecutor();
+        try {
+            Deadline deadline = Deadline.after(300, TimeUnit.MILLISECONDS);
+            ConcurrentRequest fast = newRequest();
+            fast.setDeadline(deadline);
+            ConcurrentRequest slow = newRequest();
+            slow.setExecutor(slowExecutor);
+            slow.setDeadline(deadline);
+            slow.setAction(new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    return executor.queryForObject(SUM_OF_RANGE, Long.valueOf(Long.MAX_VALUE));
+                }
+            });
+            List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+            requests.add(fast);
+            requests.add(slow);
+
+            long start = System.currentTimeMillis();
+            try {
+                processor.process(requests);
+                fail();
+            } catch (QueryDeadlineExceededException e) {
+                // pass
+            }
+            assertTrue(System.currentTimeMillis() - start < 1000L);
+            // the statement of the straggler is cancelled, so its thread is free soon.
+            assertEquals("free", slowExecutor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return "free";
+                }
+            }).get(5, TimeUnit.SECONDS));
+        } finally {
+            slowExecutor.shutdownNow();
+        }
+    }
+
+    public void testConnectionOfStragglerIsReleasedAfterItsWorkerExits() throws Exception {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        ExecutorService slowExecutor = Executors.newSingleThreadExecutor();
+        try {
+            Deadline deadline = Deadline.after(200, TimeUnit.MILLISECONDS);
+            ConcurrentRequest fast = newRequest();
+            fast.setDeadline(deadline);
+            ReleaseRecordingDataSource slowDataSource = new ReleaseRecordingDataSource(dataSource);
+            ConcurrentRequest slow = newSleepingRequest(slowDataSource, 600L);
+            slow.setExecutor(slowExecutor);
+            slow.setDeadline(deadline);
+            List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+            requests.add(fast);
+            requests.add(slow);
+
+            try {
+                processor.process(requests);
+                fail();
+            } catch (QueryDeadlineExceededException e) {
+                // pass
+            }
+            assertTrue(slowDataSource.released.await(5, TimeUnit.SECONDS));
+            assertFalse(slowDataSource.releasedWhileRunning);
+        } finally {
+            slowExecutor.shutdownNow();
+        }
+    }
+
+    public void testConnectionOfTimedOutShardIsReleasedAfterItsWorkerExits() throws Exception {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        ExecutorService slowExecutor = Executors.newSingleThreadExecutor();
+        try {
+            Deadline deadline = Deadline.after(200, TimeUnit.MILLISECONDS);
+            ConcurrentRequest fast = newRequest();
+            fast.setDeadline(deadline);
+            ReleaseRecordingDataSource slowDataSource = new ReleaseRecordingDataSource(dataSource);
+            ConcurrentRequest slow = newSleepingRequest(slowDataSource, 600L);
+            slow.setExecutor(slowExecutor);
+            slow.setDeadline(deadline);
+            List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+            requests.add(fast);
+            requests.add(slow);
+
+            List<RequestOutcome> outcomes = processor.processPartially(requests);
+            assertEquals(RequestOutcome.Status.SUCCEEDED, outcomes.get(0).getStatus());
+            assertEquals(RequestOutcome.Status.TIMED_OUT, outcomes.get(1).getStatus());
+            assertTrue(slowDataSource.released.await(5, TimeUnit.SECONDS));
+            assertFalse(slowDataSource.releasedWhileRunning);
+        } finally {
+            slowExecutor.shutdownNow();
+        }
+    }
+
+    public void testRemainingBudgetIsQueryTimeoutOfSingleRequest() {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        ConcurrentRequest request = newRequest();
+        request.setDeadline(Deadline.after(100, TimeUnit.MILLISECONDS));
+        request.setAction(new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                return executor.queryForObject(SUM_OF_RANGE, Long.valueOf(Long.MAX_VALUE));
+            }
+        });
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request);
+        long start = System.currentTimeMillis();
+        try {
+            processor.process(requests);
+            fail();
+        } catch (DataAccessException e) {
+            // pass
+        }
+        // the query timeout of jdbc is in seconds.
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+
+        // an expired request is not executed at all.
+        try {
+            processor.process(requests);
+            fail();
+        } catch (QueryDeadlineExceededException e) {
+            // pass
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testDeadlineCapsTimeoutOfMappedStatement() {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        ConcurrentRequest request = newRequest();
+        request.setDeadline(Deadline.after(100, TimeUnit.MILLISECONDS));
+        request.setAction(new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                return executor.queryForObject(SUM_OF_RANGE + "WithTimeout", Long
+                        .valueOf(Long.MAX_VALUE));
+            }
+        });
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request);
+        long start = System.currentTimeMillis();
+        try {
+            processor.process(requests);
+            fail();
+        } catch (DataAccessException e) {
+            // pass
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+    }
+
+    public void testQueriesDoneByDeadline() {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (int i = 0; i < 2; i++) {
+            ConcurrentRequest request = newRequest();
+            request.setDeadline(deadline);
+            request.setAction(new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    return executor.queryForObject(SUM_OF_RANGE, Long.valueOf(10L));
+                }
+            });
+            requests.add(request);
+        }
+        List<Object> results = processor.process(requests);
+        assertEquals(Long.valueOf(55L), results.get(0));
+        assertEquals(Long.valueOf(55L), results.get(1));
+    }
+
+    public void testProcessPartially() throws Exception {
+        DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(
+                sqlMapClient);
+        ExecutorService slowExecutor = Executors.newSingleThreadExecutor();
+        try {
+            Deadline deadline = Deadline.after(300, TimeUnit.MILLISECONDS);
+            ConcurrentRequest fast = newRequest();
+            fast.setDeadline(deadline);
+            fast.setAction(new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    return executor.queryForObject(SUM_OF_RANGE, Long.valueOf(10L));
+                }
+            });
+            ConcurrentRequest failing = newRequest();
+            failing.setDeadline(deadline);
+            failing.setAction(new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    throw new SQLException("shard is down");
+                }
+            });
+            ConcurrentRequest slow = newRequest();
+            // h2 executes the statements of a database one at a time.
+            slow.setDataSource(new DriverManagerDataSource("org.h2.Driver",
+                    "jdbc:h2:mem:request_processor_slow", "sa", ""));
+            slow.setExecutor(slowExecutor);
+            slow.setDeadline(deadline);
+            slow.setAction(new SqlMapClientCallback() {
+                public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                    return executor.queryForObject(SUM_OF_RANGE, Long.valueOf(Long.MAX_VALUE));
+                }
+            });
+            List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+            requests.add(fast);
+            requests.add(failing);
+            requests.add(slow);
+
+            long start = System.currentTimeMillis();
+            List<RequestOutcome> outcomes = processor.processPartially(requests);
+            assertTrue(System.currentTimeMillis() - start < 1000L);
+
+            assertEquals(3, outcomes.size());
+            assertEquals(RequestOutcome.Status.SUCCEEDED, outcomes.get(0).getStatus());
+            assertEquals(Long.valueOf(55L), outcomes.get(0).getResult());
+            assertEquals(RequestOutcome.Status.FAILED, outcomes.get(1).getStatus());
+            assertNotNull(outcomes.get(1).getFailure());
+            assertEquals(RequestOutcome.Status.TIMED_OUT, outcomes.get(2).getStatus());
+
+            assertEquals("free", slowExecutor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return "free";
+                }
+            }).get(5, TimeUnit.SECONDS));
+        } finally {
+            slowExecutor.shutdownNow();
+        }
+    }
+
+    private ConcurrentRequest newSleepingRequest(final ReleaseRecordingDataSource dataSource,
+                                                 final long millis) {
+        ConcurrentRequest request = newRequest();
+        request.setDataSource(dataSource);
+        request.setAction(new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                dataSource.workerRunning = true;
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    dataSource.workerRunning = false;
+                }
+                return null;
+            }
+        });
+        return request;
+    }
+
+    private ConcurrentRequest newRequest() {
+        ConcurrentRequest request = new ConcurrentRequest();
+        request.setDataSource(dataSource);
+        request.setExecutor(executor);
+        request.setAction(new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                return Thread.currentThread();
+            }
+        });
+        return request;
+    }
+
+    /**
+     * records whether a connection is closed, i.e. returned to the pool,
+     * while the worker using it is still running.
+     */
+    private static class ReleaseRecordingDataSource extends DelegatingDataSource {
+        volatile boolean     workerRunning;
+        volatile boolean     releasedWhileRunning;
+        final CountDownLatch released = new CountDownLatch(1);
+
+        ReleaseRecordingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            final Connection target = super.getConnection();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws Throwable {
+                            if ("close".equals(method.getName())) {
+                                releasedWhileRunning = workerRunning;
+                                released.countDown();
+                            }
+                            try {
+                                return method.invoke(target, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getTargetException();
+                            }
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.alibaba.cobar.client.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.merger.IMerger;
+
+@Test
+public class MergingFutureTest {
+
+    private static final IMerger<Object, String> CONCATENATION = new IMerger<Object, String>() {
+        public String merge(List<Object> results) {
+            StringBuilder sb = new StringBuilder();
+            for (Object result : results) {
+                sb.append(result);
+            }
+            return sb.toString();
+        }
+    };
+
+    public void testMergedWhenLastShardCompletes() throws Exception {
+        final MergingFuture<String> future = new MergingFuture<String>(3, CONCATENATION);
+        final List<Thread> listenerThreads = new ArrayList<Thread>();
+        future.addListener(new Runnable() {
+            public void run() {
+                listenerThreads.add(Thread.currentThread());
+            }
+        });
+
+        future.setShardResult(2, "c");
+        future.setShardResult(0, "a");
+        assertFalse(future.isDone());
+        try {
+            future.get(1, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException e) {
+            // pass
+        }
+
+        Thread last = new Thread(new Runnable() {
+            public void run() {
+                future.setShardResult(1, "b");
+            }
+        });
+        last.start();
+        last.join();
+        assertTrue(future.isDone());
+        assertEquals("abc", future.get());
+        assertEquals(1, listenerThreads.size());
+        assertSame(last, listenerThreads.get(0));
+
+        // listeners added after completion run at once.
+        future.addListener(new Runnable() {
+            public void run() {
+                listenerThreads.add(Thread.currentThread());
+            }
+        });
+        assertSame(Thread.currentThread(), listenerThreads.get(1));
+    }
+
+    public void testFirstFailureFailsTheFutureAndCancelsShards() throws Exception {
+        MergingFuture<String> future = new MergingFuture<String>(2, CONCATENATION);
+        FutureTask<Object> pending = new FutureTask<Object>(new Runnable() {
+            public void run() {
+            }
+        }, null);
+        future.addShardFuture(pending);
+
+        IllegalStateException failure = new IllegalStateException("expected");
+        future.setFailure(failure);
+        future.setFailure(new IllegalArgumentException("ignored"));
+        future.setShardResult(0, "a");
+        future.setShardResult(1, "b");
+        assertTrue(pending.isCancelled());
+        assertFalse(future.isCancelled());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    public void testCancel() throws Exception {
+        MergingFuture<String> future = new MergingFuture<String>(1, CONCATENATION);
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertFalse(future.cancel(false));
+        future.setShardResult(0, "a");
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException e) {
+            // pass
+        }
+    }
+
+    public void testNoShards() throws Exception {
+        MergingFuture<String> future = new MergingFuture<String>(0, CONCATENATION);
+        assertTrue(future.isDone());
+        assertEquals("", future.get());
+    }
+}
@@ -0,0 +1,247 @@
+package com.alibaba.cobar.client.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.alibaba.cobar.client.merger.IMerger;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapExecutor;
+
+@Test
+public class SemaphoreBoundedConcurrentRequestProcessorTest {
+
+    private DataSource                                 dataSource1;
+    private DataSource                                 dataSource2;
+    private SemaphoreBoundedConcurrentRequestProcessor processor;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        dataSource1 = new DriverManagerDataSource("org.h2.Driver",
+                "jdbc:h2:mem:bounded_processor1;DB_CLOSE_DELAY=-1", "sa", "");
+        dataSource2 = new DriverManagerDataSource("org.h2.Driver",
+                "jdbc:h2:mem:bounded_processor2;DB_CLOSE_DELAY=-1", "sa", "");
+        SqlMapClientFactoryBean factory = new SqlMapClientFactoryBean();
+        factory.setConfigLocation(new ClassPathResource("META-INF/ibatis/sqlmap-config.xml"));
+        factory.setDataSource(dataSource1);
+        factory.afterPropertiesSet();
+        processor = new SemaphoreBoundedConcurrentRequestProcessor((SqlMapClient) factory
+                .getObject());
+        processor.setDefaultPermits(2);
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception {
+        processor.destroy();
+    }
+
+    public void testConcurrencyOfEachDataSourceIsBounded() throws Exception {
+        ConcurrencyProbe probe1 = new ConcurrencyProbe();
+        ConcurrencyProbe probe2 = new ConcurrencyProbe();
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (int i = 0; i < 8; i++) {
+            requests.add(newRequest(dataSource1, probe1));
+            requests.add(newRequest(dataSource2, probe2));
+        }
+
+        List<Object> results = processor.process(requests);
+        assertEquals(16, results.size());
+        assertTrue(probe1.max.get() <= 2);
+        assertTrue(probe2.max.get() <= 2);
+        // a permit is released right after its request counts as done.
+        long giveUp = System.currentTimeMillis() + 1000;
+        while (processor.getRunningRequestCount(dataSource1) > 0
+                && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, processor.getRunningRequestCount(dataSource1));
+
+        MergingFuture<Integer> future = processor.processAsync(requests,
+                new IMerger<Object, Integer>() {
+                    public Integer merge(List<Object> results) {
+                        return results.size();
+                    }
+                });
+        assertEquals(Integer.valueOf(16), future.get());
+        assertTrue(probe1.max.get() <= 2);
+        assertEquals(32, probe1.calls.get() + probe2.calls.get());
+    }
+
+    public void testSingleRequestsFromManyThreadsAreBounded() throws Exception {
+        final ConcurrencyProbe probe = new ConcurrencyProbe();
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 12; i++) {
+                futures.add(callers.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+                        requests.add(newRequest(dataSource1, probe));
+                        return processor.process(requests).get(0);
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                // single requests run on the calling threads.
+                assertTrue(future.get() instanceof Thread);
+            }
+        } finally {
+            callers.shutdown();
+        }
+        assertEquals(12, probe.calls.get());
+        assertTrue(probe.max.get() <= 2);
+    }
+
+    public void testExecutorsOfRequestsAreIgnored() {
+        ConcurrentRequest request = newRequest(dataSource2, new ConcurrencyProbe());
+        assertNull(request.getExecutor());
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request);
+        requests.add(request);
+        List<Object> results = processor.process(requests);
+        assertEquals(2, results.size());
+        assertSame(processor.getExecutor(), processor.getExecutor());
+    }
+
+    public void testQueuedRequestsHoldNoConnections() {
+        ConnectionCountingDataSource dataSource = new ConnectionCountingDataSource(dataSource1);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (int i = 0; i < 8; i++) {
+            requests.add(newRequest(dataSource, new ConcurrencyProbe()));
+        }
+
+        assertEquals(8, processor.process(requests).size());
+        assertTrue(dataSource.max.get() <= 2);
+        assertEquals(0, dataSource.open.get());
+    }
+
+    @Test(timeOut = 10000)
+    public void testRejectedRequestFailsAlone() throws Exception {
+        // the only thread is still busy when the first request releases its
+        // permit, so the queued request is rejected there.
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>());
+        SemaphoreBoundedConcurrentRequestProcessor p = new SemaphoreBoundedConcurrentRequestProcessor(
+                processor.getSqlMapClient());
+        p.setExecutor(executor);
+        p.setDefaultPermits(1);
+        try {
+            ConcurrencyProbe probe = new ConcurrencyProbe();
+            List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+            requests.add(newRequest(dataSource1, probe));
+            requests.add(newRequest(dataSource1, probe));
+            try {
+                p.process(requests);
+                fail();
+            } catch (ConcurrencyFailureException e) {
+                assertTrue(e.getCause().getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(1, probe.calls.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private ConcurrentRequest newRequest(DataSource dataSource, final ConcurrencyProbe probe) {
+        ConcurrentRequest request = new ConcurrentRequest();
+        request.setDataSource(dataSource);
+        request.setAction(new SqlMapClientCallback() {
+            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+                probe.enter();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    probe.exit();
+                }
+                return Thread.currentThread();
+            }
+        });
+        return request;
+    }
+
+    private static class ConcurrencyProbe {
+        final AtomicInteger current = new AtomicInteger();
+        final AtomicInteger max     = new AtomicInteger();
+        final AtomicInteger calls   = new AtomicInteger();
+
+        void enter() {
+            calls.incrementAndGet();
+            int now = current.incrementAndGet();
+            int seen;
+            while (now > (seen = max.get())) {
+                max.compareAndSet(seen, now);
+            }
+        }
+
+        void exit() {
+            current.decrementAndGet();
+        }
+    }
+
+    private static class ConnectionCountingDataSource extends DelegatingDataSource {
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger max  = new AtomicInteger();
+
+        ConnectionCountingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            final Connection target = super.getConnection();
+            int now = open.incrementAndGet();
+            int seen;
+            while (now > (seen = max.get())) {
+                max.compareAndSet(seen, now);
+            }
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws Throwable {
+                            if ("close".equals(method.getName())) {
+                                open.decrementAndGet();
+                            }
+                            try {
+                                return method.invoke(target, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getTargetException();
+                            }
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.alibaba.cobar.client.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testng.annotations.Test;
+
+@Test
+public class ShardSetRegistryTest {
+
+    public void testShardSetsAreResolvedSortedAndInterned() {
+        Map<String, DataSource> dataSources = new HashMap<String, DataSource>();
+        Map<String, ExecutorService> executors = new HashMap<String, ExecutorService>();
+        for (String name : new String[] { "partition1", "partition2", "partition3" }) {
+            dataSources.put(name, new DriverManagerDataSource());
+            executors.put(name, Executors.newSingleThreadExecutor());
+        }
+        try {
+            ShardSetRegistry registry = new ShardSetRegistry(dataSources, executors);
+            List<String> names = new ArrayList<String>(Arrays.asList("partition3", "partition1",
+                    "partition3"));
+            ShardSet shardSet = registry.shardSetOf(names);
+
+            assertEquals(2, shardSet.size());
+            assertEquals(Arrays.asList("partition1", "partition3"), shardSet.getNames());
+            assertSame(dataSources.get("partition1"), shardSet.getDataSource(0));
+            assertSame(executors.get("partition3"), shardSet.getExecutor(1));
+            assertEquals(Arrays.asList("partition1", "partition3"), new ArrayList<String>(shardSet
+                    .toSortedMap().keySet()));
+
+            // the key is copied, so the caller can reuse its list
+            names.clear();
+            names.addAll(Arrays.asList("partition3", "partition1", "partition3"));
+            assertSame(shardSet, registry.shardSetOf(names));
+            assertEquals(1, registry.size());
+
+            ShardSet single = registry.shardSetOf(Arrays.asList("partition1"));
+            assertEquals(shardSet.getShardId(0), single.getShardId(0));
+            assertTrue(shardSet.getShardId(0) != shardSet.getShardId(1));
+
+            assertSame(ShardSet.EMPTY, registry.shardSetOf(new ArrayList<String>()));
+            assertNull(registry.shardSetOf(Arrays.asList("partition4")).getDataSource(0));
+        } finally {
+            for (ExecutorService executor : executors.values()) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    public void testShardSetsBeyondCapacityAreNotInterned() {
+        ShardSetRegistry registry = new ShardSetRegistry(new HashMap<String, DataSource>(),
+                new HashMap<String, ExecutorService>(), 1);
+        ShardSet first = registry.shardSetOf(Arrays.asList("partition1"));
+        assertSame(first, registry.shardSetOf(Arrays.asList("partition1")));
+
+        ShardSet second = registry.shardSetOf(Arrays.asList("partition2"));
+        assertNotSame(second, registry.shardSetOf(Arrays.asList("partition2")));
+        assertEquals(1, registry.size());
+    }
+}